@@ -0,0 +1,681 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.z.ZCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
+
+/**
+ * Extracts an archive on a drive straight into a drive, with no temp files.
+ * Each file in the archive is read a part at a time into a multipart upload
+ * of its own, and up to {@link #THREADS_PROPERTY} files are uploaded at once.
+ * <p>
+ * A tar (or tar.gz) is read front to back in one stream, which hands each
+ * file's parts to that file's upload.  A zip's central directory is read
+ * from the end of the archive, and then each file is read with a ranged
+ * read of its own.  A .gz or .Z file that isn't a tar is decompressed
+ * into a single file.
+ */
+public class ArchiveExtractor {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.io.ArchiveExtractor");
+
+	/** System property for the number of files uploaded at once */
+	public static final String THREADS_PROPERTY = "storexp.extract.threads";
+
+	static final int DEFAULT_THREADS = 4;
+
+	/** The extensions that can be extracted, for error messages */
+	static final String SUPPORTED_EXTENSIONS = ".ear, .gz, .jar, .tar, .tar.gz, .tgz, .war, .Z, and .zip";
+
+	static final int ZIP_END_SIGNATURE = 0x06054b50;
+
+	static final int ZIP64_END_SIGNATURE = 0x06064b50;
+
+	static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+	static final int ZIP_DIRECTORY_SIGNATURE = 0x02014b50;
+
+	/** The size of the end of central directory record, without its comment */
+	static final int ZIP_END_LENGTH = 22;
+
+	static final int ZIP64_LOCATOR_LENGTH = 20;
+
+	static final int ZIP64_END_LENGTH = 56;
+
+	static final int ZIP_DIRECTORY_ENTRY_LENGTH = 46;
+
+	static final long ZIP_MAGIC = 0xFFFFFFFFL;
+
+	/** Marks the end of a file's parts */
+	private static final byte[] END = new byte[0];
+
+	/** Tells a file's upload that the archive couldn't be read */
+	private static final byte[] ABORT = new byte[0];
+
+	enum Format { TAR, TAR_GZ, ZIP, GZ, Z }
+
+	/** Reads the archive */
+	public interface Source {
+
+		/** @return the size of the archive in bytes */
+		long size() throws IOException;
+
+		/** @return the whole archive */
+		InputStream open() throws IOException;
+
+		/** @return length bytes of the archive, starting at start */
+		InputStream open(long start, long length) throws IOException;
+	}
+
+	/**
+	 * Gets a provider for each upload, since a provider holds the state
+	 * of only one multipart upload at a time
+	 */
+	public interface Destination {
+		StorageProvider newProvider() throws IOException;
+	}
+
+	/** A file in a zip, as found in its central directory */
+	static class ZipLocation {
+
+		final String name;
+
+		/** Where the file's local header starts */
+		final long offset;
+
+		final long size;
+
+		/** Where the next file, or the central directory, starts */
+		long end;
+
+		ZipLocation(String name, long offset, long size) {
+			this.name = name;
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+
+	/** The parts of one file, as its upload needs them */
+	private interface Parts {
+		/** @return the next part; null once there are no more */
+		byte[] next() throws IOException;
+
+		/** The upload failed, so no more parts are wanted */
+		default void abandon() {
+		}
+	}
+
+	private final Source source;
+
+	private final Destination destination;
+
+	private final Drive drive;
+
+	/** The directory the archive is extracted into, or the file a .gz or .Z is decompressed into */
+	private final String target;
+
+	/** The part size for a file of a given size; -1 if unknown */
+	private final LongToIntFunction partSizes;
+
+	private final BoundedExecutor workers;
+
+	private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+	private final AtomicLong files = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	/** The directories made so far, or found to exist already */
+	private final Set<String> directories = new HashSet<>();
+
+	/**
+	 * @param target the directory the archive is extracted into,
+	 *  or the file a .gz or .Z is decompressed into
+	 * @param partSizes the part size to upload a file of a given size in
+	 */
+	public ArchiveExtractor(Source source, Destination destination, Drive drive,
+			String target, LongToIntFunction partSizes) {
+		this(source, destination, drive, target, partSizes,
+				Math.max(1, Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS)));
+	}
+
+	ArchiveExtractor(Source source, Destination destination, Drive drive,
+			String target, LongToIntFunction partSizes, int threads) {
+		this.source = source;
+		this.destination = destination;
+		this.drive = drive;
+		this.target = target;
+		this.partSizes = partSizes;
+		this.workers = new BoundedExecutor(threads, "extracting to " + target);
+	}
+
+	/**
+	 * @return the format of the archive with this name; null if it can't be extracted
+	 */
+	static Format getFormat(String fileName) {
+		String name = fileName.toLowerCase(Locale.ROOT);
+
+		if (name.endsWith(".tar")) {
+			return Format.TAR;
+		}
+		else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+			return Format.TAR_GZ;
+		}
+		else if (name.endsWith(".zip") || name.endsWith(".jar") || name.endsWith(".war") || name.endsWith(".ear")) {
+			return Format.ZIP;
+		}
+		else if (name.endsWith(".gz")) {
+			return Format.GZ;
+		}
+		else if (fileName.endsWith(".Z")) {
+			return Format.Z;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the name to extract the archive with this name to,
+	 *  i.e., the name without its extension, e.g., logs for logs.tar.gz
+	 */
+	public static String getTargetName(String fileName) {
+		String lower = fileName.toLowerCase(Locale.ROOT);
+
+		if (!lower.endsWith(".tar.gz") && fileName.lastIndexOf('.') < 0) {
+			return fileName;
+		}
+		int length = lower.endsWith(".tar.gz") ? ".tar.gz".length() : fileName.length() - fileName.lastIndexOf('.');
+		return fileName.substring(0, fileName.length() - length);
+	}
+
+	/**
+	 * Extract the archive
+	 * @param fileName the archive's name, which tells what kind of archive it is
+	 * @return the number of files extracted
+	 */
+	public long extract(String fileName) throws IOException {
+		Format format = getFormat(fileName);
+
+		if (format == null) {
+			throw new ExplorerException("extract is only supported for " + SUPPORTED_EXTENSIONS
+					+ " extensions; instead found \"" + PathProcessor.getExtension(fileName) + "\"", true);
+		}
+		long start = System.currentTimeMillis();
+
+		try {
+			switch (format) {
+				case TAR:
+				case TAR_GZ:
+					extractTar(format == Format.TAR_GZ);
+					break;
+				case ZIP:
+					extractZip();
+					break;
+				default:
+					decompress(format == Format.GZ);
+					break;
+			}
+		} finally {
+			// Let the uploads finish, or abort once they find the archive couldn't be read
+			try {
+				workers.await();
+			} finally {
+				workers.close();
+			}
+		}
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		logger.info("Extracted " + files.get() + " files, " + bytes.get() + " bytes, from " + fileName
+				+ " in " + (System.currentTimeMillis() - start) + " ms.");
+		return files.get();
+	}
+
+	public long getFiles() {
+		return files.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	private void extractTar(boolean gzipped) throws IOException {
+		List<QueuedParts> open = new ArrayList<>();
+
+		try (InputStream in = new BufferedInputStream(source.open());
+				TarArchiveInputStream tar = new TarArchiveInputStream(gzipped ? new GzipCompressorInputStream(in) : in)) {
+			mkdirs(target);
+			TarArchiveEntry entry;
+
+			while ((failure.get() == null) && (entry = tar.getNextTarEntry()) != null) {
+				String path = getEntryPath(entry.getName());
+
+				if (path.equals(target)) {
+					// e.g., the ./ that a tar made with "tar -C dir ." starts with
+					logger.fine("Skipping " + entry.getName() + ", which is the archive's folder");
+				}
+				else if (entry.isDirectory()) {
+					mkdirs(path);
+				}
+				else if (entry.isFile()) {
+					QueuedParts parts = new QueuedParts();
+					open.add(parts);
+					submit(path, parts);
+					int partSize = partSizes.applyAsInt(entry.getSize());
+					byte[] part;
+
+					while ((part = readPart(tar, partSize)) != null) {
+						parts.put(part);
+					}
+					parts.put(END);
+					open.remove(parts);
+				}
+				else {
+					logger.info("Skipping " + entry.getName() + ", which isn't a file or a directory");
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			// Stop the uploads the archive was still feeding
+			for (QueuedParts parts : open) {
+				parts.put(ABORT);
+			}
+			throw e;
+		}
+	}
+
+	private void extractZip() throws IOException {
+		mkdirs(target);
+
+		for (ZipLocation location : readZipDirectory(source)) {
+			if (failure.get() != null) {
+				break;
+			}
+			String path = getEntryPath(location.name);
+
+			if (path.equals(target)) {
+				logger.fine("Skipping " + location.name + ", which is the archive's folder");
+			}
+			else if (location.name.endsWith("/")) {
+				mkdirs(path);
+			}
+			else {
+				submit(path, new ZipParts(location));
+			}
+		}
+	}
+
+	/**
+	 * Decompress a .gz or .Z file into a single file
+	 */
+	private void decompress(boolean gzipped) throws IOException {
+		InputStream in = new BufferedInputStream(source.open());
+		InputStream decompressed;
+
+		try {
+			decompressed = gzipped ? new GzipCompressorInputStream(in) : new ZCompressorInputStream(in);
+		} catch (IOException | RuntimeException e) {
+			in.close();
+			throw e;
+		}
+		int partSize = partSizes.applyAsInt(-1);
+
+		submit(target, new Parts() {
+			@Override
+			public byte[] next() throws IOException {
+				byte[] part = readPart(decompressed, partSize);
+
+				if (part == null) {
+					decompressed.close();
+				}
+				return part;
+			}
+
+			@Override
+			public void abandon() {
+				IOUtils.closeQuietly(decompressed);
+			}
+		});
+	}
+
+	/**
+	 * Make a directory in the target, and whichever of its parents up to
+	 * the target haven't been made, since an archive needn't list a
+	 * directory before what's in it.  Directories that already exist,
+	 * e.g., when extracting into a folder again, are left as they are.
+	 */
+	private void mkdirs(String path) throws IOException {
+		if (directories.contains(path)) {
+			return;
+		}
+		if (!path.equals(target)) {
+			String parent = path.substring(0, path.lastIndexOf('/'));
+			mkdirs((parent.length() > PathProcessor.removeLastSlash(target).length()) ? parent : target);
+		}
+
+		try {
+			destination.newProvider().mkdir(drive, path);
+		} catch (FileAlreadyExistsException e) {
+			logger.fine(path + " already exists");
+		}
+		directories.add(path);
+	}
+
+	/**
+	 * Hand a file to the workers, waiting if too many are being uploaded
+	 */
+	private void submit(String path, Parts parts) throws InterruptedIOException {
+		try {
+			workers.submit(() -> upload(path, parts));
+		} catch (InterruptedIOException | RuntimeException e) {
+			parts.abandon();
+			throw e;
+		}
+	}
+
+	private void upload(String path, Parts parts) {
+		try {
+			StorageProvider provider = destination.newProvider();
+			String uploadId = provider.uploadPartStart(drive, path);
+
+			try {
+				int partNumber = 1;
+				byte[] part;
+
+				while ((part = parts.next()) != null) {
+					// an empty file has no parts
+					if (part.length > 0) {
+						provider.uploadPart(drive, path, part, partNumber++);
+						bytes.addAndGet(part.length);
+					}
+				}
+				provider.uploadPartComplete(drive, path, uploadId);
+			} catch (IOException | RuntimeException e) {
+				abortQuietly(provider, path, uploadId);
+				throw e;
+			}
+			files.incrementAndGet();
+		} catch (IOException | RuntimeException e) {
+			parts.abandon();
+
+			if (failure.compareAndSet(null, new ExplorerException("Unable to extract " + path + ": " + e.getMessage(), e))) {
+				logger.log(Level.WARNING, "Unable to extract " + path, e);
+			}
+		}
+	}
+
+	private void abortQuietly(StorageProvider provider, String path, String uploadId) {
+		try {
+			provider.uploadPartAbort(drive, path, uploadId);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Unable to abort the upload to " + path + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return where a file in the archive is extracted to; the target
+	 *  itself for a name with nothing but . in it, e.g., ./
+	 * @throws ExplorerException if the name would put the file outside the target directory
+	 */
+	String getEntryPath(String name) throws ExplorerException {
+		StringBuilder path = new StringBuilder(PathProcessor.addLastSlash(target));
+		boolean first = true;
+
+		for (String segment : name.replace('\\', '/').split("/")) {
+			if (segment.isEmpty() || ".".equals(segment)) {
+				continue;
+			}
+			if ("..".equals(segment)) {
+				throw new ExplorerException("Unable to extract " + name + ", which is outside the archive's folder", true);
+			}
+			if (!first) {
+				path.append('/');
+			}
+			path.append(segment);
+			first = false;
+		}
+		return first ? target : path.toString();
+	}
+
+	/**
+	 * Read up to a part's worth of bytes
+	 * @return the bytes read; null if there are none left
+	 */
+	static byte[] readPart(InputStream in, int partSize) throws IOException {
+		byte[] part = new byte[partSize];
+		int read = IOUtils.read(in, part);
+
+		if (read == 0) {
+			return null;
+		}
+		return (read == partSize) ? part : Arrays.copyOf(part, read);
+	}
+
+	/**
+	 * Read a zip's central directory, from the end of the zip
+	 * @return the zip's files and directories, in the order they're stored
+	 */
+	static List<ZipLocation> readZipDirectory(Source source) throws IOException {
+		long size = source.size();
+		int tailLength = (int) Math.min(size, ZIP64_LOCATOR_LENGTH + ZIP_END_LENGTH + 0xFFFF);
+		ByteBuffer tail = read(source, size - tailLength, tailLength);
+		int end = -1;
+
+		// The end record is followed by a comment of up to 64K
+		for (int i = tailLength - ZIP_END_LENGTH; i >= 0; i--) {
+			if (tail.getInt(i) == ZIP_END_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new ExplorerException("Unable to extract the archive, which isn't a zip file", true);
+		}
+		long count = tail.getShort(end + 10) & 0xFFFF;
+		long directorySize = tail.getInt(end + 12) & ZIP_MAGIC;
+		long directoryOffset = tail.getInt(end + 16) & ZIP_MAGIC;
+
+		int locator = end - ZIP64_LOCATOR_LENGTH;
+
+		if ((locator >= 0) && (tail.getInt(locator) == ZIP64_LOCATOR_SIGNATURE)) {
+			ByteBuffer zip64End = read(source, tail.getLong(locator + 8), ZIP64_END_LENGTH);
+
+			if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+				throw new ExplorerException("Unable to extract the zip file, which is corrupt", true);
+			}
+			count = zip64End.getLong(32);
+			directorySize = zip64End.getLong(40);
+			directoryOffset = zip64End.getLong(48);
+		}
+		if (directorySize > Integer.MAX_VALUE) {
+			throw new ExplorerException("Unable to extract the zip file, whose directory is too big", true);
+		}
+		ByteBuffer directory = read(source, directoryOffset, (int) directorySize);
+		List<ZipLocation> locations = new ArrayList<>((int) Math.min(count, 100_000));
+		int position = 0;
+
+		while ((position + ZIP_DIRECTORY_ENTRY_LENGTH <= directorySize)
+				&& (directory.getInt(position) == ZIP_DIRECTORY_SIGNATURE)) {
+			long entrySize = directory.getInt(position + 24) & ZIP_MAGIC;
+			long compressedSize = directory.getInt(position + 20) & ZIP_MAGIC;
+			int nameLength = directory.getShort(position + 28) & 0xFFFF;
+			int extraLength = directory.getShort(position + 30) & 0xFFFF;
+			int commentLength = directory.getShort(position + 32) & 0xFFFF;
+			long offset = directory.getInt(position + 42) & ZIP_MAGIC;
+			String name = new String(directory.array(), position + ZIP_DIRECTORY_ENTRY_LENGTH,
+					nameLength, StandardCharsets.UTF_8);
+
+			// Sizes and offsets that don't fit are in the zip64 extra field, in this order
+			int extra = position + ZIP_DIRECTORY_ENTRY_LENGTH + nameLength;
+			int extraEnd = extra + extraLength;
+
+			while (extra + 4 <= extraEnd) {
+				int id = directory.getShort(extra) & 0xFFFF;
+				int length = directory.getShort(extra + 2) & 0xFFFF;
+				int field = extra + 4;
+
+				if (id == 0x0001) {
+					if (entrySize == ZIP_MAGIC) {
+						entrySize = directory.getLong(field);
+						field += 8;
+					}
+					if (compressedSize == ZIP_MAGIC) {
+						field += 8;
+					}
+					if (offset == ZIP_MAGIC) {
+						offset = directory.getLong(field);
+					}
+				}
+				extra += 4 + length;
+			}
+			locations.add(new ZipLocation(name, offset, entrySize));
+			position = extraEnd + commentLength;
+		}
+		if (locations.size() != count) {
+			throw new ExplorerException("Unable to extract the zip file, whose directory lists "
+					+ locations.size() + " of " + count + " files", true);
+		}
+
+		// Each file's data ends where the next file's starts
+		List<ZipLocation> byOffset = new ArrayList<>(locations);
+		byOffset.sort(Comparator.comparingLong(location -> location.offset));
+
+		for (int i = 0; i < byOffset.size(); i++) {
+			byOffset.get(i).end = (i + 1 < byOffset.size()) ? byOffset.get(i + 1).offset : directoryOffset;
+		}
+		return byOffset;
+	}
+
+	private static ByteBuffer read(Source source, long start, int length) throws IOException {
+		byte[] bytes = new byte[length];
+
+		try (InputStream in = source.open(start, length)) {
+			IOUtils.readFully(in, bytes);
+		}
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * A file in a tar, whose parts are read from the archive on the
+	 * extracting thread and passed to the file's upload
+	 */
+	private class QueuedParts implements Parts {
+
+		/** Holds one part while another is uploaded */
+		private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(1);
+
+		private volatile boolean abandoned = false;
+
+		void put(byte[] part) throws InterruptedIOException {
+			try {
+				// A failed upload takes no more parts
+				while (!abandoned && !queue.offer(part, 100, TimeUnit.MILLISECONDS)) {
+					// keep waiting
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while extracting to " + target);
+			}
+		}
+
+		@Override
+		public byte[] next() throws IOException {
+			byte[] part;
+
+			try {
+				part = queue.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while extracting to " + target);
+			}
+			if (part == ABORT) {
+				throw new IOException("Unable to read the rest of the archive");
+			}
+			return (part == END) ? null : part;
+		}
+
+		@Override
+		public void abandon() {
+			abandoned = true;
+			queue.clear();
+		}
+	}
+
+	/**
+	 * A file in a zip, read with a ranged read of its own
+	 */
+	private class ZipParts implements Parts {
+
+		private final ZipLocation location;
+
+		private ZipArchiveInputStream zip;
+
+		private int partSize;
+
+		ZipParts(ZipLocation location) {
+			this.location = location;
+		}
+
+		@Override
+		public byte[] next() throws IOException {
+			if (zip == null) {
+				zip = new ZipArchiveInputStream(source.open(location.offset, location.end - location.offset),
+						StandardCharsets.UTF_8.name(), true, true);
+				ZipArchiveEntry entry = zip.getNextZipEntry();
+
+				if (entry == null) {
+					throw new ExplorerException("Unable to find " + location.name + " in the zip file", true);
+				}
+				if (!zip.canReadEntryData(entry)) {
+					throw new ExplorerException("Unable to extract " + location.name
+							+ ", which is encrypted or compressed in an unsupported way", true);
+				}
+				partSize = partSizes.applyAsInt(location.size);
+			}
+			byte[] part = readPart(zip, partSize);
+
+			if (part == null) {
+				zip.close();
+			}
+			return part;
+		}
+
+		@Override
+		public void abandon() {
+			IOUtils.closeQuietly(zip);
+		}
+	}
+
+}
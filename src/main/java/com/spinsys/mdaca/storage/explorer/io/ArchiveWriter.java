@@ -0,0 +1,323 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.io.IOUtils;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+
+/**
+ * Writes files from a drive to a zip or tar.gz archive as they're read,
+ * without buffering them on local disk, so that a folder can be streamed
+ * to the client in one response.  While one file is written, the next
+ * {@link #PREFETCH_PROPERTY} files are opened and the start of each read
+ * in parallel, so that the archive isn't held up by each file's time to
+ * first byte, and small files are read entirely ahead of time.
+ */
+public class ArchiveWriter {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.io.ArchiveWriter");
+
+	/** System property for the number of files read ahead of the one being written */
+	public static final String PREFETCH_PROPERTY = "storexp.download.prefetchFiles";
+
+	static final int DEFAULT_PREFETCH = 4;
+
+	/** How much of each file is read ahead */
+	static final int PREFETCH_BYTES = 1_048_576;
+
+	public enum Format {
+		ZIP("zip", "application/zip"),
+		TAR_GZ("tar.gz", "application/gzip");
+
+		private final String extension;
+
+		private final String contentType;
+
+		Format(String extension, String contentType) {
+			this.extension = extension;
+			this.contentType = contentType;
+		}
+
+		/**
+		 * @return the format with this extension; zip if there's none
+		 */
+		public static Format of(String extension) {
+			if (extension != null) {
+				String name = extension.startsWith(".") ? extension.substring(1) : extension;
+
+				if ("tar.gz".equalsIgnoreCase(name) || "tgz".equalsIgnoreCase(name)) {
+					return TAR_GZ;
+				}
+			}
+			return ZIP;
+		}
+
+		public String getExtension() {
+			return extension;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+	}
+
+	/** Reads the files that go in the archive */
+	public interface Source {
+		InputStream open(String path) throws IOException;
+	}
+
+	/** A file or directory in the archive */
+	public static class Entry {
+
+		/** The entry's name in the archive */
+		final String name;
+
+		final DriveItem item;
+
+		public Entry(String name, DriveItem item) {
+			this.name = name;
+			this.item = item;
+		}
+	}
+
+	/** A file that's been opened, with its first bytes already read */
+	private static class Prefetched {
+
+		final byte[] head;
+
+		final int length;
+
+		/** The rest of the file; null if it was all read */
+		final InputStream rest;
+
+		Prefetched(byte[] head, int length, InputStream rest) {
+			this.head = head;
+			this.length = length;
+			this.rest = rest;
+		}
+	}
+
+	private final Source source;
+
+	private final Format format;
+
+	private final int prefetch;
+
+	private long files = 0;
+
+	private long bytes = 0;
+
+	public ArchiveWriter(Source source, Format format) {
+		this(source, format, Math.max(1, Integer.getInteger(PREFETCH_PROPERTY, DEFAULT_PREFETCH)));
+	}
+
+	ArchiveWriter(Source source, Format format, int prefetch) {
+		this.source = source;
+		this.format = format;
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * @return the name of a file or directory in the folder being archived,
+	 *  starting with the folder's name; null if it isn't in the folder,
+	 *  e.g., dir1.zip when dir1 is being archived
+	 * @param folder the folder being archived, or the root
+	 * @param folderName the name of the top directory in the archive
+	 */
+	public static String getEntryName(String folder, String folderName, String path) {
+		String prefix = PathProcessor.isRoot(folder) ? ""
+				: PathProcessor.addLastSlash(PathProcessor.removeFirstSlash(PathProcessor.convertToUnixStylePath(folder)));
+		String itemPath = PathProcessor.removeFirstSlash(PathProcessor.convertToUnixStylePath(path));
+
+		if (!itemPath.startsWith(prefix) || itemPath.length() == prefix.length()
+				|| (itemPath.length() == prefix.length() + 1 && itemPath.endsWith("/"))) {
+			return null;
+		}
+		return folderName + "/" + itemPath.substring(prefix.length());
+	}
+
+	/**
+	 * Write the archive; the stream is closed when it's done
+	 */
+	public void write(List<Entry> entries, OutputStream out) throws IOException {
+		long start = System.currentTimeMillis();
+		ExecutorService readers = Executors.newFixedThreadPool(prefetch);
+		Deque<Future<Prefetched>> window = new ArrayDeque<>();
+		int next = 0;
+
+		try (ArchiveOutputStream archive = open(out)) {
+			for (Entry entry : entries) {
+				// Keep the next few files being read while this one is written
+				while ((next < entries.size()) && (window.size() < prefetch)) {
+					Entry ahead = entries.get(next++);
+					window.add(readers.submit(() -> prefetch(ahead)));
+				}
+				writeEntry(archive, entry, await(window.poll()));
+			}
+			archive.finish();
+		} finally {
+			closeUnwritten(readers, window);
+		}
+		logger.info("Archived " + files + " files, " + bytes + " bytes, in "
+				+ (System.currentTimeMillis() - start) + " ms.");
+	}
+
+	public long getFiles() {
+		return files;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	private ArchiveOutputStream open(OutputStream out) throws IOException {
+		if (format == Format.TAR_GZ) {
+			TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(out));
+			tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+			tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+			return tar;
+		}
+		ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out);
+		// The sizes are known up front, so zip64 fields are added only for the files that need them
+		zip.setUseZip64(Zip64Mode.AsNeeded);
+		// Most of the time goes to reading and sending; don't add to it by compressing hard
+		zip.setLevel(Deflater.BEST_SPEED);
+		return zip;
+	}
+
+	private Prefetched prefetch(Entry entry) throws IOException {
+		if (entry.item.isDirectory()) {
+			return null;
+		}
+		InputStream in = source.open(entry.item.getPath());
+
+		try {
+			long size = entry.item.getFileSize();
+			byte[] head = new byte[(int) Math.min(PREFETCH_BYTES, Math.max(0, size) + 1)];
+			int length = IOUtils.read(in, head);
+
+			if (length < head.length) {
+				in.close();
+				return new Prefetched(head, length, null);
+			}
+			return new Prefetched(head, length, in);
+		} catch (IOException | RuntimeException e) {
+			IOUtils.closeQuietly(in);
+			throw e;
+		}
+	}
+
+	private void writeEntry(ArchiveOutputStream archive, Entry entry, Prefetched fetched) throws IOException {
+		DriveItem item = entry.item;
+		boolean directory = item.isDirectory();
+		String name = directory ? PathProcessor.addLastSlash(entry.name) : entry.name;
+		Date modified = item.getModifiedDate();
+		ArchiveEntry archiveEntry;
+
+		if (format == Format.TAR_GZ) {
+			TarArchiveEntry tarEntry = new TarArchiveEntry(name);
+			if (!directory) {
+				tarEntry.setSize(item.getFileSize());
+			}
+			if (modified != null) {
+				tarEntry.setModTime(modified);
+			}
+			archiveEntry = tarEntry;
+		}
+		else {
+			ZipArchiveEntry zipEntry = new ZipArchiveEntry(name);
+			if (!directory) {
+				zipEntry.setSize(item.getFileSize());
+			}
+			if (modified != null) {
+				zipEntry.setTime(modified.getTime());
+			}
+			archiveEntry = zipEntry;
+		}
+		archive.putArchiveEntry(archiveEntry);
+
+		if (fetched != null) {
+			try {
+				archive.write(fetched.head, 0, fetched.length);
+				bytes += fetched.length;
+
+				if (fetched.rest != null) {
+					bytes += IOUtils.copyLarge(fetched.rest, archive);
+				}
+			} finally {
+				IOUtils.closeQuietly(fetched.rest);
+			}
+			files++;
+		}
+		archive.closeArchiveEntry();
+	}
+
+	private static Prefetched await(Future<Prefetched> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing the archive");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
+	/**
+	 * Stop reading ahead, and close the files that were read ahead but won't be written
+	 */
+	private static void closeUnwritten(ExecutorService readers, Deque<Future<Prefetched>> window) {
+		readers.shutdownNow();
+
+		try {
+			readers.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		for (Future<Prefetched> future : window) {
+			if (future.isDone()) {
+				try {
+					Prefetched fetched = future.get();
+
+					if (fetched != null) {
+						IOUtils.closeQuietly(fetched.rest);
+					}
+				} catch (Exception e) {
+					logger.log(Level.FINE, "Unable to read ahead", e);
+				}
+			}
+		}
+	}
+
+}
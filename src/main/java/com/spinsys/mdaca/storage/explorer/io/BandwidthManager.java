@@ -0,0 +1,178 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import com.spinsys.mdaca.storage.explorer.model.dto.BandwidthUsageDTO;
+
+/**
+ * Shares bandwidth between the streams that move file data through the
+ * server.  Each stream draws from three token buckets: one for the whole
+ * server, one for its drive and one for its user, so no single drive or
+ * user can starve the others.  Limits are in bytes per second, and 0 means
+ * unlimited, so an idle server runs streams as fast as the link allows.
+ * <p>
+ * Default limits come from system properties and can be changed at runtime,
+ * along with limits for individual drives and users.
+ */
+public class BandwidthManager {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.io.BandwidthManager");
+
+	/** System property for the server-wide limit, in bytes per second. */
+	public static final String GLOBAL_LIMIT_PROPERTY = "storexp.bandwidth.global";
+
+	/** System property for the default limit for each drive, in bytes per second. */
+	public static final String DRIVE_LIMIT_PROPERTY = "storexp.bandwidth.perDrive";
+
+	/** System property for the default limit for each user, in bytes per second. */
+	public static final String USER_LIMIT_PROPERTY = "storexp.bandwidth.perUser";
+
+	public static final String GLOBAL = "global";
+
+	public static final String DRIVE = "drive";
+
+	public static final String USER = "user";
+
+	/** The singleton BandwidthManager */
+	private static BandwidthManager singletonManager = null;
+
+	private final TokenBucket global;
+
+	private volatile long defaultDriveLimit;
+
+	private volatile long defaultUserLimit;
+
+	private final Map<Integer, TokenBucket> drives = new ConcurrentHashMap<>();
+
+	private final Map<String, TokenBucket> users = new ConcurrentHashMap<>();
+
+	/** Drives and users whose limit was set explicitly, and so isn't the default */
+	private final Map<String, Long> overrides = new ConcurrentHashMap<>();
+
+	BandwidthManager(long globalLimit, long defaultDriveLimit, long defaultUserLimit) {
+		this.global = new TokenBucket(GLOBAL, globalLimit);
+		this.defaultDriveLimit = defaultDriveLimit;
+		this.defaultUserLimit = defaultUserLimit;
+	}
+
+	public static synchronized BandwidthManager getInstance() {
+		if (singletonManager == null) {
+			singletonManager = new BandwidthManager(Long.getLong(GLOBAL_LIMIT_PROPERTY, 0),
+					Long.getLong(DRIVE_LIMIT_PROPERTY, 0),
+					Long.getLong(USER_LIMIT_PROPERTY, 0));
+		}
+		return singletonManager;
+	}
+
+	/**
+	 * @return the stream, limited by the server's, the drive's and the user's buckets
+	 */
+	public ThrottledInputStream throttle(InputStream in, int driveId, String username) {
+		return new ThrottledInputStream(in, getBuckets(driveId, username));
+	}
+
+	List<TokenBucket> getBuckets(int driveId, String username) {
+		String user = (username == null) ? "" : username;
+		TokenBucket driveBucket = drives.computeIfAbsent(driveId,
+				id -> new TokenBucket(DRIVE + ":" + id, overrides.getOrDefault(DRIVE + ":" + id, defaultDriveLimit)));
+		TokenBucket userBucket = users.computeIfAbsent(user,
+				u -> new TokenBucket(USER + ":" + u, overrides.getOrDefault(USER + ":" + u, defaultUserLimit)));
+		return Arrays.asList(userBucket, driveBucket, global);
+	}
+
+	List<TokenBucket> getGlobalBuckets() {
+		return Collections.singletonList(global);
+	}
+
+	public void setGlobalLimit(long limit) {
+		global.setLimit(limit);
+		logger.info("Server bandwidth limit set to " + limit + " bytes/sec");
+	}
+
+	/**
+	 * Set the limit for drives that haven't been given their own
+	 */
+	public void setDefaultDriveLimit(long limit) {
+		defaultDriveLimit = limit;
+		drives.values().stream()
+				.filter(b -> !overrides.containsKey(b.getName()))
+				.forEach(b -> b.setLimit(limit));
+	}
+
+	/**
+	 * Set the limit for users who haven't been given their own
+	 */
+	public void setDefaultUserLimit(long limit) {
+		defaultUserLimit = limit;
+		users.values().stream()
+				.filter(b -> !overrides.containsKey(b.getName()))
+				.forEach(b -> b.setLimit(limit));
+	}
+
+	/**
+	 * @param limit bytes per second, or null to return to the default
+	 */
+	public void setDriveLimit(int driveId, Long limit) {
+		String name = DRIVE + ":" + driveId;
+		setOverride(name, limit);
+		long effective = (limit == null) ? defaultDriveLimit : limit;
+		drives.computeIfAbsent(driveId, id -> new TokenBucket(name, effective)).setLimit(effective);
+	}
+
+	/**
+	 * @param limit bytes per second, or null to return to the default
+	 */
+	public void setUserLimit(String username, Long limit) {
+		String name = USER + ":" + username;
+		setOverride(name, limit);
+		long effective = (limit == null) ? defaultUserLimit : limit;
+		users.computeIfAbsent(username, u -> new TokenBucket(name, effective)).setLimit(effective);
+	}
+
+	private void setOverride(String name, Long limit) {
+		if (limit == null) {
+			overrides.remove(name);
+		} else {
+			overrides.put(name, limit);
+		}
+		logger.info("Bandwidth limit for " + name + " set to " +
+				((limit == null) ? "the default" : limit + " bytes/sec"));
+	}
+
+	public long getGlobalLimit() {
+		return global.getLimit();
+	}
+
+	public long getDefaultDriveLimit() {
+		return defaultDriveLimit;
+	}
+
+	public long getDefaultUserLimit() {
+		return defaultUserLimit;
+	}
+
+	/**
+	 * @return the limit and observed throughput of every bucket
+	 */
+	public List<BandwidthUsageDTO> getUsage() {
+		List<BandwidthUsageDTO> usage = new ArrayList<>();
+		usage.add(toUsage(GLOBAL, GLOBAL, global));
+		drives.forEach((id, bucket) -> usage.add(toUsage(DRIVE, String.valueOf(id), bucket)));
+		users.forEach((user, bucket) -> usage.add(toUsage(USER, user, bucket)));
+		return usage;
+	}
+
+	private static BandwidthUsageDTO toUsage(String scope, String key, TokenBucket bucket) {
+		return new BandwidthUsageDTO(scope, key, bucket.getLimit(),
+				bucket.getObservedRate(), bucket.getTotalBytes());
+	}
+
+}
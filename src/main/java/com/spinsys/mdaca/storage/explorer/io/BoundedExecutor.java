@@ -0,0 +1,79 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs tasks on a fixed number of threads, making the thread that hands
+ * them over wait while they're all busy, so that a crawl or an archive
+ * being read doesn't get ahead of the work it's feeding.
+ */
+public class BoundedExecutor implements Closeable {
+
+	private final ExecutorService workers;
+
+	/** The number of tasks that may still be handed to the workers */
+	private final Semaphore available;
+
+	private final int threads;
+
+	/** What the tasks are doing, for when waiting is interrupted, e.g., "deleting dir/" */
+	private final String activity;
+
+	public BoundedExecutor(int threads, String activity) {
+		this.threads = Math.max(1, threads);
+		this.activity = activity;
+		this.workers = Executors.newFixedThreadPool(this.threads);
+		this.available = new Semaphore(this.threads);
+	}
+
+	/**
+	 * Hand the task to the workers, waiting if they're all busy
+	 */
+	public void submit(Runnable task) throws InterruptedIOException {
+		try {
+			available.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while " + activity);
+		}
+
+		try {
+			workers.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					available.release();
+				}
+			});
+		} catch (RuntimeException e) {
+			available.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait for the tasks handed over so far to finish
+	 */
+	public void await() throws InterruptedIOException {
+		try {
+			available.acquire(threads);
+			available.release(threads);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while " + activity);
+		}
+	}
+
+	/**
+	 * Stop the workers, interrupting any tasks still running
+	 */
+	@Override
+	public void close() {
+		workers.shutdownNow();
+	}
+
+}
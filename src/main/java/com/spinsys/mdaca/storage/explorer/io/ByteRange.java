@@ -0,0 +1,108 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One range of bytes from an HTTP Range header, e.g., "bytes=0-499",
+ * "bytes=500-" or "bytes=-500" (the last 500 bytes).
+ * See https://tools.ietf.org/html/rfc7233
+ */
+public class ByteRange {
+
+	/** More ranges than this in one request are ignored, and the whole file sent */
+	public static final int MAX_RANGES = 16;
+
+	private final long start;
+
+	private final long end;
+
+	public ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @param header the value of the Range header
+	 * @param fileSize the size of the file being requested
+	 * @return the ranges requested, clipped to the file; an empty list
+	 *  if none of them can be satisfied; or null if the whole file should be
+	 *  sent because the header is missing, malformed or asks for too much
+	 */
+	public static List<ByteRange> parse(String header, long fileSize) {
+		if (header == null || !header.trim().toLowerCase().startsWith("bytes=")) {
+			return null;
+		}
+		String[] specs = header.trim().substring("bytes=".length()).split(",");
+
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+		List<ByteRange> ranges = new ArrayList<>();
+
+		for (String spec : specs) {
+			spec = spec.trim();
+			int dash = spec.indexOf('-');
+
+			if (dash < 0) {
+				return null;
+			}
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			long start;
+			long end;
+
+			try {
+				if (first.isEmpty()) { // a suffix, e.g., -500
+					long suffixLength = Long.parseLong(last);
+
+					if (suffixLength <= 0) {
+						continue;
+					}
+					start = Math.max(0, fileSize - suffixLength);
+					end = fileSize - 1;
+				}
+				else {
+					start = Long.parseLong(first);
+					end = last.isEmpty() ? fileSize - 1 : Math.min(Long.parseLong(last), fileSize - 1);
+
+					if (!last.isEmpty() && Long.parseLong(last) < start) {
+						return null;
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+
+			if (start < fileSize && start <= end) {
+				ranges.add(new ByteRange(start, end));
+			}
+		}
+		return ranges;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public long getLength() {
+		return end - start + 1;
+	}
+
+	/**
+	 * @return the value of the Content-Range header for this range
+	 */
+	public String toContentRange(long fileSize) {
+		return "bytes " + start + "-" + end + "/" + fileSize;
+	}
+
+	@Override
+	public String toString() {
+		return "ByteRange [start=" + start + ", end=" + end + "]";
+	}
+
+}
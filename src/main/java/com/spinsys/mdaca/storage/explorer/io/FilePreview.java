@@ -0,0 +1,272 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.CARRIAGE_RETURN;
+import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.NEW_LINE;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
+
+/**
+ * Builds previews of text files: the first and last lines, without reading
+ * the middle of the file.  The head is streamed from the start of the file;
+ * the tail is read in ranged blocks backwards from the end, so a preview
+ * takes one request for the head and usually one for the tail.  Small
+ * files are read whole in one request.
+ * <p>
+ * Recent previews are cached per drive, path and version of the file, since
+ * the same logs and CSVs tend to be previewed again and again.
+ */
+public class FilePreview {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.io.FilePreview");
+
+	/** System property for how much of the file is read at once, in bytes. */
+	public static final String BLOCK_SIZE_PROPERTY = "storexp.preview.blockSize";
+
+	/** System property for how far into the file to look for lines, from each end, in bytes. */
+	public static final String MAX_SEARCH_BYTES_PROPERTY = "storexp.preview.maxSearchBytes";
+
+	/** System property for how many previews to cache. */
+	public static final String CACHE_SIZE_PROPERTY = "storexp.preview.cacheSize";
+
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+	public static final long DEFAULT_MAX_SEARCH_BYTES = 8L * 1024 * 1024;
+
+	public static final int DEFAULT_CACHE_SIZE = 100;
+
+	/** Larger previews aren't cached */
+	static final int MAX_CACHED_BYTES = 1024 * 1024;
+
+	private static final Map<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+			return size() > Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE);
+		}
+	};
+
+	private static final AtomicLong hits = new AtomicLong();
+
+	private static final AtomicLong misses = new AtomicLong();
+
+	private final StorageProvider provider;
+
+	private final Drive drive;
+
+	private final String path;
+
+	private final long fileSize;
+
+	private final int blockSize;
+
+	private final long maxSearchBytes;
+
+	/** The whole file, if it's small enough to be read in one request */
+	private byte[] contents;
+
+	FilePreview(StorageProvider provider, Drive drive, String path, long fileSize,
+			int blockSize, long maxSearchBytes) {
+		this.provider = provider;
+		this.drive = drive;
+		this.path = path;
+		this.fileSize = fileSize;
+		this.blockSize = blockSize;
+		this.maxSearchBytes = maxSearchBytes;
+	}
+
+	/**
+	 * @param modified when the file was last modified; if null, the
+	 *  preview isn't cached, since a newer version couldn't be recognized
+	 * @return the first numTop lines of the file followed by its last
+	 *  numBottom lines, or the whole file if those cover all of it
+	 * @throws ExplorerException if the lines aren't found within
+	 *  {@link #MAX_SEARCH_BYTES_PROPERTY} bytes of either end
+	 */
+	public static byte[] preview(StorageProvider provider, Drive drive, String path, long fileSize, Date modified,
+			int numTop, int numBottom) throws IOException {
+		String key = (modified == null) ? null :
+				drive.getDriveId() + ":" + path + ":" + fileSize + ":" + modified.getTime() + ":" + numTop + ":" + numBottom;
+
+		if (key != null) {
+			byte[] cached;
+			synchronized (cache) {
+				cached = cache.get(key);
+			}
+			if (cached != null) {
+				hits.incrementAndGet();
+				return cached;
+			}
+			misses.incrementAndGet();
+		}
+		FilePreview preview = new FilePreview(provider, drive, path, fileSize,
+				Integer.getInteger(BLOCK_SIZE_PROPERTY, DEFAULT_BLOCK_SIZE),
+				Long.getLong(MAX_SEARCH_BYTES_PROPERTY, DEFAULT_MAX_SEARCH_BYTES));
+		byte[] bytes = preview.read(numTop, numBottom);
+
+		if (key != null && bytes.length <= MAX_CACHED_BYTES) {
+			synchronized (cache) {
+				cache.put(key, bytes);
+			}
+		}
+		return bytes;
+	}
+
+	byte[] read(int numTop, int numBottom) throws IOException {
+		long start = System.currentTimeMillis();
+
+		// small files are read whole in one request
+		if (fileSize <= 2L * blockSize) {
+			contents = readRange(0, fileSize);
+		}
+		ByteArrayOutputStream preview = new ByteArrayOutputStream();
+		long headEnd = readHead(numTop, preview);
+		findTailStart(numBottom, headEnd, preview);
+
+		logger.info("Previewed " + numTop + " + " + numBottom + " lines of " + path +
+				" in " + (System.currentTimeMillis() - start) + " ms.");
+		return preview.toByteArray();
+	}
+
+	/**
+	 * Copy the first numLines lines, with their line endings, to out
+	 * @return the position just after the last line copied
+	 */
+	long readHead(int numLines, ByteArrayOutputStream out) throws IOException {
+		if (numLines <= 0) {
+			return 0;
+		}
+		long searchLength = Math.min(fileSize, maxSearchBytes);
+		byte[] buffer = new byte[blockSize];
+		int count = 0;
+		long position = 0;
+		boolean pendingCR = false;
+
+		try (InputStream in = open(0, searchLength)) {
+			int read;
+			while ((read = IOUtils.read(in, buffer)) > 0) {
+				for (int i = 0; i < read; i++) {
+					byte b = buffer[i];
+
+					// a lone CR ends a line, but a CR followed by NL is one line ending
+					if (pendingCR) {
+						pendingCR = false;
+
+						if (b != NEW_LINE && ++count == numLines) {
+							out.write(buffer, 0, i);
+							return position + i;
+						}
+					}
+					if (b == NEW_LINE) {
+						if (++count == numLines) {
+							out.write(buffer, 0, i + 1);
+							return position + i + 1;
+						}
+					}
+					else if (b == CARRIAGE_RETURN) {
+						pendingCR = true;
+					}
+				}
+				out.write(buffer, 0, read);
+				position += read;
+			}
+		}
+		if ((pendingCR && ++count == numLines) || position >= fileSize) {
+			return position;
+		}
+		throw new ExplorerException("Search took too long to find the first \"" + numLines + "\" lines");
+	}
+
+	/**
+	 * Read backwards from the end of the file until numLines lines are
+	 * found, appending them to out.  A line ending at the very end of the
+	 * file doesn't start another line.
+	 * @param headEnd where the head ends; the search stops there
+	 * @return where the tail starts, which is headEnd if it reaches the head
+	 */
+	long findTailStart(int numLines, long headEnd, ByteArrayOutputStream out) throws IOException {
+		if (numLines <= 0) {
+			return fileSize;
+		}
+		Deque<byte[]> blocks = new ArrayDeque<>();
+		long blockStart = fileSize;
+		int count = 0;
+		int next = -1;  // the byte after the one being examined
+		long tailStart = -1;
+
+		while (tailStart < 0 && blockStart > headEnd) {
+			if (fileSize - blockStart >= maxSearchBytes) {
+				throw new ExplorerException("Search took too long to find the last \"" + numLines + "\" lines");
+			}
+			int length = (int) Math.min(blockSize, blockStart - headEnd);
+			blockStart -= length;
+			byte[] block = readRange(blockStart, length);
+			blocks.addFirst(block);
+
+			for (int i = block.length - 1; i >= 0; i--) {
+				byte b = block[i];
+				boolean lineEnd = (b == NEW_LINE) || (b == CARRIAGE_RETURN && next != NEW_LINE);
+				boolean atEnd = (blockStart + i == fileSize - 1);
+				next = b;
+
+				if (lineEnd && !atEnd && ++count == numLines) {
+					tailStart = blockStart + i + 1;
+					break;
+				}
+			}
+		}
+		if (tailStart < 0) { // the tail reaches back to the head
+			tailStart = blockStart;
+		}
+		if (blocks.isEmpty()) {
+			return tailStart;
+		}
+		byte[] first = blocks.removeFirst();
+		int offset = (int) (tailStart - blockStart);
+		out.write(first, offset, first.length - offset);
+
+		for (byte[] block : blocks) {
+			out.write(block);
+		}
+		return tailStart;
+	}
+
+	private byte[] readRange(long start, long length) throws IOException {
+		if (length <= 0) {
+			return new byte[0];
+		}
+		try (InputStream in = open(start, length)) {
+			return IOUtils.toByteArray(in, length);
+		}
+	}
+
+	private InputStream open(long start, long length) throws IOException {
+		return (contents != null)
+				? new ByteArrayInputStream(contents, (int) start, (int) length)
+				: provider.getInputStream(drive, path, start, length);
+	}
+
+	public static long getHitCount() {
+		return hits.get();
+	}
+
+	public static long getMissCount() {
+		return misses.get();
+	}
+
+}
@@ -1,5 +1,7 @@
 package com.spinsys.mdaca.storage.explorer.io;
 
+import java.util.regex.Pattern;
+
 import javax.ws.rs.core.MultivaluedMap;
 
 /**
@@ -75,6 +77,32 @@ public class PathProcessor {
 		return path.endsWith(GUI_SEP);
 	}
 
+	/**
+	 * @param glob a file name pattern, e.g., "*.parquet" or "data_20??.csv",
+	 *  where * matches any characters and ? matches one
+	 * @return the equivalent regular expression
+	 */
+	public static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+
+		for (char c : glob.toCharArray()) {
+			if (c == '*' || c == '?') {
+				if (literal.length() > 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append((c == '*') ? ".*" : ".");
+			} else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return regex.toString();
+	}
+
 	/**
 	 * @param filePath file path of the file or folder
 	 * @return the parent folder for the given file path
@@ -0,0 +1,192 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.provider.DriveMetadataCache;
+import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
+
+/**
+ * A file being uploaded in chunks, with each chunk passed straight on
+ * to the provider's multipart upload instead of being spooled to a
+ * temp file.  Chunk bodies are gathered into parts of a fixed size,
+ * since providers such as S3 have a minimum part size, so at most
+ * one part is held in memory per upload.
+ * <p>
+ * Uploads are registered by the client's file id so that the requests
+ * carrying later chunks can find them.  Uploads that stop receiving
+ * chunks are aborted after {@link #IDLE_TIMEOUT_PROPERTY}.
+ */
+public class StreamingUpload {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.io.StreamingUpload");
+
+	/** System property for how long an upload may go without a chunk before it is aborted. */
+	public static final String IDLE_TIMEOUT_PROPERTY = "storexp.upload.idleTimeoutMillis";
+
+	static final long DEFAULT_IDLE_TIMEOUT_MS = 30 * 60 * 1000;
+
+	/** The uploads in progress, by file id */
+	private static final Map<String, StreamingUpload> uploads = new ConcurrentHashMap<>();
+
+	private final String fileUid;
+
+	private final StorageProvider provider;
+
+	private final Drive drive;
+
+	private final String path;
+
+	private final String uploadId;
+
+	/** The part being gathered */
+	private final byte[] buffer;
+
+	private int buffered = 0;
+
+	private int nextPartNumber = 1;
+
+	private long bytesReceived = 0;
+
+	private volatile long lastActivity = System.currentTimeMillis();
+
+	StreamingUpload(String fileUid, StorageProvider provider, Drive drive, String path,
+			String uploadId, int partSize) {
+		this.fileUid = fileUid;
+		this.provider = provider;
+		this.drive = drive;
+		this.path = path;
+		this.uploadId = uploadId;
+		this.buffer = new byte[partSize];
+	}
+
+	/**
+	 * Start a multipart upload to the provider.
+	 * @param partSize the size of each part but the last
+	 */
+	public static StreamingUpload start(String fileUid, StorageProvider provider, Drive drive,
+			String path, int partSize) throws IOException {
+		abortIdleUploads();
+
+		StreamingUpload previous = uploads.remove(fileUid);
+		if (previous != null) {
+			previous.abort();
+		}
+		String uploadId = provider.uploadPartStart(drive, path);
+		StreamingUpload upload = new StreamingUpload(fileUid, provider, drive, path, uploadId, partSize);
+		uploads.put(fileUid, upload);
+		logger.info("Started streaming upload of " + path + " in parts of " + partSize + " bytes");
+		return upload;
+	}
+
+	/**
+	 * @return the upload in progress for the file id, or null
+	 */
+	public static StreamingUpload get(String fileUid) {
+		return (fileUid == null) ? null : uploads.get(fileUid);
+	}
+
+	/**
+	 * Abort the upload for the file id, if there is one.
+	 */
+	public static void abort(String fileUid) {
+		StreamingUpload upload = (fileUid == null) ? null : uploads.remove(fileUid);
+
+		if (upload != null) {
+			upload.abort();
+		}
+	}
+
+	/**
+	 * Read a chunk, uploading each part as it fills.
+	 */
+	public synchronized void write(InputStream in) throws IOException {
+		int read;
+		lastActivity = System.currentTimeMillis();
+
+		while ((read = in.read(buffer, buffered, buffer.length - buffered)) != -1) {
+			buffered += read;
+			bytesReceived += read;
+
+			if (buffered == buffer.length) {
+				uploadBuffer();
+			}
+		}
+		lastActivity = System.currentTimeMillis();
+	}
+
+	/**
+	 * Upload what remains and complete the upload.
+	 * @return the number of bytes uploaded
+	 */
+	public synchronized long complete() throws IOException {
+		try {
+			if (buffered > 0) {
+				uploadBuffer();
+			}
+			provider.uploadPartComplete(drive, path, uploadId);
+			DriveMetadataCache.getInstance().invalidate(drive, path);
+		} catch (IOException | RuntimeException e) {
+			abort();
+			throw e;
+		} finally {
+			uploads.remove(fileUid, this);
+		}
+		logger.info("Completed streaming upload of " + bytesReceived + " bytes to " + path);
+		return bytesReceived;
+	}
+
+	private void uploadBuffer() throws IOException {
+		// The providers finish with the data before returning, so a full
+		// buffer can be handed over without copying
+		byte[] part = (buffered == buffer.length) ? buffer : Arrays.copyOf(buffer, buffered);
+		provider.uploadPart(drive, path, part, nextPartNumber++);
+		buffered = 0;
+	}
+
+	private synchronized void abort() {
+		uploads.remove(fileUid, this);
+		try {
+			provider.uploadPartAbort(drive, path, uploadId);
+			logger.info("Aborted streaming upload to " + path);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Unable to abort the upload to " + path + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Abort uploads whose client has stopped sending chunks
+	 */
+	static void abortIdleUploads() {
+		long cutoff = System.currentTimeMillis() - Long.getLong(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT_MS);
+		List<StreamingUpload> idle = new ArrayList<>();
+
+		for (StreamingUpload upload : uploads.values()) {
+			if (upload.lastActivity < cutoff) {
+				idle.add(upload);
+			}
+		}
+		for (StreamingUpload upload : idle) {
+			logger.info("Abandoned upload to " + upload.path + " will be aborted");
+			upload.abort();
+		}
+	}
+
+	public synchronized long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+}
@@ -0,0 +1,122 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which bytes are read to {@link #getLimit()} bytes per
+ * second, allowing bursts of up to one second's worth.  Streams draw from a
+ * bucket after each read and wait if they have overdrawn it, so streams
+ * sharing a bucket share its rate.  A limit of 0 or less means unlimited;
+ * the bucket then only measures throughput.
+ */
+public class TokenBucket {
+
+	/** How often the observed rate is recalculated */
+	static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final String name;
+
+	private long limit;
+
+	/** Bytes that may be read without waiting; negative when overdrawn */
+	private double tokens;
+
+	private long lastRefill = System.nanoTime();
+
+	private long totalBytes = 0;
+
+	private long windowStart = System.nanoTime();
+
+	private long windowBytes = 0;
+
+	private long observedRate = 0;
+
+	public TokenBucket(String name, long limit) {
+		this.name = name;
+		setLimit(limit);
+	}
+
+	/**
+	 * Take bytes that have been read from each of the buckets, waiting
+	 * until the most restrictive of them allows them.
+	 */
+	public static void acquire(long bytes, List<TokenBucket> buckets) throws InterruptedIOException {
+		long waitNanos = 0;
+
+		for (TokenBucket bucket : buckets) {
+			waitNanos = Math.max(waitNanos, bucket.take(bytes));
+		}
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+			}
+		}
+	}
+
+	/**
+	 * @return how long to wait before the bytes taken are paid for
+	 */
+	synchronized long take(long bytes) {
+		long now = System.nanoTime();
+		record(bytes, now);
+
+		if (limit <= 0) {
+			return 0;
+		}
+		tokens = Math.min(limit, tokens + (now - lastRefill) * (double) limit / TimeUnit.SECONDS.toNanos(1));
+		lastRefill = now;
+		tokens -= bytes;
+		return (tokens >= 0) ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / limit);
+	}
+
+	private void record(long bytes, long now) {
+		totalBytes += bytes;
+		windowBytes += bytes;
+
+		if (now - windowStart >= RATE_WINDOW_NANOS) {
+			observedRate = windowBytes * TimeUnit.SECONDS.toNanos(1) / (now - windowStart);
+			windowStart = now;
+			windowBytes = 0;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @param limit bytes per second, or 0 or less for no limit
+	 */
+	public synchronized void setLimit(long limit) {
+		this.limit = limit;
+		this.tokens = Math.max(0, limit);
+		this.lastRefill = System.nanoTime();
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * @return bytes per second over the last complete second,
+	 *  or 0 if nothing has been read for a while
+	 */
+	public synchronized long getObservedRate() {
+		long now = System.nanoTime();
+
+		if (now - windowStart >= 2 * RATE_WINDOW_NANOS) {
+			return 0;
+		}
+		return observedRate;
+	}
+
+}
@@ -43,6 +43,22 @@ public class DriveItem {
 		this.path = path;
 	}
 
+	/**
+	 * A copy of the given item, e.g., to set access levels on without
+	 * changing an item that others share
+	 */
+	public DriveItem(DriveItem other) {
+		this.driveId = other.driveId;
+		this.path = other.path;
+		this.modifiedDate = other.modifiedDate;
+		this.fileSize = other.fileSize;
+		this.directory = other.directory;
+		this.storageClass = other.storageClass;
+		this.accessLevels = other.accessLevels;
+		this.isRestoring = other.isRestoring;
+		this.restoreExpireDate = other.restoreExpireDate;
+	}
+
 	public int getDriveId() {
 		return driveId;
 	}
@@ -0,0 +1,78 @@
+package com.spinsys.mdaca.storage.explorer.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+
+/**
+ * One page of the results of a {@link DriveQuery}.  A page may hold fewer
+ * than the page size of items, or even none, when items are filtered out;
+ * only a null continuation token marks the last page.
+ */
+public class DriveItemPage {
+
+	private List<DriveItem> items;
+
+	/** Pass this in the next query to get the following page; null if this is the last page */
+	private String continuationToken;
+
+	public DriveItemPage() {
+		this(new ArrayList<>(), null);
+	}
+
+	public DriveItemPage(List<DriveItem> items, String continuationToken) {
+		this.items = items;
+		this.continuationToken = continuationToken;
+	}
+
+	/**
+	 * Page through results that have already been gathered, for providers
+	 * that can't list a page at a time.  The token is the offset of the page.
+	 */
+	public static DriveItemPage of(List<DriveItem> allItems, DriveQuery query) throws ExplorerException {
+		int start = 0;
+
+		if (query.getContinuationToken() != null) {
+			try {
+				start = Integer.parseInt(query.getContinuationToken());
+			} catch (NumberFormatException e) {
+				start = -1;
+			}
+			if (start < 0) {
+				throw new ExplorerException("Invalid continuation token: " + query.getContinuationToken());
+			}
+		}
+		int pageSize = (query.getPageSize() > 0) ? query.getPageSize() : allItems.size();
+		int end = (int) Math.min((long) start + pageSize, allItems.size());
+		List<DriveItem> items = (start < end) ? new ArrayList<>(allItems.subList(start, end)) : new ArrayList<>();
+
+		return new DriveItemPage(items, (end < allItems.size()) ? String.valueOf(end) : null);
+	}
+
+	public List<DriveItem> getItems() {
+		return items;
+	}
+
+	public void setItems(List<DriveItem> items) {
+		this.items = items;
+	}
+
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+
+	public void setContinuationToken(String continuationToken) {
+		this.continuationToken = continuationToken;
+	}
+
+	public boolean isLastPage() {
+		return continuationToken == null;
+	}
+
+	@Override
+	public String toString() {
+		return "DriveItemPage [items=" + items.size() + ", continuationToken=" + continuationToken + "]";
+	}
+
+}
@@ -2,6 +2,9 @@ package com.spinsys.mdaca.storage.explorer.model;
 
 import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
 
+import java.util.Date;
+import java.util.regex.Pattern;
+
 import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.isRoot;
 
 public class DriveQuery {
@@ -26,6 +29,34 @@ public class DriveQuery {
 	 */
 	private boolean usesPlaceholder;
 
+	/** The most items to list at once; 0 lists them all.  See {@link DriveItemPage} */
+	private int pageSize;
+
+	/** Where to continue a listing, from the previous {@link DriveItemPage} */
+	private String continuationToken;
+
+	/** A pattern for file names to match, where * matches any characters
+	 * and ? matches one, e.g., "*.parquet" */
+	private String namePattern;
+
+	/** Only include items at least this many bytes long */
+	private Long minSize;
+
+	/** Only include items at most this many bytes long */
+	private Long maxSize;
+
+	/** Only include items modified at or after this time */
+	private Date modifiedAfter;
+
+	/** Only include items modified before this time */
+	private Date modifiedBefore;
+
+	/** The compiled search pattern, so it isn't compiled for every item */
+	private Pattern compiledSearchPattern;
+
+	/** The compiled name pattern */
+	private Pattern compiledNamePattern;
+
     public DriveQuery() {
 
     }
@@ -64,6 +95,7 @@ public class DriveQuery {
 
 	public void setSearchPattern(String searchPath) {
 		this.searchPattern = searchPath;
+		this.compiledSearchPattern = null;
 	}
 
 	public boolean hasSearchPattern() {
@@ -82,10 +114,73 @@ public class DriveQuery {
 		this.usesPlaceholder = usesPlaceholder;
 	}
 
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public void setPageSize(int pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	public String getContinuationToken() {
+		return continuationToken;
+	}
+
+	public void setContinuationToken(String continuationToken) {
+		this.continuationToken = continuationToken;
+	}
+
+	public String getNamePattern() {
+		return namePattern;
+	}
+
+	public void setNamePattern(String namePattern) {
+		this.namePattern = namePattern;
+		this.compiledNamePattern = null;
+	}
+
+	public boolean hasNamePattern() {
+		return namePattern != null && !"".equals(namePattern);
+	}
+
+	public Long getMinSize() {
+		return minSize;
+	}
+
+	public void setMinSize(Long minSize) {
+		this.minSize = minSize;
+	}
+
+	public Long getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(Long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public Date getModifiedAfter() {
+		return modifiedAfter;
+	}
+
+	public void setModifiedAfter(Date modifiedAfter) {
+		this.modifiedAfter = modifiedAfter;
+	}
+
+	public Date getModifiedBefore() {
+		return modifiedBefore;
+	}
+
+	public void setModifiedBefore(Date modifiedBefore) {
+		this.modifiedBefore = modifiedBefore;
+	}
+
 	@Override
 	public String toString() {
 		return "DriveQuery [driveId=" + driveId + ", searchPattern=" + searchPattern + ", startPath=" + startPath
-				+ ", recursive=" + recursive + "]";
+				+ ", recursive=" + recursive + ", pageSize=" + pageSize + ", continuationToken=" + continuationToken
+				+ ", namePattern=" + namePattern + ", minSize=" + minSize + ", maxSize=" + maxSize
+				+ ", modifiedAfter=" + modifiedAfter + ", modifiedBefore=" + modifiedBefore + "]";
 	}
 
 	public boolean hasFilters() {
@@ -125,11 +220,53 @@ public class DriveQuery {
 			return false;
 		}
 
-		if (hasSearchPattern() && !driveItem.getPath().matches(searchPattern)) {
+		if (hasSearchPattern() && !getCompiledSearchPattern().matcher(driveItem.getPath()).matches()) {
+			return false;
+		}
+
+		return matchesAttributes(driveItem);
+	}
+
+	/**
+	 * @return true IFF the drive item's name, size and modified date
+	 *  satisfy the filters in this DriveQuery
+	 */
+	public boolean matchesAttributes(DriveItem driveItem) {
+		if (hasNamePattern() && !getCompiledNamePattern().matcher(driveItem.getFileName()).matches()) {
+			return false;
+		}
+
+		if ((minSize != null && driveItem.getFileSize() < minSize) ||
+				(maxSize != null && driveItem.getFileSize() > maxSize)) {
+			return false;
+		}
+
+		// items whose modified date isn't known don't match a date filter
+		Date modified = driveItem.getModifiedDate();
+
+		if (modifiedAfter != null && (modified == null || modified.before(modifiedAfter))) {
+			return false;
+		}
+
+		if (modifiedBefore != null && (modified == null || !modified.before(modifiedBefore))) {
 			return false;
 		}
 
 		return true;
 	}
 
+	private Pattern getCompiledSearchPattern() {
+		if (compiledSearchPattern == null) {
+			compiledSearchPattern = Pattern.compile(searchPattern);
+		}
+		return compiledSearchPattern;
+	}
+
+	private Pattern getCompiledNamePattern() {
+		if (compiledNamePattern == null) {
+			compiledNamePattern = Pattern.compile(PathProcessor.globToRegex(namePattern));
+		}
+		return compiledNamePattern;
+	}
+
 }
@@ -0,0 +1,81 @@
+package com.spinsys.mdaca.storage.explorer.model;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The results of searching a drive with a {@link DriveQuery}, along with
+ * how up to date they are.  Results from the drive's path index reflect the
+ * last crawl of the drive plus the changes made through this application
+ * since; changes made to the drive by other means since the crawl are missing.
+ */
+public class DriveSearchResult {
+
+	private List<DriveItem> items;
+
+	/** true if the results came from the path index rather than the drive */
+	private boolean indexed;
+
+	/** When the crawl that the index was built from started; null if not indexed */
+	private Date crawledAt;
+
+	/** true if there were more matches than were returned */
+	private boolean truncated;
+
+	public DriveSearchResult() {
+	}
+
+	public DriveSearchResult(List<DriveItem> items, Date crawledAt, boolean truncated) {
+		this.items = items;
+		this.indexed = (crawledAt != null);
+		this.crawledAt = crawledAt;
+		this.truncated = truncated;
+	}
+
+	public List<DriveItem> getItems() {
+		return items;
+	}
+
+	public void setItems(List<DriveItem> items) {
+		this.items = items;
+	}
+
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	public void setIndexed(boolean indexed) {
+		this.indexed = indexed;
+	}
+
+	public Date getCrawledAt() {
+		return crawledAt;
+	}
+
+	public void setCrawledAt(Date crawledAt) {
+		this.crawledAt = crawledAt;
+	}
+
+	/**
+	 * @return how many seconds old the crawl behind the results is;
+	 *  0 if they came from the drive
+	 */
+	public long getAgeSeconds() {
+		return (crawledAt == null) ? 0 : (System.currentTimeMillis() - crawledAt.getTime()) / 1000;
+	}
+
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public void setTruncated(boolean truncated) {
+		this.truncated = truncated;
+	}
+
+	@Override
+	public String toString() {
+		return "DriveSearchResult [items=" + ((items == null) ? 0 : items.size()) + ", indexed=" + indexed +
+				", crawledAt=" + crawledAt + ", truncated=" + truncated + "]";
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.spinsys.mdaca.storage.explorer.model.dto;
+
+/**
+ * This class is a simple container for transmitting
+ * the limit and throughput of one bandwidth bucket.
+ */
+public class BandwidthUsageDTO {
+	/** "global", "drive" or "user" */
+	private String scope;
+
+	/** The drive id or user name; "global" for the server */
+	private String key;
+
+	/** The limit in bytes per second; 0 if unlimited */
+	private long limit;
+
+	/** Bytes per second over the last second */
+	private long bytesPerSecond;
+
+	/** Bytes read since the server started */
+	private long totalBytes;
+
+	public BandwidthUsageDTO() {
+	}
+
+	public BandwidthUsageDTO(String scope, String key, long limit, long bytesPerSecond, long totalBytes) {
+		this.scope = scope;
+		this.key = key;
+		this.limit = limit;
+		this.bytesPerSecond = bytesPerSecond;
+		this.totalBytes = totalBytes;
+	}
+
+	public String getScope() {
+		return scope;
+	}
+
+	public void setScope(String scope) {
+		this.scope = scope;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public void setKey(String key) {
+		this.key = key;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public void setLimit(long limit) {
+		this.limit = limit;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public void setBytesPerSecond(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public void setTotalBytes(long totalBytes) {
+		this.totalBytes = totalBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "BandwidthUsageDTO [scope=" + scope + ", key=" + key + ", limit=" + limit +
+				", bytesPerSecond=" + bytesPerSecond + ", totalBytes=" + totalBytes + "]";
+	}
+
+}
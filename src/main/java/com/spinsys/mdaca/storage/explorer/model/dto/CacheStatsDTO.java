@@ -0,0 +1,68 @@
+package com.spinsys.mdaca.storage.explorer.model.dto;
+
+/**
+ * This class is a simple container for transmitting
+ * how well a cache is doing.
+ */
+public class CacheStatsDTO {
+	/** Lookups answered from the cache */
+	private long hits;
+
+	/** Lookups that went to the drive */
+	private long misses;
+
+	/** How many times entries were dropped because something changed */
+	private long invalidations;
+
+	/** The number of entries cached now */
+	private int size;
+
+	public CacheStatsDTO() {
+	}
+
+	public CacheStatsDTO(long hits, long misses, long invalidations, int size) {
+		this.hits = hits;
+		this.misses = misses;
+		this.invalidations = invalidations;
+		this.size = size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public void setHits(long hits) {
+		this.hits = hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public void setMisses(long misses) {
+		this.misses = misses;
+	}
+
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	public void setInvalidations(long invalidations) {
+		this.invalidations = invalidations;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStatsDTO [hits=" + hits + ", misses=" + misses + ", invalidations=" + invalidations
+				+ ", size=" + size + "]";
+	}
+
+}
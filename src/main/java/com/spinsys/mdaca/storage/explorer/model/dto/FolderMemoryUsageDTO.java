@@ -16,6 +16,12 @@ public class FolderMemoryUsageDTO {
 	/** When this usage information was generated. */
 	private Date created;
 
+	/** The number of files in the folder, recursively. */
+	private Long fileCount;
+
+	/** When anything in the folder was last modified. */
+	private Date lastModified;
+
 	public Date getCreated() {
 		return created;
 	}
@@ -29,6 +35,18 @@ public class FolderMemoryUsageDTO {
 	public void setBytes(Long bytes) {
 		this.bytes = bytes;
 	}
+	public Long getFileCount() {
+		return fileCount;
+	}
+	public void setFileCount(Long fileCount) {
+		this.fileCount = fileCount;
+	}
+	public Date getLastModified() {
+		return lastModified;
+	}
+	public void setLastModified(Date lastModified) {
+		this.lastModified = lastModified;
+	}
 	public String getPath() {
 		return path;
 	}
@@ -39,7 +57,8 @@ public class FolderMemoryUsageDTO {
 	@Override
 	public String toString() {
 		return "FolderMemoryUsageDTO [path=" + path +
-				", bytes=" + bytes + ", created=" + created + "]";
+				", bytes=" + bytes + ", fileCount=" + fileCount +
+				", lastModified=" + lastModified + ", created=" + created + "]";
 	}
 
 }
@@ -0,0 +1,109 @@
+package com.spinsys.mdaca.storage.explorer.model.dto;
+
+import java.util.Date;
+
+/**
+ * This class is a simple container for transmitting
+ * how usage data collection is going for a drive.
+ */
+public class UsageCollectionDTO {
+
+	private int driveId;
+
+	/** QUEUED, RUNNING, or IDLE */
+	private String state;
+
+	/** When the last collection started; null if none has */
+	private Date lastStarted;
+
+	/** How long the last finished collection took, in milliseconds */
+	private long lastDurationMs;
+
+	/** The bytes the last successful collection found */
+	private long lastBytes;
+
+	/** Why the last collection failed; null if it succeeded */
+	private String lastError;
+
+	/** The number of collections finished since the server started */
+	private long runs;
+
+	/** When the next collection is due; null while one is queued or running */
+	private Date nextRun;
+
+	public UsageCollectionDTO() {
+	}
+
+	public int getDriveId() {
+		return driveId;
+	}
+
+	public void setDriveId(int driveId) {
+		this.driveId = driveId;
+	}
+
+	public String getState() {
+		return state;
+	}
+
+	public void setState(String state) {
+		this.state = state;
+	}
+
+	public Date getLastStarted() {
+		return lastStarted;
+	}
+
+	public void setLastStarted(Date lastStarted) {
+		this.lastStarted = lastStarted;
+	}
+
+	public long getLastDurationMs() {
+		return lastDurationMs;
+	}
+
+	public void setLastDurationMs(long lastDurationMs) {
+		this.lastDurationMs = lastDurationMs;
+	}
+
+	public long getLastBytes() {
+		return lastBytes;
+	}
+
+	public void setLastBytes(long lastBytes) {
+		this.lastBytes = lastBytes;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+
+	public long getRuns() {
+		return runs;
+	}
+
+	public void setRuns(long runs) {
+		this.runs = runs;
+	}
+
+	public Date getNextRun() {
+		return nextRun;
+	}
+
+	public void setNextRun(Date nextRun) {
+		this.nextRun = nextRun;
+	}
+
+	@Override
+	public String toString() {
+		return "UsageCollectionDTO [driveId=" + driveId + ", state=" + state +
+				", lastStarted=" + lastStarted + ", lastDurationMs=" + lastDurationMs +
+				", lastBytes=" + lastBytes + ", lastError=" + lastError +
+				", runs=" + runs + ", nextRun=" + nextRun + "]";
+	}
+
+}
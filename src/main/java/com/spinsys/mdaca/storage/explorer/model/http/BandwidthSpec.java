@@ -0,0 +1,81 @@
+package com.spinsys.mdaca.storage.explorer.model.http;
+
+/**
+ * Bandwidth limits to apply, in bytes per second, where 0 means unlimited.
+ * Only the limits that are present are changed.  To set the limit for a
+ * single drive or user, give its driveId or username along with limit;
+ * a null limit returns it to the default.
+ */
+public class BandwidthSpec {
+
+	/** The limit for the whole server */
+	Long globalLimit;
+
+	/** The limit for each drive without its own */
+	Long driveLimit;
+
+	/** The limit for each user without their own */
+	Long userLimit;
+
+	Integer driveId;
+
+	String username;
+
+	Long limit;
+
+	public Long getGlobalLimit() {
+		return globalLimit;
+	}
+
+	public void setGlobalLimit(Long globalLimit) {
+		this.globalLimit = globalLimit;
+	}
+
+	public Long getDriveLimit() {
+		return driveLimit;
+	}
+
+	public void setDriveLimit(Long driveLimit) {
+		this.driveLimit = driveLimit;
+	}
+
+	public Long getUserLimit() {
+		return userLimit;
+	}
+
+	public void setUserLimit(Long userLimit) {
+		this.userLimit = userLimit;
+	}
+
+	public Integer getDriveId() {
+		return driveId;
+	}
+
+	public void setDriveId(Integer driveId) {
+		this.driveId = driveId;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public void setUsername(String username) {
+		this.username = username;
+	}
+
+	public Long getLimit() {
+		return limit;
+	}
+
+	public void setLimit(Long limit) {
+		this.limit = limit;
+	}
+
+	@Override
+	public String toString() {
+		return "BandwidthSpec [globalLimit=" + globalLimit + ", driveLimit=" + driveLimit +
+				", userLimit=" + userLimit + ", driveId=" + driveId + ", username=" + username +
+				", limit=" + limit + "]";
+	}
+
+}
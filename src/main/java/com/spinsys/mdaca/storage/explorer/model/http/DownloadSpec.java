@@ -5,6 +5,9 @@ public class DownloadSpec extends FileLocationSpec {
 	private int topLines;
 	
 	private int bottomLines;
+
+	/** The archive a folder is downloaded as: zip, the default, or tar.gz */
+	private String archiveFormat;
 	
 	@Override
 	public String toString() {
@@ -27,6 +30,14 @@ public class DownloadSpec extends FileLocationSpec {
 		this.bottomLines = bottomLines;
 	}
 
+	public String getArchiveFormat() {
+		return archiveFormat;
+	}
+
+	public void setArchiveFormat(String archiveFormat) {
+		this.archiveFormat = archiveFormat;
+	}
+
 	public boolean isPreview() {
 		return topLines > 0 || bottomLines > 0;
 	}
@@ -0,0 +1,119 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import java.io.InterruptedIOException;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spinsys.mdaca.storage.explorer.io.FileUtil;
+
+/**
+ * Slows usage crawls down while the server is busy.  After each batch a
+ * crawl {@link #pause() pauses} for the current delay, which doubles each
+ * time the process's CPU load is found above the limit and halves each time
+ * it's found below, so crawls run flat out on an idle server and back off
+ * smoothly, rather than all at once, as users' requests pick up.  One
+ * throttle is shared by all of the crawls, since they share the CPU.
+ */
+public class CrawlThrottle {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.persistence.CrawlThrottle");
+
+	/** System property for the process CPU load, in percent, above which crawls back off */
+	public static final String MAX_CPU_PERCENT_PROPERTY = "storexp.usage.maxCpuPercent";
+
+	static final double DEFAULT_MAX_CPU_PERCENT = 50.0;
+
+	/** The first delay when backing off */
+	static final long MIN_DELAY_MS = 50;
+
+	static final long MAX_DELAY_MS = 5000;
+
+	/** The singleton CrawlThrottle */
+	private static CrawlThrottle singletonThrottle = null;
+
+	private final DoubleSupplier cpuLoad;
+
+	private final double maxCpuPercent;
+
+	private long delayMillis = 0L;
+
+	/**
+	 * @param cpuLoad supplies the process CPU load, in percent; NaN if unknown
+	 */
+	CrawlThrottle(DoubleSupplier cpuLoad, double maxCpuPercent) {
+		this.cpuLoad = cpuLoad;
+		this.maxCpuPercent = maxCpuPercent;
+	}
+
+	public static synchronized CrawlThrottle getInstance() {
+		if (singletonThrottle == null) {
+			double maxCpuPercent = DEFAULT_MAX_CPU_PERCENT;
+			String property = System.getProperty(MAX_CPU_PERCENT_PROPERTY);
+
+			if (property != null) {
+				try {
+					maxCpuPercent = Double.parseDouble(property);
+				} catch (NumberFormatException e) {
+					logger.warning("Ignoring invalid " + MAX_CPU_PERCENT_PROPERTY + ": " + property);
+				}
+			}
+			singletonThrottle = new CrawlThrottle(CrawlThrottle::getProcessCpuLoad, maxCpuPercent);
+		}
+		return singletonThrottle;
+	}
+
+	/**
+	 * Wait for as long as the load calls for
+	 * @throws InterruptedIOException if the crawl is interrupted while waiting,
+	 *  e.g. because the application is shutting down
+	 */
+	public void pause() throws InterruptedIOException {
+		long delay = nextDelay();
+
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while pausing the crawl");
+			}
+		}
+	}
+
+	/**
+	 * Adjust the delay to the current load
+	 * @return the new delay
+	 */
+	synchronized long nextDelay() {
+		double load = cpuLoad.getAsDouble();
+
+		if (load > maxCpuPercent) {
+			long delay = Math.min(MAX_DELAY_MS, Math.max(MIN_DELAY_MS, delayMillis * 2));
+
+			if (delay != delayMillis) {
+				logger.info("CPU load is " + load + "%; pausing crawls for " + delay + " ms per batch");
+			}
+			delayMillis = delay;
+		}
+		else if (!Double.isNaN(load)) {
+			delayMillis = (delayMillis / 2 < MIN_DELAY_MS) ? 0L : delayMillis / 2;
+		}
+		return delayMillis;
+	}
+
+	public synchronized long getDelayMillis() {
+		return delayMillis;
+	}
+
+	private static double getProcessCpuLoad() {
+		try {
+			return FileUtil.getProcessCpuLoad();
+		} catch (Exception e) {
+			logger.log(Level.FINE, "Unable to get the CPU load", e);
+			return Double.NaN;
+		}
+	}
+
+}
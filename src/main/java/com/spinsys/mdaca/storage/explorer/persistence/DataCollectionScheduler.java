@@ -1,14 +1,14 @@
 package com.spinsys.mdaca.storage.explorer.persistence;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 
+import com.spinsys.mdaca.storage.explorer.provider.SMBSessionPool;
+import com.spinsys.mdaca.storage.explorer.provider.StorageClientRegistry;
+
 
 @WebListener
 public class DataCollectionScheduler implements ServletContextListener {
@@ -16,16 +16,13 @@ public class DataCollectionScheduler implements ServletContextListener {
     private static final Logger logger =
             Logger.getLogger("com.spinsys.mdaca.storage.explorer.persistence.DataCollectionScheduler");
 
-    private ScheduledExecutorService scheduler;
-
 	public DataCollectionScheduler() {
 	}
 
 	@Override
 	public void contextInitialized(ServletContextEvent sce) {
-        scheduler = Executors.newSingleThreadScheduledExecutor();
-        logger.info("Starting UsageDataCacher now");
-        scheduler.scheduleWithFixedDelay(new UsageDataCacher(), 0, 60, TimeUnit.MINUTES);
+        logger.info("Starting usage data collection now");
+        UsageCollectionScheduler.getInstance().start();
 
         // TODO totally remove this and called code
 //        logger.info("Starting DiskUsageHistoryDataCollector in 20 minutes");
@@ -34,7 +31,9 @@ public class DataCollectionScheduler implements ServletContextListener {
 
 	@Override
 	public void contextDestroyed(ServletContextEvent sce) {
-        scheduler.shutdownNow();
+        UsageCollectionScheduler.getInstance().shutdown();
+        StorageClientRegistry.getInstance().shutdown();
+        SMBSessionPool.getInstance().shutdown();
 	}
 	
 }
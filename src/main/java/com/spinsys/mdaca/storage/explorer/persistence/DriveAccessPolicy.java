@@ -0,0 +1,271 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.GUI_SEP;
+import static com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel.isApplicableAccessLevel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel;
+
+/**
+ * A drive's security rules, compiled once so that checking access to many
+ * paths doesn't re-parse them: the rule text is compiled to a Pattern, the
+ * user lists are split into sets, and all the access levels for a path are
+ * worked out in one pass over the rules.  Policies are cached per drive and
+ * rebuilt when the drive's rules change.
+ * <p>
+ * The rules are evaluated the same way as one {@link DriveSecurityRule} at a
+ * time: for each access level, rules that apply to the user and level are
+ * checked in order; a matching inclusion rule grants access, a matching
+ * exclusion rule denies it outright, and the folders above an inclusion rule
+ * can be read so that the user can get to it.
+ */
+public class DriveAccessPolicy {
+
+	/** The access levels that rules grant, other than None */
+	static final AccessLevel[] LEVELS = {
+			AccessLevel.Read, AccessLevel.Create, AccessLevel.Modify,
+			AccessLevel.Delete, AccessLevel.Archive, AccessLevel.Restore
+	};
+
+	/** Policies by drive id */
+	private static final Map<Integer, DriveAccessPolicy> policies = new HashMap<>();
+
+	/** One rule, ready to evaluate */
+	private static class CompiledRule {
+		final String ruleText;
+		final Pattern pattern;
+
+		/** Why the rule text couldn't be compiled; thrown when the rule is used */
+		final RuntimeException invalid;
+
+		final boolean exclude;
+		final Set<String> users;
+		final String roleName;
+
+		/** The levels this rule applies to */
+		final Set<AccessLevel> levels = EnumSet.noneOf(AccessLevel.class);
+
+		CompiledRule(DriveSecurityRule rule) {
+			Pattern compiled = null;
+			RuntimeException exception = null;
+
+			try {
+				compiled = Pattern.compile(rule.getRuleText());
+			} catch (RuntimeException e) {
+				exception = e;
+			}
+			this.ruleText = rule.getRuleText();
+			this.pattern = compiled;
+			this.invalid = exception;
+			this.exclude = rule.isExclude();
+			this.users = rule.usersAsSet();
+			this.roleName = rule.getRoleName();
+
+			AccessLevel ruleLevel = AccessLevel.fromString(rule.getAccessLevel());
+			for (AccessLevel level : LEVELS) {
+				if (isApplicableAccessLevel(ruleLevel, level)) {
+					levels.add(level);
+				}
+			}
+		}
+
+		boolean matches(String path) {
+			if (invalid != null) {
+				throw invalid;
+			}
+			return pattern.matcher(path).matches();
+		}
+
+		boolean matchesAncestorDirectory(String path) {
+			return ruleText.startsWith(path) && path.endsWith(GUI_SEP);
+		}
+	}
+
+	/**
+	 * The rules that apply to one user
+	 */
+	public static class UserPolicy {
+		private final List<CompiledRule> rules;
+
+		UserPolicy(List<CompiledRule> rules) {
+			this.rules = rules;
+		}
+
+		/**
+		 * @return true if the user has the given access to the path
+		 */
+		public boolean hasAccess(String path, AccessLevel level) {
+			return evaluate(path, EnumSet.of(level)).contains(level);
+		}
+
+		/**
+		 * @return every access level the user has to the path, each
+		 *  evaluated on its own
+		 */
+		public Set<AccessLevel> evaluate(String path) {
+			return evaluate(path, EnumSet.allOf(AccessLevel.class));
+		}
+
+		private Set<AccessLevel> evaluate(String path, Set<AccessLevel> wanted) {
+			Set<AccessLevel> granted = EnumSet.noneOf(AccessLevel.class);
+			Set<AccessLevel> denied = EnumSet.noneOf(AccessLevel.class);
+
+			for (CompiledRule rule : rules) {
+				Boolean matches = null;
+
+				for (AccessLevel level : rule.levels) {
+					if (!wanted.contains(level) || denied.contains(level)) {
+						continue;
+					}
+					if (matches == null) {
+						matches = rule.matches(path);
+					}
+
+					if (matches) {
+						// an exclusion rule that matches denies access, whatever came before
+						if (rule.exclude) {
+							denied.add(level);
+							granted.remove(level);
+						} else {
+							granted.add(level);
+						}
+					}
+					// If this path is an ancestor directory of an inclusion rule
+					// that allows access, then this ancestor directory should be readable
+					else if (!rule.exclude && level == AccessLevel.Read && rule.matchesAncestorDirectory(path)) {
+						granted.add(level);
+					}
+				}
+			}
+			return granted;
+		}
+
+		/**
+		 * @return the access levels to show for the path: each of Read,
+		 *  Create, Modify and Delete implies the ones before it, followed by
+		 *  Archive and Restore
+		 */
+		public List<AccessLevel> getAccessLevels(String path) {
+			return toAccessLevels(evaluate(path));
+		}
+	}
+
+	/** The drive's rules, as text, to tell when they've changed */
+	private final String fingerprint;
+
+	private final List<CompiledRule> rules = new ArrayList<>();
+
+	DriveAccessPolicy(List<DriveSecurityRule> securityRules) {
+		this.fingerprint = getFingerprint(securityRules);
+
+		for (DriveSecurityRule rule : securityRules) {
+			rules.add(new CompiledRule(rule));
+		}
+	}
+
+	/**
+	 * @return the policy for the drive's current rules, compiling
+	 *  them if they haven't been seen before
+	 */
+	public static DriveAccessPolicy forDrive(Drive drive) {
+		List<DriveSecurityRule> securityRules =
+				(drive.getSecurityRules() == null) ? Collections.emptyList() : drive.getSecurityRules();
+		String fingerprint = getFingerprint(securityRules);
+
+		synchronized (policies) {
+			DriveAccessPolicy policy = policies.get(drive.getDriveId());
+
+			if (policy == null || !policy.fingerprint.equals(fingerprint)) {
+				policy = new DriveAccessPolicy(securityRules);
+				policies.put(drive.getDriveId(), policy);
+			}
+			return policy;
+		}
+	}
+
+	/**
+	 * Drop the compiled policy for a drive, e.g., when its rules are updated
+	 */
+	public static void invalidate(int driveId) {
+		synchronized (policies) {
+			policies.remove(driveId);
+		}
+	}
+
+	/**
+	 * @param username gets the user's name; only called if a rule names users
+	 * @param inRole tells whether the user is in a role
+	 * @return the rules that apply to the user
+	 */
+	public UserPolicy forUser(Supplier<String> username, Predicate<String> inRole) {
+		List<CompiledRule> applicable = new ArrayList<>();
+		String name = null;
+
+		for (CompiledRule rule : rules) {
+			if (!rule.users.isEmpty()) {
+				if (name == null) {
+					name = username.get();
+				}
+				if (!rule.users.contains(name)) {
+					continue;
+				}
+			}
+			boolean roleNameEmpty = rule.roleName == null || rule.roleName.isEmpty();
+
+			if (roleNameEmpty || inRole.test(rule.roleName)) {
+				applicable.add(rule);
+			}
+		}
+		return new UserPolicy(applicable);
+	}
+
+	/**
+	 * @see UserPolicy#getAccessLevels(String)
+	 */
+	public static List<AccessLevel> toAccessLevels(Set<AccessLevel> granted) {
+		List<AccessLevel> accessLevels = new ArrayList<>();
+
+		if (granted.contains(AccessLevel.Delete)) {
+			Collections.addAll(accessLevels, AccessLevel.Read, AccessLevel.Create, AccessLevel.Modify, AccessLevel.Delete);
+		} else if (granted.contains(AccessLevel.Modify)) {
+			Collections.addAll(accessLevels, AccessLevel.Read, AccessLevel.Create, AccessLevel.Modify);
+		} else if (granted.contains(AccessLevel.Create)) {
+			Collections.addAll(accessLevels, AccessLevel.Read, AccessLevel.Create);
+		} else if (granted.contains(AccessLevel.Read)) {
+			accessLevels.add(AccessLevel.Read);
+		}
+
+		if (granted.contains(AccessLevel.Archive)) {
+			accessLevels.add(AccessLevel.Archive);
+		}
+		if (granted.contains(AccessLevel.Restore)) {
+			accessLevels.add(AccessLevel.Restore);
+		}
+		return accessLevels;
+	}
+
+	private static String getFingerprint(List<DriveSecurityRule> securityRules) {
+		StringBuilder builder = new StringBuilder();
+
+		for (DriveSecurityRule rule : securityRules) {
+			builder.append(rule.getRuleId()).append('\u0000')
+					.append(rule.getRuleText()).append('\u0000')
+					.append(rule.isExclude()).append('\u0000')
+					.append(rule.getAccessLevel()).append('\u0000')
+					.append(rule.getUsers()).append('\u0000')
+					.append(rule.getRoleName()).append('\u0001');
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,187 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
+
+/**
+ * The disk usage of a folder and everything in it, recursively, as of the
+ * last completed crawl of its drive.  The rows are rolled up from the crawl's
+ * items by {@link FolderUsageRollup} and replaced along with the drive's
+ * {@link MemoryUsage} rows, so a folder's usage is a lookup rather than
+ * a sum over every file in it.  The whole drive's usage is under "".
+ */
+@Entity
+@Table(name="FOLDER_USAGE",
+		indexes = @Index(name = "FOLDER_USAGE_DRIVE_PATH", columnList = "DRIVE_ID, PATH"))
+public class FolderUsage {
+
+	/** The longest folder path that's saved */
+	static final int MAX_PATH_LENGTH = 2048;
+
+	/** How many paths are looked up per query */
+	static final int MAX_PATHS_PER_QUERY = 1000;
+
+	private int folderUsageId;
+	private int driveId;
+	private String path;
+	private long bytes;
+	private long fileCount;
+	private Date lastModified;
+	private Date created;
+
+	public FolderUsage() {
+	}
+
+	@Id
+	@GeneratedValue()
+	@Column(name = "FOLDER_USAGE_ID")
+	public int getFolderUsageId() {
+		return folderUsageId;
+	}
+
+	public void setFolderUsageId(int folderUsageId) {
+		this.folderUsageId = folderUsageId;
+	}
+
+	@Column(name = "DRIVE_ID", nullable = false)
+	public int getDriveId() {
+		return driveId;
+	}
+
+	public void setDriveId(int driveId) {
+		this.driveId = driveId;
+	}
+
+	@Column(name = "PATH", length = MAX_PATH_LENGTH)
+	public String getPath() {
+		return path;
+	}
+
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/** The bytes used by everything in the folder, recursively */
+	@Column(name = "BYTES")
+	public long getBytes() {
+		return bytes;
+	}
+
+	public void setBytes(long bytes) {
+		this.bytes = bytes;
+	}
+
+	/** How many files are in the folder, recursively */
+	@Column(name = "FILE_COUNT")
+	public long getFileCount() {
+		return fileCount;
+	}
+
+	public void setFileCount(long fileCount) {
+		this.fileCount = fileCount;
+	}
+
+	/** When anything in the folder was last modified */
+	@Column(name = "LAST_MODIFIED")
+	@Temporal(TemporalType.TIMESTAMP)
+	public Date getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(Date lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	/** When the crawl that found the usage as it is started; unchanged
+	 * usage is kept from one crawl to the next */
+	@Column(name = "CREATED")
+	@Temporal(TemporalType.TIMESTAMP)
+	public Date getCreated() {
+		return created;
+	}
+
+	public void setCreated(Date created) {
+		this.created = created;
+	}
+
+	/**
+	 * @param path a folder path; null, "", and "/" mean the whole drive
+	 * @return the folder's usage, or null if the last crawl didn't find it
+	 */
+	public static FolderUsage getFolderUsage(int driveId, String path, EntityManager manager) {
+		return getFolderUsages(driveId, Collections.singletonList(path), manager)
+				.get(path);
+	}
+
+	/**
+	 * Look up the usage of many folders at once
+	 * @param paths folder paths; null, "", and "/" mean the whole drive
+	 * @return the usage of each folder the last crawl found, by the path
+	 *  it was asked for with
+	 */
+	public static Map<String, FolderUsage> getFolderUsages(
+			int driveId, Collection<String> paths, EntityManager manager)
+	{
+		Map<String, String> pathsByKey = new HashMap<>();
+
+		for (String path : paths) {
+			pathsByKey.put(toKey(path), path);
+		}
+
+		Map<String, FolderUsage> result = new HashMap<>();
+		List<String> keys = new ArrayList<>(pathsByKey.keySet());
+
+		for (int i = 0; i < keys.size(); i += MAX_PATHS_PER_QUERY) {
+			List<FolderUsage> usages = manager
+					.createQuery(
+							"SELECT usage FROM FolderUsage usage"
+									+ " WHERE (usage.driveId = :driveId)"
+									+ " AND (usage.path IN :paths)",
+							FolderUsage.class)
+					.setParameter("driveId", driveId)
+					.setParameter("paths", keys.subList(i, Math.min(i + MAX_PATHS_PER_QUERY, keys.size())))
+					.getResultList();
+
+			for (FolderUsage usage : usages) {
+				result.put(pathsByKey.get(usage.getPath()), usage);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the path as the folder's usage is saved under:
+	 *  "" for the whole drive, otherwise ending with a slash
+	 */
+	static String toKey(String path) {
+		if (PathProcessor.isRoot(path)) {
+			return "";
+		}
+		return path.endsWith(PathProcessor.GUI_SEP) ? path : path + PathProcessor.GUI_SEP;
+	}
+
+	@Override
+	public String toString() {
+		return "FolderUsage [driveId=" + driveId + ", path=" + path +
+				", bytes=" + bytes + ", fileCount=" + fileCount +
+				", lastModified=" + lastModified + ", created=" + created + "]";
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+
+/**
+ * Adds up the usage of every folder on a drive as the drive is crawled:
+ * each item counts towards the folder it's in and all of that folder's
+ * ancestors.  Only the folders are held, not the items.
+ */
+public class FolderUsageRollup {
+
+	/** The usage of each folder, by its path ending in a slash; the whole drive is under "" */
+	private final Map<String, Totals> folders = new HashMap<>();
+
+	static class Totals {
+
+		long bytes;
+
+		long fileCount;
+
+		long lastModified;
+
+		void add(long bytes, boolean isFile, long modified) {
+			this.bytes += bytes;
+
+			if (isFile) {
+				fileCount++;
+			}
+			lastModified = Math.max(lastModified, modified);
+		}
+	}
+
+	public void add(DriveItem item) {
+		String path = item.getPath();
+
+		if (path == null) {
+			return;
+		}
+		long bytes = item.getFileSize();
+		boolean isFile = !item.isDirectory();
+		long modified = (item.getModifiedDate() == null) ? 0L : item.getModifiedDate().getTime();
+
+		getTotals("").add(bytes, isFile, modified);
+
+		// a folder's own path ends with a slash, so it counts towards itself
+		for (int i = path.indexOf(PathProcessor.GUI_SEP); i >= 0; i = path.indexOf(PathProcessor.GUI_SEP, i + 1)) {
+			getTotals(path.substring(0, i + 1)).add(bytes, isFile, modified);
+		}
+	}
+
+	private Totals getTotals(String folder) {
+		return folders.computeIfAbsent(folder, f -> new Totals());
+	}
+
+	public Map<String, Totals> getFolders() {
+		return folders;
+	}
+
+	/**
+	 * @return the folder's usage, ready to be saved
+	 */
+	static FolderUsage toFolderUsage(int driveId, String folder, Totals totals, Date created) {
+		FolderUsage usage = new FolderUsage();
+		usage.setDriveId(driveId);
+		usage.setPath(folder);
+		usage.setBytes(totals.bytes);
+		usage.setFileCount(totals.fileCount);
+		usage.setLastModified((totals.lastModified == 0L) ? null : new Date(totals.lastModified));
+		usage.setCreated(created);
+		return usage;
+	}
+
+	/**
+	 * @param lastModified the saved last modified time; null if none
+	 * @return whether the folder's saved usage matches its rolled up totals
+	 */
+	static boolean isSame(Totals totals, long bytes, long fileCount, Date lastModified) {
+		long modified = (lastModified == null) ? 0L : lastModified.getTime();
+		return (totals.bytes == bytes) && (totals.fileCount == fileCount) && (totals.lastModified == modified);
+	}
+
+}
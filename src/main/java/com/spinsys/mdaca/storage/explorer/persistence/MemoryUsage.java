@@ -10,6 +10,7 @@ import javax.persistence.EntityManager;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -20,7 +21,8 @@ import javax.persistence.TypedQuery;
 import org.hibernate.annotations.GenericGenerator;
 
 @Entity
-@Table(name="MEMORY_USAGE")
+@Table(name="MEMORY_USAGE",
+		indexes = @Index(name = "MEMORY_USAGE_DRIVE_PATH", columnList = "DRIVE_ID, PATH"))
 public class MemoryUsage {
 	
 	/** We insert a record with this special value as a path to show
@@ -28,6 +30,10 @@ public class MemoryUsage {
 	 */
 	public static final String COMPLETED = "///COMPLETED///";
 
+	/** How much of a path is saved */
+	// TODO why 255?
+	static final int MAX_PATH_LENGTH = 255;
+
 	private static final Logger logger =
 			Logger.getLogger("com.spinsys.mdaca.storage.explorer.persistence.MemoryUsage");
 	
@@ -35,6 +41,7 @@ public class MemoryUsage {
 	private int usageId;
 	private String path;
 	private Long bytes;
+	private Date lastModified;
 	private Date created;
 	private Drive drive;
 
@@ -77,6 +84,17 @@ public class MemoryUsage {
 		this.created = created;
 	}
 
+	/** When the file was last modified, as of the crawl that found it */
+	@Column(name = "LAST_MODIFIED")
+	@Temporal(TemporalType.TIMESTAMP)
+	public Date getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(Date lastModified) {
+		this.lastModified = lastModified;
+	}
+
 	@Column(name = "BYTES")
 	public Long getBytes() {
 		return bytes;
@@ -90,8 +108,7 @@ public class MemoryUsage {
 		return path;
 	}
 	public void setPath(String path) {
-	    // TODO why 255?
-        this.path = TableUtils.getSafeValue(path, 255);
+        this.path = TableUtils.getSafeValue(path, MAX_PATH_LENGTH);
 	}
 
     @ManyToOne
@@ -104,46 +121,6 @@ public class MemoryUsage {
 		this.drive = drive;
 	}
 
-	/**
-	 * Retrieve folder usage records based on the input criteria.
-	 * One usage record will be returned for each subfolder.
-	 * Each usage record will indicate the total disk usage for that subfolder
-	 * and all of its contents, recursively.
-	 * @param driveId the drive of interest
-	 * @param startDate the earliest date for which a record is wanted
-	 * @param path the folder for which usage information is desired
-	 * @return a list of drive usage records
-	 */
-	public static Long getFolderUsage(
-			int driveId, String path, EntityManager manager)
-	{
-		Long result = null;
-		Date lastCompleted = getLastCompletedTime(driveId, manager);
-		
-		if (lastCompleted != null ) {
-			// get things newer than 1 minute before the data was recorded
-			// TODO get the date/time parameter types correct, so we
-			// don't have to subtract a minute and can use equals instead
-			Date when = new Date(lastCompleted.getTime() - 60_000);
-			TypedQuery<Long> query = manager
-					.createQuery(
-							"SELECT SUM(usage.bytes) FROM MemoryUsage usage"
-									+ " WHERE (usage.drive.driveId = :driveId)"
-									+ " AND (usage.path LIKE '" + path + "%')"
-//									+ " AND (usage.created = :created)",
-									+ " AND (usage.created > :created)",
-							Long.class)
-					.setParameter("driveId", driveId)
-//					.setParameter("created", lastCompleted, TemporalType.TIMESTAMP);
-					.setParameter("created", when, TemporalType.TIMESTAMP);
-			result = query.getSingleResult();
-		}
-		else {
-			logger.warning("No folder data usage available for drive " + driveId);
-		}
-		return result;
-	}
-
 	public static List<MemoryUsage> getBiggestFiles(
 			int driveId, String path, int maxResults, EntityManager manager)
 	{
@@ -151,22 +128,19 @@ public class MemoryUsage {
 		Date lastCompleted = getLastCompletedTime(driveId, manager);
 		
 		if (lastCompleted != null ) {
-			// get things newer than 1 minute before the data was recorded
-			// TODO get the date/time parameter types correct, so we
-			// don't have to subtract a minute and can use equals instead
-			Date when = new Date(lastCompleted.getTime() - 60_000);
+			// A crawl's rows replace the previous crawl's all at once, so every
+			// row is current, though unchanged files keep their older rows
 			TypedQuery<MemoryUsage> query = manager
 					.createQuery(
 							"SELECT usage FROM MemoryUsage usage"
 									+ " WHERE (usage.drive.driveId = :driveId)"
-									+ " AND (usage.path LIKE '" + path + "%')"
-//									+ " AND (usage.created = :created)",
-									+ " AND (usage.created > :created)"
+									+ " AND (usage.path LIKE :prefix)"
+									+ " AND (usage.path <> :completed)"
 									+ " ORDER BY usage.bytes DESC",
 									MemoryUsage.class)
 					.setParameter("driveId", driveId)
-//					.setParameter("created", lastCompleted, TemporalType.TIMESTAMP);
-					.setParameter("created", when, TemporalType.TIMESTAMP)
+					.setParameter("prefix", path + "%")
+					.setParameter("completed", COMPLETED)
 					.setMaxResults(maxResults);
 			result = query.getResultList();
 		}
@@ -176,40 +150,6 @@ public class MemoryUsage {
 		return result;
 	}
 
-	/**
-	 * Delete old folder usage records based on the input criteria.
-	 * @param driveId the drive of interest
-	 * @param startDate the earliest date for which a record is wanted
-	 * @param path the folder for which usage information is desired
-	 * @return a list of drive usage records
-	 */
-	public static int deleteOldFolderUsage(
-			int driveId, EntityManager manager)
-	{
-		int rowsDeleted = 0;
-		Date lastCompleted = getLastCompletedTime(driveId, manager);
-		
-		if (lastCompleted != null ) {
-			// delete records older than 1 minute before the data was recorded
-			// TODO get the date/time parameter types correct, so we
-			// don't have to subtract a minute and can use equals instead
-			Date when = new Date(lastCompleted.getTime() - 60_000);
-			javax.persistence.Query query = manager
-					.createQuery(
-							"DELETE FROM MemoryUsage usage"
-									+ " WHERE (usage.drive.driveId = :driveId)"
-									+ " AND (usage.created < :created)")
-					.setParameter("driveId", driveId)
-//					.setParameter("created", lastCompleted, TemporalType.TIMESTAMP);
-					.setParameter("created", when, TemporalType.TIMESTAMP);
-			rowsDeleted = query.executeUpdate();
-		}
-		else {
-			logger.warning("No folder data usage available for drive " + driveId);
-		}
-		return rowsDeleted;
-	}
-
 	public static Date getLastCompletedTime(
 			int driveId, EntityManager manager)
 	{
@@ -233,6 +173,7 @@ public class MemoryUsage {
 	public String toString() {
 		return "MemoryUsage [usageId=" + usageId +
 				", path=" + path + ", bytes=" + bytes +
+				", lastModified=" + lastModified +
 				", created=" + created + ", drive=" + drive + "]";
 	}
 
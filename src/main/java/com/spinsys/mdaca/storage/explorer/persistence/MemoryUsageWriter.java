@@ -0,0 +1,433 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.postgresql.PGConnection;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+
+/**
+ * Writes the usage records for a crawl of a drive in bulk over JDBC,
+ * rather than persisting a MemoryUsage entity per file.  Rows are first
+ * staged in MEMORY_USAGE_STAGE, using the COPY protocol on PostgreSQL and
+ * batched inserts otherwise.  When the crawl is done, {@link #publish}
+ * brings MEMORY_USAGE and the drive's FOLDER_USAGE rollup up to date and
+ * adds the completion record, all in one transaction; readers see either
+ * the last complete crawl or this one, never part of one.
+ * <p>
+ * Most crawls are incremental: only the rows for files whose size or
+ * modification time changed, or that were added or removed, are deleted
+ * and inserted, and likewise for folders, since on a mostly static drive
+ * nearly every row would otherwise be rewritten unchanged.  Every
+ * {@link #FULL_CRAWL_HOURS_PROPERTY} hours the drive's rows are instead
+ * replaced wholesale, as a fallback.
+ */
+public class MemoryUsageWriter {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.persistence.MemoryUsageWriter");
+
+	/** System property for the hours between full replacements of a drive's usage rows; 0 for always */
+	public static final String FULL_CRAWL_HOURS_PROPERTY = "storexp.usage.fullCrawlHours";
+
+	static final long DEFAULT_FULL_CRAWL_HOURS = 24 * 7;
+
+	static final String STAGE_TABLE = "MEMORY_USAGE_STAGE";
+
+	/** How many folder usage rows are inserted per batch */
+	static final int FOLDER_BATCH_SIZE = 1000;
+
+	/** Set once the stage table is known to exist */
+	private static volatile boolean stageCreated = false;
+
+	/** Held while creating the stage table, so that concurrent crawls don't both try */
+	private static final Object STAGE_LOCK = new Object();
+
+	private final EntityManager entityManager;
+
+	private final Drive drive;
+
+	private final Timestamp start;
+
+	private final long fullCrawlMs;
+
+	/** false until rows left behind by an earlier, failed crawl are cleared */
+	private boolean stageCleared = false;
+
+	/**
+	 * @param start the time at which data collection started
+	 */
+	public MemoryUsageWriter(EntityManager entityManager, Drive drive, Date start) {
+		this(entityManager, drive, start,
+				TimeUnit.HOURS.toMillis(Long.getLong(FULL_CRAWL_HOURS_PROPERTY, DEFAULT_FULL_CRAWL_HOURS)));
+	}
+
+	/**
+	 * @param fullCrawlMs the milliseconds between full replacements of the drive's rows
+	 */
+	MemoryUsageWriter(EntityManager entityManager, Drive drive, Date start, long fullCrawlMs) {
+		this.entityManager = entityManager;
+		this.drive = drive;
+		this.start = new Timestamp(start.getTime());
+		this.fullCrawlMs = fullCrawlMs;
+	}
+
+	/**
+	 * Stage a batch of usage rows
+	 * @return the total bytes used by the items
+	 */
+	public long write(List<DriveItem> items) throws ExplorerException {
+		long totalBytes = 0L;
+
+		for (DriveItem item : items) {
+			totalBytes += item.getFileSize();
+		}
+
+		if (!stageCleared) {
+			ensureStage();
+		}
+
+		inTransaction(connection -> {
+			if (!stageCleared) {
+				clearStage(connection);
+				stageCleared = true;
+			}
+
+			if (!items.isEmpty()) {
+				if (connection.isWrapperFor(PGConnection.class)) {
+					copy(connection, items);
+				}
+				else {
+					insert(connection, items);
+				}
+			}
+		});
+		return totalBytes;
+	}
+
+	/**
+	 * Bring the drive's usage rows up to date with the staged ones and its
+	 * folder usage with the rollup, and mark the drive's data complete
+	 */
+	public void publish(FolderUsageRollup rollup) throws ExplorerException {
+		if (!stageCleared) {
+			ensureStage();
+		}
+
+		inTransaction(connection -> {
+			if (isFullCrawlDue(getOldestRow(connection), start, fullCrawlMs)) {
+				replaceUsage(connection);
+			}
+			else {
+				updateUsage(connection);
+			}
+
+			try (PreparedStatement statement = connection.prepareStatement(
+					"INSERT INTO MEMORY_USAGE (USAGEID, DRIVE_ID, PATH, BYTES, CREATED)"
+					+ " VALUES (nextval('hibernate_sequence'), ?, ?, 0, ?)")) {
+				statement.setInt(1, drive.getDriveId());
+				statement.setString(2, MemoryUsage.COMPLETED);
+				statement.setTimestamp(3, start);
+				statement.executeUpdate();
+			}
+			updateFolderUsage(connection, rollup);
+			clearStage(connection);
+		});
+		logger.info("Completed storing folder usage data for " + drive.getDisplayName() + ".");
+	}
+
+	/**
+	 * @param oldest when the drive's oldest usage row was created, which is
+	 *  about when its rows were last replaced; null if it has none
+	 * @return whether the drive's rows should be replaced rather than updated
+	 */
+	static boolean isFullCrawlDue(Date oldest, Date start, long fullCrawlMs) {
+		return (oldest == null) || (start.getTime() - oldest.getTime() >= fullCrawlMs);
+	}
+
+	/** Replace all of the drive's usage rows with the staged ones */
+	void replaceUsage(Connection connection) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(
+				"DELETE FROM MEMORY_USAGE WHERE DRIVE_ID = ?")) {
+			statement.setInt(1, drive.getDriveId());
+			int rowsDeleted = statement.executeUpdate();
+			logger.info("Deleted " + rowsDeleted + " rows of old usage data for " + drive);
+		}
+
+		try (PreparedStatement statement = connection.prepareStatement(
+				"INSERT INTO MEMORY_USAGE (USAGEID, DRIVE_ID, PATH, BYTES, LAST_MODIFIED, CREATED)"
+				+ " SELECT nextval('hibernate_sequence'), DRIVE_ID, PATH, BYTES, LAST_MODIFIED, ?"
+				+ " FROM " + STAGE_TABLE + " WHERE DRIVE_ID = ?")) {
+			statement.setTimestamp(1, start);
+			statement.setInt(2, drive.getDriveId());
+			int rowsInserted = statement.executeUpdate();
+			logger.info("Replaced the usage data for " + drive + " with " + rowsInserted + " rows");
+		}
+	}
+
+	/**
+	 * Delete the rows for files that changed or are gone, including the old
+	 * completion record, and insert rows for files that changed or are new
+	 */
+	void updateUsage(Connection connection) throws SQLException {
+		String unchanged = " s.DRIVE_ID = m.DRIVE_ID AND s.PATH = m.PATH AND s.BYTES = m.BYTES"
+				+ " AND s.LAST_MODIFIED IS NOT DISTINCT FROM m.LAST_MODIFIED";
+		int rowsDeleted;
+		int rowsInserted;
+
+		try (PreparedStatement statement = connection.prepareStatement(
+				"DELETE FROM MEMORY_USAGE m WHERE m.DRIVE_ID = ?"
+				+ " AND NOT EXISTS (SELECT 1 FROM " + STAGE_TABLE + " s WHERE" + unchanged + ")")) {
+			statement.setInt(1, drive.getDriveId());
+			rowsDeleted = statement.executeUpdate();
+		}
+
+		try (PreparedStatement statement = connection.prepareStatement(
+				"INSERT INTO MEMORY_USAGE (USAGEID, DRIVE_ID, PATH, BYTES, LAST_MODIFIED, CREATED)"
+				+ " SELECT nextval('hibernate_sequence'), s.DRIVE_ID, s.PATH, s.BYTES, s.LAST_MODIFIED, ?"
+				+ " FROM " + STAGE_TABLE + " s WHERE s.DRIVE_ID = ?"
+				+ " AND NOT EXISTS (SELECT 1 FROM MEMORY_USAGE m WHERE" + unchanged + ")")) {
+			statement.setTimestamp(1, start);
+			statement.setInt(2, drive.getDriveId());
+			rowsInserted = statement.executeUpdate();
+		}
+		logger.info("Updated the usage data for " + drive + ": deleted "
+				+ rowsDeleted + " rows and inserted " + rowsInserted);
+	}
+
+	/**
+	 * Delete the drive's folder usage rows that changed or are gone, and
+	 * insert rows for the rolled up folders that changed or are new
+	 */
+	void updateFolderUsage(Connection connection, FolderUsageRollup rollup) throws SQLException {
+		Map<String, FolderUsageRollup.Totals> folders = rollup.getFolders();
+		List<Integer> changedIds = new ArrayList<>();
+		Set<String> unchanged = new HashSet<>();
+
+		try (PreparedStatement statement = connection.prepareStatement(
+				"SELECT FOLDER_USAGE_ID, PATH, BYTES, FILE_COUNT, LAST_MODIFIED"
+				+ " FROM FOLDER_USAGE WHERE DRIVE_ID = ?")) {
+			statement.setInt(1, drive.getDriveId());
+
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					String path = results.getString(2);
+					FolderUsageRollup.Totals totals = folders.get(path);
+					Timestamp lastModified = results.getTimestamp(5);
+
+					if ((totals != null) && FolderUsageRollup.isSame(totals,
+							results.getLong(3), results.getLong(4), lastModified)) {
+						unchanged.add(path);
+					}
+					else {
+						changedIds.add(results.getInt(1));
+					}
+				}
+			}
+		}
+
+		try (PreparedStatement statement = connection.prepareStatement(
+				"DELETE FROM FOLDER_USAGE WHERE FOLDER_USAGE_ID = ?")) {
+			for (int i = 0; i < changedIds.size(); i++) {
+				statement.setInt(1, changedIds.get(i));
+				statement.addBatch();
+
+				if ((i + 1) % FOLDER_BATCH_SIZE == 0) {
+					statement.executeBatch();
+				}
+			}
+			statement.executeBatch();
+		}
+
+		try (PreparedStatement statement = connection.prepareStatement(
+				"INSERT INTO FOLDER_USAGE (FOLDER_USAGE_ID, DRIVE_ID, PATH, BYTES, FILE_COUNT, LAST_MODIFIED, CREATED)"
+				+ " VALUES (nextval('hibernate_sequence'), ?, ?, ?, ?, ?, ?)")) {
+			int batched = 0;
+
+			for (Map.Entry<String, FolderUsageRollup.Totals> entry : folders.entrySet()) {
+				if (unchanged.contains(entry.getKey())) {
+					continue;
+				}
+				FolderUsage usage = FolderUsageRollup.toFolderUsage(
+						drive.getDriveId(), entry.getKey(), entry.getValue(), start);
+
+				if (usage.getPath().length() > FolderUsage.MAX_PATH_LENGTH) {
+					continue;
+				}
+				statement.setInt(1, usage.getDriveId());
+				statement.setString(2, usage.getPath());
+				statement.setLong(3, usage.getBytes());
+				statement.setLong(4, usage.getFileCount());
+				statement.setTimestamp(5, (usage.getLastModified() == null) ? null
+						: new Timestamp(usage.getLastModified().getTime()));
+				statement.setTimestamp(6, start);
+				statement.addBatch();
+
+				if (++batched % FOLDER_BATCH_SIZE == 0) {
+					statement.executeBatch();
+				}
+			}
+			statement.executeBatch();
+			logger.info("Updated the usage of " + folders.size() + " folders for " + drive
+					+ ": deleted " + changedIds.size() + " rows and inserted " + batched);
+		}
+	}
+
+	void copy(Connection connection, List<DriveItem> items) throws SQLException {
+		String sql = "COPY " + STAGE_TABLE + " (DRIVE_ID, PATH, BYTES, LAST_MODIFIED) FROM STDIN WITH (FORMAT csv)";
+
+		try {
+			connection.unwrap(PGConnection.class).getCopyAPI()
+					.copyIn(sql, new StringReader(toCsv(drive.getDriveId(), items)));
+		} catch (IOException e) {
+			throw new SQLException("Unable to copy usage rows for " + drive, e);
+		}
+	}
+
+	void insert(Connection connection, List<DriveItem> items) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(
+				"INSERT INTO " + STAGE_TABLE + " (DRIVE_ID, PATH, BYTES, LAST_MODIFIED) VALUES (?, ?, ?, ?)")) {
+			for (DriveItem item : items) {
+				statement.setInt(1, drive.getDriveId());
+				statement.setString(2, getPath(item));
+				statement.setLong(3, item.getFileSize());
+				statement.setTimestamp(4, getLastModified(item));
+				statement.addBatch();
+			}
+			statement.executeBatch();
+		}
+	}
+
+	/**
+	 * @return the items as CSV rows of drive ID, path, bytes, and last
+	 *  modified time, with the paths quoted, as COPY reads them
+	 */
+	static String toCsv(int driveId, List<DriveItem> items) {
+		StringBuilder csv = new StringBuilder(items.size() * 64);
+
+		for (DriveItem item : items) {
+			String path = getPath(item);
+			csv.append(driveId).append(',');
+
+			// an unquoted empty value is null
+			if (path != null) {
+				csv.append('"').append(path.replace("\"", "\"\"")).append('"');
+			}
+			csv.append(',').append(item.getFileSize()).append(',');
+
+			Timestamp lastModified = getLastModified(item);
+
+			if (lastModified != null) {
+				csv.append(lastModified);
+			}
+			csv.append('\n');
+		}
+		return csv.toString();
+	}
+
+	/** The path as MemoryUsage would save it */
+	static String getPath(DriveItem item) {
+		return TableUtils.getSafeValue(item.getPath(), MemoryUsage.MAX_PATH_LENGTH);
+	}
+
+	static Timestamp getLastModified(DriveItem item) {
+		Date modified = item.getModifiedDate();
+		return (modified == null) ? null : new Timestamp(modified.getTime());
+	}
+
+	/**
+	 * @return when the drive's oldest usage row was created; null if it has none
+	 */
+	private Date getOldestRow(Connection connection) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(
+				"SELECT MIN(CREATED) FROM MEMORY_USAGE WHERE DRIVE_ID = ?")) {
+			statement.setInt(1, drive.getDriveId());
+
+			try (ResultSet results = statement.executeQuery()) {
+				return results.next() ? results.getTimestamp(1) : null;
+			}
+		}
+	}
+
+	/** Remove any rows left behind by an earlier crawl of the drive that didn't finish */
+	private void clearStage(Connection connection) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(
+				"DELETE FROM " + STAGE_TABLE + " WHERE DRIVE_ID = ?")) {
+			statement.setInt(1, drive.getDriveId());
+			statement.executeUpdate();
+		}
+	}
+
+	/**
+	 * Create the stage table if this is the first crawl to need it.  It's
+	 * created in a transaction of its own, committed before anyone is told
+	 * it exists, so that a crawl never uses it before it's visible.
+	 */
+	private void ensureStage() throws ExplorerException {
+		if (!stageCreated) {
+			synchronized (STAGE_LOCK) {
+				if (!stageCreated) {
+					inTransaction(MemoryUsageWriter::createStage);
+					stageCreated = true;
+				}
+			}
+		}
+	}
+
+	private static void createStage(Connection connection) throws SQLException {
+		// The stage is rebuilt by every crawl, so it needn't survive a crash
+		String unlogged = connection.isWrapperFor(PGConnection.class) ? "UNLOGGED " : "";
+
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("CREATE " + unlogged + "TABLE IF NOT EXISTS " + STAGE_TABLE
+					+ " (DRIVE_ID INTEGER NOT NULL, PATH VARCHAR(2048), BYTES BIGINT, LAST_MODIFIED TIMESTAMP)");
+			statement.execute("ALTER TABLE " + STAGE_TABLE
+					+ " ADD COLUMN IF NOT EXISTS LAST_MODIFIED TIMESTAMP");
+			// for matching the staged rows to the saved ones
+			statement.execute("CREATE INDEX IF NOT EXISTS " + STAGE_TABLE + "_DRIVE_PATH ON "
+					+ STAGE_TABLE + " (DRIVE_ID, PATH)");
+		}
+	}
+
+	private void inTransaction(Work work) throws ExplorerException {
+		EntityTransaction transaction = entityManager.getTransaction();
+
+		try {
+			transaction.begin();
+			entityManager.unwrap(Session.class).doWork(work);
+			transaction.commit();
+		} catch (RuntimeException e) {
+			try {
+				if (transaction.isActive()) {
+					transaction.rollback();
+				}
+			} catch (RuntimeException e1) {
+				logger.log(Level.WARNING, "Exception during rollback", e1);
+			}
+			throw new ExplorerException("Unable to save usage data for " + drive + ": " + e.getMessage(), e);
+		}
+	}
+
+}
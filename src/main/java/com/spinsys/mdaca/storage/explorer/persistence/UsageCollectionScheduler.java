@@ -0,0 +1,259 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import com.spinsys.mdaca.storage.explorer.model.dto.UsageCollectionDTO;
+
+/**
+ * Collects each drive's usage data on the drive's own schedule.  Every
+ * minute, the drives that are due are handed to a pool of at most
+ * {@link #MAX_CONCURRENT_PROPERTY} workers, each of which crawls one drive
+ * with its own EntityManager.  A drive is next due an interval after its
+ * last collection finished, so a slow drive neither holds up the others
+ * nor is started again while it's still running.
+ */
+public class UsageCollectionScheduler {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.persistence.UsageCollectionScheduler");
+
+	/** System property for the number of drives whose usage may be collected at once. */
+	public static final String MAX_CONCURRENT_PROPERTY = "storexp.usage.maxConcurrent";
+
+	/** System property for the default number of minutes between collections of a drive. */
+	public static final String INTERVAL_PROPERTY = "storexp.usage.intervalMinutes";
+
+	/** The optional drive property overriding the minutes between collections of that drive */
+	public static final String DRIVE_INTERVAL_PROPERTY_KEY = "UsageIntervalMinutes";
+
+	static final int DEFAULT_MAX_CONCURRENT = 2;
+
+	static final int DEFAULT_INTERVAL_MINUTES = 60;
+
+	/** How often to look for drives that are due */
+	static final long CHECK_INTERVAL_SECONDS = 60;
+
+	enum State { QUEUED, RUNNING, IDLE }
+
+	/** Collects one drive's usage data */
+	interface Collector {
+		/** @return the total bytes used on the drive */
+		long collect(int driveId, Date start) throws Exception;
+	}
+
+	/** The singleton UsageCollectionScheduler */
+	private static UsageCollectionScheduler singletonScheduler = null;
+
+	private final ExecutorService workers;
+
+	private final long defaultIntervalMs;
+
+	/** The collection status of each drive, by drive ID */
+	private final Map<Integer, DriveRun> runs = new LinkedHashMap<>();
+
+	private ScheduledExecutorService ticker;
+
+	private EntityManagerFactory emf;
+
+	/** How a drive's collections have gone */
+	static class DriveRun {
+
+		final int driveId;
+
+		State state = State.IDLE;
+
+		long intervalMs;
+
+		long nextRun = 0L;
+
+		long lastStarted = 0L;
+
+		long lastDurationMs = 0L;
+
+		long lastBytes = 0L;
+
+		String lastError;
+
+		long count = 0L;
+
+		DriveRun(int driveId) {
+			this.driveId = driveId;
+		}
+	}
+
+	UsageCollectionScheduler(ExecutorService workers, long defaultIntervalMs) {
+		this.workers = workers;
+		this.defaultIntervalMs = defaultIntervalMs;
+	}
+
+	public static synchronized UsageCollectionScheduler getInstance() {
+		if (singletonScheduler == null) {
+			int maxConcurrent = Math.max(1, Integer.getInteger(MAX_CONCURRENT_PROPERTY, DEFAULT_MAX_CONCURRENT));
+			singletonScheduler = new UsageCollectionScheduler(Executors.newFixedThreadPool(maxConcurrent),
+					TimeUnit.MINUTES.toMillis(Integer.getInteger(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MINUTES)));
+		}
+		return singletonScheduler;
+	}
+
+	/**
+	 * Start looking for drives that are due, right away and then every minute
+	 */
+	public synchronized void start() {
+		if (ticker == null) {
+			emf = Persistence.createEntityManagerFactory(TableUtils.STOREXP_PERSISTENT_UNIT);
+			Collector collector = (driveId, start) -> new UsageDataCacher(emf, driveId, start).collect();
+			ticker = Executors.newSingleThreadScheduledExecutor();
+			ticker.scheduleWithFixedDelay(() -> checkDrives(collector), 0, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+			logger.info("Started usage data collection");
+		}
+	}
+
+	/**
+	 * Stop scheduling collections, and interrupt those that are running
+	 */
+	public synchronized void shutdown() {
+		if (ticker != null) {
+			ticker.shutdownNow();
+			ticker = null;
+		}
+		workers.shutdownNow();
+
+		if (emf != null) {
+			emf.close();
+			emf = null;
+		}
+	}
+
+	void checkDrives(Collector collector) {
+		EntityManager entityManager = null;
+
+		try {
+			entityManager = emf.createEntityManager();
+			Map<Integer, Long> intervals = new LinkedHashMap<>();
+
+			for (Drive drive : entityManager.createQuery("from Drive", Drive.class).getResultList()) {
+				if (drive.getDriveType() != null) {
+					intervals.put(drive.getDriveId(), getIntervalMs(drive));
+				}
+			}
+			submitDue(intervals, System.currentTimeMillis(), collector);
+		}
+		catch (Exception e) {
+			logger.log(Level.WARNING, "Problem scheduling usage data collection", e);
+		}
+		finally {
+			if (entityManager != null) {
+				entityManager.close();
+			}
+		}
+	}
+
+	/**
+	 * Hand the drives that are due, and aren't already queued or running,
+	 * to the workers
+	 * @param intervals the milliseconds between collections, for each drive
+	 *  whose usage is collected
+	 * @return the IDs of the drives handed off
+	 */
+	synchronized List<Integer> submitDue(Map<Integer, Long> intervals, long now, Collector collector) {
+		List<Integer> submitted = new ArrayList<>();
+
+		// forget drives that have been removed
+		runs.values().removeIf(run -> !intervals.containsKey(run.driveId) && (run.state == State.IDLE));
+
+		for (Map.Entry<Integer, Long> entry : intervals.entrySet()) {
+			DriveRun run = runs.computeIfAbsent(entry.getKey(), DriveRun::new);
+			run.intervalMs = entry.getValue();
+
+			if ((run.state == State.IDLE) && (now >= run.nextRun)) {
+				run.state = State.QUEUED;
+				workers.execute(() -> collect(run, collector));
+				submitted.add(run.driveId);
+			}
+		}
+		return submitted;
+	}
+
+	void collect(DriveRun run, Collector collector) {
+		long start = System.currentTimeMillis();
+		long bytes = 0L;
+		String error = null;
+
+		synchronized (this) {
+			run.state = State.RUNNING;
+			run.lastStarted = start;
+		}
+
+		try {
+			bytes = collector.collect(run.driveId, new Date(start));
+		}
+		catch (Exception e) {
+			error = (e.getMessage() == null) ? e.getClass().getName() : e.getMessage();
+			logger.log(Level.WARNING, "Problem while collecting usage data for drive "
+					+ run.driveId + ": " + error, e);
+		}
+		long finished = System.currentTimeMillis();
+		logger.info("Collecting usage data for drive " + run.driveId + " took " + (finished - start) + " ms.");
+
+		synchronized (this) {
+			run.state = State.IDLE;
+			run.lastDurationMs = finished - start;
+			run.lastError = error;
+			run.count++;
+
+			if (error == null) {
+				run.lastBytes = bytes;
+			}
+			run.nextRun = finished + run.intervalMs;
+		}
+	}
+
+	long getIntervalMs(Drive drive) {
+		String minutes = drive.getPropertyValue(DRIVE_INTERVAL_PROPERTY_KEY);
+
+		if (minutes != null && !minutes.trim().isEmpty()) {
+			try {
+				return TimeUnit.MINUTES.toMillis(Math.max(1, Integer.parseInt(minutes.trim())));
+			} catch (NumberFormatException e) {
+				logger.warning("Ignoring invalid " + DRIVE_INTERVAL_PROPERTY_KEY + " " + minutes + " for " + drive);
+			}
+		}
+		return defaultIntervalMs;
+	}
+
+	/**
+	 * @return how collection is going for each drive
+	 */
+	public synchronized List<UsageCollectionDTO> getCollections() {
+		List<UsageCollectionDTO> collections = new ArrayList<>();
+
+		for (DriveRun run : runs.values()) {
+			UsageCollectionDTO dto = new UsageCollectionDTO();
+			dto.setDriveId(run.driveId);
+			dto.setState(run.state.name());
+			dto.setLastStarted((run.lastStarted == 0L) ? null : new Date(run.lastStarted));
+			dto.setLastDurationMs(run.lastDurationMs);
+			dto.setLastBytes(run.lastBytes);
+			dto.setLastError(run.lastError);
+			dto.setRuns(run.count);
+			dto.setNextRun((run.state == State.IDLE) ? new Date(run.nextRun) : null);
+			collections.add(dto);
+		}
+		return collections;
+	}
+
+}
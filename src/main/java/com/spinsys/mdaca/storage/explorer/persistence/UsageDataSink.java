@@ -0,0 +1,103 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+import com.spinsys.mdaca.storage.explorer.provider.DriveItemSink;
+import com.spinsys.mdaca.storage.explorer.provider.DrivePathIndex;
+
+/**
+ * Saves the usage data for the items found by a crawl of a drive a batch
+ * at a time, so that at most one batch of items is held in memory however
+ * large the drive is.  Between batches, the crawl is paused for as long as
+ * the {@link CrawlThrottle} calls for.  The drive's earlier usage data is
+ * brought up to date only once the crawl {@link #finish() finishes}.
+ */
+public class UsageDataSink implements DriveItemSink {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.persistence.UsageDataSink");
+
+	public static final int BATCH_SIZE = 1024;
+
+	private final MemoryUsageWriter writer;
+
+	private final DrivePathIndex pathIndex;
+
+	private final CrawlThrottle throttle;
+
+	private final FolderUsageRollup rollup = new FolderUsageRollup();
+
+	private final Drive drive;
+
+	private final Date start;
+
+	private final List<DriveItem> batch = new ArrayList<>(BATCH_SIZE);
+
+	private long count = 0L;
+
+	private long totalBytes = 0L;
+
+	/**
+	 * @param start the time at which data collection started
+	 */
+	public UsageDataSink(EntityManager entityManager, Drive drive, Date start) {
+		this(new MemoryUsageWriter(entityManager, drive, start), DrivePathIndex.getInstance(),
+				CrawlThrottle.getInstance(), drive, start);
+	}
+
+	UsageDataSink(MemoryUsageWriter writer, DrivePathIndex pathIndex, CrawlThrottle throttle,
+			Drive drive, Date start) {
+		this.writer = writer;
+		this.pathIndex = pathIndex;
+		this.throttle = throttle;
+		this.drive = drive;
+		this.start = start;
+	}
+
+	@Override
+	public void accept(DriveItem item) throws IOException {
+		batch.add(item);
+		rollup.add(item);
+
+		if ((++count % BATCH_SIZE) == 0) {
+			save(false);
+
+			if ((count % (50 * BATCH_SIZE)) == 0) {
+				logger.info("Saved " + count + " items for " + drive);
+			}
+			throttle.pause();
+		}
+	}
+
+	/**
+	 * Save any leftovers, and bring the drive's usage data up to date with the
+	 * saved data and the folder usage rolled up from it
+	 * @return the total bytes used by the items
+	 */
+	public long finish() throws ExplorerException {
+		save(true);
+		writer.publish(rollup);
+		logger.info("Saved a total of " + count + " items for " + drive);
+		return totalBytes;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	private void save(boolean done) throws ExplorerException {
+		// The crawl also rebuilds the drive's path index, for searches
+		pathIndex.saveCrawled(drive, batch, start, done);
+		totalBytes += writer.write(batch);
+		batch.clear();
+	}
+
+}
@@ -10,20 +10,24 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.file.FileAlreadyExistsException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-
-import javax.persistence.EntityManager;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
@@ -36,8 +40,11 @@ import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.Bucket;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException.DeleteError;
 import com.amazonaws.services.s3.model.ObjectListing;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
@@ -45,8 +52,6 @@ import com.amazonaws.services.s3.model.RestoreObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.transfer.Copy;
-import com.amazonaws.services.s3.transfer.Download;
-import com.amazonaws.services.s3.transfer.MultipleFileUpload;
 import com.amazonaws.services.s3.transfer.TransferManager;
 import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import com.amazonaws.services.s3.transfer.Upload;
@@ -54,12 +59,12 @@ import com.spinsys.mdaca.storage.explorer.io.BasicFile;
 import com.spinsys.mdaca.storage.explorer.io.FileUtil;
 import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
 import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveItemPage;
 import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
 import com.spinsys.mdaca.storage.explorer.model.StorageClass;
 import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
 import com.spinsys.mdaca.storage.explorer.model.http.TransferSpec;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
-import com.spinsys.mdaca.storage.explorer.persistence.UsageDataCacher;
 
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
@@ -87,20 +92,33 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
     public static final String ACCESS_KEY_PROPERTY_KEY = "AccessKey";
     public static final String ACCESS_SECRET_PROPERTY_KEY = "AccessSecret";
 
+    /** The most keys a DeleteObjects request may name */
+    static final int MAX_DELETE_OBJECTS_KEYS = 1000;
+
+    /** System property for the number of objects copied at once when copying a directory */
+    public static final String COPY_CONCURRENCY_PROPERTY = "storexp.s3.copyConcurrency";
+
+    static final int DEFAULT_COPY_CONCURRENCY = 16;
+
+    /** System property for the size of each TransferManager's thread pool */
+    public static final String TRANSFER_THREADS_PROPERTY = "storexp.s3.transferThreads";
+
+    static final int DEFAULT_TRANSFER_THREADS = 32;
+
     private static final Logger logger =
             Logger.getLogger("com.spinsys.mdaca.storage.explorer.provider.AWSS3StorageProvider");
 
-    /** The client for communicating with S3 using AWS SDK for Java 2.x */
+    /** The client for communicating with S3 using AWS SDK for Java 2.x,
+     *  set when a chunked download or upload starts */
     S3Client s3Client = null;
-    AmazonS3 amazonS3 = null;
     HeadObjectRequest headObjectRequest;
     HeadObjectResponse headObjectResponse;
 
     CreateMultipartUploadRequest multipartUploadRequest = null;
     CreateMultipartUploadResponse response = null;
 
-    /** The list of chunks already uploaded. */
-    ArrayList<CompletedPart> completedParts = new ArrayList<>();
+    /** The list of chunks already uploaded, possibly out of order. */
+    List<CompletedPart> completedParts = Collections.synchronizedList(new ArrayList<>());
     
     @Override
     public boolean isDirectory(Drive drive, String path) {
@@ -126,8 +144,10 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         String startPath = PathProcessor.addLastSlash(path);
         String bucket = drive.getPropertyValue(BUCKET_NAME_PROPERTY_KEY);
         AmazonS3 s3 = getAuth(drive);
+        // one key is enough to show that it's a directory
         ListObjectsRequest listObjectsRequest =
-                new ListObjectsRequest().withBucketName(bucket).withPrefix(startPath).withDelimiter("/");
+                new ListObjectsRequest().withBucketName(bucket).withPrefix(startPath).withDelimiter("/")
+                        .withMaxKeys(1);
         ObjectListing objectListing = s3.listObjects(listObjectsRequest);
 
         if (objectListing != null) {
@@ -153,12 +173,18 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         return result;
     }
 
+    /**
+     * @return the shared SDK 1.x client for the drive
+     */
     AmazonS3 getAuth(Drive drive) {
-    	
-    	if(amazonS3 != null) {
-    		return amazonS3;
-    	}
-    	
+        try {
+            return StorageClientRegistry.getInstance().getClient(drive, AmazonS3.class, this::buildAuth);
+        } catch (ExplorerException e) {
+            throw new AmazonClientException(e.getMessage(), e);
+        }
+    }
+
+    AmazonS3 buildAuth(Drive drive) {
         AmazonS3 client = null;
         if (drive.getPropertyValue(ACCESS_KEY_PROPERTY_KEY) != null) {
             String accessKey = drive.getPropertyValue(ACCESS_KEY_PROPERTY_KEY);
@@ -202,16 +228,44 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
             }
         }
 
-        amazonS3 = client;
         return client;
     }
 
+    /**
+     * @return a TransferManager for one operation, on the drive's shared
+     *  client.  Its thread pool is only the operation's, so shut it down with
+     *  {@link #shutdown(TransferManager)} once the operation is done.
+     *  The multipart copy threshold is left at the SDK's 5 GB, because a
+     *  multipart copy doesn't keep the source's user metadata.
+     */
+    TransferManager getTransferManager(Drive drive) {
+        int threads = Math.max(1, Integer.getInteger(TRANSFER_THREADS_PROPERTY, DEFAULT_TRANSFER_THREADS));
+
+        return TransferManagerBuilder.standard()
+                .withS3Client(getAuth(drive))
+                .withExecutorFactory(() -> Executors.newFixedThreadPool(threads))
+                .build();
+    }
+
+    /**
+     * Stop the TransferManager's threads, leaving the shared client open
+     */
+    static void shutdown(TransferManager manager) {
+        manager.shutdownNow(false);
+    }
+
+    /**
+     * @return the shared SDK 2.x client for the drive
+     */
     S3Client getS3Client(Drive drive) {
-    	
-    	if(s3Client != null) {
-    		return s3Client;
-    	}
-    	
+        try {
+            return StorageClientRegistry.getInstance().getClient(drive, S3Client.class, this::buildS3Client);
+        } catch (ExplorerException e) {
+            throw new AmazonClientException(e.getMessage(), e);
+        }
+    }
+
+    S3Client buildS3Client(Drive drive) {
         S3Client client = null;
         AwsCredentialsProvider credProvider = null;
         software.amazon.awssdk.regions.Region region = null;
@@ -237,8 +291,7 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         } else {
             client = S3Client.builder().credentialsProvider(credProvider).build();
         }
-        
-        s3Client = client;
+
         return client;
     }
 
@@ -246,34 +299,13 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
     public void deleteFile(Drive drive, String path) {
         String bucket = drive.getPropertyValue(BUCKET_NAME_PROPERTY_KEY);
         AmazonS3 s3 = getAuth(drive);
-        try {
-			Thread.sleep(200);
-		} catch (InterruptedException e) {
-		}
         s3.deleteObject(bucket, path);
         logger.info("Deleted " + path);
     }
 
     @Override
-    public void deleteDirectory(Drive drive, String prefix) throws IOException {
-        DriveQuery query = new DriveQuery();
-        query.setStartPath(prefix);
-        query.setRecursive(true);
-
-        List<DriveItem> driveItems = find(drive, query);
-
-        // TODO - while from S3's perspective all driveItems are
-        // just objects, from a user's prespective, it might be nice
-        // to delete in some order, e.g., deepest first
-        driveItems.stream()
-        .filter(driveItem -> 
-        ((driveItem.getPath() != null)
-                //							When deleting files from a "directory" (prefix), we don't
-                //							want to delete files with a name of the prefix plus an
-                //							extension.  For example, if we want to delete the "dir1"
-                //							directory, we don't want to delete dir1.zip.
-                && !driveItem.getPath().startsWith(prefix + ".")))
-        .forEach(driveItem -> deleteFile(drive, driveItem.getPath()));
+    public void deleteDirectory(Drive drive, String prefix, BulkDelete.Progress progress) throws IOException {
+        super.deleteDirectory(drive, prefix, progress);
 
         //if s3 has a marker directory item, delete it (a path ending in "/" with no object associated with it)
         if (exists(drive, prefix)) {
@@ -281,6 +313,34 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         }
     }
 
+    /**
+     * Deletes up to 1,000 objects with one DeleteObjects request
+     */
+    @Override
+    protected Map<String, String> deleteBatch(Drive drive, List<String> paths) {
+        String bucket = drive.getPropertyValue(BUCKET_NAME_PROPERTY_KEY);
+        AmazonS3 s3 = getAuth(drive);
+        Map<String, String> failures = new HashMap<>();
+        DeleteObjectsRequest request = new DeleteObjectsRequest(bucket)
+                .withKeys(paths.toArray(new String[0]))
+                .withQuiet(true);
+
+        try {
+            s3.deleteObjects(request);
+        } catch (MultiObjectDeleteException e) {
+            for (DeleteError error : e.getErrors()) {
+                failures.put(error.getKey(), error.getCode() + ": " + error.getMessage());
+            }
+        }
+        logger.info("Deleted " + (paths.size() - failures.size()) + " objects from " + bucket);
+        return failures;
+    }
+
+    @Override
+    protected int getDeleteBatchSize() {
+        return MAX_DELETE_OBJECTS_KEYS;
+    }
+
     @Override
     public void rename(Drive drive, String currentPath, String newPath) throws IOException {
         // There is no rename or mv in AWS S3. Instead, one must copy
@@ -303,35 +363,76 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         }
     }
 
+    /**
+     * Copies the objects under the current path as they're listed, several
+     * at once through one TransferManager on the drive's shared client.
+     * Each copy keeps the storage class from the listing.
+     * If a copy fails, no more are started and the partial copy is left.
+     */
     void copyDirectory(Drive drive, String bucket, String currentPath, String newPath) throws IOException {
         DriveQuery query = new DriveQuery(currentPath);
         query.setDriveId(drive.getDriveId());
         query.setRecursive(true);
 
-        List<DriveItem> driveItems = find(drive, query);
-        List<DriveItem> keysSorted = driveItems.stream()
-                .sorted(Comparator.comparing(DriveItem::getPath))
-                .collect(Collectors.toList());
+        String prefix = PathProcessor.addLastSlash(currentPath);
+        int maxInFlight = Math.max(1, Integer.getInteger(COPY_CONCURRENCY_PROPERTY, DEFAULT_COPY_CONCURRENCY));
+        Deque<Copy> inFlight = new ArrayDeque<>();
+        AtomicLong copied = new AtomicLong();
+        long startTime = System.currentTimeMillis();
 
         //ensure the new directory is created first
         mkdir(drive, newPath);
 
-        // Copy the objects in the directory one at a time.
-        // An exception may be thrown in the middle of the for loop,
-        // in which case there will be a partial copy.  No cleanup
-        // is attempted.
-        for (DriveItem item : keysSorted) {
-            String oldKey = item.getPath();
-            String oldTail = oldKey.substring(currentPath.length());
-            String newKey = newPath + oldTail;
-
-            if (item.isDirectory()) {
-                mkdir(drive, newKey);
-            } else {
-                CopyObjectRequest request = new CopyObjectRequest(bucket, oldKey, bucket, newKey);
-                copyOneObject(drive, request, item);
+        TransferManager manager = getTransferManager(drive);
+
+        try {
+            crawl(drive, query, item -> {
+                String oldKey = item.getPath();
+
+                // skip the directory itself, and siblings that merely start with its name, e.g., dir1.zip
+                if ((oldKey == null) || oldKey.equals(prefix) || !oldKey.startsWith(prefix)) {
+                    return;
+                }
+                String newKey = newPath + oldKey.substring(currentPath.length());
+
+                if (inFlight.size() >= maxInFlight) {
+                    waitForCopy(inFlight.removeFirst());
+                }
+                // folder marker objects are copied like any other
+                CopyObjectRequest request = withStorageClass(new CopyObjectRequest(bucket, oldKey, bucket, newKey), item);
+                inFlight.addLast(manager.copy(request));
+                copied.incrementAndGet();
+            });
+        } finally {
+            // let the copies already started finish, even if one has failed
+            IOException failure = null;
+
+            while (!inFlight.isEmpty()) {
+                try {
+                    waitForCopy(inFlight.removeFirst());
+                } catch (IOException e) {
+                    failure = (failure == null) ? e : failure;
+                }
+            }
+            shutdown(manager);
+
+            if (failure != null) {
+                throw failure;
             }
         }
+        logger.info("Copied " + copied.get() + " objects from " + currentPath + " to " + newPath
+                + " (took " + (System.currentTimeMillis() - startTime) + " ms).");
+    }
+
+    void waitForCopy(Copy copy) throws IOException {
+        try {
+            copy.waitForCompletion();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying " + copy.getDescription());
+        } catch (AmazonClientException e) {
+            throw new IOException(e.getMessage(), e);
+        }
     }
 
     public void move(Drive drive, TransferSpec spec) throws IOException {
@@ -399,29 +500,25 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         if(previousDriveItem == null) {
             previousDriveItem = getDriveItem(drive, request.getSourceKey());
         }
+        TransferManager manager = getTransferManager(drive);
 
-        if(previousDriveItem != null) {
-            StorageClass storageClass = previousDriveItem.getStorageClass();
-
-            if (storageClass != null) {
-                request = request.withStorageClass(storageClass.getClassName());
-            }
+        try {
+            waitForCopy(manager.copy(withStorageClass(request, previousDriveItem)));
+        } finally {
+            shutdown(manager);
         }
+    }
 
-        AmazonS3 auth = getAuth(drive);
-        TransferManager manager = 
-                TransferManagerBuilder.standard().withS3Client(auth).build();
+    /**
+     * @return the request, set to keep the item's storage class, if known
+     */
+    CopyObjectRequest withStorageClass(CopyObjectRequest request, DriveItem item) {
+        StorageClass storageClass = (item == null) ? null : item.getStorageClass();
 
-        try {
-			Thread.sleep(200);
-		} catch (InterruptedException e) {
-		}
-        Copy copy = manager.copy(request);
-        try {
-            copy.waitForCompletion(); // force synchronous behavior
-        } catch (AmazonClientException | InterruptedException e) {
-            throw new IOException(e.getMessage(), e);
+        if (storageClass != null) {
+            request = request.withStorageClass(storageClass.getClassName());
         }
+        return request;
     }
 
     public boolean exists(Drive drive, String path) {
@@ -457,17 +554,7 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
          * truncated, and using the AmazonS3.listNextBatchOfObjects(...) operation to
          * retrieve additional results.
          */
-        ListObjectsRequest listObjectsRequest =
-                new ListObjectsRequest().withBucketName(bucketName);
-
-        if (!isRoot(query.getStartPath())) {
-            listObjectsRequest = listObjectsRequest.withPrefix(query.getStartPath());
-        }
-
-        if (!query.isRecursive()) {
-            listObjectsRequest.setDelimiter(PathProcessor.UNIX_SEP);
-        }
-
+        ListObjectsRequest listObjectsRequest = buildListObjectsRequest(bucketName, query);
         ArrayList<DriveItem> driveItems = new ArrayList<>();
         List<S3ObjectSummary> objectSummaries = null;
         ObjectListing objectListing = s3.listObjects(listObjectsRequest);
@@ -487,103 +574,60 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
     }
 
     /**
-     * Gather disk usage data for all of the files on the drive
-     * and save it to the database.
+     * Lists one batch of objects, continuing from the marker
+     * in the query's continuation token
      */
     @Override
-    public long findAndSaveFileMemoryUsage(Drive drive,
-            EntityManager entityManager, Date startDate) throws ExplorerException {
-        long totalBytes = 0L;
-        long numItems = 0L;
-        
-        DriveQuery query = new DriveQuery();
-        query.setRecursive(true);
-        query.setSearchPattern(".*");
-        query.setStartPath("");
-        query.setUsesPlaceholder(false);
-        query.setDriveId(drive.getDriveId());
-
+    public DriveItemPage findPage(Drive drive, DriveQuery query) throws ExplorerException {
         AmazonS3 s3 = getAuth(drive);
         String bucketName = drive.getPropertyValue(BUCKET_NAME_PROPERTY_KEY);
 
         if (bucketName == null) {
             throw new ExplorerException("No bucket name associated with " + drive + ".");
         }
+        ListObjectsRequest listObjectsRequest = buildListObjectsRequest(bucketName, query)
+                .withMarker(query.getContinuationToken());
 
-        /*
-         * Buckets with many objects might truncate their results when listing their
-         * objects, so we're checking to see if the returned object listing is
-         * truncated, and using the AmazonS3.listNextBatchOfObjects(...) operation to
-         * retrieve additional results.
-         */
-        ListObjectsRequest listObjectsRequest =
-                new ListObjectsRequest().withBucketName(bucketName);
-
-        ArrayList<DriveItem> items = new ArrayList<>();
-        List<S3ObjectSummary> objectSummaries = null;
+        if (query.getPageSize() > 0) {
+            listObjectsRequest.setMaxKeys(query.getPageSize());
+        }
         ObjectListing objectListing = s3.listObjects(listObjectsRequest);
-        
-        // Process each truncated listing
-        while (objectListing.isTruncated())  {
-        	
-            objectSummaries = getObjectSummaries(query, objectListing);
-            addDriveItems(drive, items, objectSummaries);
-            totalBytes +=
-                    UsageDataCacher.saveFileUsageDataAndClear(entityManager, drive, items, startDate, false);
-            numItems += items.size();
-            logger.info("Saved " + numItems + " items for " + drive);
-            items.clear();
-            objectListing = s3.listNextBatchOfObjects(objectListing);
+        String marker = null;
 
-        	double percent = 0;
-			try {
-				percent = FileUtil.getProcessCpuLoad();
-			} catch (Exception e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
-
-            logger.info("cpu percent " + percent);
-            //If cpu usage is greater then 50%
-            if(percent > 2.5){
-                 try {
-                    logger.info("Sleeping 5 seconds");
-					Thread.sleep(5000);
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-            }
+        if (objectListing.isTruncated()) {
+            // S3 only returns a next marker when listing with a delimiter;
+            // otherwise the last key listed is the marker
+            List<S3ObjectSummary> summaries = objectListing.getObjectSummaries();
+            marker = (objectListing.getNextMarker() != null) ? objectListing.getNextMarker()
+                    : summaries.get(summaries.size() - 1).getKey();
         }
+        ArrayList<DriveItem> driveItems = new ArrayList<>();
+        addDriveItems(drive, query, driveItems, getObjectSummaries(query, objectListing));
 
-        // Handle the final nontruncated listing
-        objectSummaries = getObjectSummaries(query, objectListing);
-        addDriveItems(drive, items, objectSummaries);
-        totalBytes +=
-                UsageDataCacher.saveFileUsageDataAndClear(entityManager, drive, items, startDate, true);
-        numItems += items.size();
-        logger.info("Saved " + numItems + " drive items in " + drive);
-        return totalBytes;
+        return new DriveItemPage(driveItems, marker);
     }
-    
 
-    private void addDriveItems(Drive drive, DriveQuery query, ArrayList<DriveItem> driveItems,
-            List<S3ObjectSummary> objectSummaries) throws ExplorerException {
-        int size = objectSummaries.size();
+    ListObjectsRequest buildListObjectsRequest(String bucketName, DriveQuery query) {
+        ListObjectsRequest listObjectsRequest =
+                new ListObjectsRequest().withBucketName(bucketName);
 
-        if (size > 0) {
-            List<DriveItem> filtered = buildAndFilterDriveItems(objectSummaries, drive, query);
-            driveItems.addAll(filtered);
+        if (!isRoot(query.getStartPath())) {
+            listObjectsRequest = listObjectsRequest.withPrefix(query.getStartPath());
         }
+
+        if (!query.isRecursive()) {
+            listObjectsRequest.setDelimiter(PathProcessor.UNIX_SEP);
+        }
+        return listObjectsRequest;
     }
 
-    private void addDriveItems(Drive drive, ArrayList<DriveItem> driveItems,
+    private void addDriveItems(Drive drive, DriveQuery query, ArrayList<DriveItem> driveItems,
             List<S3ObjectSummary> objectSummaries) throws ExplorerException {
         int size = objectSummaries.size();
 
         if (size > 0) {
-            List<DriveItem> items = buildDriveItems(objectSummaries, drive);
-            driveItems.addAll(items);
+            List<DriveItem> filtered = buildAndFilterDriveItems(objectSummaries, drive, query);
+            driveItems.addAll(filtered);
         }
     }
 
@@ -612,19 +656,14 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         S3Object fullObject = s3.getObject(objectRequest);
         logger.info("Content-Type: " + fullObject.getObjectMetadata().getContentType());
 
-        TransferManager manager =
-                TransferManagerBuilder.standard().withS3Client(s3).build();
-
-        Download download = manager.download(bucket, path, file);
+        TransferManager manager = getTransferManager(drive);
         long startTime = System.currentTimeMillis();
         try {
-            download.waitForCompletion();
+            manager.download(bucket, path, file).waitForCompletion();
         } catch (AmazonClientException | InterruptedException e) {
             throw new IOException(e.getMessage(), e);
-        }
-        // After the upload is complete, release the resources.
-        finally {
-            manager.shutdownNow();
+        } finally {
+            shutdown(manager);
         }
         long duration = System.currentTimeMillis() - startTime;
         logger.info("Downloaded file to " + path +
@@ -661,48 +700,116 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
                 String bucketName = drive.getPropertyValue(BUCKET_NAME_PROPERTY_KEY);
                 ObjectMetadata metadata = s3.getObjectMetadata(bucketName, path);
 
-                boolean isRestoring = Boolean.TRUE.equals(metadata.getOngoingRestore());
-                item.setRestoring(isRestoring);
+                setRestoreStatus(item, metadata);
+            }
 
-                Date restoreExpirationTime = metadata.getRestoreExpirationTime();
-                boolean hasRestoreExpirationTime = (restoreExpirationTime != null);
+            item.setStorageClass(storageClass);
+        }
 
-                //is done restoring and still has time left before restore is expired
-                if (!isRestoring && hasRestoreExpirationTime) {
-                    String restoreExpireDate =
-                            new SimpleDateFormat("MM/dd/yyyy hh:mm").format(restoreExpirationTime);
-                    String timeZoneShort = TimeZone.getDefault().getDisplayName(false, TimeZone.SHORT);
+        return item;
+    }
 
-                    item.setRestoreExpireDate(restoreExpireDate + " " + timeZoneShort);
-                }
-            }
+    /**
+     * Build a DriveItem from the object's metadata, which includes
+     * its storage class and restore status
+     */
+    DriveItem buildDriveItem(String key, ObjectMetadata metadata, Drive drive) {
+        DriveItem item = new DriveItem(drive.getDriveId(), key);
+        boolean isDirectory = isDirectorySyntactically(key);
+
+        item.setFileSize(metadata.getContentLength());
+        item.setModifiedDate(metadata.getLastModified());
+        item.setDirectory(isDirectory);
 
+        // the header is left out for standard storage
+        String className = (metadata.getStorageClass() == null) ? STANDARD : metadata.getStorageClass();
+
+        if (!isDirectory && _storageClasses.containsKey(className)) {
+            StorageClass storageClass = _storageClasses.get(className);
+
+            if (storageClass.isRestoreRequired()) {
+                setRestoreStatus(item, metadata);
+            }
             item.setStorageClass(storageClass);
         }
-
         return item;
     }
 
+    void setRestoreStatus(DriveItem item, ObjectMetadata metadata) {
+        boolean isRestoring = Boolean.TRUE.equals(metadata.getOngoingRestore());
+        item.setRestoring(isRestoring);
+
+        Date restoreExpirationTime = metadata.getRestoreExpirationTime();
+        boolean hasRestoreExpirationTime = (restoreExpirationTime != null);
+
+        //is done restoring and still has time left before restore is expired
+        if (!isRestoring && hasRestoreExpirationTime) {
+            String restoreExpireDate =
+                    new SimpleDateFormat("MM/dd/yyyy hh:mm").format(restoreExpirationTime);
+            String timeZoneShort = TimeZone.getDefault().getDisplayName(false, TimeZone.SHORT);
+
+            item.setRestoreExpireDate(restoreExpireDate + " " + timeZoneShort);
+        }
+    }
+
+    /**
+     * Look the object up with one HEAD request.  A path without an object
+     * of its own is a directory if any keys start with it.
+     */
     @Override
-    public void uploadDirectory(Drive drive, String folderDrivePath, File directory) throws IOException {
+    public DriveItem stat(Drive drive, String path) throws ExplorerException {
+        String key = removeFirstSlash(path);
+
+        if (isRoot(key)) {
+            DriveItem root = new DriveItem(drive.getDriveId(), "");
+            root.setDirectory(true);
+            return root;
+        }
+        AmazonS3 s3 = getAuth(drive);
         String bucketName = drive.getPropertyValue(BUCKET_NAME_PROPERTY_KEY);
-        logger.info("Uploading directory " + directory.getAbsolutePath());
-        AmazonS3 s3Client = getAuth(drive);
-        TransferManager tm =
-                TransferManagerBuilder.standard().withS3Client(s3Client).build();
 
+        try {
+            ObjectMetadata metadata = s3.getObjectMetadata(bucketName, key);
+            return buildDriveItem(key, metadata, drive);
+        } catch (AmazonServiceException e) {
+            if (e.getStatusCode() != 404) {
+                throw new ExplorerException("Unable to look up " + path + " on " + drive, e);
+            }
+        }
+
+        if (isDirectorySemantically(drive, key)) {
+            DriveItem item = new DriveItem(drive.getDriveId(), PathProcessor.addLastSlash(key));
+            item.setDirectory(true);
+            return item;
+        }
+        return null;
+    }
+
+    @Override
+    protected AWSS3StorageProvider newUploader(Drive drive) {
+        return new AWSS3StorageProvider();
+    }
+
+    /**
+     * Replace a file that's already there, as TransferManager.uploadDirectory did
+     */
+    @Override
+    protected void uploadDirectoryFile(Drive drive, String path, File file) throws IOException {
+        String bucket = drive.getPropertyValue(BUCKET_NAME_PROPERTY_KEY);
+        TransferManager manager = getTransferManager(drive);
 
-        //an initial slash will be considered as apart of the folder name; thus, remove it
-        folderDrivePath = removeFirstSlash(folderDrivePath);
-        MultipleFileUpload upload = tm.uploadDirectory(bucketName,
-                folderDrivePath, directory, true);
         try {
-            upload.waitForCompletion();
-        } catch (AmazonClientException | InterruptedException e) {
-            throw new IOException(e.getMessage(), e);
+            uploadFileUsingTransferManager(manager, bucket, removeFirstSlash(path), file);
+        } finally {
+            shutdown(manager);
         }
     }
 
+    @Override
+    protected boolean replacesDirectoryFiles() {
+        return true;
+    }
+
     @Override
     public void upload(Drive drive, String destPath, File file) throws IOException {
         if (exists(drive, destPath)) {
@@ -710,21 +817,24 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         }
 
         String bucket = drive.getPropertyValue(BUCKET_NAME_PROPERTY_KEY);
-        AmazonS3 s3 = getAuth(drive);
 
         if (destPath.startsWith(UNIX_SEP)) {
             destPath = destPath.substring(1);
         }
         ensureDirsExist(drive, destPath);
 
-        uploadFileUsingTransferManager(s3, bucket, destPath, file);
+        TransferManager manager = getTransferManager(drive);
+
+        try {
+            uploadFileUsingTransferManager(manager, bucket, destPath, file);
+        } finally {
+            shutdown(manager);
+        }
         logger.info("Uploaded file to " + destPath);
     }
 
-    void uploadFileUsingTransferManager(AmazonS3 s3, String bucket,
+    void uploadFileUsingTransferManager(TransferManager manager, String bucket,
             String destPath, File file) throws IOException {
-        TransferManager manager =
-                TransferManagerBuilder.standard().withS3Client(s3).build();
         // default multiPartUploadThreshold =  16_777_216
         // default multiPartUploadPartSize =    5_242_880
         // default multiPartCopyThreshold = 5_368_709_120
@@ -737,10 +847,6 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         } catch (AmazonClientException | InterruptedException e) {
             throw new IOException(e.getMessage(), e);
         }
-        // After the upload is complete, release the resources.
-        finally {
-            manager.shutdownNow();
-        }
         long duration = System.currentTimeMillis() - startTime;
         logger.info("Uploaded file to " + destPath +
                 " (took " + duration + " ms).");
@@ -856,21 +962,19 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
             throws IOException {
         String bucket = drive.getPropertyValue(BUCKET_NAME_PROPERTY_KEY);
 
-        AmazonS3 s3Client = getAuth(drive);
-        TransferManager transferManager =
-                TransferManagerBuilder.standard().withS3Client(s3Client).build();
-
         final CopyObjectRequest copyRequest =
                 new CopyObjectRequest(bucket, path, bucket, path)
                 .withStorageClass(storageClass.getClassName());
 
-        // attempt to refresh existing object in the bucket via an inplace copy
-        Copy copy = transferManager.copy(copyRequest);
+        TransferManager transferManager = getTransferManager(drive);
 
         try {
-            copy.waitForCompletion();
+            // attempt to refresh existing object in the bucket via an inplace copy
+            transferManager.copy(copyRequest).waitForCompletion();
         } catch (AmazonClientException | InterruptedException e) {
             throw new IOException("Was unable to change the storage class of drive item \"" + path + "\" to " + storageClass, e);
+        } finally {
+            shutdown(transferManager);
         }
     }
 
@@ -929,6 +1033,24 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
                 s3Client.headObject(headObjectRequest);
     }
 
+    /**
+     * Ranged gets share the client and head response set up
+     * in downloadPartStart, which are safe to use concurrently.
+     */
+    @Override
+    public boolean supportsConcurrentPartDownloads() {
+        return true;
+    }
+
+    /**
+     * Parts are uploaded independently and sorted by
+     * part number in uploadPartComplete.
+     */
+    @Override
+    public boolean supportsConcurrentPartUploads() {
+        return true;
+    }
+
     @Override
     public byte[] downloadBytes(Drive drive, String path, long startByte, int numberOfBytes) throws IOException {
         long start = System.currentTimeMillis();
@@ -1021,9 +1143,12 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         if (completedParts != null && !completedParts.isEmpty()) {
             // Call completeMultipartUpload operation to tell S3 to merge all uploaded
             // parts and finish the multipart operation.
+            // Parts may have been uploaded concurrently, but S3 requires them in order
+            List<CompletedPart> sortedParts = new ArrayList<>(completedParts);
+            sortedParts.sort(Comparator.comparing(CompletedPart::partNumber));
             CompletedMultipartUpload completedMultipartUpload =
                     CompletedMultipartUpload.builder()
-                    .parts(completedParts)
+                    .parts(sortedParts)
                     .build();
 
             CompleteMultipartUploadRequest completeMultipartUploadRequest =
@@ -1055,7 +1180,7 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
             logger.info("Upload complete for empty file " + path);
         }
         // reset for the next chunk upload
-        completedParts = new ArrayList<>();
+        completedParts = Collections.synchronizedList(new ArrayList<>());
         response = null;
     }
 
@@ -1096,7 +1221,7 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         s3Client.abortMultipartUpload(abortRequest);
 
         // reset for the next chunk upload
-        completedParts = new ArrayList<>();
+        completedParts = Collections.synchronizedList(new ArrayList<>());
         response = null;
     }
 
@@ -1144,6 +1269,16 @@ public class AWSS3StorageProvider extends RestorableCloudStorageProvider<S3Objec
         return object.getObjectContent();
     }
 
+    @Override
+    public InputStream getInputStream(Drive drive, String path, long startByte, long length) throws IOException {
+        AmazonS3 s3 = getAuth(drive);
+        String bucket = drive.getPropertyValue(BUCKET_NAME_PROPERTY_KEY);
+        GetObjectRequest objectRequest = new GetObjectRequest(bucket, path)
+                .withRange(startByte, startByte + length - 1);
+        S3Object object = s3.getObject(objectRequest);
+        return object.getObjectContent();
+    }
+
     @Override
     public List<String> getProperties() {
         return Arrays.asList(
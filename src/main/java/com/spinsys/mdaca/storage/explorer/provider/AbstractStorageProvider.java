@@ -1,7 +1,6 @@
 package com.spinsys.mdaca.storage.explorer.provider;
 
 import static com.spinsys.mdaca.storage.explorer.io.FileUtil.buildTempFile;
-import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.addLastSlash;
 import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.getFileName;
 import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.getParentFolderPath;
 import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.isNewLine;
@@ -11,10 +10,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,16 +25,20 @@ import org.apache.commons.io.FileUtils;
 import com.spinsys.mdaca.storage.explorer.io.BasicFile;
 import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
 import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveItemPage;
 import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
 import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
-import com.spinsys.mdaca.storage.explorer.persistence.UsageDataCacher;
+import com.spinsys.mdaca.storage.explorer.persistence.UsageDataSink;
 
 public abstract class AbstractStorageProvider<T> implements StorageProvider {
 
     private static final Logger logger =
             Logger.getLogger("com.spinsys.mdaca.storage.explorer.provider.AbstractStorageProvider");
 
+    /** How many items {@link #crawl} lists at a time */
+    static final int CRAWL_PAGE_SIZE = 1000;
+
     protected abstract DriveItem buildDriveItem(T storageItem, Drive drive, Object... metadata);
 
     /**
@@ -84,20 +88,36 @@ public abstract class AbstractStorageProvider<T> implements StorageProvider {
     }
 
     @Override
-    public DriveItem getDriveItem(Drive drive, String path) throws ExplorerException {
+    public DriveItem getDriveItem(Drive drive, String path) throws IOException {
+        return stat(drive, path);
+    }
+
+    /**
+     * Providers should look the item up directly; this finds it
+     * in a listing of its folder.
+     */
+    @Override
+    public DriveItem stat(Drive drive, String path) throws IOException {
         String parentFolderPath = getParentFolderPath(path);
         String fileName = getFileName(path);
-        List<DriveItem> itemList = find(drive, new DriveQuery(parentFolderPath));
+        // the parent folder's listing is cached, so looking up its other items is cheap
+        List<DriveItem> itemList =
+                DriveMetadataCache.getInstance().find(this, drive, new DriveQuery(parentFolderPath));
 
         return itemList.stream()
                 .filter(item -> item.getFileName().equals(fileName))
-                .findFirst().get();
+                .findFirst().orElse(null);
     }
 
     @Override
     public void delete(Drive drive, String destPath) throws IOException {
+        delete(drive, destPath, null);
+    }
+
+    @Override
+    public void delete(Drive drive, String destPath, BulkDelete.Progress progress) throws IOException {
         if (isDirectory(drive, destPath)) {
-            deleteDirectory(drive, destPath);
+            deleteDirectory(drive, destPath, progress);
         } else {
             deleteFile(drive, destPath);
         }
@@ -105,61 +125,98 @@ public abstract class AbstractStorageProvider<T> implements StorageProvider {
 
     @Override
     public void deleteDirectory(Drive drive, String path) throws IOException {
+        deleteDirectory(drive, path, null);
+    }
+
+    /**
+     * Deletes the directory's contents in batches, with {@link #deleteBatch},
+     * as a crawl of the directory finds them
+     * @param progress told how the delete is going; may be null
+     */
+    public void deleteDirectory(Drive drive, String path, BulkDelete.Progress progress) throws IOException {
         DriveQuery query = new DriveQuery(path);
         query.setRecursive(true);
         query.setUsesPlaceholder(true);
-        List<DriveItem> driveItems = find(drive, query);
-        TreeSet<String> dirs = new TreeSet<>();
 
-        // Delete all the files in the directories first
-        for (DriveItem driveItem : driveItems) {
-            String diPath = driveItem.getPath();
+        try (BulkDelete bulkDelete = new BulkDelete(batch -> deleteBatch(drive, batch), path,
+                getDeleteBatchSize(), hasDirectoryObjects(), progress)) {
+            crawl(drive, query, bulkDelete);
+            bulkDelete.finish();
+        }
+    }
 
-            if (driveItem.isFile()) {
-                deleteFile(drive, diPath);
-            } else { // collect the directories to delete
-                dirs.add(diPath);
+    /**
+     * Delete many items at once.  Providers that can delete a batch in one
+     * request should override this; by default each item is deleted in turn.
+     * @return why each item that couldn't be deleted wasn't, by path
+     */
+    protected Map<String, String> deleteBatch(Drive drive, List<String> paths) throws IOException {
+        Map<String, String> failures = new LinkedHashMap<>();
+
+        for (String path : paths) {
+            try {
+                deleteFile(drive, path);
+            } catch (IOException | RuntimeException e) {
+                failures.put(path, e.getMessage());
             }
         }
+        return failures;
+    }
 
-        // Delete the directories that no longer contain files.
-        // Because they are in descending order, they will be
-        // empty when we delete.
-        for (String dir : dirs.descendingSet()) {
-            deleteFile(drive, dir);
-        }
+    /**
+     * @return how many items {@link #deleteBatch} should be given at once
+     */
+    protected int getDeleteBatchSize() {
+        return 100;
+    }
+
+    /**
+     * @return false if the provider's directories are implied by the paths
+     *  of the files in them, so there's nothing to delete once they're empty
+     */
+    protected boolean hasDirectoryObjects() {
+        return true;
     }
 
     @Override
     public void uploadDirectory(Drive drive, String fullDirPath, File directory) throws IOException {
-        if (fullDirPath == null) {
-            fullDirPath = "";
-        }
-
-        String directoryName = directory.getName();
+        uploadDirectory(drive, fullDirPath, directory, null);
+    }
 
-        if (!directory.exists()) {
-            throw new ExplorerException("Directory \"" + directoryName + "\" does not exist.");
-        }
-        if (!directory.isDirectory()) {
-            throw new ExplorerException("File \"" + directoryName + "\" is not a directory");
+    /**
+     * Upload the directory's files a batch at a time, several at once
+     * @see DirectoryUpload
+     */
+    @Override
+    public void uploadDirectory(Drive drive, String fullDirPath, File directory,
+            DirectoryUpload.Progress progress) throws IOException {
+        try (DirectoryUpload upload = new DirectoryUpload(() -> newUploader(drive), drive,
+                hasDirectoryObjects(), progress)) {
+            upload.upload(directory, fullDirPath);
         }
+    }
 
-        mkdir(drive, fullDirPath);
+    /**
+     * @return a provider for one of the workers of a {@link DirectoryUpload},
+     *  with the same credentials as this one
+     */
+    protected abstract AbstractStorageProvider<?> newUploader(Drive drive) throws IOException;
 
-        File[] files = directory.listFiles();
-        if (files.length > 0) {
+    /**
+     * Upload one of the files of a directory, with {@link #upload} unless
+     * the provider overrides it
+     */
+    protected void uploadDirectoryFile(Drive drive, String path, File file) throws IOException {
+        upload(drive, path, file);
+    }
 
-            for (File file : files) {
-                String fileAbsolutePath =
-                        addLastSlash(fullDirPath) + file.getName();
-                if (file.isFile()) {
-                    upload(drive, fileAbsolutePath, file);
-                } else {
-                    uploadDirectory(drive, addLastSlash(fileAbsolutePath), file);
-                }
-            }
-        }
+    /**
+     * @return true if {@link #uploadDirectoryFile} replaces a file that's
+     *  already there, so that the large files of a directory, which are
+     *  uploaded in parts, should replace theirs too
+     */
+    protected boolean replacesDirectoryFiles() {
+        return false;
     }
 
     public List<DriveItem> findAllInPath(Drive drive, String path) throws ExplorerException {
@@ -172,25 +229,46 @@ public abstract class AbstractStorageProvider<T> implements StorageProvider {
 
     /**
      * Gather disk usage data for all of the files on the drive
-     * and save it to the database.
+     * and save it to the database, a batch at a time as the drive is crawled.
      */
     public long findAndSaveFileMemoryUsage(Drive drive,
             EntityManager entityManager, Date start) throws ExplorerException {
-        // Developer note: this implementation is generic and inefficient.
-        // It should be specialized for each provider.
-        long totalBytes = 0L;
-        
         DriveQuery query = new DriveQuery();
         query.setRecursive(true);
         query.setSearchPattern(".*");
         query.setUsesPlaceholder(false);
         query.setDriveId(drive.getDriveId());
 
-        List<DriveItem> items = find(drive, query);
-        
-        logger.info("Found " + items.size() + " drive items in " + drive);
-        totalBytes = UsageDataCacher.saveFileUsageDataInBatches(drive, items, entityManager, start);
-        return totalBytes;
+        UsageDataSink sink = new UsageDataSink(entityManager, drive, start);
+
+        try {
+            crawl(drive, query, sink);
+        } catch (ExplorerException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new ExplorerException("Problem crawling " + drive + ": " + e.getMessage(), e);
+        }
+        return sink.finish();
+    }
+
+    /**
+     * Lists the drive a page at a time, so only one page is held at once.
+     * Providers whose pages can't be listed independently should override this.
+     */
+    @Override
+    public void crawl(Drive drive, DriveQuery query, DriveItemSink sink) throws IOException {
+        query.setPageSize(CRAWL_PAGE_SIZE);
+        query.setContinuationToken(null);
+        DriveItemPage page;
+
+        do {
+            page = findPage(drive, query);
+
+            for (DriveItem item : page.getItems()) {
+                sink.accept(item);
+            }
+            query.setContinuationToken(page.getContinuationToken());
+        } while (!page.isLastPage());
     }
     
     
@@ -14,6 +14,7 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -21,24 +22,34 @@ import java.util.Arrays;
 import java.util.Base64;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import javax.persistence.EntityManager;
-
 import org.apache.commons.collections4.IteratorUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobContainerClientBuilder;
+import com.azure.storage.blob.models.BlobRange;
+import com.azure.storage.blob.models.BlobStorageException;
 import com.azure.storage.blob.models.BlockBlobItem;
 import com.azure.storage.blob.specialized.BlockBlobClient;
-import com.azure.storage.blob.specialized.SpecializedBlobClientBuilder;
+import com.microsoft.azure.storage.BatchException;
 import com.microsoft.azure.storage.CloudStorageAccount;
+import com.microsoft.azure.storage.ResultContinuation;
+import com.microsoft.azure.storage.ResultContinuationType;
+import com.microsoft.azure.storage.ResultSegment;
 import com.microsoft.azure.storage.StorageException;
+import com.microsoft.azure.storage.blob.BlobDeleteBatchOperation;
+import com.microsoft.azure.storage.blob.BlobListingDetails;
 import com.microsoft.azure.storage.blob.BlobProperties;
 import com.microsoft.azure.storage.blob.CloudBlob;
 import com.microsoft.azure.storage.blob.CloudBlobClient;
@@ -51,11 +62,11 @@ import com.microsoft.azure.storage.blob.StandardBlobTier;
 import com.spinsys.mdaca.storage.explorer.io.BasicFile;
 import com.spinsys.mdaca.storage.explorer.io.FileUtil;
 import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveItemPage;
 import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
 import com.spinsys.mdaca.storage.explorer.model.StorageClass;
 import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
-import com.spinsys.mdaca.storage.explorer.persistence.UsageDataCacher;
 
 public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<ListBlobItem> {
 
@@ -70,11 +81,15 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
     public static final String BLOB_CONNECTION_STRING_PROPERTY_KEY = "BlobConnectionString";
     public static final String BLOB_CONTAINER_NAME_PROPERTY_KEY = "BlobContainerName";
 
+    /** The most sub-requests a blob batch request may hold */
+    static final int MAX_BATCH_SIZE = 256;
+
     /** The client for uploading chunks */
     BlockBlobClient blockBlobClient = null;
 
-    /** The list of chunks being uploaded */
-    ArrayList<String> chunkIds = new ArrayList<>();
+    /** The ids of the chunks being uploaded, keyed by part number so
+     *  that parts staged concurrently are committed in order */
+    SortedMap<Integer, String> chunkIds = new ConcurrentSkipListMap<>();
 
     @Override
     public List<DriveItem> find(Drive drive, DriveQuery query) throws ExplorerException {
@@ -86,69 +101,34 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
         return buildAndFilterDriveItems(blobItems, drive, query);
     }
 
+    /**
+     * Lists one segment of blobs, continuing from the marker
+     * in the query's continuation token
+     */
     @Override
-    public long findAndSaveFileMemoryUsage(Drive drive,
-            EntityManager entityManager, Date date) throws ExplorerException {
-        long totalBytes = 0L;
-        int driveId = drive.getDriveId();
-        
-        DriveQuery query = new DriveQuery();
-        query.setRecursive(true);
-        query.setSearchPattern(".*");
-        query.setStartPath("");
-        query.setUsesPlaceholder(true);
-        query.setDriveId(driveId);
-
+    public DriveItemPage findPage(Drive drive, DriveQuery query) throws ExplorerException {
         CloudBlobContainer container = getContainer(drive);
-        Object[] metadata = getMetadataForBuildDriveItem(drive);
-        int batchSize = 1024;
-        ArrayList<DriveItem> itemBatch = new ArrayList<>(batchSize);
-        long count = 0L;
-
-        Iterator<ListBlobItem> iterator =
-                getListBlobItems(query, container).iterator();
-
-        while (iterator.hasNext()) {
-            ListBlobItem blobItem = iterator.next();
-            DriveItem item = buildDriveItem(blobItem, drive, metadata);
-            itemBatch.add(item);
-            totalBytes += item.getFileSize();
-            
-            // Periodically save and clear out the blob list to conserve memory
-            if ((++count % batchSize) == 0) {
-                UsageDataCacher.saveFileUsageDataAndClear(entityManager, drive, itemBatch, date, false);
-                
-                if ((count % (50 * batchSize)) == 0) {
-                    logger.info("Saved " + count + " items for " + drive);
-                }
-                itemBatch.clear();
-            }
-            
-        	double percent = 0;
-			try {
-				percent = FileUtil.getProcessCpuLoad();
-			} catch (Exception e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
-
-            logger.info("cpu percent " + percent);
-            //If cpu usage is greater then 50%
-            if(percent > 2.5){
-                 try {
-                    logger.info("Sleeping 5 seconds");
-					Thread.sleep(5000);
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-            }
+        String startPath = query.hasStartPath() ? query.getStartPath() : "";
+        ResultContinuation continuation = null;
+
+        if (query.getContinuationToken() != null) {
+            continuation = new ResultContinuation();
+            continuation.setContinuationType(ResultContinuationType.BLOB);
+            continuation.setNextMarker(query.getContinuationToken());
         }
-        // Save any leftovers
-        UsageDataCacher.saveFileUsageDataAndClear(entityManager, drive, itemBatch, date, true);
-        logger.info("Saved a total of " + count + " items for " + drive);
+        Integer maxResults = (query.getPageSize() > 0) ? query.getPageSize() : null;
 
-        return totalBytes;
+        try {
+            ResultSegment<ListBlobItem> segment = container.listBlobsSegmented(startPath, query.isRecursive(),
+                    EnumSet.noneOf(BlobListingDetails.class), maxResults, continuation, null, null);
+            List<DriveItem> driveItems = buildAndFilterDriveItems(segment.getResults(), drive, query);
+            String marker = (segment.getHasMoreResults() && segment.getContinuationToken() != null)
+                    ? segment.getContinuationToken().getNextMarker() : null;
+
+            return new DriveItemPage(driveItems, marker);
+        } catch (StorageException e) {
+            throw new ExplorerException("Unable to list blobs in " + startPath + " because: " + e.getMessage(), e);
+        }
     }
 
     private Iterable<ListBlobItem> getListBlobItems(DriveQuery query, CloudBlobContainer container) {
@@ -205,8 +185,8 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
     }
 
     @Override
-    public void delete(Drive drive, String path) throws IOException {
-        super.delete(drive, path);
+    public void delete(Drive drive, String path, BulkDelete.Progress progress) throws IOException {
+        super.delete(drive, path, progress);
 
         uploadPlaceholderFileIfApplicable(drive, getParentFolderPath(path));
     }
@@ -322,18 +302,55 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
     }
 
     @Override
-    public void deleteDirectory(Drive drive, String pathIn) throws IOException {
-        String path = removeFirstSlash(pathIn);
-        DriveQuery query = new DriveQuery(path);
-        query.setRecursive(true);
-        query.setUsesPlaceholder(true);
-        List<DriveItem> driveItems = find(drive, query);
+    public void deleteDirectory(Drive drive, String pathIn, BulkDelete.Progress progress) throws IOException {
+        super.deleteDirectory(drive, removeFirstSlash(pathIn), progress);
+    }
+
+    /**
+     * Deletes up to 256 blobs with one blob batch request
+     */
+    @Override
+    protected Map<String, String> deleteBatch(Drive drive, List<String> paths) throws IOException {
+        CloudBlobContainer container = getContainer(drive);
+        Map<String, String> failures = new HashMap<>();
+        BlobDeleteBatchOperation batch = new BlobDeleteBatchOperation();
 
-        for (DriveItem driveItem : driveItems) {
-            if (driveItem.isFile()) {
-                deleteFile(drive, driveItem.getPath());
+        try {
+            for (String path : paths) {
+                batch.addSubOperation(container.getBlockBlobReference(removeFirstSlash(path)));
+            }
+            container.getServiceClient().executeBatch(batch);
+        } catch (BatchException e) {
+            for (Map.Entry<?, StorageException> failure : e.getExceptions().entrySet()) {
+                StorageException exception = failure.getValue();
+
+                // like deleteIfExists, a blob that's already gone is fine
+                if (exception.getHttpStatusCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+                    failures.put(((CloudBlob) failure.getKey()).getName(), exception.getMessage());
+                }
             }
+        } catch (URISyntaxException | StorageException e) {
+            throw new IOException("Unable to delete Azure blobs because: " + e.getMessage(), e);
         }
+        return failures;
+    }
+
+    @Override
+    protected int getDeleteBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
+    /**
+     * Azure's directories are just the common prefixes of blob names
+     */
+    @Override
+    protected boolean hasDirectoryObjects() {
+        return false;
+    }
+
+    @Override
+    protected AzureBlobStorageProvider newUploader(Drive drive) {
+        return new AzureBlobStorageProvider();
     }
 
     /**
@@ -401,32 +418,6 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
         return convertToUnixStylePath(path);
     }
 
-    @Override
-    public void uploadDirectory(Drive drive, String folderPath, File directory) throws IOException {
-        if (!directory.exists()) {
-            throw new ExplorerException("Folder does not exist");
-        }
-        if (!directory.isDirectory()) {
-            throw new ExplorerException("Expected to receive a folder, but instead got a file");
-        }
-
-        folderPath = (folderPath == null) ? "" : addLastSlash(folderPath);
-
-        if (directory.listFiles().length > 0) {
-            for (File file : directory.listFiles()) {
-                String fileAbsolutePath = folderPath + file.getName();
-                if (file.isFile()) {
-                    upload(drive, fileAbsolutePath, file);
-                } else {
-                    uploadDirectory(drive, fileAbsolutePath, file);
-                }
-            }
-        } else {
-            //the empty folder will need a placeholder file to keep it from being deleted by Azure
-            uploadPlaceholderFileIfApplicable(drive, folderPath);
-        }
-    }
-
     final HashMap<String, StorageClass> _storageClasses = new HashMap<String, StorageClass>() {{
         put(HOT, new StorageClass(HOT, "Hot", false, true));
         put(COOL, new StorageClass(COOL, "Cool", false));
@@ -490,9 +481,8 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
 
     public CloudBlobContainer getContainer(Drive drive) throws ExplorerException {
         try {
-            String sConnection = drive.getPropertyValue(BLOB_CONNECTION_STRING_PROPERTY_KEY);
-            CloudStorageAccount storageAccount = CloudStorageAccount.parse(sConnection);
-            CloudBlobClient blobClient = storageAccount.createCloudBlobClient();
+            CloudBlobClient blobClient = StorageClientRegistry.getInstance()
+                    .getClient(drive, CloudBlobClient.class, this::buildBlobClient);
             String containerName = drive.getPropertyValue(BLOB_CONTAINER_NAME_PROPERTY_KEY);
             return blobClient.getContainerReference(containerName);
         } catch (Exception e) {
@@ -500,6 +490,24 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
         }
     }
 
+    CloudBlobClient buildBlobClient(Drive drive) throws Exception {
+        String sConnection = drive.getPropertyValue(BLOB_CONNECTION_STRING_PROPERTY_KEY);
+        CloudStorageAccount storageAccount = CloudStorageAccount.parse(sConnection);
+        return storageAccount.createCloudBlobClient();
+    }
+
+    /**
+     * @return the cached client for the drive's container, used
+     *  for block uploads
+     */
+    BlobContainerClient getContainerClient(Drive drive) throws ExplorerException {
+        return StorageClientRegistry.getInstance().getClient(drive, BlobContainerClient.class,
+                d -> new BlobContainerClientBuilder()
+                        .connectionString(d.getPropertyValue(BLOB_CONNECTION_STRING_PROPERTY_KEY))
+                        .containerName(d.getPropertyValue(BLOB_CONTAINER_NAME_PROPERTY_KEY))
+                        .buildClient());
+    }
+
     @Override
     public DriveItem buildDriveItem(ListBlobItem blobItem, Drive drive, Object...metadata) {
         String containerName = (String) metadata[0];
@@ -597,15 +605,26 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
         return bytes;
     }
 
+    /**
+     * Each range is read with its own blob reference.
+     */
+    @Override
+    public boolean supportsConcurrentPartDownloads() {
+        return true;
+    }
+
+    /**
+     * Blocks may be staged in any order; the block list is
+     * committed in part number order.
+     */
+    @Override
+    public boolean supportsConcurrentPartUploads() {
+        return true;
+    }
+
     @Override
     public String uploadPartStart(Drive drive, String path) throws IOException {
-        String sConnection = drive.getPropertyValue(BLOB_CONNECTION_STRING_PROPERTY_KEY);
-        String containerName = drive.getPropertyValue(BLOB_CONTAINER_NAME_PROPERTY_KEY);
-        blockBlobClient = new SpecializedBlobClientBuilder()
-                .connectionString(sConnection)
-                .containerName(containerName)
-                .blobName(path)
-                .buildBlockBlobClient();
+        blockBlobClient = getContainerClient(drive).getBlobClient(path).getBlockBlobClient();
         return blockBlobClient.getBlobName(); // or getBlobUrl?
     }
 
@@ -623,21 +642,21 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
             blockBlobClient.stageBlock(id, chunkStream, data.length);
             logger.info("Upload of " + data.length + " bytes took " +
                     (System.currentTimeMillis() - start ) + " ms.");
-            chunkIds.add(id);
+            chunkIds.put(partNumber, id);
         }
     }
 
     @Override
     public void uploadPartComplete(Drive drive, String path, String uploadId) throws IOException {
         BlockBlobItem blockBlobItem =
-                blockBlobClient.commitBlockList(chunkIds);
+                blockBlobClient.commitBlockList(new ArrayList<>(chunkIds.values()));
         logger.info("Upload to " + path + " completed");
         String parentFolderPath = getParentFolderPath(path);
         removePlaceholderFileIfPresent(drive, parentFolderPath);
 
         // reset
         blockBlobClient = null;
-        chunkIds = new ArrayList<>();
+        chunkIds = new ConcurrentSkipListMap<>();
     }
 
     @Override
@@ -651,7 +670,7 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
 
         // reset
         blockBlobClient = null;
-        chunkIds = new ArrayList<>();
+        chunkIds = new ConcurrentSkipListMap<>();
     }
 
     @Override
@@ -674,6 +693,50 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
         //return "wasbs://file-transfer-share@spinfiletransfer.blob.core.windows.net/" + parentFolder;
     }
 
+    /**
+     * Get the blob's properties in one request.  A path without a blob
+     * of its own is a directory if any blobs start with it.
+     */
+    @Override
+    public DriveItem stat(Drive drive, String path) throws ExplorerException {
+        String key = removeFirstSlash(path);
+
+        if (isRoot(key)) {
+            DriveItem root = new DriveItem(drive.getDriveId(), "");
+            root.setDirectory(true);
+            return root;
+        }
+        CloudBlobContainer container = getContainer(drive);
+
+        try {
+            CloudBlockBlob blob = container.getBlockBlobReference(key);
+            blob.downloadAttributes();
+            return buildDriveItem(blob, drive, container.getName());
+        } catch (StorageException e) {
+            if (e.getHttpStatusCode() != 404) {
+                throw new ExplorerException("Unable to look up " + path + " because: " + e.getMessage(), e);
+            }
+        } catch (URISyntaxException e) {
+            throw new ExplorerException("Unable to look up " + path + " because: " + e.getMessage(), e);
+        }
+
+        try {
+            // one blob is enough to show that it's a directory
+            String prefix = addLastSlash(key);
+            ResultSegment<ListBlobItem> segment = container.listBlobsSegmented(prefix, false,
+                    EnumSet.noneOf(BlobListingDetails.class), 1, null, null, null);
+
+            if (!segment.getResults().isEmpty()) {
+                DriveItem item = new DriveItem(drive.getDriveId(), prefix);
+                item.setDirectory(true);
+                return item;
+            }
+        } catch (StorageException e) {
+            throw new ExplorerException("Unable to look up " + path + " because: " + e.getMessage(), e);
+        }
+        return null;
+    }
+
     /**
      * Get the topmost lines of a file
      * @param numLines how many lines to get from the top of the file
@@ -717,6 +780,16 @@ public class AzureBlobStorageProvider extends RestorableCloudStorageProvider<Lis
         return input;
     }
 
+    @Override
+    public InputStream getInputStream(Drive drive, String path, long startByte, long length) throws IOException {
+        try {
+            return getContainerClient(drive).getBlobClient(removeFirstSlash(path))
+                    .openInputStream(new BlobRange(startByte, length), null);
+        } catch (BlobStorageException e) {
+            throw new IOException("Unable to get input stream because: " + e.getMessage(), e);
+        }
+    }
+
     @Override
     public List<String> getProperties() {
         return Arrays.asList(
@@ -4,6 +4,7 @@ import com.spinsys.mdaca.storage.explorer.io.BasicFile;
 import com.spinsys.mdaca.storage.explorer.io.FileUtil;
 import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
 import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveItemPage;
 import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
 import com.spinsys.mdaca.storage.explorer.model.dto.DriveMemoryUsageDTO;
 import com.spinsys.mdaca.storage.explorer.model.enumeration.DriveType;
@@ -11,6 +12,7 @@ import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -18,16 +20,26 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
 import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.UNIX_SEP;
 import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.WINDOWS_SEP;
@@ -75,6 +87,116 @@ public class BasicStorageProvider extends AbstractStorageProvider<File> {
         return buildAndFilterDriveItems(foundFiles, drive, query);
     }
 
+    /**
+     * Walks the folder lazily, skipping the entries walked for earlier pages,
+     * so that only one page of entries is held at a time.  The continuation
+     * token is the number of entries already walked.
+     */
+    @Override
+    public DriveItemPage findPage(Drive drive, DriveQuery query) throws ExplorerException {
+        String folder = getStartFolder(drive, query);
+        long offset = (query.getContinuationToken() == null) ? 0 : parseOffset(query.getContinuationToken());
+        int pageSize = (query.getPageSize() > 0) ? query.getPageSize() : Integer.MAX_VALUE;
+        Pattern pattern = Pattern.compile(query.hasSearchPattern() ? query.getSearchPattern() : ".*");
+        Object[] metadata = getMetadataForBuildDriveItem(drive);
+        List<DriveItem> driveItems = new ArrayList<>();
+        long walked = offset;
+        boolean hasMore = false;
+
+        try (Stream<Path> paths = query.isRecursive() ? Files.walk(Paths.get(folder)) : Files.list(Paths.get(folder))) {
+            Iterator<Path> iterator = paths.skip(offset).iterator();
+
+            while (iterator.hasNext()) {
+                if (walked - offset >= pageSize) {
+                    hasMore = true;
+                    break;
+                }
+                File file = iterator.next().toFile();
+                walked++;
+
+                // as in BasicFile.list, the pattern matches names,
+                // and a recursive search includes every directory
+                if ((query.isRecursive() && file.isDirectory()) || pattern.matcher(file.getName()).matches()) {
+                    DriveItem driveItem = buildDriveItem(file, drive, metadata);
+
+                    if (query.isIncluded(driveItem)) {
+                        driveItems.add(driveItem);
+                    }
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            throw new ExplorerException("Unable to list " + folder + " because: " + e.getMessage(), e);
+        }
+        return new DriveItemPage(driveItems, hasMore ? String.valueOf(walked) : null);
+    }
+
+    /**
+     * Walks the folder once, rather than a page at a time, handing each
+     * entry to the sink as it's visited.  Folders that can't be read are
+     * logged and skipped, so that one of them doesn't end the crawl.
+     */
+    @Override
+    public void crawl(Drive drive, DriveQuery query, DriveItemSink sink) throws IOException {
+        String folder = getStartFolder(drive, query);
+        Path start = Paths.get(folder);
+        Pattern pattern = Pattern.compile(query.hasSearchPattern() ? query.getSearchPattern() : ".*");
+        int maxDepth = query.isRecursive() ? Integer.MAX_VALUE : 1;
+
+        Files.walkFileTree(start, Collections.emptySet(), maxDepth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                if (!dir.equals(start)) {
+                    visit(dir, attributes);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                visit(file, attributes);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (file.equals(start)) {
+                    throw e;
+                }
+                logger.log(Level.WARNING, "Skipping " + file + " because: " + e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+
+            private void visit(Path path, BasicFileAttributes attributes) throws IOException {
+                // matched the same way as findPage
+                Path name = path.getFileName();
+
+                if ((query.isRecursive() && attributes.isDirectory())
+                        || ((name != null) && pattern.matcher(name.toString()).matches())) {
+                    DriveItem driveItem = buildDriveItem(path, attributes, drive);
+
+                    if (query.isIncluded(driveItem)) {
+                        sink.accept(driveItem);
+                    }
+                }
+            }
+        });
+    }
+
+    private String getStartFolder(Drive drive, DriveQuery query) {
+        String startPath = query.getStartPath();
+        return getPathWithDriveLetter(drive, (startPath == null) ?
+                PathProcessor.getParentFolder(query.getSearchPattern())
+                : startPath);
+    }
+
+    private static long parseOffset(String continuationToken) throws ExplorerException {
+        try {
+            return Long.parseLong(continuationToken);
+        } catch (NumberFormatException e) {
+            throw new ExplorerException("Invalid continuation token: " + continuationToken);
+        }
+    }
+
     @Override
     public DriveItem buildDriveItem(File file, Drive drive, Object...metadata) {
         DriveItem item = new DriveItem();
@@ -99,12 +221,34 @@ public class BasicStorageProvider extends AbstractStorageProvider<File> {
         return item;
     }
 
+    /**
+     * Read the file's attributes in one call, rather than
+     * asking the file system for each of them
+     */
     @Override
-    public DriveItem getDriveItem(Drive drive, String path) throws ExplorerException {
-        path = getPathWithDriveLetter(drive, path);
-        File file = new File(path);
+    public DriveItem stat(Drive drive, String path) throws IOException {
+        Path filePath = Paths.get(getPathWithDriveLetter(drive, path));
+        BasicFileAttributes attributes;
+
+        try {
+            attributes = Files.readAttributes(filePath, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return buildDriveItem(filePath, attributes, drive);
+    }
+
+    DriveItem buildDriveItem(Path filePath, BasicFileAttributes attributes, Drive drive) {
+        DriveItem item = new DriveItem();
+        item.setDriveId(drive.getDriveId());
+        item.setFileSize(attributes.size());
+        item.setModifiedDate(new Date(attributes.lastModifiedTime().toMillis()));
 
-        return buildDriveItem(file, drive);
+        String sPath = PathProcessor.convertToUnixStylePath(filePath.toString());
+        sPath = PathProcessor.removeDriveLetter(sPath);
+        item.setDirectory(attributes.isDirectory());
+        item.setPath(attributes.isDirectory() ? sPath + "/" : sPath);
+        return item;
     }
 
     @Override
@@ -148,6 +292,11 @@ public class BasicStorageProvider extends AbstractStorageProvider<File> {
         logger.info("Upload of " + inputFile.toPath() + " to " + destPath + " complete.");
     }
 
+    @Override
+    protected BasicStorageProvider newUploader(Drive drive) {
+        return new BasicStorageProvider();
+    }
+
     @Override
     public void copy(Drive drive, String oldName, String newName) throws IOException {
         if (!exists(drive, newName)) {
@@ -190,6 +339,14 @@ public class BasicStorageProvider extends AbstractStorageProvider<File> {
         basicFile.deleteDirectory();
     }
 
+    /**
+     * The directory is deleted whole, rather than a batch at a time
+     */
+    @Override
+    public void deleteDirectory(Drive drive, String path, BulkDelete.Progress progress) throws IOException {
+        deleteDirectory(drive, path);
+    }
+
     @Override
     public void mkdir(Drive drive, String sPath) throws IOException {
         if (sPath != null) {
@@ -409,6 +566,18 @@ public class BasicStorageProvider extends AbstractStorageProvider<File> {
         return stream;
     }
 
+    @Override
+    public InputStream getInputStream(Drive drive, String sPathIn, long startByte, long length) throws IOException {
+        if (sPathIn == null || !exists(drive, sPathIn)) {
+            throw new IOException("Unable to locate file: " + sPathIn);
+        }
+        String sPath = getPathWithDriveLetter(drive, sPathIn);
+        RandomAccessFile file = new RandomAccessFile(sPath, "r");
+        file.seek(startByte);
+        // closing the channel's stream also closes the file
+        return new BoundedInputStream(Channels.newInputStream(file.getChannel()), length);
+    }
+
     @Override
     public String getHiveLocationPath(Drive sourceDrive, String sourcePath) {
         return null;
@@ -0,0 +1,213 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spinsys.mdaca.storage.explorer.io.BoundedExecutor;
+import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+
+/**
+ * Deletes everything in a directory as a crawl of the directory finds it,
+ * a batch at a time, rather than listing the whole directory first and
+ * then deleting each item in turn.  The provider deletes each batch however
+ * it can delete many items at once, e.g., with one S3 DeleteObjects request,
+ * and up to {@link #THREADS_PROPERTY} batches are deleted at once; the crawl
+ * waits while that many are in flight.  Files are deleted first, then the
+ * directories, deepest first.  Items that can't be deleted don't stop the
+ * rest from being deleted; they're reported together by {@link #finish()}.
+ */
+public class BulkDelete implements DriveItemSink, Closeable {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.provider.BulkDelete");
+
+	/** System property for the number of batches deleted at once */
+	public static final String THREADS_PROPERTY = "storexp.delete.threads";
+
+	static final int DEFAULT_THREADS = 4;
+
+	/** The least time between progress reports */
+	static final long PROGRESS_INTERVAL_MS = 2000;
+
+	/** Deletes one batch of items */
+	public interface Deleter {
+		/**
+		 * @return why each item that couldn't be deleted wasn't, by path;
+		 *  empty if all of them were deleted
+		 */
+		Map<String, String> delete(List<String> paths) throws IOException;
+	}
+
+	/** Told how the delete is going, on the thread that's crawling */
+	public interface Progress {
+		void update(long deleted, long failed);
+	}
+
+	private final Deleter deleter;
+
+	/** The directory being emptied, ending with a slash; "" for the whole drive */
+	private final String directory;
+
+	private final int batchSize;
+
+	/** false if the provider has no directory objects of its own to delete */
+	private final boolean deletesDirectories;
+
+	private final Progress progress;
+
+	private final BoundedExecutor workers;
+
+	private final FailureReport report = new FailureReport();
+
+	private final TreeSet<String> directories = new TreeSet<>();
+
+	private List<String> batch;
+
+	private long lastReported;
+
+	/**
+	 * @param directory the directory whose contents are deleted
+	 * @param progress told how the delete is going; may be null
+	 */
+	public BulkDelete(Deleter deleter, String directory, int batchSize,
+			boolean deletesDirectories, Progress progress) {
+		this(deleter, directory, batchSize, deletesDirectories, progress,
+				Math.max(1, Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS)));
+	}
+
+	BulkDelete(Deleter deleter, String directory, int batchSize,
+			boolean deletesDirectories, Progress progress, int threads) {
+		this.deleter = deleter;
+		this.directory = PathProcessor.isRoot(directory) ? "" : PathProcessor.addLastSlash(directory);
+		this.batchSize = Math.max(1, batchSize);
+		this.deletesDirectories = deletesDirectories;
+		this.progress = progress;
+		this.workers = new BoundedExecutor(threads, "deleting " + this.directory);
+		this.batch = new ArrayList<>(this.batchSize);
+		this.lastReported = System.currentTimeMillis();
+	}
+
+	@Override
+	public void accept(DriveItem item) throws IOException {
+		String path = item.getPath();
+
+		// Skip the directory itself, and siblings that merely start with its name, e.g., dir1.zip
+		if ((path == null) || path.equals(directory) || !path.startsWith(directory)) {
+			return;
+		}
+
+		if (item.isDirectory()) {
+			directories.add(PathProcessor.addLastSlash(path));
+		}
+		else {
+			batch.add(path);
+
+			if (batch.size() >= batchSize) {
+				submit();
+			}
+		}
+		reportProgress(false);
+	}
+
+	/**
+	 * Delete what's left, once the crawl is done
+	 * @throws ExplorerException if any item couldn't be deleted
+	 */
+	public void finish() throws IOException {
+		submit();
+		workers.await();
+
+		if (deletesDirectories) {
+			// Deepest first, one batch at a time, so that each directory is
+			// empty by the time it's deleted
+			for (String dir : directories.descendingSet()) {
+				batch.add(dir);
+
+				if (batch.size() >= batchSize) {
+					deleteBatch(batch);
+					batch = new ArrayList<>(batchSize);
+				}
+			}
+			deleteBatch(batch);
+			batch = new ArrayList<>(batchSize);
+		}
+		reportProgress(true);
+
+		if (report.getFailed() > 0) {
+			throw new ExplorerException(report.getMessage("delete", "items in " + directory));
+		}
+		logger.info("Deleted " + report.getSucceeded() + " items in " + directory);
+	}
+
+	/**
+	 * Stop deleting, e.g., because the crawl failed
+	 */
+	@Override
+	public void close() {
+		workers.close();
+	}
+
+	public long getDeleted() {
+		return report.getSucceeded();
+	}
+
+	public long getFailed() {
+		return report.getFailed();
+	}
+
+	/**
+	 * Hand the current batch to the workers, waiting if too many are in flight
+	 */
+	private void submit() throws InterruptedIOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<String> paths = batch;
+		batch = new ArrayList<>(batchSize);
+		workers.submit(() -> deleteBatch(paths));
+	}
+
+	private void deleteBatch(List<String> paths) {
+		if (paths.isEmpty()) {
+			return;
+		}
+		Map<String, String> batchFailures;
+
+		try {
+			batchFailures = deleter.delete(paths);
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, "Unable to delete a batch of " + paths.size() + " items in " + directory, e);
+			batchFailures = new LinkedHashMap<>();
+
+			for (String path : paths) {
+				batchFailures.put(path, e.getMessage());
+			}
+		}
+
+		for (Map.Entry<String, String> failure : batchFailures.entrySet()) {
+			logger.warning("Unable to delete " + failure.getKey() + ": " + failure.getValue());
+			report.recordFailure(failure.getKey(), failure.getValue());
+		}
+		report.recordSuccesses(paths.size() - batchFailures.size());
+	}
+
+	private void reportProgress(boolean done) {
+		long now = System.currentTimeMillis();
+
+		if ((progress != null) && (done || (now - lastReported >= PROGRESS_INTERVAL_MS))) {
+			lastReported = now;
+			progress.update(report.getSucceeded(), report.getFailed());
+		}
+	}
+
+}
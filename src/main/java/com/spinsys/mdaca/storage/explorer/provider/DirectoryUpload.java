@@ -0,0 +1,304 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+
+import com.spinsys.mdaca.storage.explorer.io.BoundedExecutor;
+import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+
+/**
+ * Uploads a local directory to a drive with up to {@link #THREADS_PROPERTY}
+ * uploads in flight, rather than one file at a time.  The directory is
+ * walked on the calling thread, which creates each directory before any
+ * of its files are handed to the workers, and waits while the workers are
+ * all busy.  Small files are uploaded a batch at a time, so that the cost
+ * of handing work to a thread is spread over many of them; files of at
+ * least one part are uploaded with the provider's multipart upload.
+ * Files that can't be uploaded don't stop the rest from being uploaded;
+ * they're reported together once the walk is done.
+ */
+public class DirectoryUpload implements Closeable {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.provider.DirectoryUpload");
+
+	/** System property for the number of uploads in flight at once */
+	public static final String THREADS_PROPERTY = "storexp.upload.threads";
+
+	static final int DEFAULT_THREADS = 4;
+
+	/** The most small files uploaded by one worker at a time */
+	static final int BATCH_SIZE = 32;
+
+	/** The size of each part of a large file, and the smallest file uploaded in parts */
+	static final int PART_SIZE = 10 * 1_048_576; // 10 MB
+
+	/** The most parts in one multipart upload */
+	static final int MAX_PARTS = 10_000;
+
+	/** The least time between progress reports */
+	static final long PROGRESS_INTERVAL_MS = 2000;
+
+	/**
+	 * Makes the providers that the workers upload with.  A provider keeps
+	 * the state of a multipart upload to itself, so each worker needs its own.
+	 */
+	public interface Uploaders {
+		AbstractStorageProvider<?> newProvider() throws IOException;
+	}
+
+	/** Told how the upload is going, on the thread that's walking the directory */
+	public interface Progress {
+		void update(long uploaded, long failed, long bytes);
+	}
+
+	private final Uploaders uploaders;
+
+	private final Drive drive;
+
+	/** false if the provider's directories are implied by their files, so only empty ones are made */
+	private final boolean makesDirectories;
+
+	private final Progress progress;
+
+	private final int batchSize;
+
+	private final int partSize;
+
+	private final BoundedExecutor workers;
+
+	private final FailureReport report = new FailureReport();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	/** Small files waiting to be handed to the workers, keyed by the path they're uploaded to */
+	private Map<String, File> batch = new LinkedHashMap<>();
+
+	private long batchBytes = 0;
+
+	private long lastReported;
+
+	/**
+	 * @param makesDirectories true to make every directory; false to make
+	 *  only the empty ones, for providers whose directories are implied
+	 *  by the paths of the files in them
+	 * @param progress told how the upload is going; may be null
+	 */
+	public DirectoryUpload(Uploaders uploaders, Drive drive, boolean makesDirectories, Progress progress) {
+		this(uploaders, drive, makesDirectories, progress,
+				Math.max(1, Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS)), BATCH_SIZE, PART_SIZE);
+	}
+
+	DirectoryUpload(Uploaders uploaders, Drive drive, boolean makesDirectories, Progress progress,
+			int threads, int batchSize, int partSize) {
+		this.uploaders = uploaders;
+		this.drive = drive;
+		this.makesDirectories = makesDirectories;
+		this.progress = progress;
+		this.batchSize = Math.max(1, batchSize);
+		this.partSize = partSize;
+		this.workers = new BoundedExecutor(threads, "uploading a directory");
+		this.lastReported = System.currentTimeMillis();
+	}
+
+	/**
+	 * Upload everything in the directory
+	 * @param target the path on the drive that the directory is uploaded to
+	 * @throws ExplorerException if any file couldn't be uploaded
+	 */
+	public void upload(File directory, String target) throws IOException {
+		if (!directory.exists()) {
+			throw new ExplorerException("Directory \"" + directory.getName() + "\" does not exist.");
+		}
+		if (!directory.isDirectory()) {
+			throw new ExplorerException("File \"" + directory.getName() + "\" is not a directory");
+		}
+		long start = System.currentTimeMillis();
+		StorageProvider provider = uploaders.newProvider();
+
+		uploadDirectory(provider, directory, (target == null) ? "" : target);
+		submitBatch();
+		workers.await();
+		reportProgress(true);
+
+		if (report.getFailed() > 0) {
+			throw new ExplorerException(report.getMessage("upload", "files from " + directory.getName()));
+		}
+		logger.info("Uploaded " + report.getSucceeded() + " files, " + bytes.get() + " bytes, from "
+				+ directory + " in " + (System.currentTimeMillis() - start) + " ms.");
+	}
+
+	/**
+	 * Stop uploading, e.g., because the walk failed
+	 */
+	@Override
+	public void close() {
+		workers.close();
+	}
+
+	public long getUploaded() {
+		return report.getSucceeded();
+	}
+
+	public long getFailed() {
+		return report.getFailed();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Make the directory, then hand its files to the workers and walk its subdirectories
+	 */
+	private void uploadDirectory(StorageProvider provider, File directory, String path) throws IOException {
+		File[] files = directory.listFiles();
+
+		if (files == null) {
+			throw new IOException("Unable to list the files in " + directory);
+		}
+		if (!PathProcessor.isRoot(path) && (makesDirectories || (files.length == 0))) {
+			try {
+				provider.mkdir(drive, path);
+			} catch (FileAlreadyExistsException e) {
+				logger.fine(path + " already exists");
+			}
+		}
+		String prefix = PathProcessor.isRoot(path) ? "" : PathProcessor.addLastSlash(path);
+
+		for (File file : files) {
+			String filePath = prefix + file.getName();
+
+			if (file.isDirectory()) {
+				uploadDirectory(provider, file, filePath);
+			}
+			else if (file.length() < partSize) {
+				batch.put(filePath, file);
+				batchBytes += file.length();
+
+				if ((batch.size() >= batchSize) || (batchBytes >= partSize)) {
+					submitBatch();
+				}
+			}
+			else {
+				workers.submit(() -> uploadInParts(filePath, file));
+			}
+			reportProgress(false);
+		}
+	}
+
+	private void submitBatch() throws InterruptedIOException {
+		if (batch.isEmpty()) {
+			return;
+		}
+		Map<String, File> files = batch;
+		batch = new LinkedHashMap<>();
+		batchBytes = 0;
+		workers.submit(() -> uploadBatch(files));
+	}
+
+	private void uploadBatch(Map<String, File> files) {
+		AbstractStorageProvider<?> provider;
+
+		try {
+			provider = uploaders.newProvider();
+		} catch (IOException | RuntimeException e) {
+			files.keySet().forEach(path -> recordFailure(path, e));
+			return;
+		}
+
+		for (Map.Entry<String, File> file : files.entrySet()) {
+			try {
+				provider.uploadDirectoryFile(drive, file.getKey(), file.getValue());
+				recordSuccess(file.getValue().length());
+			} catch (IOException | RuntimeException e) {
+				recordFailure(file.getKey(), e);
+			}
+		}
+	}
+
+	private void uploadInParts(String path, File file) {
+		try {
+			AbstractStorageProvider<?> provider = uploaders.newProvider();
+
+			// uploadPartStart replaces what's there, which uploadDirectoryFile may refuse to do
+			if (!provider.replacesDirectoryFiles() && provider.exists(drive, path)) {
+				throw new FileAlreadyExistsException("Attempted to upload \"" + path + "\", but it already exists");
+			}
+			long size = file.length();
+			int filePartSize = getPartSize(size);
+			String uploadId = provider.uploadPartStart(drive, path);
+
+			try (InputStream in = new FileInputStream(file)) {
+				byte[] part = new byte[filePartSize];
+				int partNumber = 1;
+				int length;
+
+				while ((length = IOUtils.read(in, part)) > 0) {
+					provider.uploadPart(drive, path,
+							(length == part.length) ? part : Arrays.copyOf(part, length), partNumber++);
+				}
+				provider.uploadPartComplete(drive, path, uploadId);
+			} catch (IOException | RuntimeException e) {
+				abort(provider, path, uploadId);
+				throw e;
+			}
+			recordSuccess(size);
+		} catch (IOException | RuntimeException e) {
+			recordFailure(path, e);
+		}
+	}
+
+	/**
+	 * @return the size of each part of a file this big; larger than
+	 *  {@link #partSize} if the file needs more than {@link #MAX_PARTS} of those
+	 */
+	int getPartSize(long fileSize) {
+		long maxSize = (long) MAX_PARTS * partSize;
+		long size = ((fileSize - 1) / maxSize + 1) * partSize;
+		return (int) Math.min(size, Integer.MAX_VALUE);
+	}
+
+	private void abort(StorageProvider provider, String path, String uploadId) {
+		try {
+			provider.uploadPartAbort(drive, path, uploadId);
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, "Unable to abort the upload of " + path, e);
+		}
+	}
+
+	private void recordSuccess(long size) {
+		report.recordSuccesses(1);
+		bytes.addAndGet(size);
+	}
+
+	private void recordFailure(String path, Exception e) {
+		logger.log(Level.WARNING, "Unable to upload " + path, e);
+		report.recordFailure(path, e.getMessage());
+	}
+
+	private void reportProgress(boolean done) {
+		long now = System.currentTimeMillis();
+
+		if ((progress != null) && (done || (now - lastReported >= PROGRESS_INTERVAL_MS))) {
+			lastReported = now;
+			progress.update(report.getSucceeded(), report.getFailed(), bytes.get());
+		}
+	}
+
+}
@@ -0,0 +1,16 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import java.io.IOException;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+
+/**
+ * Receives the items found by {@link StorageProvider#crawl}, one at a time
+ * as the drive is walked.  A sink that can't keep up, e.g., while it saves a
+ * batch, simply doesn't return until it can, which holds up the walk.
+ */
+public interface DriveItemSink {
+
+	void accept(DriveItem item) throws IOException;
+
+}
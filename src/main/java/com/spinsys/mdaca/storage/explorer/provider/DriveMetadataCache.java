@@ -0,0 +1,284 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.convertToUnixStylePath;
+import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.removeBothSlashes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveItemPage;
+import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+
+/**
+ * Caches listings and stat results (exists, isDirectory, getDriveItem) per
+ * drive, so that browsing back and forth and checking paths before a
+ * transfer don't go to the drive every time.  Entries expire after
+ * {@link #TTL_PROPERTY} seconds, each drive keeps at most
+ * {@link #MAX_ENTRIES_PROPERTY} of them, and anything a change to a path
+ * could affect is dropped by {@link #invalidate(Drive, String...)}, which
+ * must be called after every upload, delete, rename, copy, mkdir and
+ * completed multipart upload.
+ * <p>
+ * Providers whose view of a drive depends on the user, see
+ * {@link StorageProvider#supportsMetadataCaching()}, aren't cached.
+ * Items are copied in and out of the cache, since callers set per-user
+ * access levels on them.
+ */
+public class DriveMetadataCache {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.provider.DriveMetadataCache");
+
+	/** System property for how long entries are kept, in seconds; 0 turns off caching */
+	public static final String TTL_PROPERTY = "storexp.metadataCache.ttlSeconds";
+
+	/** System property for the most entries kept for each drive */
+	public static final String MAX_ENTRIES_PROPERTY = "storexp.metadataCache.maxEntries";
+
+	public static final int DEFAULT_TTL = 30;
+
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	/** The singleton DriveMetadataCache */
+	private static DriveMetadataCache singletonCache = null;
+
+	/** Told about changes too, so that searches see them; null if there's no index */
+	private DrivePathIndex pathIndex;
+
+	/**
+	 * Gets a value from the drive when it isn't cached.
+	 */
+	interface Loader<T, E extends Exception> {
+		T load() throws E;
+	}
+
+	/** A cached value, along with the path it depends on */
+	private static class Entry {
+		final String path;
+		final Object value;
+		final long expiresAt;
+
+		Entry(String path, Object value, long expiresAt) {
+			this.path = path;
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/** The entries for one drive, least recently used first */
+	private class DriveEntries extends LinkedHashMap<String, Entry> {
+		private static final long serialVersionUID = 1L;
+
+		/** Bumped by every invalidation, so loads that overlap one aren't cached */
+		long generation;
+
+		DriveEntries() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > maxEntries;
+		}
+	}
+
+	private final long ttlMillis;
+
+	private final int maxEntries;
+
+	private final Map<Integer, DriveEntries> drives = new HashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong invalidations = new AtomicLong();
+
+	DriveMetadataCache(long ttlMillis, int maxEntries) {
+		this.ttlMillis = ttlMillis;
+		this.maxEntries = Math.max(1, maxEntries);
+	}
+
+	public static synchronized DriveMetadataCache getInstance() {
+		if (singletonCache == null) {
+			singletonCache = new DriveMetadataCache(
+					Integer.getInteger(TTL_PROPERTY, DEFAULT_TTL) * 1000L,
+					Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+			singletonCache.pathIndex = DrivePathIndex.getInstance();
+		}
+		return singletonCache;
+	}
+
+	public List<DriveItem> find(StorageProvider provider, Drive drive, DriveQuery query) throws ExplorerException {
+		List<DriveItem> items = get(provider, drive, "find", query.getStartPath(), getQueryKey(query),
+				() -> copy(provider.find(drive, query)));
+		return copy(items);
+	}
+
+	public DriveItemPage findPage(StorageProvider provider, Drive drive, DriveQuery query) throws ExplorerException {
+		String key = getQueryKey(query) + "|" + query.getPageSize() + "|" + query.getContinuationToken();
+		DriveItemPage page = get(provider, drive, "findPage", query.getStartPath(), key, () -> {
+			DriveItemPage loaded = provider.findPage(drive, query);
+			return new DriveItemPage(copy(loaded.getItems()), loaded.getContinuationToken());
+		});
+		return new DriveItemPage(copy(page.getItems()), page.getContinuationToken());
+	}
+
+	public boolean exists(StorageProvider provider, Drive drive, String path) throws IOException {
+		return get(provider, drive, "exists", path, path, () -> provider.exists(drive, path));
+	}
+
+	public boolean isDirectory(StorageProvider provider, Drive drive, String path) throws IOException {
+		return get(provider, drive, "isDirectory", path, path, () -> provider.isDirectory(drive, path));
+	}
+
+	public DriveItem getDriveItem(StorageProvider provider, Drive drive, String path) throws IOException {
+		DriveItem item = get(provider, drive, "getDriveItem", path, path,
+				() -> copy(provider.getDriveItem(drive, path)));
+		return copy(item);
+	}
+
+	private <T, E extends Exception> T get(StorageProvider provider, Drive drive, String operation,
+			String path, String key, Loader<T, E> loader) throws E {
+		if (ttlMillis <= 0 || !provider.supportsMetadataCaching()) {
+			return loader.load();
+		}
+		String fullKey = operation + "|" + key;
+		long generation;
+
+		synchronized (this) {
+			DriveEntries entries = getEntries(drive.getDriveId());
+			Entry entry = entries.get(fullKey);
+
+			if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+				hits.incrementAndGet();
+				@SuppressWarnings("unchecked")
+				T value = (T) entry.value;
+				return value;
+			}
+			generation = entries.generation;
+		}
+		misses.incrementAndGet();
+		T value = loader.load();
+
+		synchronized (this) {
+			DriveEntries entries = getEntries(drive.getDriveId());
+
+			// don't cache what may have changed while it was being loaded
+			if (entries.generation == generation) {
+				entries.put(fullKey, new Entry(normalize(path), value, System.currentTimeMillis() + ttlMillis));
+			}
+		}
+		return value;
+	}
+
+	private DriveEntries getEntries(int driveId) {
+		return drives.computeIfAbsent(driveId, id -> new DriveEntries());
+	}
+
+	/**
+	 * Drop everything cached for the drive that a change to the given
+	 * paths could affect: the paths themselves, their ancestors (whose
+	 * listings include them) and their descendants (for folders).
+	 * The drive's path index is told about the change as well.
+	 */
+	public void invalidate(Drive drive, String... paths) {
+		if (pathIndex != null) {
+			pathIndex.markChanged(drive, paths);
+		}
+		invalidateEntries(drive, paths);
+	}
+
+	private synchronized void invalidateEntries(Drive drive, String... paths) {
+		DriveEntries entries = drives.get(drive.getDriveId());
+
+		if (entries == null) {
+			return;
+		}
+		entries.generation++;
+		invalidations.incrementAndGet();
+
+		for (String path : paths) {
+			String changed = normalize(path);
+			Iterator<Entry> iterator = entries.values().iterator();
+
+			while (iterator.hasNext()) {
+				if (isRelated(iterator.next().path, changed)) {
+					iterator.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop everything cached for the drive, e.g., when its settings change
+	 */
+	public synchronized void invalidateDrive(int driveId) {
+		DriveEntries entries = drives.get(driveId);
+
+		if (entries != null) {
+			logger.info("Dropped " + entries.size() + " cached entries for drive " + driveId);
+			entries.generation++;
+			entries.clear();
+			invalidations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return true if one path is the same as, or inside, the other
+	 */
+	static boolean isRelated(String path1, String path2) {
+		return path1.isEmpty() || path2.isEmpty() || path1.equals(path2) ||
+				path1.startsWith(path2 + "/") || path2.startsWith(path1 + "/");
+	}
+
+	private static String normalize(String path) {
+		return (path == null) ? "" : removeBothSlashes(convertToUnixStylePath(path));
+	}
+
+	private static String getQueryKey(DriveQuery query) {
+		return query.getStartPath() + "|" + query.isRecursive() + "|" + query.getSearchPattern() + "|" +
+				query.getUsesPlaceholder() + "|" + query.getNamePattern() + "|" + query.getMinSize() + "|" +
+				query.getMaxSize() + "|" + query.getModifiedAfter() + "|" + query.getModifiedBefore();
+	}
+
+	private static List<DriveItem> copy(List<DriveItem> items) {
+		List<DriveItem> copies = new ArrayList<>(items.size());
+
+		for (DriveItem item : items) {
+			copies.add(copy(item));
+		}
+		return copies;
+	}
+
+	private static DriveItem copy(DriveItem item) {
+		return (item == null) ? null : new DriveItem(item);
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getInvalidationCount() {
+		return invalidations.get();
+	}
+
+	public synchronized int getSize() {
+		return drives.values().stream().mapToInt(Map::size).sum();
+	}
+
+}
@@ -0,0 +1,707 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.convertToUnixStylePath;
+import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.removeBothSlashes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.spinsys.mdaca.storage.explorer.io.FileUtil;
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
+import com.spinsys.mdaca.storage.explorer.model.DriveSearchResult;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+
+/**
+ * An index of every path on a drive, kept on disk, so that recursive
+ * searches by name, size and date don't have to list the whole drive.
+ * <p>
+ * Each drive's index is a snapshot written by the usage crawl, see
+ * {@link #saveCrawled(Drive, List, Date, boolean)}, and a journal of
+ * the paths changed through this application since the crawl started,
+ * see {@link #markChanged(Drive, String...)}.  Changed paths are looked
+ * up again on the drive before the next search, so searches see our own
+ * changes; changes made by other means show up after the next crawl.
+ * <p>
+ * Providers whose view of a drive depends on the user, see
+ * {@link StorageProvider#supportsMetadataCaching()}, aren't searched
+ * through the index.
+ */
+public class DrivePathIndex {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.provider.DrivePathIndex");
+
+	/** System property for the folder the indexes are kept in */
+	public static final String DIRECTORY_PROPERTY = "storexp.pathIndex.dir";
+
+	/** System property for the most items a search returns */
+	public static final String MAX_RESULTS_PROPERTY = "storexp.pathIndex.maxResults";
+
+	public static final int DEFAULT_MAX_RESULTS = 10_000;
+
+	private static final int MAGIC = 0x53584958;
+
+	private static final int VERSION = 1;
+
+	/** Paths are stored as modified UTF-8, which allows up to 65535 bytes */
+	private static final int MAX_PATH_LENGTH = 65535 / 3;
+
+	/** Journal record types */
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+	private static final byte CHANGED = 3;
+	private static final byte RECONCILED = 4;
+
+	/** The index files are named drive-[drive id]-[crawl start].[type] */
+	/** The drive properties that say where its data is, as opposed to who may see it or how to sign in */
+	static final List<String> LOCATION_PROPERTY_KEYS = Arrays.asList(
+			AWSS3StorageProvider.BUCKET_NAME_PROPERTY_KEY, AWSS3StorageProvider.REGION_PROPERTY_KEY,
+			AzureBlobStorageProvider.BLOB_CONNECTION_STRING_PROPERTY_KEY,
+			AzureBlobStorageProvider.BLOB_CONTAINER_NAME_PROPERTY_KEY,
+			GoogleCloudStorageProvider.GOOGLE_BUCKET_NAME_PROPERTY_KEY, GoogleCloudStorageProvider.PROJECT_PROPERTY_KEY,
+			SMBStorageProvider.HOST_NAME_PROPERTY_KEY, SMBStorageProvider.SHARE_NAME_PROPERTY_KEY,
+			BasicStorageProvider.DRIVE_NAME_PROPERTY_KEY);
+
+	private static final Pattern FILE_NAME = Pattern.compile("drive-(\\d+)-(\\d+)\\.(idx|journal|crawl)");
+
+	/** The singleton DrivePathIndex */
+	private static DrivePathIndex singletonIndex = null;
+
+	/** One journal record */
+	private static class Change {
+		final byte type;
+		final long time;
+		final String key;
+
+		/** The item found at the path, for PUT */
+		final DriveItem item;
+
+		Change(byte type, long time, String key, DriveItem item) {
+			this.type = type;
+			this.time = time;
+			this.key = key;
+			this.item = item;
+		}
+	}
+
+	/** The index for one drive; guarded by its own lock */
+	private class DriveIndex {
+		final int driveId;
+
+		boolean loaded;
+
+		/** When the crawl behind the snapshot started; 0 if there isn't one */
+		long crawledAt;
+
+		/** The changes since the crawl started, in order */
+		final List<Change> changes = new ArrayList<>();
+
+		/** Items put since the crawl, by path; these replace what the snapshot has */
+		final Map<String, DriveItem> added = new HashMap<>();
+
+		/** Paths removed since the crawl, along with everything under them */
+		final Set<String> removed = new HashSet<>();
+
+		/** Paths changed but not yet looked up again, with the number of the last change to each */
+		final Map<String, Long> changed = new LinkedHashMap<>();
+
+		/** The number of paths marked changed, so a lookup can tell which changed again while it ran */
+		long changeCount;
+
+		DataOutputStream journal;
+
+		/** The snapshot being written by a crawl in progress */
+		DataOutputStream crawl;
+
+		long crawlStart;
+
+		DriveIndex(int driveId) {
+			this.driveId = driveId;
+		}
+
+		File getFile(long time, String type) {
+			return new File(directory, "drive-" + driveId + "-" + time + "." + type);
+		}
+
+		boolean isActive() {
+			return crawledAt > 0 || crawl != null;
+		}
+
+		void load() {
+			if (loaded) {
+				return;
+			}
+			loaded = true;
+			directory.mkdirs();
+			File[] files = directory.listFiles();
+
+			if (files == null) {
+				return;
+			}
+			for (File file : files) {
+				Matcher matcher = FILE_NAME.matcher(file.getName());
+
+				if (matcher.matches() && Integer.parseInt(matcher.group(1)) == driveId && "idx".equals(matcher.group(3))) {
+					crawledAt = Math.max(crawledAt, Long.parseLong(matcher.group(2)));
+				}
+			}
+			deleteFilesExcept(crawledAt);
+
+			if (crawledAt > 0) {
+				readJournal(getFile(crawledAt, "journal"));
+				writeJournal();
+				logger.info("Loaded the path index for drive " + driveId + " crawled at " + new Date(crawledAt) +
+						" with " + changes.size() + " changes since");
+			}
+		}
+
+		void readJournal(File file) {
+			if (!file.exists()) {
+				return;
+			}
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				while (true) {
+					byte type = in.readByte();
+					long time = in.readLong();
+					String key = in.readUTF();
+					DriveItem item = (type == PUT) ? readItem(in) : null;
+					Change change = new Change(type, time, key, item);
+					changes.add(change);
+					apply(change);
+				}
+			} catch (EOFException e) {
+				// the end of the journal, or of what was written of it
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Problem reading " + file + "; later changes are ignored", e);
+			}
+		}
+
+		/** Rewrite the journal from the changes in memory */
+		void writeJournal() {
+			closeJournal();
+
+			if (crawledAt == 0 && crawl == null) {
+				return;
+			}
+			File file = getFile(crawledAt, "journal");
+
+			try {
+				journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+
+				for (Change change : changes) {
+					writeChange(change);
+				}
+				journal.flush();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Problem writing " + file, e);
+				closeJournal();
+			}
+		}
+
+		void writeChange(Change change) throws IOException {
+			journal.writeByte(change.type);
+			journal.writeLong(change.time);
+			journal.writeUTF(change.key);
+
+			if (change.type == PUT) {
+				writeItem(journal, change.item);
+			}
+		}
+
+		void closeJournal() {
+			if (journal != null) {
+				try {
+					journal.close();
+				} catch (IOException e) {
+					logger.log(Level.WARNING, e.getMessage(), e);
+				}
+				journal = null;
+			}
+		}
+
+		void record(Change change) {
+			if (isTooLong(change.key)) {
+				logger.warning("Not indexing a path too long to store: " + change.key.substring(0, 100) + "...");
+				return;
+			}
+			changes.add(change);
+			apply(change);
+
+			if (journal == null) {
+				writeJournal();
+			} else {
+				try {
+					writeChange(change);
+					journal.flush();
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Problem journaling a change to drive " + driveId, e);
+					closeJournal();
+				}
+			}
+		}
+
+		void apply(Change change) {
+			switch (change.type) {
+			case PUT:
+				added.put(change.key, change.item);
+				break;
+			case REMOVE:
+				added.keySet().removeIf(key -> isSameOrInside(key, change.key));
+				removed.add(change.key);
+				break;
+			case CHANGED:
+				changed.put(change.key, ++changeCount);
+				break;
+			case RECONCILED:
+				changed.remove(change.key);
+				break;
+			default:
+				break;
+			}
+		}
+
+		/**
+		 * Replace what the index has for the changed paths, and everything
+		 * under them, with what was found when they were looked up again.
+		 * Paths changed again since the lookup started, or already
+		 * reconciled by another search, are left alone.
+		 * @param found what was found at each path looked up; empty if nothing
+		 * @param lookedUpAt the {@link #changeCount} when the paths were taken to be looked up
+		 */
+		void reconcile(Map<String, List<DriveItem>> found, long lookedUpAt) {
+			long now = System.currentTimeMillis();
+
+			for (Map.Entry<String, List<DriveItem>> entry : found.entrySet()) {
+				String key = entry.getKey();
+				Long changeNumber = changed.get(key);
+
+				if (changeNumber == null || changeNumber > lookedUpAt) {
+					continue;
+				}
+				record(new Change(REMOVE, now, key, null));
+
+				for (DriveItem foundItem : entry.getValue()) {
+					record(new Change(PUT, now, normalize(foundItem.getPath()), foundItem));
+				}
+				record(new Change(RECONCILED, now, key, null));
+			}
+		}
+
+		void saveCrawled(List<DriveItem> items, Date start, boolean done) throws IOException {
+			if (crawl == null || crawlStart != start.getTime()) {
+				if (crawl != null) {
+					crawl.close();
+					getFile(crawlStart, "crawl").delete();
+				}
+				crawlStart = start.getTime();
+				crawl = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(getFile(crawlStart, "crawl"))));
+				crawl.writeInt(MAGIC);
+				crawl.writeInt(VERSION);
+				crawl.writeLong(crawlStart);
+			}
+			for (DriveItem item : items) {
+				if (isTooLong(item.getPath())) {
+					logger.warning("Not indexing a path too long to store: " + item.getPath().substring(0, 100) + "...");
+				} else {
+					writeItem(crawl, item);
+				}
+			}
+
+			if (done) {
+				finishCrawl();
+			}
+		}
+
+		void finishCrawl() throws IOException {
+			crawl.close();
+			crawl = null;
+			Files.move(getFile(crawlStart, "crawl").toPath(), getFile(crawlStart, "idx").toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			crawledAt = crawlStart;
+
+			// the crawl may have missed changes made while it ran, so those are kept
+			List<Change> since = new ArrayList<>();
+			for (Change change : changes) {
+				if (change.time >= crawlStart) {
+					since.add(change);
+				}
+			}
+			changes.clear();
+			added.clear();
+			removed.clear();
+			changed.clear();
+
+			for (Change change : since) {
+				changes.add(change);
+				apply(change);
+			}
+			writeJournal();
+			deleteFilesExcept(crawledAt);
+			logger.info("Rebuilt the path index for drive " + driveId + ", keeping " + changes.size() +
+					" changes made since the crawl started");
+		}
+
+		void deleteFilesExcept(long keep) {
+			File[] files = directory.listFiles();
+
+			if (files == null) {
+				return;
+			}
+			for (File file : files) {
+				Matcher matcher = FILE_NAME.matcher(file.getName());
+
+				if (matcher.matches() && Integer.parseInt(matcher.group(1)) == driveId) {
+					long time = Long.parseLong(matcher.group(2));
+					boolean inProgress = (crawl != null && time == crawlStart && "crawl".equals(matcher.group(3)));
+
+					// a file still open for a search may not be deletable yet; it'll go next time
+					if (time != keep && !inProgress && !file.delete()) {
+						logger.fine("Unable to delete " + file + " yet");
+					}
+				}
+			}
+		}
+
+		void delete() {
+			closeJournal();
+
+			if (crawl != null) {
+				try {
+					crawl.close();
+				} catch (IOException e) {
+					logger.log(Level.WARNING, e.getMessage(), e);
+				}
+				crawl = null;
+			}
+			crawledAt = 0;
+			changes.clear();
+			added.clear();
+			removed.clear();
+			changed.clear();
+			deleteFilesExcept(-1);
+		}
+	}
+
+	private final File directory;
+
+	private final int maxResults;
+
+	private final Map<Integer, DriveIndex> indexes = new HashMap<>();
+
+	DrivePathIndex(File directory, int maxResults) {
+		this.directory = directory;
+		this.maxResults = Math.max(1, maxResults);
+	}
+
+	public static synchronized DrivePathIndex getInstance() {
+		if (singletonIndex == null) {
+			File defaultDirectory = new File(FileUtil.TMP_DIR, "storexp-path-index");
+			singletonIndex = new DrivePathIndex(
+					new File(System.getProperty(DIRECTORY_PROPERTY, defaultDirectory.getPath())),
+					Integer.getInteger(MAX_RESULTS_PROPERTY, DEFAULT_MAX_RESULTS));
+		}
+		return singletonIndex;
+	}
+
+	private DriveIndex getIndex(int driveId) {
+		synchronized (indexes) {
+			return indexes.computeIfAbsent(driveId, DriveIndex::new);
+		}
+	}
+
+	/**
+	 * Search the drive's index
+	 * @return the matching items, or null if the drive hasn't been indexed,
+	 *  in which case the drive itself must be searched
+	 */
+	public DriveSearchResult search(StorageProvider provider, Drive drive, DriveQuery query) throws IOException {
+		if (!provider.supportsMetadataCaching()) {
+			return null;
+		}
+		DriveIndex index = getIndex(drive.getDriveId());
+		List<String> changed;
+		long lookedUpAt;
+		Map<String, DriveItem> added;
+		Set<String> removed;
+		long crawledAt;
+		DataInputStream in;
+
+		synchronized (index) {
+			index.load();
+
+			if (index.crawledAt == 0) {
+				return null;
+			}
+			changed = new ArrayList<>(index.changed.keySet());
+			lookedUpAt = index.changeCount;
+		}
+		// looked up without the lock, so that a slow drive doesn't hold up
+		// the crawl and the changes being recorded for the drive
+		Map<String, List<DriveItem>> found = lookUp(provider, drive, changed);
+
+		synchronized (index) {
+			if (index.crawledAt == 0) {
+				return null;
+			}
+			index.reconcile(found, lookedUpAt);
+			added = new HashMap<>(index.added);
+			removed = new HashSet<>(index.removed);
+			crawledAt = index.crawledAt;
+			// opened while locked, so a crawl finishing now can't delete it first
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(index.getFile(crawledAt, "idx")), 1 << 16));
+		}
+		List<DriveItem> items = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		boolean truncated = false;
+
+		try {
+			readHeader(in);
+
+			while (!truncated) {
+				DriveItem item;
+
+				try {
+					item = readItem(in);
+				} catch (EOFException e) {
+					break;
+				}
+				String key = normalize(item.getPath());
+
+				if (added.containsKey(key) || isRemoved(removed, key)) {
+					continue;
+				}
+				truncated = addIfIncluded(items, seen, key, item, drive, query);
+			}
+		} finally {
+			in.close();
+		}
+
+		Iterator<Map.Entry<String, DriveItem>> iterator = added.entrySet().iterator();
+		while (!truncated && iterator.hasNext()) {
+			Map.Entry<String, DriveItem> entry = iterator.next();
+			truncated = addIfIncluded(items, seen, entry.getKey(), new DriveItem(entry.getValue()), drive, query);
+		}
+		return new DriveSearchResult(items, new Date(crawledAt), truncated);
+	}
+
+	/**
+	 * Look the changed paths up on the drive again
+	 * @return what was found at each path, along with everything under
+	 *  it if it's a folder; empty if nothing is there now.  Paths that
+	 *  couldn't be looked up are left out, for the next search to try again.
+	 */
+	private static Map<String, List<DriveItem>> lookUp(StorageProvider provider, Drive drive, List<String> keys) {
+		Map<String, List<DriveItem>> found = new LinkedHashMap<>();
+
+		for (String key : keys) {
+			try {
+				DriveItem item = provider.stat(drive, key);
+				List<DriveItem> items = new ArrayList<>();
+
+				if (item != null) {
+					items.add(item);
+
+					if (item.isDirectory()) {
+						DriveQuery query = new DriveQuery(item.getPath());
+						query.setRecursive(true);
+						items.addAll(provider.find(drive, query));
+					}
+				}
+				found.put(key, items);
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Unable to look up " + key + " on " + drive + ": " + e.getMessage(), e);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return true if there are more matches than can be returned
+	 */
+	private boolean addIfIncluded(List<DriveItem> items, Set<String> seen, String key, DriveItem item,
+			Drive drive, DriveQuery query) {
+		item.setDriveId(drive.getDriveId());
+
+		if (query.isIncluded(item) && seen.add(key)) {
+			if (items.size() == maxResults) {
+				return true;
+			}
+			items.add(item);
+		}
+		return false;
+	}
+
+	/**
+	 * Add a batch of the items found by the usage crawl to the index
+	 * being built for the drive
+	 * @param start when the crawl started; identifies the crawl
+	 * @param done true for the last batch, which replaces the drive's
+	 *  index with the one just built
+	 */
+	public void saveCrawled(Drive drive, List<DriveItem> items, Date start, boolean done) {
+		DriveIndex index = getIndex(drive.getDriveId());
+
+		synchronized (index) {
+			try {
+				index.load();
+				index.saveCrawled(items, start, done);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Problem indexing " + drive + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Note that paths on the drive have changed, e.g., by an upload,
+	 * delete, rename, copy or mkdir, so that they're looked up again
+	 * before the next search
+	 */
+	public void markChanged(Drive drive, String... paths) {
+		DriveIndex index = getIndex(drive.getDriveId());
+
+		synchronized (index) {
+			index.load();
+
+			if (!index.isActive()) {
+				return;
+			}
+			long now = System.currentTimeMillis();
+
+			for (String path : paths) {
+				String key = normalize(path);
+
+				// looking up the root again would mean listing the whole drive
+				if (!key.isEmpty()) {
+					index.record(new Change(CHANGED, now, key, null));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a digest of the drive's type and the properties that say
+	 *  where its data is, e.g., its bucket, host or share, so that its
+	 *  index is only dropped when the data it describes may have changed
+	 */
+	public static String getLocation(Drive drive) {
+		Map<String, String> sorted = new TreeMap<>();
+
+		for (String key : LOCATION_PROPERTY_KEYS) {
+			String value = drive.getPropertyValue(key);
+
+			if (value != null) {
+				sorted.put(key, value);
+			}
+		}
+		StringBuilder builder = new StringBuilder(String.valueOf(drive.getDriveType()));
+		sorted.forEach((key, value) -> builder.append('\n').append(key).append('=').append(value));
+		// the Azure connection string holds the account key
+		return StorageClientRegistry.digest(builder.toString());
+	}
+
+	/**
+	 * Drop the drive's index, e.g., when where its data is changes
+	 */
+	public void delete(int driveId) {
+		DriveIndex index = getIndex(driveId);
+
+		synchronized (index) {
+			index.load();
+			index.delete();
+		}
+	}
+
+	/**
+	 * @return when the crawl behind the drive's index started, or null
+	 *  if it hasn't been indexed
+	 */
+	public Date getCrawledAt(int driveId) {
+		DriveIndex index = getIndex(driveId);
+
+		synchronized (index) {
+			index.load();
+			return (index.crawledAt == 0) ? null : new Date(index.crawledAt);
+		}
+	}
+
+	private static void readHeader(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("Unrecognized path index file");
+		}
+		in.readLong();
+	}
+
+	private static void writeItem(DataOutputStream out, DriveItem item) throws IOException {
+		out.writeUTF(item.getPath());
+		out.writeLong(item.getFileSize());
+		out.writeLong((item.getModifiedDate() == null) ? -1 : item.getModifiedDate().getTime());
+		out.writeBoolean(item.isDirectory());
+	}
+
+	private static DriveItem readItem(DataInputStream in) throws IOException {
+		DriveItem item = new DriveItem(in.readUTF());
+		item.setFileSize(in.readLong());
+		long modified = in.readLong();
+		item.setModifiedDate((modified < 0) ? null : new Date(modified));
+		item.setDirectory(in.readBoolean());
+		return item;
+	}
+
+	private static boolean isTooLong(String path) {
+		return path != null && path.length() > MAX_PATH_LENGTH;
+	}
+
+	private static String normalize(String path) {
+		return (path == null) ? "" : removeBothSlashes(convertToUnixStylePath(path));
+	}
+
+	/**
+	 * @return true if the path, or a folder it's in, has been removed
+	 */
+	private static boolean isRemoved(Set<String> removed, String key) {
+		if (removed.isEmpty()) {
+			return false;
+		}
+		if (removed.contains(key)) {
+			return true;
+		}
+		for (int i = key.indexOf('/'); i >= 0; i = key.indexOf('/', i + 1)) {
+			if (removed.contains(key.substring(0, i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isSameOrInside(String path, String folder) {
+		return folder.isEmpty() || path.equals(folder) || path.startsWith(folder + "/");
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Counts the items that a bulk operation, e.g., {@link BulkDelete}, has
+ * handled, and keeps the first few that failed, so that the failures can
+ * be reported together once it's done.  It may be updated from any thread.
+ */
+class FailureReport {
+
+	/** How many of the items that failed are named when reporting them */
+	static final int MAX_FAILURES_REPORTED = 10;
+
+	private final AtomicLong succeeded = new AtomicLong();
+
+	private final AtomicLong failed = new AtomicLong();
+
+	/** The first few items that failed, with the reasons */
+	private final Map<String, String> failures = new LinkedHashMap<>();
+
+	void recordSuccesses(long count) {
+		succeeded.addAndGet(count);
+	}
+
+	void recordFailure(String item, String reason) {
+		failed.incrementAndGet();
+
+		synchronized (failures) {
+			if (failures.size() < MAX_FAILURES_REPORTED) {
+				failures.put(item, reason);
+			}
+		}
+	}
+
+	long getSucceeded() {
+		return succeeded.get();
+	}
+
+	long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @param action what was done to the items, e.g., "delete"
+	 * @param items what the items were, e.g., "items in dir1/"
+	 * @return e.g., "Unable to delete 2 of 5 items in dir1/: dir1/a (denied), dir1/b (denied)"
+	 */
+	String getMessage(String action, String items) {
+		String examples;
+		int named;
+
+		synchronized (failures) {
+			examples = failures.entrySet().stream()
+					.map(failure -> failure.getKey() + " (" + failure.getValue() + ")")
+					.collect(Collectors.joining(", "));
+			named = failures.size();
+		}
+		return "Unable to " + action + " " + failed.get() + " of " + (succeeded.get() + failed.get())
+				+ " " + items + ": " + examples
+				+ ((failed.get() > named) ? ", ..." : "");
+	}
+
+}
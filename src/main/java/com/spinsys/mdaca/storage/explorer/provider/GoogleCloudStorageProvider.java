@@ -17,18 +17,19 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import javax.persistence.EntityManager;
-
 import org.apache.commons.collections4.IterableUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 
 import com.google.api.gax.paging.Page;
+import com.google.cloud.BatchResult;
 import com.google.auth.Credentials;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.ReadChannel;
@@ -40,17 +41,19 @@ import com.google.cloud.storage.Bucket;
 import com.google.cloud.storage.CopyWriter;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.StorageBatch;
+import com.google.cloud.storage.StorageException;
 import com.google.cloud.storage.StorageOptions;
 import com.spinsys.mdaca.storage.explorer.io.BasicFile;
 import com.spinsys.mdaca.storage.explorer.io.FileUtil;
 import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
 import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveItemPage;
 import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
 import com.spinsys.mdaca.storage.explorer.model.StorageClass;
 import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
 import com.spinsys.mdaca.storage.explorer.model.http.TransferSpec;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
-import com.spinsys.mdaca.storage.explorer.persistence.UsageDataCacher;
 
 /**
  * @see https://cloud.google.com/storage/docs/reference/libraries
@@ -95,12 +98,17 @@ public class GoogleCloudStorageProvider extends CloudStorageProvider<Blob> {
     /** The key for where to find the JSON credentials for Google Cloud Storage */
     public static final String GOOGLE_CREDENTIALS = "GCSCredentials";
 
+    /** The most requests one batch request may hold */
+    static final int MAX_BATCH_SIZE = 100;
+
     private static final Logger logger =
             Logger.getLogger("com.spinsys.mdaca.storage.explorer.provider.GoogleCloudStorageProvider");
 
-    Credentials credentials = null;
-
     Storage getStorage(Drive drive) throws ExplorerException {
+        return StorageClientRegistry.getInstance().getClient(drive, Storage.class, this::buildStorage);
+    }
+
+    Storage buildStorage(Drive drive) throws ExplorerException {
         String projectId = drive.getPropertyValue(PROJECT_PROPERTY_KEY);
         String credentialsJSON = drive.getPropertyValue(GOOGLE_CREDENTIALS);
         Credentials credentials = getCredentials(credentialsJSON);
@@ -110,16 +118,18 @@ public class GoogleCloudStorageProvider extends CloudStorageProvider<Blob> {
         return storage;
     }
 
+    /**
+     * Parse the drive's credentials.  The Storage built from them is
+     * cached by the StorageClientRegistry, so this only runs when
+     * the drive is first used or its properties change.
+     */
     Credentials getCredentials(String sCredentials) throws ExplorerException {
-        if (credentials == null) {
-            try (InputStream is = new ByteArrayInputStream(sCredentials.getBytes(StandardCharsets.UTF_8))) {
-                //			FileInputStream is = new FileInputStream(credentialsFile);
-                credentials = GoogleCredentials.fromStream(is);
-            } catch (IOException e) {
-                throw new ExplorerException(e);
-            }
+        try (InputStream is = new ByteArrayInputStream(sCredentials.getBytes(StandardCharsets.UTF_8))) {
+            //			FileInputStream is = new FileInputStream(credentialsFile);
+            return GoogleCredentials.fromStream(is);
+        } catch (IOException e) {
+            throw new ExplorerException(e);
         }
-        return credentials;
     }
 
     @Override
@@ -160,19 +170,33 @@ public class GoogleCloudStorageProvider extends CloudStorageProvider<Blob> {
         return item;
     }
 
+    /**
+     * Get the blob's metadata in one request.  A path without a blob
+     * of its own is a directory if any blobs start with it.
+     */
     @Override
-    public DriveItem getDriveItem(Drive drive, String path) throws ExplorerException {
+    public DriveItem stat(Drive drive, String path) throws ExplorerException {
         try {
+            path = removeFirstSlash(path);
             Storage storage = getStorage(drive);
             String bucket = drive.getPropertyValue(GOOGLE_BUCKET_NAME_PROPERTY_KEY);
 
             BlobId blobId = BlobId.of(bucket, path);
             Blob blob = storage.get(blobId);
 
-            return buildDriveItem(blob, drive, storage);
+            if (blob != null) {
+                return buildDriveItem(blob, drive, storage);
+            }
         } catch (IOException e) {
             throw new ExplorerException(e);
         }
+
+        if (isDirectory(drive, path)) {
+            DriveItem item = new DriveItem(drive.getDriveId(), addLastSlash(path));
+            item.setDirectory(true);
+            return item;
+        }
+        return null;
     }
 
     @Override
@@ -194,6 +218,11 @@ public class GoogleCloudStorageProvider extends CloudStorageProvider<Blob> {
         return file;
     }
 
+    @Override
+    protected GoogleCloudStorageProvider newUploader(Drive drive) {
+        return new GoogleCloudStorageProvider();
+    }
+
     @Override
     public void upload(Drive drive, String path, File file) throws IOException {
         if (file == null) {
@@ -338,13 +367,45 @@ public class GoogleCloudStorageProvider extends CloudStorageProvider<Blob> {
     }
 
     @Override
-    public void deleteDirectory(Drive drive, String path) throws IOException {
-        super.deleteDirectory(drive, path);
+    public void deleteDirectory(Drive drive, String path, BulkDelete.Progress progress) throws IOException {
+        super.deleteDirectory(drive, path, progress);
 
         //delete the folder object
         deleteFile(drive, path);
     }
 
+    /**
+     * Deletes up to 100 objects with one batch request
+     */
+    @Override
+    protected Map<String, String> deleteBatch(Drive drive, List<String> paths) throws IOException {
+        String bucket = drive.getPropertyValue(GOOGLE_BUCKET_NAME_PROPERTY_KEY);
+        StorageBatch batch = getStorage(drive).batch();
+        Map<String, String> failures = new ConcurrentHashMap<>();
+
+        for (String path : paths) {
+            // An object that's already gone isn't an error; it's just not deleted
+            batch.delete(bucket, path).notify(new BatchResult.Callback<Boolean, StorageException>() {
+                @Override
+                public void success(Boolean wasDeleted) {
+                }
+
+                @Override
+                public void error(StorageException e) {
+                    failures.put(path, e.getMessage());
+                }
+            });
+        }
+        batch.submit();
+        logger.info("Deleted " + (paths.size() - failures.size()) + " objects from " + bucket);
+        return failures;
+    }
+
+    @Override
+    protected int getDeleteBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
     @Override
     public void mkdir(Drive drive, String inPath) throws IOException {
         if (inPath == null) {
@@ -409,11 +470,19 @@ public class GoogleCloudStorageProvider extends CloudStorageProvider<Blob> {
         BlobInfo blobInfo = BlobInfo.newBuilder(blobId).build();
 
         writer = storage.writer(blobInfo);
+        uploadBlobId = blobId;
+        uploadCommitted = false;
         return "someId";
     }
 
     WriteChannel writer;
 
+    /** Where the multipart upload is writing to */
+    BlobId uploadBlobId;
+
+    /** true once the multipart upload has been closed, which creates the object */
+    boolean uploadCommitted;
+
     public void uploadToStorage(Drive drive, File uploadFrom, String path) throws IOException {
         Storage storage = getStorage(drive);
         String bucketName = drive.getPropertyValue(GOOGLE_BUCKET_NAME_PROPERTY_KEY);
@@ -443,11 +512,25 @@ public class GoogleCloudStorageProvider extends CloudStorageProvider<Blob> {
     }
 
     public void uploadPartComplete(Drive drive, String path, String uploadId) throws IOException {
+        uploadCommitted = true;
         writer.close();
     }
 
+    /**
+     * Discard the upload.  Closing the writer would create the object
+     * from whatever parts were written, so the writer is dropped instead,
+     * and the unfinished resumable upload expires on its own.  If the
+     * upload was already being completed, the object it may have created
+     * is deleted.
+     */
     public void uploadPartAbort(Drive drive, String path, String uploadId) throws IOException {
-        writer.close();
+        writer = null;
+
+        if (uploadCommitted && (uploadBlobId != null)) {
+            getStorage(drive).delete(uploadBlobId);
+        }
+        uploadBlobId = null;
+        uploadCommitted = false;
     }
 
     void createDirectoryObject(Storage storage, String bucket, String inPath) {
@@ -537,18 +620,7 @@ public class GoogleCloudStorageProvider extends CloudStorageProvider<Blob> {
 
     @Override
     public List<DriveItem> find(Drive drive, DriveQuery query) throws ExplorerException {
-        String sourcePath = query.getStartPath();
-        if (sourcePath == null) {
-            sourcePath = ""; // "root"
-        }
-        else {
-            // make sure the path looks like a directory
-            sourcePath = addLastSlash(sourcePath);
-
-            // GCS doesn't follow a convention of having a slash
-            // representing the root directory in the path
-            sourcePath = removeFirstSlash(sourcePath);
-        }
+        String sourcePath = getListPrefix(query);
         Storage storage = getStorage(drive);
         String bucketName = drive.getPropertyValue(GOOGLE_BUCKET_NAME_PROPERTY_KEY);
         Bucket bucket = storage.get(bucketName);
@@ -572,70 +644,47 @@ public class GoogleCloudStorageProvider extends CloudStorageProvider<Blob> {
         return driveItems;
     }
 
+    /**
+     * Lists one page of blobs, continuing from the page token
+     * in the query's continuation token
+     */
     @Override
-    public long findAndSaveFileMemoryUsage(Drive drive,
-            EntityManager entityManager, Date date) throws ExplorerException {
-        long totalBytes = 0L;
-        long count = 0L;
-        int driveId = drive.getDriveId();
+    public DriveItemPage findPage(Drive drive, DriveQuery query) throws ExplorerException {
         Storage storage = getStorage(drive);
         String bucketName = drive.getPropertyValue(GOOGLE_BUCKET_NAME_PROPERTY_KEY);
-        Bucket bucket = storage.get(bucketName);
-
-        DriveQuery query = new DriveQuery();
-        query.setRecursive(true);
-        query.setSearchPattern(".*");
-        query.setStartPath("");
-        query.setUsesPlaceholder(true);
-        query.setDriveId(driveId);
+        List<Storage.BlobListOption> options = new ArrayList<>();
+        options.add(Storage.BlobListOption.prefix(getListPrefix(query)));
 
-        Page<Blob> blobPage = bucket.list();
+        if (!query.isRecursive()) {
+            options.add(Storage.BlobListOption.currentDirectory());
+        }
+        if (query.getPageSize() > 0) {
+            options.add(Storage.BlobListOption.pageSize(query.getPageSize()));
+        }
+        if (query.getContinuationToken() != null) {
+            options.add(Storage.BlobListOption.pageToken(query.getContinuationToken()));
+        }
+        Page<Blob> blobPage = storage.list(bucketName, options.toArray(new Storage.BlobListOption[0]));
+        List<DriveItem> driveItems = buildAndFilterDriveItems(IterableUtils.toList(blobPage.getValues()), drive, query);
+        String pageToken = blobPage.hasNextPage() ? blobPage.getNextPageToken() : null;
 
-        // Only save a batch worth of drive items at a time,
-        // reclaiming memory after each batch
-        int batchSize = 1024;
-        ArrayList<DriveItem> itemBatch = new ArrayList<>(batchSize);
+        return new DriveItemPage(driveItems, pageToken);
+    }
 
-        // Process every blob
-        for (Blob blob : blobPage.iterateAll()) {
-            DriveItem driveItem = buildDriveItem(blob, drive);
-            itemBatch.add(driveItem);
-
-            // Periodically save and clear out the blob list to conserve memory
-            if ((++count % batchSize ) == 0) {
-                UsageDataCacher.saveFileUsageDataAndClear(entityManager, drive, itemBatch, date, false);
-                
-                if ((count % (50 * batchSize)) == 0) {
-                    logger.info("Saved " + count + " items for " + drive);
-                }
-                itemBatch.clear();
-            }
+    String getListPrefix(DriveQuery query) {
+        String sourcePath = query.getStartPath();
+        if (sourcePath == null) {
+            sourcePath = ""; // "root"
+        }
+        else {
+            // make sure the path looks like a directory
+            sourcePath = addLastSlash(sourcePath);
 
-        	double percent = 0;
-			try {
-				percent = FileUtil.getProcessCpuLoad();
-			} catch (Exception e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
-
-            logger.info("cpu percent " + percent);
-            //If cpu usage is greater then 50%
-            if(percent > 2.5){
-                 try {
-                    logger.info("Sleeping 5 seconds");
-					Thread.sleep(5000);
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-            }
+            // GCS doesn't follow a convention of having a slash
+            // representing the root directory in the path
+            sourcePath = removeFirstSlash(sourcePath);
         }
-        // Save any leftovers
-        totalBytes +=
-                UsageDataCacher.saveFileUsageDataAndClear(entityManager, drive, itemBatch, date, true);
-        logger.info("Saved " + count  + " items for " + drive);
-        return totalBytes;
+        return sourcePath;
     }
 
     /**
@@ -765,6 +814,15 @@ public class GoogleCloudStorageProvider extends CloudStorageProvider<Blob> {
         return Channels.newInputStream(reader);
     }
 
+    @Override
+    public InputStream getInputStream(Drive drive, String path, long startByte, long length) throws IOException {
+        Storage storage = getStorage(drive);
+        String bucket = drive.getPropertyValue(GOOGLE_BUCKET_NAME_PROPERTY_KEY);
+        ReadChannel reader = storage.reader(bucket, path);
+        reader.seek(startByte);
+        return new BoundedInputStream(Channels.newInputStream(reader), length);
+    }
+
     @Override
     public List<String> getProperties() {
         return Arrays.asList(
@@ -0,0 +1,434 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.hierynomus.mssmb2.SMBApiException;
+import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smbj.SMBClient;
+import com.hierynomus.smbj.common.SMBRuntimeException;
+import com.hierynomus.smbj.auth.AuthenticationContext;
+import com.hierynomus.smbj.session.Session;
+import com.hierynomus.smbj.share.DiskShare;
+
+/**
+ * Keeps authenticated SMB sessions and their connected shares open between
+ * requests, so that the negotiate and authentication handshake is done once
+ * per host, share and principal instead of once per call.
+ * <p>
+ * Shares are borrowed with {@link #borrow} and returned by closing the
+ * {@link Lease}.  Idle shares are pinged every {@link #getKeepAliveMillis()}
+ * and closed once unused for {@link #getIdleTimeoutMillis()}.  When
+ * {@link #getMaxSize()} shares are open, further borrowers get a share that
+ * is closed rather than pooled when they are done.
+ */
+public class SMBSessionPool {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.provider.SMBSessionPool");
+
+	/** System property for the maximum number of open shares. */
+	public static final String MAX_SIZE_PROPERTY = "storexp.smb.maxPooled";
+
+	/** System property for how long a share may be idle before it is closed. */
+	public static final String IDLE_TIMEOUT_PROPERTY = "storexp.smb.idleTimeoutMillis";
+
+	/** System property for how often idle shares are pinged. */
+	public static final String KEEP_ALIVE_PROPERTY = "storexp.smb.keepAliveMillis";
+
+	static final int DEFAULT_MAX_SIZE = 20;
+
+	static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+	static final long DEFAULT_KEEP_ALIVE_MS = 60 * 1000;
+
+	/** The singleton SMBSessionPool */
+	private static SMBSessionPool singletonPool = null;
+
+	/**
+	 * Opens an authenticated session to a host.
+	 */
+	interface Connector {
+		Session authenticate(String host, AuthenticationContext auth) throws IOException;
+	}
+
+	/**
+	 * Connects with one shared SMBClient, which reuses a
+	 * connection per host across sessions.
+	 */
+	static class ClientConnector implements Connector, AutoCloseable {
+		private final SMBClient client;
+
+		ClientConnector(SMBClient client) {
+			this.client = client;
+		}
+
+		@Override
+		public Session authenticate(String host, AuthenticationContext auth) throws IOException {
+			return client.connect(host).authenticate(auth);
+		}
+
+		@Override
+		public void close() {
+			client.close();
+		}
+	}
+
+	/** An open share, along with the session it belongs to */
+	static class PooledShare {
+		final String key;
+		final Session session;
+		final DiskShare share;
+		long lastUsed = System.currentTimeMillis();
+
+		PooledShare(String key, Session session, DiskShare share) {
+			this.key = key;
+			this.session = session;
+			this.share = share;
+		}
+	}
+
+	/**
+	 * A borrowed share.  Closing it returns the share to the pool.
+	 */
+	public class Lease implements AutoCloseable {
+
+		private final PooledShare pooled;
+
+		private final boolean reusable;
+
+		private boolean broken = false;
+
+		private boolean closed = false;
+
+		Lease(PooledShare pooled, boolean reusable) {
+			this.pooled = pooled;
+			this.reusable = reusable;
+		}
+
+		public DiskShare getShare() {
+			return pooled.share;
+		}
+
+		/**
+		 * Close the share rather than return it to the pool,
+		 * e.g. after a transport error.
+		 */
+		public void invalidate() {
+			broken = true;
+		}
+
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				release(pooled, reusable && !broken);
+			}
+		}
+	}
+
+	private final Connector connector;
+
+	private final int maxSize;
+
+	private final long idleTimeoutMs;
+
+	private final long keepAliveMs;
+
+	/** Idle shares by key, most recently returned last */
+	private final Map<String, Deque<PooledShare>> idle = new HashMap<>();
+
+	/** Pooled shares, both idle and borrowed */
+	private int openCount = 0;
+
+	private ScheduledExecutorService maintenance = null;
+
+	SMBSessionPool(Connector connector, int maxSize, long idleTimeoutMs, long keepAliveMs) {
+		this.connector = connector;
+		this.maxSize = Math.max(1, maxSize);
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.keepAliveMs = keepAliveMs;
+	}
+
+	public static synchronized SMBSessionPool getInstance() {
+		if (singletonPool == null) {
+			SMBClient client = new SMBStorageProvider().configureSMB();
+			singletonPool = new SMBSessionPool(new ClientConnector(client),
+					Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE),
+					Long.getLong(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT_MS),
+					Long.getLong(KEEP_ALIVE_PROPERTY, DEFAULT_KEEP_ALIVE_MS));
+			singletonPool.startMaintenance();
+		}
+		return singletonPool;
+	}
+
+	/**
+	 * @param principalKey identifies whose credentials auth carries;
+	 *  shares are only reused for the same host, share and principal
+	 * @param auth builds the authentication context, called only when
+	 *  a new session is needed
+	 */
+	public Lease borrow(String host, String shareName, String principalKey,
+			Supplier<AuthenticationContext> auth) throws IOException {
+		String key = host + "|" + shareName + "|" + principalKey;
+
+		while (true) {
+			PooledShare pooled;
+			PooledShare evicted = null;
+			boolean reusable;
+
+			synchronized (this) {
+				Deque<PooledShare> shares = idle.get(key);
+				pooled = (shares == null) ? null : shares.pollLast();
+
+				if (shares != null && shares.isEmpty()) {
+					idle.remove(key);
+				}
+				if (pooled == null) {
+					evicted = evictIdleIfFull();
+					reusable = openCount < maxSize;
+
+					if (reusable) {
+						openCount++;
+					}
+				} else {
+					reusable = true;
+				}
+			}
+
+			if (evicted != null) {
+				close(evicted);
+			}
+			if (pooled != null) {
+				if (isHealthy(pooled)) {
+					return new Lease(pooled, true);
+				}
+				logger.info("Discarding disconnected SMB share " + key);
+				discard(pooled, true);
+				continue;
+			}
+
+			try {
+				Session session = connector.authenticate(host, auth.get());
+				DiskShare share = (DiskShare) session.connectShare(shareName);
+				return new Lease(new PooledShare(key, session, share), reusable);
+			} catch (IOException | RuntimeException e) {
+				if (reusable) {
+					synchronized (this) {
+						openCount--;
+					}
+				}
+				throw e;
+			}
+		}
+	}
+
+	private void release(PooledShare pooled, boolean reusable) {
+		if (reusable && isHealthy(pooled)) {
+			pooled.lastUsed = System.currentTimeMillis();
+
+			synchronized (this) {
+				idle.computeIfAbsent(pooled.key, k -> new ArrayDeque<>()).addLast(pooled);
+			}
+		} else {
+			discard(pooled, reusable);
+		}
+	}
+
+	/**
+	 * Take the longest idle share out of the pool if it is full, to make room
+	 * @return the share to close, or null
+	 */
+	private synchronized PooledShare evictIdleIfFull() {
+		if (openCount < maxSize) {
+			return null;
+		}
+		PooledShare oldest = null;
+
+		for (Deque<PooledShare> shares : idle.values()) {
+			PooledShare first = shares.peekFirst();
+
+			if (first != null && (oldest == null || first.lastUsed < oldest.lastUsed)) {
+				oldest = first;
+			}
+		}
+		if (oldest != null) {
+			Deque<PooledShare> shares = idle.get(oldest.key);
+			shares.pollFirst();
+
+			if (shares.isEmpty()) {
+				idle.remove(oldest.key);
+			}
+			openCount--;
+		}
+		return oldest;
+	}
+
+	/**
+	 * Close shares that have been idle too long and ping the rest,
+	 * so that servers don't drop them.
+	 */
+	void maintain() {
+		long now = System.currentTimeMillis();
+		List<PooledShare> toCheck = new ArrayList<>();
+		List<PooledShare> expired = new ArrayList<>();
+
+		// Take every idle share out, so borrowers don't use one while it is pinged
+		synchronized (this) {
+			for (Deque<PooledShare> shares : idle.values()) {
+				for (PooledShare pooled : shares) {
+					if (now - pooled.lastUsed >= idleTimeoutMs) {
+						expired.add(pooled);
+					} else {
+						toCheck.add(pooled);
+					}
+				}
+			}
+			idle.clear();
+			openCount -= expired.size();
+		}
+		expired.forEach(SMBSessionPool::close);
+
+		for (PooledShare pooled : toCheck) {
+			boolean alive = isHealthy(pooled);
+
+			if (alive) {
+				try {
+					pooled.share.getShareInformation();
+				} catch (RuntimeException e) {
+					logger.log(Level.INFO, "Keep-alive failed for SMB share " + pooled.key + ": " + e.getMessage());
+					alive = false;
+				}
+			}
+			if (alive) {
+				synchronized (this) {
+					idle.computeIfAbsent(pooled.key, k -> new ArrayDeque<>()).addFirst(pooled);
+				}
+			} else {
+				discard(pooled, true);
+			}
+		}
+	}
+
+	/**
+	 * Close all pooled shares.  Borrowed shares are closed when returned.
+	 */
+	public void shutdown() {
+		List<PooledShare> toClose = new ArrayList<>();
+
+		synchronized (this) {
+			if (maintenance != null) {
+				maintenance.shutdownNow();
+				maintenance = null;
+			}
+			idle.values().forEach(toClose::addAll);
+			idle.clear();
+			openCount -= toClose.size();
+		}
+		toClose.forEach(SMBSessionPool::close);
+
+		if (connector instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) connector).close();
+			} catch (Exception e) {
+				logger.log(Level.WARNING, "Problem closing the SMB client: " + e.getMessage(), e);
+			}
+		}
+		logger.info("Closed " + toClose.size() + " pooled SMB shares");
+	}
+
+	private synchronized void startMaintenance() {
+		maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "smb-session-pool");
+			thread.setDaemon(true);
+			return thread;
+		});
+		maintenance.scheduleWithFixedDelay(() -> {
+			try {
+				maintain();
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "SMB session pool maintenance failed", e);
+			}
+		}, keepAliveMs, keepAliveMs, TimeUnit.MILLISECONDS);
+	}
+
+	private void discard(PooledShare pooled, boolean counted) {
+		if (counted) {
+			synchronized (this) {
+				openCount--;
+			}
+		}
+		close(pooled);
+	}
+
+	static boolean isHealthy(PooledShare pooled) {
+		try {
+			return pooled.share.isConnected()
+					&& (pooled.session.getConnection() == null || pooled.session.getConnection().isConnected());
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true if the problem means the share's connection may be
+	 *  broken, so its lease should be invalidated; false for errors the
+	 *  server sent back, such as a missing file, which leave it usable
+	 */
+	static boolean isConnectionFailure(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof TransportException) {
+				return true;
+			}
+			if ((cause instanceof SMBRuntimeException) && !(cause instanceof SMBApiException)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static void close(PooledShare pooled) {
+		try {
+			pooled.share.close();
+		} catch (Exception e) {
+			logger.log(Level.FINE, "Problem closing SMB share " + pooled.key, e);
+		}
+		try {
+			pooled.session.close();
+		} catch (Exception e) {
+			logger.log(Level.FINE, "Problem closing SMB session " + pooled.key, e);
+		}
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.values().stream().mapToInt(Deque::size).sum();
+	}
+
+	public synchronized int getOpenCount() {
+		return openCount;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMs;
+	}
+
+	public long getKeepAliveMillis() {
+		return keepAliveMs;
+	}
+
+}
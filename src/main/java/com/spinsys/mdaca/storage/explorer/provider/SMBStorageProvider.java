@@ -51,6 +51,7 @@ import com.spinsys.mdaca.storage.explorer.io.BasicFile;
 import com.spinsys.mdaca.storage.explorer.io.FileUtil;
 import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
 import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveItemPage;
 import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
 import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
@@ -95,51 +96,51 @@ public class SMBStorageProvider extends BasicStorageProvider {
         }
 
         boolean isDir = false;
-        SMBClient client = new SMBClient();
-
-        String server = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY); // "SSLW-01585"; // "192.168.1.233";
-        String shareName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // "SMB_Share";
 
-        // TODO This is expensive.  Anything simpler? cache the connection
-        try (Connection connection = client.connect(server);
-                Session session = connection.authenticate(getAuth(drive)))
+        try (SMBSessionPool.Lease lease = borrowShare(drive))
         {
-            try (DiskShare share = (DiskShare) session.connectShare(shareName)) {
-                isDir = share.folderExists(smbPath);
-            }
-            catch (SMBApiException e) {
-                logger.log(Level.WARNING, e.getMessage(), e);
+            try {
+                try {
+                    isDir = lease.getShare().folderExists(smbPath);
+                }
+                catch (SMBApiException e) {
+                    logger.log(Level.WARNING, e.getMessage(), e);
+                }
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
             }
         } catch (IOException e) {
             logger.log(Level.WARNING, e.getMessage(), e);
-        } finally {
-            client.close();
         }
         return isDir;
     }
 
+    /**
+     * Each user connects to the share with their own credentials, so what
+     * one user sees mustn't be cached for the others.
+     */
+    @Override
+    public boolean supportsMetadataCaching() {
+        return false;
+    }
+
+    /**
+     * Get the file's information in one request to the share
+     */
     @Override
-    public DriveItem getDriveItem(Drive drive, String path) throws ExplorerException {
+    public DriveItem stat(Drive drive, String path) throws ExplorerException {
         DriveItem item = null;
         path = getPathWithDriveLetter(drive, path);
 
-        try {
-            SMBClient client = new SMBClient();
-
-            String server = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY); //
-            String shareName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // "SMB_Share";
-
-            try (Connection connection = client.connect(server);
-                    Session session = connection.authenticate(getAuth(drive)))
-            {
-                try (DiskShare share = (DiskShare) session.connectShare(shareName)) {
-                    path = normalizeFolderName(path);
-                    FileAllInformation info = share.getFileInformation(path);
-                    item = populateDriveItem(drive, info, path);
-                }
-            }
-            finally {
-                client.close();
+        try (SMBSessionPool.Lease lease = borrowShare(drive)) {
+            try {
+                path = normalizeFolderName(path);
+                FileAllInformation info = lease.getShare().getFileInformation(path);
+                item = populateDriveItem(drive, info, path);
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
             }
         } catch (Exception e) {
             logger.log(Level.WARNING, e.getMessage(), e);
@@ -155,45 +156,72 @@ public class SMBStorageProvider extends BasicStorageProvider {
     @Override
     public List<DriveItem> find(Drive drive, DriveQuery query) throws ExplorerException {
         List<DriveItem> driveItems = new ArrayList<>();
-        try {
-            SMBClient client = new SMBClient();
-
-            String server = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY); //
-            String shareName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // "SMB_Share";
-            String folder = query.getStartPath();
-            String pattern = query.getSearchPattern();
-
-            try (Connection connection = client.connect(server);
-                    Session session = connection.authenticate(getAuth(drive)))
-            {
-                try (DiskShare share = (DiskShare) session.connectShare(shareName)) {
-                    folder = normalizeFolderName(folder);
-                    FileAllInformation folderInformation = share.getFileInformation(folder);
-
-                    // If a recursive query, the folder 
-                    // itself may go in the drive item list
-                    boolean isRecursive = query.isRecursive();
-                    if (isRecursive) {
-                        String searchPattern = normalizeSearchPattern(pattern);
-
-                        if (folder != null && folder.matches(searchPattern)) {
-                            DriveItem startFolderDriveItem = populateDriveItem(drive, folderInformation, folder);
-                            driveItems.add(startFolderDriveItem);
-                        }
+        String folder = query.getStartPath();
+        String pattern = query.getSearchPattern();
+
+        try (SMBSessionPool.Lease lease = borrowShare(drive)) {
+            try {
+                DiskShare share = lease.getShare();
+                folder = normalizeFolderName(folder);
+                FileAllInformation folderInformation = share.getFileInformation(folder);
+
+                // If a recursive query, the folder 
+                // itself may go in the drive item list
+                boolean isRecursive = query.isRecursive();
+                if (isRecursive) {
+                    String searchPattern = normalizeSearchPattern(pattern);
+
+                    if (folder != null && folder.matches(searchPattern)) {
+                        DriveItem startFolderDriveItem = populateDriveItem(drive, folderInformation, folder);
+                        driveItems.add(startFolderDriveItem);
                     }
-
-                    // add descendents to the drive item list
-                    collectDriveItemsInFolder(drive, driveItems, folder, pattern, share, isRecursive);
                 }
-            } finally {
-                client.close();
+
+                // add descendents to the drive item list
+                collectDriveItemsInFolder(drive, driveItems::add, folder, pattern, share, isRecursive);
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
             }
         } catch (Exception e) {
             logger.log(Level.WARNING, e.getMessage(), e);
         }
         return driveItems;
     }
+
+    /**
+     * Walks the share once on a single lease, handing items to the sink
+     * folder by folder, since SMB listings can't be resumed from a marker
+     */
+    @Override
+    public void crawl(Drive drive, DriveQuery query, DriveItemSink sink) throws IOException {
+        try (SMBSessionPool.Lease lease = borrowShare(drive)) {
+            try {
+                collectDriveItemsInFolder(drive, sink, query.getStartPath(), query.getSearchPattern(),
+                        lease.getShare(), query.isRecursive());
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ExplorerException("Problem crawling " + drive + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Shares are listed whole, rather than walked like local folders
+     */
+    @Override
+    public DriveItemPage findPage(Drive drive, DriveQuery query) throws ExplorerException {
+        return DriveItemPage.of(find(drive, query), query);
+    }
     
+    /**
+     * Connects afresh rather than borrowing from the SMBSessionPool,
+     * so that the handshake itself is tested.
+     */
     @Override
     public boolean testConnection(Drive drive) throws ExplorerException {
         boolean exists = false;
@@ -242,8 +270,8 @@ public class SMBStorageProvider extends BasicStorageProvider {
         return exists;
     }
 
-    void collectDriveItemsInFolder(Drive drive, List<DriveItem> driveItems, String folder, String pattern,
-            DiskShare share, boolean recurse)
+    void collectDriveItemsInFolder(Drive drive, DriveItemSink sink, String folder, String pattern,
+            DiskShare share, boolean recurse) throws IOException
     {
         String searchFolder = normalizeFolderName(folder);
         String searchPattern = normalizeSearchPattern(pattern);
@@ -266,13 +294,13 @@ public class SMBStorageProvider extends BasicStorageProvider {
                 // not the entire path
                 if (fileName.equals(searchPattern) || fileName.matches(searchPattern)) {
                     DriveItem item = populateDriveItem(drive, info, fullPath);
-                    driveItems.add(item);
+                    sink.accept(item);
                 }
 
                 // Search all subdirectories for matches
                 if (recurse) {
                     if ((info.getFileAttributes() & FileAttributes.FILE_ATTRIBUTE_DIRECTORY.getValue()) != 0) {
-                        collectDriveItemsInFolder(drive, driveItems, fullPath, pattern, share, recurse);
+                        collectDriveItemsInFolder(drive, sink, fullPath, pattern, share, recurse);
                     }
                 }
             }
@@ -347,6 +375,43 @@ public class SMBStorageProvider extends BasicStorageProvider {
         return item;
     }
 
+    /**
+     * Borrow a pooled share for the drive.  Close the lease to return it.
+     */
+    SMBSessionPool.Lease borrowShare(Drive drive) throws IOException {
+        String server = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
+        String shareName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY);
+        return SMBSessionPool.getInstance().borrow(server, shareName, getPrincipalKey(drive), () -> getAuth(drive));
+    }
+
+    /**
+     * Keep the lease's share out of the pool if the problem
+     * means its connection may be broken
+     */
+    static void invalidateIfBroken(SMBSessionPool.Lease lease, Exception e) {
+        if (SMBSessionPool.isConnectionFailure(e)) {
+            logger.info("Not reusing the SMB share after: " + e.getMessage());
+            lease.invalidate();
+        }
+    }
+
+    /**
+     * @return who getAuth will authenticate as, so that pooled
+     *  sessions are only reused for the same user
+     */
+    String getPrincipalKey(Drive drive) {
+        String user = drive.getPropertyValue(USER_NAME_PROPERTY_KEY);
+        String pwd = drive.getPropertyValue(PASSWORD_PROPERTY_KEY);
+        String shareDomain = drive.getPropertyValue(DOMAIN_PROPERTY_KEY);
+
+        if(user != null && user.length() > 0 && pwd != null && pwd.length() > 0) {
+            return "user:" + shareDomain + "\\" + user + ":" + StorageClientRegistry.digest(pwd);
+        } else if(this.principal != null) {
+            return "spnego:" + principal.getName() + "@" + principal.getRealm();
+        }
+        return "anonymous";
+    }
+
     AuthenticationContext getAuth(Drive drive) {
 
         String user = drive.getPropertyValue(USER_NAME_PROPERTY_KEY);
@@ -384,39 +449,34 @@ public class SMBStorageProvider extends BasicStorageProvider {
      * @throws FileNotFoundException
      */
     public List<DriveItem> downloadOne(Drive drive, String shareSourceDir, String destFileName) throws FileNotFoundException, IOException {
-        String hostName = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
-        String sourceDriveName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // e.g."SMB_Share");
-
         List<DriveItem> downloads = new ArrayList<>();
-        SMBClient client = configureSMB();
 
-        try (Connection connection = client.connect(hostName);
-                Session session = connection.authenticate(getAuth(drive)))
+        try (SMBSessionPool.Lease lease = borrowShare(drive))
         {
-            // Connect to a shared folder
-            DiskShare share = (DiskShare) session.connectShare(sourceDriveName);
-            //                      FileIdBothDirectoryInformation destFile; // TODO FileAllInformation?
-            //                      FileAllInformation destFile; // TODO FileAllInformation?
-
-            String sourcePath = shareSourceDir;
-            //                      String destPath = /* "C:\\Temp\\MDACA\\" + */ destFileName;
-
-            // filePath should not include the share, e.g., it should be
-            // "Temp\smallFile.txt"
-            if (fileExists(share, sourcePath)) {
-                java.io.File file = downloadFile(share, sourcePath);
-                DriveItem newItem = new DriveItem();
-                // TODO                                         newItem.setDriveId(driveId);
-                newItem.setModifiedDate(new Date());
-                newItem.setPath(file.getAbsolutePath());
-                // TODO or original date or actual local file date?
-                downloads.add(newItem);
-            } else {
-                logger.info("Unable to download " + sourcePath + ".  File does not exist.");
-            }
-        } finally {
-            if (client != null) {
-                client.close();
+            try {
+                DiskShare share = lease.getShare();
+                //                      FileIdBothDirectoryInformation destFile; // TODO FileAllInformation?
+                //                      FileAllInformation destFile; // TODO FileAllInformation?
+
+                String sourcePath = shareSourceDir;
+                //                      String destPath = /* "C:\\Temp\\MDACA\\" + */ destFileName;
+
+                // filePath should not include the share, e.g., it should be
+                // "Temp\smallFile.txt"
+                if (fileExists(share, sourcePath)) {
+                    java.io.File file = downloadFile(share, sourcePath);
+                    DriveItem newItem = new DriveItem();
+                    // TODO                                         newItem.setDriveId(driveId);
+                    newItem.setModifiedDate(new Date());
+                    newItem.setPath(file.getAbsolutePath());
+                    // TODO or original date or actual local file date?
+                    downloads.add(newItem);
+                } else {
+                    logger.info("Unable to download " + sourcePath + ".  File does not exist.");
+                }
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
             }
         }
         return downloads;
@@ -474,16 +534,27 @@ public class SMBStorageProvider extends BasicStorageProvider {
         }
 
         String destPath = path;// spec.getDestinationPath();
-        String hostName = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
-        String smbDriveName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // e.g."SMB_Share");
 
-        SMBClient client = configureSMB();
-        Connection connection = client.connect(hostName);
-        Session session = connection.authenticate(getAuth(drive));
+        try (SMBSessionPool.Lease lease = borrowShare(drive)) {
+            try {
+                uploadFile(drive, lease.getShare(), path, destPath, inputFile);
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
+            }
+        }
+    }
 
-        // Connect to a shared folder
-        DiskShare share = (DiskShare) session.connectShare(smbDriveName);
+    @Override
+    protected SMBStorageProvider newUploader(Drive drive) {
+        // Upload as the same user
+        return new SMBStorageProvider(principal);
+    }
 
+    /**
+     * Upload a file to an SMB directory
+     */
+    void uploadFile(Drive drive, DiskShare share, String path, String destPath, java.io.File inputFile) throws IOException {
         if (destPath.startsWith(PathProcessor.GUI_SEP) || destPath.startsWith(PathProcessor.WINDOWS_SEP)) {
             destPath = destPath.substring(1);
         }
@@ -600,75 +671,64 @@ public class SMBStorageProvider extends BasicStorageProvider {
 
     @Override
     public BasicFile download(Drive drive, String path) throws IOException {
-        String hostName = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
-        String sourceDriveName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // e.g."SMB_Share");
-
-        //SMBClient client = configureSMB();
-
-
-        SMBClient client = new SMBClient();
-
-        try (Connection connection = client.connect(hostName);
-                Session session = connection.authenticate(getAuth(drive)))
+        try (SMBSessionPool.Lease lease = borrowShare(drive))
         {
-            DiskShare share = (DiskShare) session.connectShare(sourceDriveName);
-            //                      FileIdBothDirectoryInformation destFile; // TODO FileAllInformation?
-            //                      FileAllInformation destFile; // TODO FileAllInformation?
-
-            String sourcePath = path;
-            //                      String destPath = /* "C:\\Temp\\MDACA\\" + */ destFileName;
-
-            // filePath should not include the share, e.g., it should be
-            // "Temp\smallFile.txt"
-            if (fileExists(share, sourcePath)) {
-                java.io.File file = downloadFile(share, sourcePath);
-                return new BasicFile(file.getAbsolutePath());
-            } else {
-                logger.info("Unable to download " + sourcePath + ".  File does not exist.");
+            try {
+                DiskShare share = lease.getShare();
+                //                      FileIdBothDirectoryInformation destFile; // TODO FileAllInformation?
+                //                      FileAllInformation destFile; // TODO FileAllInformation?
+
+                String sourcePath = path;
+                //                      String destPath = /* "C:\\Temp\\MDACA\\" + */ destFileName;
+
+                // filePath should not include the share, e.g., it should be
+                // "Temp\smallFile.txt"
+                if (fileExists(share, sourcePath)) {
+                    java.io.File file = downloadFile(share, sourcePath);
+                    return new BasicFile(file.getAbsolutePath());
+                } else {
+                    logger.info("Unable to download " + sourcePath + ".  File does not exist.");
+                }
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
             }
         } catch (Exception e) {
             logger.log(Level.WARNING, e.getMessage(), e);
-        } finally {
-            if (client != null) {
-                client.close();
-            }
         }
         return null;
     }
 
     @Override
     public void copy(Drive drive, String oldPath, String newPath) throws IOException {
-        String hostName = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
-        String sourceDriveName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // e.g."SMB_Share");
         String oldSmbPath = oldPath == null ? null
                 : PathProcessor.convertToWindowsStylePath(oldPath);
         String newSmbPath = newPath == null ? null
                 : PathProcessor.convertToWindowsStylePath(newPath);
-        SMBClient client = configureSMB();
 
-        try (Connection connection = client.connect(hostName);
-                Session session = connection.authenticate(getAuth(drive)))
+        try (SMBSessionPool.Lease lease = borrowShare(drive))
         {
-            DiskShare share = (DiskShare) session.connectShare(sourceDriveName);
-            // filePath should not include the share, e.g., it should be
-            // "Temp\smallFile.txt"
-            if (exists(share, oldSmbPath)) {
-
-                if (exists(share, newSmbPath)) {
-                    throw new FileAlreadyExistsException("Unable to copy " + oldSmbPath +
-                            " to " + newSmbPath + ", because it already exists.");
-                }
-                try (InputStream stream = readBytes(share, oldSmbPath)) {
-                    write(share, newSmbPath, stream);
+            try {
+                DiskShare share = lease.getShare();
+                // filePath should not include the share, e.g., it should be
+                // "Temp\smallFile.txt"
+                if (exists(share, oldSmbPath)) {
+
+                    if (exists(share, newSmbPath)) {
+                        throw new FileAlreadyExistsException("Unable to copy " + oldSmbPath +
+                                " to " + newSmbPath + ", because it already exists.");
+                    }
+                    try (InputStream stream = readBytes(share, oldSmbPath)) {
+                        write(share, newSmbPath, stream);
+                    }
+                    logger.info("Copied " + oldSmbPath + " to " + newSmbPath);
+                } else {
+                    throw new FileNotFoundException("Unable to copy " + oldSmbPath +
+                            ".  File does not exist.");
                 }
-                logger.info("Copied " + oldSmbPath + " to " + newSmbPath);
-            } else {
-                throw new FileNotFoundException("Unable to copy " + oldSmbPath +
-                        ".  File does not exist.");
-            }
-        } finally {
-            if (client != null) {
-                client.close();
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
             }
         }
     }
@@ -694,96 +754,90 @@ public class SMBStorageProvider extends BasicStorageProvider {
 
     @Override
     public void rename(Drive drive, String oldPath, String newPath) throws IOException {
-        String hostName = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
-        String sourceDriveName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // e.g."SMB_Share");
         String oldSmbPath = oldPath == null ? null
                 : PathProcessor.convertToWindowsStylePath(oldPath);
         String newSmbPath = newPath == null ? null
                 : PathProcessor.convertToWindowsStylePath(newPath);
-        SMBClient client = configureSMB();
         DiskEntry entry = null;
 
-        try (Connection connection = client.connect(hostName);
-                Session session = connection.authenticate(getAuth(drive)))
+        try (SMBSessionPool.Lease lease = borrowShare(drive))
         {
-            DiskShare share = (DiskShare) session.connectShare(sourceDriveName);
-            // filePath should not include the share, e.g., it should be
-            // "Temp\smallFile.txt"
-            if (exists(share, oldSmbPath)) {
-
-                if (exists(share, newSmbPath)) {
-                    throw new FileAlreadyExistsException("Unable to rename " + oldSmbPath +
-                            " to " + newSmbPath + ", because it already exists.");
+            try {
+                DiskShare share = lease.getShare();
+                // filePath should not include the share, e.g., it should be
+                // "Temp\smallFile.txt"
+                if (exists(share, oldSmbPath)) {
+
+                    if (exists(share, newSmbPath)) {
+                        throw new FileAlreadyExistsException("Unable to rename " + oldSmbPath +
+                                " to " + newSmbPath + ", because it already exists.");
+                    }
+                    entry = share.open(oldSmbPath, EnumSet.of(AccessMask.DELETE, AccessMask.MAXIMUM_ALLOWED),
+                            EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL,
+                            SMB2CreateDisposition.FILE_OPEN, null);
+                    entry.rename(newSmbPath);
+                    entry.close();
+                    logger.info("Renamed " + oldSmbPath + " to " + newSmbPath);
+                } else {
+                    throw new FileNotFoundException("Unable to rename " + oldSmbPath +
+                            ".  File does not exist.");
                 }
-                entry = share.open(oldSmbPath, EnumSet.of(AccessMask.DELETE, AccessMask.MAXIMUM_ALLOWED),
-                        EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL,
-                        SMB2CreateDisposition.FILE_OPEN, null);
-                entry.rename(newSmbPath);
-                entry.close();
-                logger.info("Renamed " + oldSmbPath + " to " + newSmbPath);
-            } else {
-                throw new FileNotFoundException("Unable to rename " + oldSmbPath +
-                        ".  File does not exist.");
-            }
-        } finally {
-            if (client != null) {
-                client.close();
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
             }
         }
     }
 
     public void renameWithProblem(Drive drive, String oldPath, String newPath) throws IOException {
-        String hostName = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
-        String sourceDriveName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // e.g."SMB_Share");
-        SMBClient client = configureSMB();
         DiskEntry entry = null;
 
-        try (Connection connection = client.connect(hostName);
-                Session session = connection.authenticate(getAuth(drive)))
+        try (SMBSessionPool.Lease lease = borrowShare(drive))
         {
-            DiskShare share = (DiskShare) session.connectShare(sourceDriveName);
-            // filePath should not include the share, e.g., it should be
-            // "Temp\smallFile.txt"
-            if (fileExists(share, oldPath)) {
-
-                if (fileExists(share, newPath)) {
+            try {
+                DiskShare share = lease.getShare();
+                // filePath should not include the share, e.g., it should be
+                // "Temp\smallFile.txt"
+                if (fileExists(share, oldPath)) {
+
+                    if (fileExists(share, newPath)) {
+                        throw new IOException("Unable to rename " + oldPath +
+                                " to " + newPath + ", because it already exists.");
+                    }
+                    entry = share.open(oldPath, EnumSet.of(AccessMask.DELETE, AccessMask.GENERIC_WRITE),
+                            EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL,
+                            SMB2CreateDisposition.FILE_OPEN, null);
+                    entry.rename(newPath);
+                    entry.close();
+                    logger.info("Renamed " + oldPath + " to " + newPath);
+                } else {
                     throw new IOException("Unable to rename " + oldPath +
-                            " to " + newPath + ", because it already exists.");
+                            ".  File does not exist.");
                 }
-                entry = share.open(oldPath, EnumSet.of(AccessMask.DELETE, AccessMask.GENERIC_WRITE),
-                        EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL,
-                        SMB2CreateDisposition.FILE_OPEN, null);
-                entry.rename(newPath);
-                entry.close();
-                logger.info("Renamed " + oldPath + " to " + newPath);
-            } else {
-                throw new IOException("Unable to rename " + oldPath +
-                        ".  File does not exist.");
-            }
-        } finally {
-            if (client != null) {
-                client.close();
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
             }
         }
     }
 
     @Override
     public void deleteFile(Drive drive, String destPath) throws IOException {
-        String hostName = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
-        String smbDriveName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // e.g."SMB_Share");
-
-        SMBClient client = configureSMB();
-        try (Connection connection = client.connect(hostName);
-                Session session = connection.authenticate(getAuth(drive))) {
-            DiskShare share = (DiskShare) session.connectShare(smbDriveName);
+        try (SMBSessionPool.Lease lease = borrowShare(drive)) {
+            try {
+                DiskShare share = lease.getShare();
 
-            if (destPath.startsWith(PathProcessor.GUI_SEP)) {
-                destPath = destPath.substring(1);
-            }
+                if (destPath.startsWith(PathProcessor.GUI_SEP)) {
+                    destPath = destPath.substring(1);
+                }
 
-            if (fileExists(share, destPath)) {
-                share.rm(destPath);
-                logger.info("Removed " + destPath);
+                if (fileExists(share, destPath)) {
+                    share.rm(destPath);
+                    logger.info("Removed " + destPath);
+                }
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
             }
         }
         catch (Exception e) {
@@ -795,22 +849,21 @@ public class SMBStorageProvider extends BasicStorageProvider {
 
     @Override
     public void deleteDirectory(Drive drive, String destPath) throws IOException {
-        String hostName = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
-        String smbDriveName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // e.g."SMB_Share");
-
-        SMBClient client = configureSMB();
+        try (SMBSessionPool.Lease lease = borrowShare(drive)) {
+            try {
+                DiskShare share = lease.getShare();
 
-        try (Connection connection = client.connect(hostName);
-                Session session = connection.authenticate(getAuth(drive));
-                DiskShare share = (DiskShare) session.connectShare(smbDriveName)) {
-
-            if (destPath.startsWith(PathProcessor.GUI_SEP)) {
-                destPath = destPath.substring(1);
-            }
+                if (destPath.startsWith(PathProcessor.GUI_SEP)) {
+                    destPath = destPath.substring(1);
+                }
 
-            if (folderExists(share, destPath)) {
-                share.rmdir(destPath, true);
-                logger.info("Removed " + destPath);
+                if (folderExists(share, destPath)) {
+                    share.rmdir(destPath, true);
+                    logger.info("Removed " + destPath);
+                }
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
             }
         }
     }
@@ -822,37 +875,34 @@ public class SMBStorageProvider extends BasicStorageProvider {
             throw new FileAlreadyExistsException("Attempted to create folder at path \"" + sPath + "\", but a folder already exists.");
         }
 
-        SMBClient client = new SMBClient();
-        String server = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY); // "SSLW-01585"; // "192.168.1.233";
-        String shareName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // "SMB_Share";
-
-        // TODO This is expensive.  Anything simpler? cache the connection
-        try (Connection connection = client.connect(server);
-                Session session = connection.authenticate(getAuth(drive));
-                DiskShare share = (DiskShare) session.connectShare(shareName)) {
-            ensureDirsExist(share, sPath);
-            share.mkdir(removeFirstSlash(sPath));
+        try (SMBSessionPool.Lease lease = borrowShare(drive)) {
+            try {
+                DiskShare share = lease.getShare();
+                ensureDirsExist(share, sPath);
+                share.mkdir(removeFirstSlash(sPath));
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
+            }
         } catch (SMBApiException e) {
             String eMsg = "mkdir failed for " + removeFirstSlash(sPath) +
                     " - " + e.getMessage();
             logger.log(Level.WARNING, eMsg, e);
             throw new IOException(eMsg, e);
-        } finally {
-            client.close();
         }
     }
 
     @Override
     public boolean exists(Drive drive, String path) throws IOException {
         boolean doesExist = false;
-        String hostName = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
-        String driveName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // e.g."SMB_Share");
-        SMBClient client = configureSMB();
-
-        try (Connection connection = client.connect(hostName);
-                Session session = connection.authenticate(getAuth(drive));
-                DiskShare share = (DiskShare) session.connectShare(driveName)) {
-            doesExist = exists(share, removeFirstSlash(path));
+
+        try (SMBSessionPool.Lease lease = borrowShare(drive)) {
+            try {
+                doesExist = exists(lease.getShare(), removeFirstSlash(path));
+            } catch (Exception e) {
+                invalidateIfBroken(lease, e);
+                throw e;
+            }
         }
         return doesExist;
     }
@@ -866,7 +916,12 @@ public class SMBStorageProvider extends BasicStorageProvider {
 
     @Override
     public void uploadPart(Drive drive, String path, byte[] data, int partNumber) throws IOException {
-        fileWriter.getOutputStream().write(data);
+        try {
+            fileWriter.getOutputStream().write(data);
+        } catch (IOException | RuntimeException e) {
+            invalidateIfBroken(fileWriter.lease, e);
+            throw e;
+        }
     }
 
     public void uploadPartComplete(Drive drive, String path, String uploadId) throws IOException {
@@ -879,6 +934,7 @@ public class SMBStorageProvider extends BasicStorageProvider {
             fileWriter.getDiskShare().rm(path);
         } catch(Exception ex)  {
             logger.log(Level.WARNING, ex.getMessage(), ex);
+            invalidateIfBroken(fileWriter.lease, ex);
         }
         fileWriter.close();
     }
@@ -918,6 +974,9 @@ public class SMBStorageProvider extends BasicStorageProvider {
             logger.info("Download of " + bytesRead + " bytes took " +
                     (System.currentTimeMillis() - startTime) + " ms.");
             bytes = (bytesRead == numberOfBytes) ? data : Arrays.copyOfRange(data, 0, bytesRead);
+        } catch (IOException | RuntimeException e) {
+            invalidateIfBroken(fileReader.lease, e);
+            throw e;
         }
         return bytes;
     }
@@ -996,34 +1055,33 @@ public class SMBStorageProvider extends BasicStorageProvider {
 
     class Streamer implements AutoCloseable {
 
-        private final SMBClient client;
-        private final Connection connection;
-        private final Session session;
+        private final SMBSessionPool.Lease lease;
         private final DiskShare share;
         private final File file;
         private final OutputStream outputStream;
         private final InputStream inputStream;
 
         public Streamer(Drive drive, String path, boolean isUpload) throws IOException {
-            String hostName = drive.getPropertyValue(HOST_NAME_PROPERTY_KEY);
-            String driveName = drive.getPropertyValue(SHARE_NAME_PROPERTY_KEY); // e.g."SMB_Share");
-
-            client = configureSMB();
-            connection = client.connect(hostName);
-            session = connection.authenticate(getAuth(drive));
-            share = (DiskShare) session.connectShare(driveName);
-            if (isUpload) {
-                // When a list of files comes from a cloud storage provider,
-                // the intermediate "directories" may not exist.  We create
-                // directories corresponding to the prefixes, if necessary.
-                ensureDirsExist(share, path);
-                file = share.openFile(path, EnumSet.of(AccessMask.GENERIC_ALL),
-                        EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL,
-                        SMB2CreateDisposition.FILE_CREATE, EnumSet.of(SMB2CreateOptions.FILE_DIRECTORY_FILE));
-            }
-            else { // download
-                file = share.openFile(path, EnumSet.of(AccessMask.GENERIC_READ), null, SMB2ShareAccess.ALL,
-                        SMB2CreateDisposition.FILE_OPEN, null);
+            lease = borrowShare(drive);
+            share = lease.getShare();
+            try {
+                if (isUpload) {
+                    // When a list of files comes from a cloud storage provider,
+                    // the intermediate "directories" may not exist.  We create
+                    // directories corresponding to the prefixes, if necessary.
+                    ensureDirsExist(share, path);
+                    file = share.openFile(path, EnumSet.of(AccessMask.GENERIC_ALL),
+                            EnumSet.of(FileAttributes.FILE_ATTRIBUTE_NORMAL), SMB2ShareAccess.ALL,
+                            SMB2CreateDisposition.FILE_CREATE, EnumSet.of(SMB2CreateOptions.FILE_DIRECTORY_FILE));
+                }
+                else { // download
+                    file = share.openFile(path, EnumSet.of(AccessMask.GENERIC_READ), null, SMB2ShareAccess.ALL,
+                            SMB2CreateDisposition.FILE_OPEN, null);
+                }
+            } catch (RuntimeException e) {
+                invalidateIfBroken(lease, e);
+                lease.close();
+                throw e;
             }
             outputStream = file.getOutputStream();
             inputStream = file.getInputStream();
@@ -1052,26 +1110,22 @@ public class SMBStorageProvider extends BasicStorageProvider {
         }
 
         public void close() throws IOException {
-            if (inputStream != null) {
-                inputStream.close();
-            }
-            if (outputStream != null) {
-                outputStream.close();
-            }
-            if (file != null) {
-                file.close();
-            }
-            if (share != null) {
-                share.close();
-            }
-            if (session != null) {
-                session.close();
-            }
-            if (connection != null) {
-                connection.close();
-            }
-            if (client != null) {
-                client.close();
+            try {
+                if (inputStream != null) {
+                    inputStream.close();
+                }
+                if (outputStream != null) {
+                    outputStream.close();
+                }
+                if (file != null) {
+                    file.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                invalidateIfBroken(lease, e);
+                throw e;
+            } finally {
+                // return the share to the pool
+                lease.close();
             }
         }
 
@@ -0,0 +1,294 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.persistence.DriveProperty;
+
+/**
+ * Caches the SDK clients that the providers use to talk to a drive, so that
+ * credentials, connection pools and TLS sessions are reused across requests.
+ * Clients are keyed by drive id and client type, and are rebuilt when the
+ * drive's properties change.  The least recently used clients are dropped
+ * once more than {@link #getMaxSize()} are cached.  A client that's dropped
+ * or replaced may still be in use by a request or a transfer that got it
+ * earlier, so it's only closed once it's been out of the cache for
+ * {@link #CLOSE_RETIRED_AFTER_PROPERTY} ms.
+ */
+public class StorageClientRegistry {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.provider.StorageClientRegistry");
+
+	/** System property for the maximum number of cached clients. */
+	public static final String MAX_SIZE_PROPERTY = "storexp.clients.maxCached";
+
+	static final int DEFAULT_MAX_SIZE = 100;
+
+	/** System property for how long a client that's been dropped is kept open */
+	public static final String CLOSE_RETIRED_AFTER_PROPERTY = "storexp.clients.closeRetiredAfterMs";
+
+	static final long DEFAULT_CLOSE_RETIRED_AFTER_MS = 60 * 60 * 1000L; // 1 hour
+
+	/** The singleton StorageClientRegistry */
+	private static StorageClientRegistry singletonRegistry = null;
+
+	/**
+	 * Builds a client for a drive.
+	 */
+	public interface ClientFactory<T> {
+		T create(Drive drive) throws Exception;
+	}
+
+	/** A cached client, along with the drive properties it was built from */
+	private static class Entry {
+		final String fingerprint;
+		final Object client;
+
+		Entry(String fingerprint, Object client) {
+			this.fingerprint = fingerprint;
+			this.client = client;
+		}
+	}
+
+	/** A client that's no longer handed out, waiting to be closed */
+	private static class Retired {
+		final Object client;
+		final long since;
+
+		Retired(Object client, long since) {
+			this.client = client;
+			this.since = since;
+		}
+	}
+
+	private final int maxSize;
+
+	private final long closeRetiredAfterMs;
+
+	/** Cached clients, least recently used first */
+	private final LinkedHashMap<String, Entry> clients;
+
+	/** Clients that have been dropped, oldest first */
+	private final List<Retired> retired = new ArrayList<>();
+
+	StorageClientRegistry(int maxSize) {
+		this(maxSize, DEFAULT_CLOSE_RETIRED_AFTER_MS);
+	}
+
+	StorageClientRegistry(int maxSize, long closeRetiredAfterMs) {
+		this.maxSize = Math.max(1, maxSize);
+		this.closeRetiredAfterMs = Math.max(0, closeRetiredAfterMs);
+		this.clients = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	public static synchronized StorageClientRegistry getInstance() {
+		if (singletonRegistry == null) {
+			singletonRegistry = new StorageClientRegistry(Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE),
+					Long.getLong(CLOSE_RETIRED_AFTER_PROPERTY, DEFAULT_CLOSE_RETIRED_AFTER_MS));
+		}
+		return singletonRegistry;
+	}
+
+	/**
+	 * Get the cached client of the given type for the drive, building
+	 * one if there isn't one or the drive's properties have changed.
+	 */
+	public <T> T getClient(Drive drive, Class<T> type, ClientFactory<? extends T> factory) throws ExplorerException {
+		String key = getKey(drive.getDriveId(), type);
+		String fingerprint = getFingerprint(drive);
+		List<Object> idle;
+		Entry entry;
+
+		synchronized (this) {
+			entry = clients.get(key);
+			idle = removeIdle();
+		}
+		idle.forEach(StorageClientRegistry::close);
+
+		if (entry != null && entry.fingerprint.equals(fingerprint)) {
+			return type.cast(entry.client);
+		}
+
+		// Build outside the lock; this can be slow
+		Object client;
+		try {
+			client = factory.create(drive);
+		} catch (ExplorerException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ExplorerException("Unable to create a client for " + drive + " because: " + e.getMessage(), e);
+		}
+
+		List<Object> toClose = new ArrayList<>();
+		synchronized (this) {
+			Entry current = clients.get(key);
+
+			// Another thread built one first; nobody has this one yet
+			if (current != null && current.fingerprint.equals(fingerprint)) {
+				toClose.add(client);
+				client = current.client;
+			} else {
+				if (current != null) {
+					retire(current.client);
+				}
+				clients.put(key, new Entry(fingerprint, client));
+				evictExcess();
+				toClose.addAll(removeIdle());
+			}
+		}
+		toClose.forEach(StorageClientRegistry::close);
+		return type.cast(client);
+	}
+
+	/**
+	 * Forget the clients for a drive, e.g. after it has been updated or
+	 * deleted; they're closed once they've been idle for long enough.
+	 */
+	public void invalidate(int driveId) {
+		String prefix = driveId + ":";
+		List<Object> toClose = new ArrayList<>();
+
+		synchronized (this) {
+			Iterator<Map.Entry<String, Entry>> iterator = clients.entrySet().iterator();
+
+			while (iterator.hasNext()) {
+				Map.Entry<String, Entry> entry = iterator.next();
+
+				if (entry.getKey().startsWith(prefix)) {
+					retire(entry.getValue().client);
+					iterator.remove();
+				}
+			}
+			toClose.addAll(removeIdle());
+		}
+		toClose.forEach(StorageClientRegistry::close);
+	}
+
+	/**
+	 * Close all clients, including the ones that have been dropped.
+	 */
+	public void shutdown() {
+		List<Object> toClose = new ArrayList<>();
+
+		synchronized (this) {
+			clients.values().forEach(e -> toClose.add(e.client));
+			clients.clear();
+			retired.forEach(r -> toClose.add(r.client));
+			retired.clear();
+		}
+		toClose.forEach(StorageClientRegistry::close);
+		logger.info("Closed " + toClose.size() + " storage clients");
+	}
+
+	public synchronized int size() {
+		return clients.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	synchronized int retiredSize() {
+		return retired.size();
+	}
+
+	private void evictExcess() {
+		Iterator<Entry> iterator = clients.values().iterator();
+
+		while (clients.size() > maxSize && iterator.hasNext()) {
+			retire(iterator.next().client);
+			iterator.remove();
+		}
+	}
+
+	private void retire(Object client) {
+		retired.add(new Retired(client, System.currentTimeMillis()));
+	}
+
+	/**
+	 * @return the clients that have been dropped for long enough that
+	 *  whatever was using them has finished, no longer retired
+	 */
+	private List<Object> removeIdle() {
+		if (retired.isEmpty()) {
+			return Collections.emptyList();
+		}
+		long cutoff = System.currentTimeMillis() - closeRetiredAfterMs;
+		List<Object> idle = new ArrayList<>();
+		Iterator<Retired> iterator = retired.iterator();
+
+		while (iterator.hasNext()) {
+			Retired next = iterator.next();
+
+			if (next.since > cutoff) {
+				break;
+			}
+			idle.add(next.client);
+			iterator.remove();
+		}
+		return idle;
+	}
+
+	static void close(Object client) {
+		try {
+			if (client instanceof AutoCloseable) {
+				((AutoCloseable) client).close();
+			} else if (client instanceof AmazonS3) {
+				((AmazonS3) client).shutdown();
+			}
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Problem closing " + client + ": " + e.getMessage(), e);
+		}
+	}
+
+	static String getKey(int driveId, Class<?> type) {
+		return driveId + ":" + type.getName();
+	}
+
+	/**
+	 * @return a digest of the drive's type and properties, so that
+	 *  changed credentials result in a new client
+	 */
+	static String getFingerprint(Drive drive) {
+		Map<String, String> sorted = new TreeMap<>();
+
+		if (drive.getProviderProperties() != null) {
+			for (DriveProperty prop : drive.getProviderProperties()) {
+				sorted.put(prop.getPropertyKey(), prop.getPropertyValue());
+			}
+		}
+		StringBuilder builder = new StringBuilder(String.valueOf(drive.getDriveType()));
+		sorted.forEach((key, value) -> builder.append('\n').append(key).append('=').append(value));
+		return digest(builder.toString());
+	}
+
+	/**
+	 * @return a SHA-256 digest of the text, so that secrets
+	 *  can be compared without being kept
+	 */
+	static String digest(String text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return Base64.getEncoder().encodeToString(digest.digest(String.valueOf(text).getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			// every JVM is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
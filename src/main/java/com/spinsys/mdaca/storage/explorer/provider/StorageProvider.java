@@ -8,8 +8,12 @@ import java.util.List;
 
 import javax.persistence.EntityManager;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
 import com.spinsys.mdaca.storage.explorer.io.BasicFile;
 import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveItemPage;
 import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
 import com.spinsys.mdaca.storage.explorer.model.dto.DriveMemoryUsageDTO;
 import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
@@ -25,6 +29,16 @@ public interface StorageProvider {
 
 	List<DriveItem> find(Drive drive, DriveQuery query) throws ExplorerException;
 
+	/**
+	 * Find one page of the items matching the query, starting where the
+	 * query's continuation token says the previous page ended.
+	 * Providers that can list a page at a time should override this;
+	 * by default all the items are found and one page of them returned.
+	 */
+	default DriveItemPage findPage(Drive drive, DriveQuery query) throws ExplorerException {
+		return DriveItemPage.of(find(drive, query), query);
+	}
+
 	BasicFile download(Drive drive, String path) throws IOException;
 
 	void upload(Drive drive, String path, File file) throws IOException;
@@ -34,6 +48,15 @@ public interface StorageProvider {
 	void rename(Drive drive, String currentPath, String newPath) throws IOException;
 
 	void delete(Drive drive, String path) throws IOException;
+
+	/**
+	 * Delete the file or directory, telling the progress how deleting a
+	 * directory's contents is going.  Providers that delete directories
+	 * a batch at a time should override this; by default nothing is told.
+	 */
+	default void delete(Drive drive, String path, BulkDelete.Progress progress) throws IOException {
+		delete(drive, path);
+	}
 	
 	void deleteFile(Drive drive, String path) throws IOException;
 	
@@ -58,6 +81,32 @@ public interface StorageProvider {
 	void uploadPartComplete(Drive drive, String path, String uploadId) throws IOException;
 
 	void uploadPartAbort(Drive drive, String path, String uploadId) throws IOException;
+
+	/**
+	 * @return true if downloadBytes may be called from several threads
+	 *  at once between downloadPartStart and downloadComplete
+	 */
+	default boolean supportsConcurrentPartDownloads() {
+		return false;
+	}
+
+	/**
+	 * @return true if uploadPart may be called from several threads at once,
+	 *  with parts arriving out of order, between uploadPartStart and
+	 *  uploadPartComplete
+	 */
+	default boolean supportsConcurrentPartUploads() {
+		return false;
+	}
+
+	/**
+	 * @return true if listings and stat results may be shared by all users
+	 *  of a drive in the {@link DriveMetadataCache}; false if what a user
+	 *  sees depends on their own credentials
+	 */
+	default boolean supportsMetadataCaching() {
+		return true;
+	}
 	
 	/**
 	 * Determines whether a file or directory already exist
@@ -86,12 +135,31 @@ public interface StorageProvider {
 	
 	void uploadDirectory(Drive drive, String folderDrivePath, File directory) throws IOException;
 
+	/**
+	 * Upload the directory, telling the progress how it's going.  Providers
+	 * that upload several files at once should override this; by default
+	 * nothing is told.
+	 */
+	default void uploadDirectory(Drive drive, String folderDrivePath, File directory,
+			DirectoryUpload.Progress progress) throws IOException {
+		uploadDirectory(drive, folderDrivePath, directory);
+	}
+
 	/**
 	 * finds ONE DriveItem at the specified path
 	 * @param path absolute path to the file
 	 */
 	DriveItem getDriveItem(Drive drive, String path) throws IOException;
 
+	/**
+	 * Looks up ONE file or folder directly, e.g., with a HEAD request,
+	 * rather than by listing its folder, so it takes the same time
+	 * however many other items the folder holds
+	 * @param path absolute path to the file or folder
+	 * @return the item at the path, or null if there isn't one
+	 */
+	DriveItem stat(Drive drive, String path) throws IOException;
+
 	List<DriveItem> findAllInPath(Drive drive, String path) throws IOException;
 
 	/**
@@ -114,6 +182,32 @@ public interface StorageProvider {
 	// Closing those resources appropriately will require additional work.
 	InputStream getInputStream(Drive drive, String sPathIn) throws IOException;
 
+	/**
+	 * Get an input stream for part of the object.  Providers whose storage
+	 * can read a range directly should override this; by default the bytes
+	 * before the range are read and discarded.
+	 * @param drive the drive with the object
+	 * @param path the path to the object
+	 * @param startByte the first byte to read
+	 * @param length the number of bytes to read
+	 * @return an input stream that ends after length bytes
+	 * @throws IOException
+	 */
+	default InputStream getInputStream(Drive drive, String path, long startByte, long length) throws IOException {
+		InputStream input = getInputStream(drive, path);
+
+		if (input == null) {
+			throw new IOException("Unable to read " + path);
+		}
+		try {
+			IOUtils.skipFully(input, startByte);
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+		return new BoundedInputStream(input, length);
+	}
+
 	/**
 	 * @return a list of keys of the DriveProperties for a given provider
 	 */
@@ -125,4 +219,11 @@ public interface StorageProvider {
      * @param start when data collection started
      */
     long findAndSaveFileMemoryUsage(Drive drive, EntityManager mgr, Date start) throws ExplorerException;
+
+    /**
+     * Finds the items matching the query, passing each to the sink as it's
+     * found rather than gathering them in a list, so that a drive of any
+     * size can be walked in constant memory
+     */
+    void crawl(Drive drive, DriveQuery query, DriveItemSink sink) throws IOException;
 }
@@ -1,17 +1,25 @@
 package com.spinsys.mdaca.storage.explorer.rest;
 
+import com.spinsys.mdaca.storage.explorer.io.BandwidthManager;
 import com.spinsys.mdaca.storage.explorer.model.DriveListRequest;
+import com.spinsys.mdaca.storage.explorer.model.dto.CacheStatsDTO;
 import com.spinsys.mdaca.storage.explorer.model.exception.AuthorizationException;
 import com.spinsys.mdaca.storage.explorer.model.http.ActionAuditResponse;
 import com.spinsys.mdaca.storage.explorer.model.http.AuditStatisticsSpec;
+import com.spinsys.mdaca.storage.explorer.model.http.BandwidthSpec;
 import com.spinsys.mdaca.storage.explorer.model.http.GridFilter;
 import com.spinsys.mdaca.storage.explorer.model.http.GridStateSpec;
 import com.spinsys.mdaca.storage.explorer.persistence.ActionAudit;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.persistence.DriveAccessPolicy;
 import com.spinsys.mdaca.storage.explorer.persistence.DriveProperty;
 import com.spinsys.mdaca.storage.explorer.persistence.DriveSecurityRule;
 import com.spinsys.mdaca.storage.explorer.persistence.DriveUser;
 import com.spinsys.mdaca.storage.explorer.persistence.TableUtils;
+import com.spinsys.mdaca.storage.explorer.persistence.UsageCollectionScheduler;
+import com.spinsys.mdaca.storage.explorer.provider.DriveMetadataCache;
+import com.spinsys.mdaca.storage.explorer.provider.DrivePathIndex;
+import com.spinsys.mdaca.storage.explorer.provider.StorageClientRegistry;
 import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
 import com.spinsys.mdaca.storage.explorer.provider.StorageProviderFactory;
 
@@ -26,6 +34,7 @@ import javax.persistence.criteria.Root;
 import javax.persistence.criteria.Subquery;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.GET;
 import javax.ws.rs.OPTIONS;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
@@ -105,11 +114,26 @@ public class AdminService extends BaseService {
 					throw new AuthorizationException("User does not have permissions to this drive");
 				}
 
+				// Read before merging, which updates the saved drive in place
+				List<Drive> saved = Drive.getDrivesByDriveId(drive.getDriveId(), entityManager);
+				String oldLocation = saved.isEmpty() ? null : DrivePathIndex.getLocation(saved.get(0));
+
 				utx.begin();
 				entityManager.merge(drive);
 				entityManager.flush();
 				utx.commit();
 
+				// Clients built from the old properties must not be reused
+				StorageClientRegistry.getInstance().invalidate(drive.getDriveId());
+				DriveMetadataCache.getInstance().invalidateDrive(drive.getDriveId());
+				DriveAccessPolicy.invalidate(drive.getDriveId());
+
+				// The index holds what's on the drive, whoever may see it,
+				// so it's only stale if the drive now points somewhere else
+				if (!DrivePathIndex.getLocation(drive).equals(oldLocation)) {
+					DrivePathIndex.getInstance().delete(drive.getDriveId());
+				}
+
 				for (ActionAudit action : audits) {
 					this.recordSuccess(action);
 				}
@@ -330,6 +354,95 @@ public class AdminService extends BaseService {
 		Map<String, Number> stateQty = ActionAudit.getActionStatistics(status, fromDate, entityManager);
 		return populateSuccessResponse(stateQty);
 	}
+
+	@OPTIONS
+	@Path("bandwidth")
+	public Response bandwidthOPTIONS() {
+		return populateSuccessResponse();
+	}
+
+	/**
+	 * @return the limit and current throughput of the server, and of each
+	 *  drive and user that has transferred data
+	 */
+	@GET
+	@Path("bandwidth")
+	public Response getBandwidth(@Context HttpServletRequest request) {
+		return populateSuccessResponse(BandwidthManager.getInstance().getUsage());
+	}
+
+	@OPTIONS
+	@Path("metadataCache")
+	public Response metadataCacheOPTIONS() {
+		return populateSuccessResponse();
+	}
+
+	/**
+	 * @return how often listings and stat results were served from the cache
+	 */
+	@GET
+	@Path("metadataCache")
+	public Response getMetadataCacheStats(@Context HttpServletRequest request) {
+		DriveMetadataCache cache = DriveMetadataCache.getInstance();
+
+		return populateSuccessResponse(new CacheStatsDTO(cache.getHitCount(), cache.getMissCount(),
+				cache.getInvalidationCount(), cache.getSize()));
+	}
+
+	@OPTIONS
+	@Path("usageCollection")
+	public Response usageCollectionOPTIONS() {
+		return populateSuccessResponse();
+	}
+
+	/**
+	 * @return how usage data collection is going for each drive,
+	 *  including how long each drive's last collection took
+	 */
+	@GET
+	@Path("usageCollection")
+	public Response getUsageCollection(@Context HttpServletRequest request) {
+		return populateSuccessResponse(UsageCollectionScheduler.getInstance().getCollections());
+	}
+
+	@PUT
+	@Path("bandwidth")
+	public Response updateBandwidth(BandwidthSpec spec, @Context HttpServletRequest request) {
+		Response response;
+		int driveId = (spec.getDriveId() == null) ? 0 : spec.getDriveId();
+		ActionAudit action = auditAction("updateBandwidth", spec.toString(), driveId, PENDING);
+
+		if (!getUserRole().equals(ADMIN)) {
+			recordUnauthorized(action);
+			return populateUnauthorizedResponse(action);
+		}
+
+		try {
+			BandwidthManager manager = BandwidthManager.getInstance();
+
+			if (spec.getGlobalLimit() != null) {
+				manager.setGlobalLimit(spec.getGlobalLimit());
+			}
+			if (spec.getDriveLimit() != null) {
+				manager.setDefaultDriveLimit(spec.getDriveLimit());
+			}
+			if (spec.getUserLimit() != null) {
+				manager.setDefaultUserLimit(spec.getUserLimit());
+			}
+			if (spec.getDriveId() != null) {
+				manager.setDriveLimit(spec.getDriveId(), spec.getLimit());
+			}
+			if (spec.getUsername() != null) {
+				manager.setUserLimit(spec.getUsername(), spec.getLimit());
+			}
+			recordSuccess(action);
+			response = populateSuccessResponse(manager.getUsage());
+		} catch (Exception e) {
+			recordException(action, e);
+			response = populateResponseOnException(action);
+		}
+		return response;
+	}
 	
 
 }
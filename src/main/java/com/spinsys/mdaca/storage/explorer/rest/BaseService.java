@@ -425,11 +425,25 @@ public class BaseService {
 	}
 
 	public static void logRequest(HttpServletRequest request, Object spec) {
+		logRequest(getRequestUrl(request), spec);
+	}
+
+	/**
+	 * Log a request whose URL was read earlier, e.g., by a background task
+	 * that outlives the request
+	 */
+	public static void logRequest(String url, Object spec) {
+		logger.info("Processing request " + url + ", with spec: " + spec);
+	}
+
+	/**
+	 * @return the request's URL; null if it can't be read
+	 */
+	public static String getRequestUrl(HttpServletRequest request) {
 		try {
-			String url = request.getRequestURL().toString();
-			logger.info("Processing request " + url + ", with spec: " + spec);
+			return request.getRequestURL().toString();
 		} catch(Exception ex) {
-			
+			return null;
 		}
 	}
 
@@ -4,9 +4,7 @@ import static com.spinsys.mdaca.storage.explorer.io.FileUtil.buildTempFile;
 import static com.spinsys.mdaca.storage.explorer.io.FileUtil.deleteTempFile;
 import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.GUI_SEP;
 import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.addLastSlash;
-import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.getExtension;
 import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.getParentFolder;
-import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.isNewLine;
 import static com.spinsys.mdaca.storage.explorer.io.PathProcessor.sameSourceAndDestination;
 import static com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel.Delete;
 import static com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel.Read;
@@ -15,7 +13,6 @@ import static com.spinsys.mdaca.storage.explorer.persistence.ActionAudit.ERROR;
 import static com.spinsys.mdaca.storage.explorer.persistence.ActionAudit.PENDING;
 import static com.spinsys.mdaca.storage.explorer.persistence.ActionAudit.UNAUTHORIZED;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -23,13 +20,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.security.Principal;
 import java.security.acl.Group;
 import java.sql.ResultSetMetaData;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
@@ -37,17 +33,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
 
 import javax.annotation.Resource;
-import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.persistence.EntityManager;
@@ -66,10 +58,10 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.avro.Schema;
 import org.apache.commons.cli.MissingArgumentException;
-import org.apache.commons.compress.compressors.z.ZCompressorInputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -83,19 +75,26 @@ import org.wildfly.security.authz.Roles;
 import org.jboss.resteasy.plugins.providers.multipart.InputPart;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartFormDataInput;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.primitives.Bytes;
 import com.spinsys.mdaca.storage.explorer.bigdata.AVROFileProcessor;
 import com.spinsys.mdaca.storage.explorer.bigdata.CSVFileProcessor;
 import com.spinsys.mdaca.storage.explorer.bigdata.HiveConnector;
 import com.spinsys.mdaca.storage.explorer.bigdata.HiveTableMaker;
 import com.spinsys.mdaca.storage.explorer.bigdata.ParquetFileProcessor;
+import com.spinsys.mdaca.storage.explorer.io.ArchiveExtractor;
+import com.spinsys.mdaca.storage.explorer.io.ArchiveWriter;
+import com.spinsys.mdaca.storage.explorer.io.BandwidthManager;
 import com.spinsys.mdaca.storage.explorer.io.BasicFile;
+import com.spinsys.mdaca.storage.explorer.io.ByteRange;
+import com.spinsys.mdaca.storage.explorer.io.FilePreview;
 import com.spinsys.mdaca.storage.explorer.io.FileUtil;
 import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
-import com.spinsys.mdaca.storage.explorer.io.ThrottledInputStream;
+import com.spinsys.mdaca.storage.explorer.io.StreamingUpload;
 import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveItemPage;
 import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
+import com.spinsys.mdaca.storage.explorer.model.DriveSearchResult;
 import com.spinsys.mdaca.storage.explorer.model.StorageClass;
 import com.spinsys.mdaca.storage.explorer.model.dto.FolderMemoryUsageDTO;
 import com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel;
@@ -120,16 +119,21 @@ import com.spinsys.mdaca.storage.explorer.model.http.StorageClassSpec;
 import com.spinsys.mdaca.storage.explorer.model.http.TransferSpec;
 import com.spinsys.mdaca.storage.explorer.persistence.ActionAudit;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
-import com.spinsys.mdaca.storage.explorer.persistence.DriveSecurityRule;
+import com.spinsys.mdaca.storage.explorer.persistence.DriveAccessPolicy;
+import com.spinsys.mdaca.storage.explorer.persistence.DriveAccessPolicy.UserPolicy;
 import com.spinsys.mdaca.storage.explorer.persistence.DriveUser;
-import com.spinsys.mdaca.storage.explorer.persistence.MemoryUsage;
+import com.spinsys.mdaca.storage.explorer.persistence.FolderUsage;
 import com.spinsys.mdaca.storage.explorer.provider.CloudStorageProvider;
+import com.spinsys.mdaca.storage.explorer.provider.DriveMetadataCache;
+import com.spinsys.mdaca.storage.explorer.provider.DrivePathIndex;
 import com.spinsys.mdaca.storage.explorer.provider.RestorableCloudStorageProvider;
 import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
 import com.spinsys.mdaca.storage.explorer.provider.StorageProviderFactory;
+import com.spinsys.mdaca.storage.explorer.tasks.ChunkedTransferPipeline;
+import com.spinsys.mdaca.storage.explorer.tasks.TransferProgress;
+import com.spinsys.mdaca.storage.explorer.tasks.TransferScheduler;
 import com.spinsys.mdaca.storage.explorer.tasks.TransferTask;
 
-import javassist.NotFoundException;
 import net.sourceforge.spnego.SpnegoPrincipal;
 
 @Path("drives")
@@ -138,6 +142,16 @@ public class DriveService extends BaseService {
 	/** The size of each part (except the last),
 	 *  when a file is uploaded in multiple chunks. */
 	static final int DEFAULT_UPLOAD_PART_SIZE = 10 * 1_048_576; // 10 MB
+
+	/** System property that turns off streaming of uploaded chunks to the provider */
+	public static final String STREAMING_UPLOAD_PROPERTY = "storexp.upload.streaming";
+
+	static final int UPLOAD_COPY_BUFFER_SIZE = 64 * 1024;
+
+	/** System property for how many items are listed at once when streaming a listing */
+	public static final String LISTING_PAGE_SIZE_PROPERTY = "storexp.listing.pageSize";
+
+	static final int DEFAULT_LISTING_PAGE_SIZE = 1000;
 	
 	/** The maximum of parts/chunks that cab be used to
 	 * transfer a single file. */
@@ -152,6 +166,9 @@ public class DriveService extends BaseService {
 	private static final Logger logger =
 			Logger.getLogger("com.spinsys.mdaca.storage.explorer.rest.DriveService");
 
+	/** Listings and stat results, shared by all requests; see {@link DriveMetadataCache} */
+	static final DriveMetadataCache metadataCache = DriveMetadataCache.getInstance();
+
 	public DriveService() {
 		super();
 	}
@@ -161,129 +178,26 @@ public class DriveService extends BaseService {
 	}
 
 	public List<AccessLevel> getDriveItemAccess(String path, Drive drive) {
-
-		List<AccessLevel> accessLevels = new ArrayList<AccessLevel>();
-
-		boolean hasRead = false;
-		boolean hasCreate = false;
-		boolean hasModify = false;
-		boolean hasDelete = false;
-
-		hasDelete = assertDriveItemAccess(path, drive, AccessLevel.Delete);
-
-		if(hasDelete == false) {
-
-			hasModify = assertDriveItemAccess(path, drive, AccessLevel.Modify);
-
-			if(hasModify == false) {
-
-				hasCreate = assertDriveItemAccess(path, drive, AccessLevel.Create);
-
-				if(hasCreate == false) {
-
-					hasRead = assertDriveItemAccess(path, drive, AccessLevel.Read);
-
-					if(hasRead == true) {
-						accessLevels.add(AccessLevel.Read);
-					}
-
-				} else {
-					accessLevels.add(AccessLevel.Read);
-					accessLevels.add(AccessLevel.Create);
-				}
-
-			} else {
-				accessLevels.add(AccessLevel.Read);
-				accessLevels.add(AccessLevel.Create);
-				accessLevels.add(AccessLevel.Modify);
-			}
-
-		} else {
-			accessLevels.add(AccessLevel.Read);
-			accessLevels.add(AccessLevel.Create);
-			accessLevels.add(AccessLevel.Modify);
-			accessLevels.add(AccessLevel.Delete);
-		}
-
-		if(assertDriveItemAccess(path, drive, AccessLevel.Archive)) {
-			accessLevels.add(AccessLevel.Archive);
-		}
-
-		if(assertDriveItemAccess(path, drive, AccessLevel.Restore)) {
-			accessLevels.add(AccessLevel.Restore);
-		}
-
-		return accessLevels;
+		return getAccessPolicy(drive).getAccessLevels(path);
 	}
 	
 	public static boolean assertDriveItemAccess(String path, Drive drive, AccessLevel level, List<String> roles, String username) {
-		// Let the admin do anything.  An admin could change any rule anyway.
-		boolean hasAccess = false;//isInGroup(ADMIN.getGroupName(), roles);
-
-		// If it's not an admin, check whether rules apply
-		if (!hasAccess) {
-			for (DriveSecurityRule rule : drive.getSecurityRules()) {
-				if (rule.isApplicableToEvaluate(level, roles, username)) {
-					if (rule.passesRule(path)) {
-
-						// if an inclusion rule is passed, then the user will have access,
-						// unless a later exclusionary rule overrides this one
-						if (!rule.isExclude()) {
-							hasAccess = true;
-						}
-						// else - if an exclusion rule is passed, we don't know
-						// that the user does have access.  We just know that
-						// he is not forbidden access.
-					}
-					// If this rule is not passed AND this is an exclude rule,
-					// the user does NOT have access
-					else if (rule.isExclude()) {
-						return false;
-					}
-					// If this path is an ancestor directory of an inclusion rule
-					// that allows access, then this ancestor directory should be readable
-					else if (rule.matchesAncestorDirectory(path) && Read.equals(level)) {
-						hasAccess = true;
-					}
-				}	// is applicable
-			}	// for
-		}	// if not an admin
-		return hasAccess;
+		// Admins are subject to the rules too; an admin could change any rule anyway.
+		return DriveAccessPolicy.forDrive(drive)
+				.forUser(() -> username, role -> isInGroup(role, roles))
+				.hasAccess(path, level);
 	}
 
 	public static boolean assertDriveItemAccess(String path, Drive drive, AccessLevel level) {
-		// Let the admin do anything.  An admin could change any rule anyway.
-		boolean hasAccess = false;
-
-		// If it's not an admin, check whether rules apply
-		if (!hasAccess) {
-			for (DriveSecurityRule rule : drive.getSecurityRules()) {
-				if (rule.isApplicableToEvaluate(level)) {
-					if (rule.passesRule(path)) {
-
-						// if an inclusion rule is passed, then the user will have access,
-						// unless a later exclusionary rule overrides this one
-						if (!rule.isExclude()) {
-							hasAccess = true;
-						}
-						// else - if an exclusion rule is passed, we don't know
-						// that the user does have access.  We just know that
-						// he is not forbidden access.
-					}
-					// If this rule is not passed AND this is an exclude rule,
-					// the user does NOT have access
-					else if (rule.isExclude()) {
-						return false;
-					}
-					// If this path is an ancestor directory of an inclusion rule
-					// that allows access, then this ancestor directory should be readable
-					else if (rule.matchesAncestorDirectory(path) && Read.equals(level)) {
-						hasAccess = true;
-					}
-				}	// is applicable
-			}	// for
-		}	// if not an admin
-		return hasAccess;
+		return getAccessPolicy(drive).hasAccess(path, level);
+	}
+
+	/**
+	 * @return the drive's security rules that apply to the current user
+	 */
+	static UserPolicy getAccessPolicy(Drive drive) {
+		return DriveAccessPolicy.forDrive(drive)
+				.forUser(BaseService::getCurrentUsername, role -> getHttpServletRequest().isUserInRole(role));
 	}
 
 	@OPTIONS
@@ -396,20 +310,27 @@ public class DriveService extends BaseService {
 	protected List<FolderMemoryUsageDTO> buildFolderUsageDTOs(int driveId, List<DriveItem> driveItems) {
 		EntityManager mgr = getEntityManager();
 		List<FolderMemoryUsageDTO> usageDTOs = new ArrayList<>();
+		List<String> folderPaths = driveItems.stream()
+				.map(DriveItem::getPath)
+				.filter(path -> path.endsWith(GUI_SEP)) // It's a folder, not a file
+				.collect(Collectors.toList());
 
-		// Get usage for each subfolder and add a corresponding DTO
-		for (DriveItem item : driveItems) {
-			String childPath = item.getPath();
-			
-			if (childPath.endsWith(GUI_SEP)) { // It's a folder, not a file
-				Long numBytes = MemoryUsage.getFolderUsage(driveId, childPath, mgr);
-
-				FolderMemoryUsageDTO dto = new FolderMemoryUsageDTO();
-//					dto.setCreated(usage.getCreated());
-				dto.setPath(item.getPath());
-				dto.setBytes(numBytes);
-				usageDTOs.add(dto);
+		// Look up the subfolders' usage all at once
+		Map<String, FolderUsage> usages = FolderUsage.getFolderUsages(driveId, folderPaths, mgr);
+
+		// Add a DTO for each subfolder
+		for (String childPath : folderPaths) {
+			FolderUsage usage = usages.get(childPath);
+			FolderMemoryUsageDTO dto = new FolderMemoryUsageDTO();
+			dto.setPath(childPath);
+
+			if (usage != null) {
+				dto.setBytes(usage.getBytes());
+				dto.setFileCount(usage.getFileCount());
+				dto.setLastModified(usage.getLastModified());
+				dto.setCreated(usage.getCreated());
 			}
+			usageDTOs.add(dto);
 		}
 		return usageDTOs;
 	}
@@ -466,7 +387,17 @@ public class DriveService extends BaseService {
 
 			try {
 				if (assertDriveItemAccess(path, drive, AccessLevel.Delete)) {
-					provider.delete(drive, path);
+					try {
+						// Show how deleting a large directory is going
+						provider.delete(drive, path, (deleted, failed) -> {
+							audit.setMessage("Deleted " + deleted + " items"
+									+ ((failed > 0) ? ", unable to delete " + failed : ""));
+							updateAction(audit);
+						});
+					} finally {
+						// even a partly failed delete has removed things
+						metadataCache.invalidate(drive, path);
+					}
 					recordSuccess(audit);
 				} else {
 					recordUnauthorized(audit);
@@ -492,7 +423,7 @@ public class DriveService extends BaseService {
 			Drive drive = getDrive(spec.getDriveId());
 			StorageProvider provider = StorageProviderFactory.getProvider(drive.getDriveType(), request);
 
-			boolean exists = provider.exists(drive, spec.getPath());
+			boolean exists = metadataCache.exists(provider, drive, spec.getPath());
 			recordSuccess(action);
 			response = populateSuccessResponse(exists);
 		} catch (AuthorizationException e) {
@@ -535,7 +466,7 @@ public class DriveService extends BaseService {
 					dq.setRecursive(false);
 					dq.setStartPath(PathProcessor.getParentFolderPath(path));
 					
-					searchMatchers.put(PathProcessor.getParentFolderPath(path), provider.find(drive, dq));
+					searchMatchers.put(PathProcessor.getParentFolderPath(path), metadataCache.find(provider, drive, dq));
 				}
 				
 				String fileName = PathProcessor.getFileName(path);
@@ -605,11 +536,12 @@ public class DriveService extends BaseService {
 
 			StorageProvider provider = StorageProviderFactory.getProvider(sourceDriveType, request);
 
-			if (provider.exists(destDrive, destPath)) {
+			if (metadataCache.exists(provider, destDrive, destPath)) {
 				throw new ExplorerException("Error occurred during rename; path already exists: " + destPath, true);
 			}
 
 			provider.rename(sourceDrive, sourcePath, destPath);
+			metadataCache.invalidate(sourceDrive, sourcePath, destPath);
 			response = populateSuccessResponse();
 
 			recordSuccess(action);
@@ -648,8 +580,15 @@ public class DriveService extends BaseService {
 
 			DriveType driveType = currentDrive.getDriveType();
 			StorageProvider provider = StorageProviderFactory.getProvider(driveType, request);
-			List<DriveItem> driveItems = findDriveItems(query, currentDrive, provider);
-			response = populateSuccessResponse(driveItems);
+
+			if (query.getPageSize() > 0) {
+				DriveItemPage page = metadataCache.findPage(provider, currentDrive, query);
+				page.setItems(filterByAccess(page.getItems(), currentDrive));
+				response = populateSuccessResponse(page);
+			}
+			else {
+				response = populateSuccessResponse(streamDriveItems(query, currentDrive, provider));
+			}
 		} catch (AuthorizationException e) {
 			String msg = e.getMessage();
 			String stackTrace = ExceptionUtils.getStackTrace(e);
@@ -668,28 +607,134 @@ public class DriveService extends BaseService {
 		return response;
 	}
 
+	@OPTIONS
+	@Path("search")
+	public Response searchDriveOPTIONS() {
+		return populateSuccessResponse();
+	}
+
+	/**
+	 * Search a drive recursively, using its path index when it has one
+	 * rather than listing the whole drive.  The result says whether the
+	 * index was used and when the crawl behind it started.
+	 */
+	@POST
+	@Path("search")
+	public Response searchDrive(final DriveQuery query, @Context HttpServletRequest request) {
+		Response response = null;
+
+		try {
+			logRequest(request, query);
+
+			if (query == null) {
+				throw new ExplorerException("searchDrive - null query");
+			}
+			long start = System.currentTimeMillis();
+			query.setRecursive(true);
+			Drive currentDrive = getDrive(query.getDriveId());
+			StorageProvider provider = StorageProviderFactory.getProvider(currentDrive.getDriveType(), request);
+
+			DriveSearchResult result = DrivePathIndex.getInstance().search(provider, currentDrive, query);
+
+			if (result == null) { // not indexed yet
+				result = new DriveSearchResult(metadataCache.find(provider, currentDrive, query), null, false);
+			}
+			result.setItems(filterByAccess(result.getItems(), currentDrive));
+			logger.info("Search for " + query + " found " + result + " in " +
+					(System.currentTimeMillis() - start) + " ms.");
+			response = populateSuccessResponse(result);
+		} catch (AuthorizationException e) {
+			String msg = e.getMessage();
+			String stackTrace = ExceptionUtils.getStackTrace(e);
+			logger.log(Level.SEVERE, e.getMessage(), e);
+			ActionAudit action = auditAction("search", query.getStartPath(),
+					query.getDriveId(), UNAUTHORIZED, null, 0, msg, stackTrace);
+			response = populateUnauthorizedResponse(action);
+		} catch (Exception e) {
+			String msg = "search pattern: " + query.getSearchPattern() + ", name pattern: " + query.getNamePattern();
+			String stackTrace = ExceptionUtils.getStackTrace(e);
+			logger.log(Level.WARNING, e.getMessage(), e);
+			ActionAudit action = auditAction("search", query.getStartPath(),
+					query.getDriveId(), ERROR, null, 0, msg, stackTrace);
+			response = populateResponseOnException(action);
+		}
+		return response;
+	}
+
 	protected List<DriveItem> findDriveItems(final DriveQuery query, Drive drive, StorageProvider provider)
 			throws ExplorerException {
 		long preFind = System.currentTimeMillis();
-		List<DriveItem> driveItems = provider.find(drive, query);
+		List<DriveItem> driveItems = metadataCache.find(provider, drive, query);
 		logger.info("findDriveItems.find took " +
 				(System.currentTimeMillis() - preFind ) + " ms.");
 
 		long preCollect = System.currentTimeMillis();
-		driveItems = driveItems.stream()
-				.filter(item -> assertDriveItemAccess(item.getPath(), drive, Read))
-				.collect(Collectors.toList());
+		driveItems = filterByAccess(driveItems, drive);
 		logger.info("findDriveItems.collect took " +
 				(System.currentTimeMillis() - preCollect ) + " ms.");
-
-		for (DriveItem item : driveItems) {
-			item.setAccessLevels(getDriveItemAccess(item.getPath(), drive));
-		}
 		logger.info("findDriveItems took " +
 				(System.currentTimeMillis() - preFind ) + " ms.");
 		return driveItems;
 	}
 
+	/**
+	 * @return the items the user may read, with their access levels set
+	 */
+	List<DriveItem> filterByAccess(List<DriveItem> driveItems, Drive drive) {
+		UserPolicy policy = getAccessPolicy(drive);
+		List<DriveItem> readable = new ArrayList<>();
+
+		// all the access levels for an item are found in one pass over the rules
+		for (DriveItem item : driveItems) {
+			Set<AccessLevel> granted = policy.evaluate(item.getPath());
+
+			if (granted.contains(Read)) {
+				item.setAccessLevels(DriveAccessPolicy.toAccessLevels(granted));
+				readable.add(item);
+			}
+		}
+		return readable;
+	}
+
+	/**
+	 * @return the items matching the query, written as a JSON array a page
+	 *  at a time as they are listed, rather than gathered in memory first
+	 */
+	StreamingOutput streamDriveItems(final DriveQuery query, Drive drive, StorageProvider provider)
+			throws ExplorerException {
+		long start = System.currentTimeMillis();
+		query.setPageSize(Integer.getInteger(LISTING_PAGE_SIZE_PROPERTY, DEFAULT_LISTING_PAGE_SIZE));
+
+		// List the first page now, so that problems with the drive
+		// are reported as errors rather than as a truncated response
+		DriveItemPage firstPage = metadataCache.findPage(provider, drive, query);
+
+		return output -> {
+			JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(output);
+			DriveItemPage page = firstPage;
+			long count = 0;
+
+			generator.writeStartArray();
+			while (true) {
+				for (DriveItem item : filterByAccess(page.getItems(), drive)) {
+					generator.writeObject(item);
+					count++;
+				}
+				generator.flush();
+
+				if (page.isLastPage()) {
+					break;
+				}
+				query.setContinuationToken(page.getContinuationToken());
+				page = metadataCache.findPage(provider, drive, query);
+			}
+			generator.writeEndArray();
+			generator.flush();
+			logger.info("Listed " + count + " items matching " + query + " in " +
+					(System.currentTimeMillis() - start) + " ms.");
+		};
+	}
+
 	@OPTIONS
 	@Path("mkdir")
 	public Response mkdirOPTIONS() {
@@ -715,6 +760,7 @@ public class DriveService extends BaseService {
 						DriveType driveType = currentDrive.getDriveType();
 						StorageProvider provider = StorageProviderFactory.getProvider(driveType, request);
 						provider.mkdir(currentDrive, spec.getPath());
+						metadataCache.invalidate(currentDrive, spec.getPath());
 						response = populateSuccessResponse();
 						recordSuccess(action);
 					} else {
@@ -789,12 +835,7 @@ public class DriveService extends BaseService {
 
 			if (assertDriveItemAccess(path, drive, AccessLevel.Read)) {
 
-				DownloadSpec specDL = new DownloadSpec();
-				specDL.setDriveId(drive.getDriveId());
-				specDL.setPath(path);
-
-				BasicFile tempFile = downloadToTempBasicFile(specDL, request, path, false, null,
-						drive);
+				BasicFile tempFile = downloadToTempBasicFile(request, path, drive);
 				try {
 					String extension = PathProcessor.getExtension(path).toLowerCase();
 					Table tableDef = null;
@@ -819,11 +860,12 @@ public class DriveService extends BaseService {
 							try {
 								// If there isn't already an AVSC file in the
 								// directory above, create one
-								if (!provider.exists(drive, avscPath)) {
+								if (!metadataCache.exists(provider, drive, avscPath)) {
 									tempAVSCFile = buildTempFile("DS_AVSC");
 									String json = schema.toString(true); // true -> pretty-print
 									FileUtils.writeStringToFile(tempAVSCFile, json, StandardCharsets.UTF_8);
 									provider.upload(drive, avscPath, tempAVSCFile);
+									metadataCache.invalidate(drive, avscPath);
 								}
 								tableDef = hive.createExternalAVROTable(path, dbName, table, location, schema, ',');
 							} finally {
@@ -893,26 +935,21 @@ public class DriveService extends BaseService {
 		return populateSuccessResponse();
 	}
 	
-	private ExecutorService executorService = java.util.concurrent.Executors.newSingleThreadExecutor();
-
+	/**
+	 * Queue the transfers and return right away.  The response holds the
+	 * batch's audit record; clients follow its progress via users/in-progress.
+	 */
 	@POST
 	@Path("transferBatch")
 	public Response transferBatch(final List<TransferSpec> specs, @Context HttpServletRequest request,
-							 @Context HttpServletResponse resp) throws PolicyContextException, InterruptedException, ExecutionException {
+							 @Context HttpServletResponse resp) throws PolicyContextException {
 
 		List<String> roles = getUserRoles();
+		String username = getCurrentUsername();
 
-        TransferTask task = new TransferTask(specs, request, entityManager, utx, request.getAttribute("spnegoprin") == null ? null : (SpnegoPrincipal)request.getAttribute("spnegoprin"), roles, getCurrentUsername(), getIpAddress());
-        //Future<Boolean> future = 
-        Future<Boolean> ret = executorService.submit(task);
-        executorService.shutdown();
-        executorService.awaitTermination(100000, TimeUnit.DAYS);
-        if(ret.get() == true) {
-            return populateSuccessResponse();
-        } else {
-        	return populateResponseOnException(new ActionAudit());
-        }
-	
+        TransferTask task = new TransferTask(specs, request, entityManager, utx, request.getAttribute("spnegoprin") == null ? null : (SpnegoPrincipal)request.getAttribute("spnegoprin"), roles, username, getIpAddress());
+        TransferScheduler.getInstance().submit(username, task);
+        return populateSuccessResponse(Collections.singletonList(task.getAction()));
 	}
 
 	private List<String> getUserRoles() throws PolicyContextException {
@@ -933,23 +970,20 @@ public class DriveService extends BaseService {
 		return populateSuccessResponse();
 	}
 
+	/**
+	 * Queue a single transfer and return right away with its audit record.
+	 */
 	@POST
 	@Path("transfer")
 	public Response transfer(final TransferSpec spec, @Context HttpServletRequest request,
-							 @Context HttpServletResponse resp) throws PolicyContextException, InterruptedException, ExecutionException {
+							 @Context HttpServletResponse resp) throws PolicyContextException {
 
 		List<String> roles = getUserRoles();
+		String username = getCurrentUsername();
 
-        TransferTask task = new TransferTask(Arrays.asList(spec), request, entityManager, utx, request.getAttribute("spnegoprin") == null ? null : (SpnegoPrincipal)request.getAttribute("spnegoprin"), roles, getCurrentUsername(), getIpAddress());
-        //Future<Boolean> future = 
-        Future<Boolean> ret = executorService.submit(task);
-        executorService.shutdown();
-        executorService.awaitTermination(100000, TimeUnit.DAYS);
-        if(ret.get() == true) {
-            return populateSuccessResponse();
-        } else {
-        	return populateResponseOnException(new ActionAudit());
-        }
+        TransferTask task = new TransferTask(Arrays.asList(spec), request, entityManager, utx, request.getAttribute("spnegoprin") == null ? null : (SpnegoPrincipal)request.getAttribute("spnegoprin"), roles, username, getIpAddress());
+        TransferScheduler.getInstance().submit(username, task);
+        return populateSuccessResponse(Collections.singletonList(task.getAction()));
 	}
 
 	String getRelativePath(StorageProvider provider, String dirIn, String fileIn) {
@@ -978,11 +1012,12 @@ public class DriveService extends BaseService {
 		String destPath = spec.getDestPath();
 		
 		if (driveItem.isDirectory()) {
-			if(destProvider.exists(destDrive, destPath) == false) {
+			if(metadataCache.exists(destProvider, destDrive, destPath) == false) {
 				destProvider.mkdir(destDrive, destPath);
+				metadataCache.invalidate(destDrive, destPath);
 			}
 		} else {
-			boolean exi = destProvider.exists(destDrive, destPath);
+			boolean exi = metadataCache.exists(destProvider, destDrive, destPath);
 			
 			if(exi == true) {
 				if(_resolution.compareTo("cancel") == 0) {
@@ -991,6 +1026,7 @@ public class DriveService extends BaseService {
 							destPath + " on " + destDrive + " because it already exists.");
 				} else if (_resolution.compareTo("overwrite") == 0) {
 					destProvider.delete(destDrive, destPath);
+					metadataCache.invalidate(destDrive, destPath);
 				} else if(_resolution.compareTo("skip") == 0) {
 					action.setAction("skip");
 					return;
@@ -1003,10 +1039,12 @@ public class DriveService extends BaseService {
 			BasicFile tempFile = buildTempFile("DS_transferOneFile");
 
 			destProvider.upload(destDrive, destPath, tempFile);
+			metadataCache.invalidate(destDrive, destPath);
 			deleteTempFile(tempFile);
 
 			if (spec.isRemoveSource()) {
 				sourceProvider.delete(sourceDrive, sourcePath);
+				metadataCache.invalidate(sourceDrive, sourcePath);
 			}
 		}
 		// If the source and destination drives are the same,
@@ -1019,6 +1057,7 @@ public class DriveService extends BaseService {
 			} else { // copy
 				sourceProvider.copy(sourceDrive, sourcePath, destPath);
 			}
+			metadataCache.invalidate(sourceDrive, sourcePath, destPath);
 
 		}
 		// The drives are different.  Transfer using chunks.
@@ -1052,16 +1091,15 @@ public class DriveService extends BaseService {
 		String specDestPath = spec.getDestPath();
 		String destPath = destProvider.normalizePath(specDestPath);
 		
-		int basePercentBatch = batchAction.getPercentComplete() == null ? 0 : batchAction.getPercentComplete();
-		double totalPercent = (1d / batchAction.getTotalBytes()) * 100;
+		TransferProgress progress = TransferProgress.get(batchAction);
 
-		if (destProvider.exists(destDrive, destPath)) {
+		if (metadataCache.exists(destProvider, destDrive, destPath)) {
 			throw new DriveItemExistsException("Transfer cancelled - " + destPath + " already exists.");
 		}
 
 		// Don't try to upload a directory.
 		// Directories may be created as part of the file upload
-		if (!sourceProvider.isDirectory(sourceDrive, sourcePath)) {
+		if (!metadataCache.isDirectory(sourceProvider, sourceDrive, sourcePath)) {
 			long fileSize = driveItem.getFileSize();
 
 			// For files over 100 GB, we need to increase the chunk size.
@@ -1070,70 +1108,35 @@ public class DriveService extends BaseService {
 			String uploadId = destProvider.uploadPartStart(destDrive, destPath);
 
 			try {
-				long startByte = 0;
-				int partNumber = 1;
-
 				sourceProvider.downloadPartStart(sourceDrive, sourcePath);
-				byte[] data = sourceProvider.downloadBytes(sourceDrive, sourcePath, startByte, partSize);
-
-				if (data.length > 0) {
-					destProvider.uploadPart(destDrive, destPath, data, partNumber);
-				}
-
-				while (data.length == partSize) {
-					startByte += partSize;
-
-					data = downloadBytes(sourceDrive, audit, sourcePath, sourceProvider, partSize, startByte);
-
-					int retryCount = 20;
-					Exception exception = null;
-					boolean complete = false;
-
-					// Upload one part
-					partNumber++;
-					while (retryCount > 0 && !complete) {
-						try {
-							retryCount--;
-							destProvider.uploadPart(destDrive, destPath, data, partNumber);
-							complete = true;
-						} catch (Exception e) {
-							exception = e;
-							handleRetryException(audit, e, retryCount);
-							Thread.sleep(1000);
-						}
-					}
-
-					batchAction = BaseService.entityManager.find(ActionAudit.class, batchAction.getActionAuditId());
 
-					if(batchAction.getStatus().compareTo("A") == 0) {
-						batchAction.setStatus("C");
-						BaseService.updateAction(batchAction);
-						Exception ex = new Exception("Cancelled by user");
-						abortTransfer(sourceProvider, sourceDrive, sourcePath, destProvider, destDrive, destPath, uploadId, ex);
-						throw ex;
+				// Parts are downloaded and uploaded concurrently; cancellation and
+				// progress are checked in memory as each part completes.
+				ChunkedTransferPipeline pipeline = new ChunkedTransferPipeline(
+						sourceProvider, sourceDrive, sourcePath, destProvider, destDrive, destPath);
+				pipeline.transfer(fileSize, partSize, bytesTransferred -> {
+					if (progress.isCancelRequested()) {
+						progress.recordCancelled();
+						throw new Exception("Cancelled by user");
 					}
-					
-					int percent = (int) Math.round(((double)startByte / fileSize) * totalPercent) + basePercentBatch;
-					batchAction.setPercentComplete(percent);
-					BaseService.updateAction(batchAction);
-
-					// Failed to upload a part after multiple attempts,
-					// so return a failure response
-					if (!complete) {
-						throw exception;
-					}
-				}
+					progress.setPartialItem(destPath, (double) bytesTransferred / fileSize);
+					progress.flushIfDue();
+				});
 
 				destProvider.uploadPartComplete(destDrive, destPath, uploadId);
+				metadataCache.invalidate(destDrive, destPath);
 				sourceProvider.downloadComplete(sourceDrive, sourcePath);
 
 			} catch (Exception ex) {    // abort the upload and download
 				abortTransfer(sourceProvider, sourceDrive, sourcePath, destProvider, destDrive, destPath, uploadId, ex);
 				throw ex; // rethrow original exception
+			} finally {
+				progress.clearPartialItem(destPath);
 			}
 
 			if (spec.isRemoveSource()) {
 				sourceProvider.delete(sourceDrive, sourcePath);
+				metadataCache.invalidate(sourceDrive, sourcePath);
 			}
 		}
 	}
@@ -1185,147 +1188,6 @@ public class DriveService extends BaseService {
 		}
 	}
 
-	public BasicFile preview(StorageProvider provider, Drive drive, long fileSize, DownloadSpec spec, ActionAudit action) throws Exception {
-		String path = spec.getPath();
-		int numTop = spec.getTopLines();
-		int numBottom = spec.getBottomLines();
-		final int downloadPartSize = 5000;
-		final long maxSearchBytes = 500_000L;
-		long byteIndex = 0L;
-		long endByte = fileSize - downloadPartSize;
-
-		try {
-			provider.downloadPartStart(drive, path);
-			BasicFile tempFile = buildTempFile("DS_preview");
-
-			byte[] allStartBytes = getTopLines(provider, drive, path, numTop, downloadPartSize, byteIndex, endByte, maxSearchBytes,
-					action);
-			byteIndex = allStartBytes.length;
-
-			long totalSearchBytes = allStartBytes.length;
-			int bottomLinesCount = 0;
-			byte[] allEndBytes = new byte[0];
-			while ((bottomLinesCount <= numBottom) && (byteIndex < endByte)) {
-				byte[] endBytes = downloadBytes(drive, action, path, provider, downloadPartSize, endByte);
-
-				int index = 0;
-				for (index = endBytes.length - 1; index > 0; index--) {
-					byte b = endBytes[index];
-
-					if (isNewLine(b)) {
-						bottomLinesCount++;
-
-						if (bottomLinesCount > numBottom) {
-							break;
-						}
-						if (((index - 1) > 0) && isNewLine(endBytes[index - 1])) {
-							index--;
-						}
-					}
-				}
-				byte[] bytes = Arrays.copyOfRange(endBytes, index, endBytes.length - 1);
-
-				allEndBytes = Bytes.concat(bytes, allEndBytes);
-
-				endByte -= downloadPartSize;
-				totalSearchBytes += downloadPartSize;
-
-				if (totalSearchBytes > maxSearchBytes) {
-					throw new NotFoundException("Search took too long to find the last \"" + numBottom + "\" lines");
-				}
-			}
-
-			//if the end is found, the file is too small to be previewed, so download it
-			if (byteIndex > endByte) {
-				tempFile = provider.download(drive, path);
-			} else {
-				FileUtils.writeByteArrayToFile(tempFile, allStartBytes, true);
-				FileUtils.writeByteArrayToFile(tempFile, allEndBytes, true);
-			}
-
-			return tempFile;
-		} finally {
-			provider.downloadComplete(drive, path);
-		}
-	}
-
-	/**
-	 * Get the topmost lines of a file
-	 * @param numTop how many lines to get from the top of the file
-	 * @return the number of bytes read
-	 */
-	byte[] getTopLines(StorageProvider provider, Drive drive, String path, int numTop, final int downloadPartSize,
-					   long byteIndex, long endByte, final long maxSearchBytes, ActionAudit action) throws Exception {
-		int topLinesCount = 0;
-
-		byte[] allBytes = new byte[0];
-		do {
-			byte[] startBytes = downloadBytes(drive, action, path, provider, downloadPartSize, byteIndex);
-
-			int index;
-			for (index = 0; index < startBytes.length; index++) {
-				byte b = startBytes[index];
-
-				if (isNewLine(b)) {
-					topLinesCount++;
-
-					if (topLinesCount >= numTop) {
-						break;
-					}
-					if (((index + 1) < startBytes.length) && isNewLine(startBytes[index + 1])) {
-						index++;
-					}
-				}
-			}
-
-			byte[] bytes = Arrays.copyOfRange(startBytes, 0, index);
-			allBytes = Bytes.concat(allBytes, bytes);
-			byteIndex += downloadPartSize;
-
-			if (byteIndex > maxSearchBytes) {
-				throw new NotFoundException("Search took too long to find the first \"" + numTop + "\" lines");
-			}
-		} while ((topLinesCount < numTop) && (byteIndex < endByte));
-		return allBytes;
-	}
-
-	private static byte[] downloadBytes(Drive sourceDrive, ActionAudit audit, String sourcePath, StorageProvider sourceProvider, int downloadPartSize, long startByte) throws Exception {
-
-		int retryCount = 20;
-		Exception exception = null;
-
-		// Download one part
-		while(retryCount > 0) {
-			try {
-				retryCount--;
-				return sourceProvider.downloadBytes(sourceDrive, sourcePath, startByte, downloadPartSize);
-			} catch (Exception e) {
-				exception = e;
-				handleRetryException(audit, e, retryCount);
-				Thread.sleep(1000);
-			}
-		}
-
-		// Failed to download a part after multiple attempts,
-		// so throw the exception
-		throw exception;
-	}
-
-	static void handleRetryException(ActionAudit audit, Exception e, int retryCount) {
-		String message = "RetryCount " + retryCount + ": " + e.getMessage();
-
-		// record failure in detail, with stack trace
-		if (retryCount == 0) {
-			logger.log(Level.WARNING, message, e);
-			recordException(audit, e);
-		}
-		// Just show the message (avoid cluttering the log
-		// with 20 stack traces
-		else {
-			logger.log(Level.WARNING, message);
-		}
-	}
-
 	@OPTIONS
 	@Path("upload")
 	public Response uploadFileOPTIONS() {
@@ -1362,12 +1224,13 @@ public class DriveService extends BaseService {
 						StorageProvider provider = StorageProviderFactory
 								.getProvider(currentDrive.getDriveType(), request);
 
-						if (provider.exists(currentDrive, path)) {
+						if (metadataCache.exists(provider, currentDrive, path)) {
 							throw new FileAlreadyExistsException(
 									"Error occurred during upload; path already exists: " + path);
 						}
 
 						provider.upload(currentDrive, path, tempFile);
+						metadataCache.invalidate(currentDrive, path);
 						deleteTempFile(tempFile);
 						recordSuccess(action, 0L);
 						return populateSuccessResponse();
@@ -1422,6 +1285,8 @@ public class DriveService extends BaseService {
 					".  Uploading from " + tempFileName + " to " + uploadPath);
 
 			ActionAudit action = null;
+			// Decided by the first chunk, so that every chunk of a file takes the same route
+			boolean streaming = meta.isStart() ? isStreamingUploadEnabled() : (StreamingUpload.get(fileUid) != null);
 
 			try {
 				if (meta.isStart()) {
@@ -1434,29 +1299,50 @@ public class DriveService extends BaseService {
 								" to " + drive);
 					}
 
-					file.createNewFile();
+					if (streaming) {
+						StorageProvider provider = StorageProviderFactory.getProvider(drive.getDriveType(), request);
+
+						if (metadataCache.exists(provider, drive, uploadPath)) {
+							throw new FileAlreadyExistsException("Attempted to upload \"" + uploadPath + "\", but it already exists");
+						}
+						StreamingUpload.start(fileUid, provider, drive, uploadPath, getChunkSize(meta.getFileSize()));
+					} else {
+						file.createNewFile();
+					}
 				}
 				// Get file data to save
 				List<InputPart> inputParts = uploadForm.get("files");
-				writeToTempFile(inputParts.get(0), file);
+
+				if (streaming) {
+					writeToUpload(inputParts.get(0), fileUid, driveId);
+				} else {
+					writeToTempFile(inputParts.get(0), file, driveId);
+				}
 
 				if (meta.isEnd()) {
 					action = getActionAudit("uploadchunk", fileName, driveId, uploadPath, driveId, PENDING);
+					long byteCount;
 
-					Drive currentDrive = getDrive(driveId);
-					DriveType driveType = currentDrive.getDriveType();
-					StorageProvider provider = StorageProviderFactory.getProvider(driveType, request);
+					if (streaming) {
+						byteCount = StreamingUpload.get(fileUid).complete();
+					} else {
+						Drive currentDrive = getDrive(driveId);
+						DriveType driveType = currentDrive.getDriveType();
+						StorageProvider provider = StorageProviderFactory.getProvider(driveType, request);
 
-					provider.upload(currentDrive, uploadPath, file);
+						provider.upload(currentDrive, uploadPath, file);
+						metadataCache.invalidate(currentDrive, uploadPath);
 
-					long byteCount = file.length();
-					deleteTempFile(file);
+						byteCount = file.length();
+						deleteTempFile(file);
+					}
 					recordSuccess(action, byteCount);
 				}
 				response = populateSuccessResponse(new ChunkResult(meta.isEnd(), fileUid));
 
 			} catch (AuthorizationException e) {
 				deleteTempFile(file);
+				StreamingUpload.abort(fileUid);
 				action = (action != null) ? action
 						: getActionAudit("uploadchunk", fileName, driveId, uploadPath, driveId, PENDING);
 				recordUnauthorized(action, e);
@@ -1464,6 +1350,7 @@ public class DriveService extends BaseService {
 				response = populateUnauthorizedResponse(action);
 			} catch (Exception e) {
 				deleteTempFile(file);
+				StreamingUpload.abort(fileUid);
 				action = (action != null) ? action
 						: getActionAudit("uploadchunk", fileName, driveId, uploadPath, driveId, PENDING);
 
@@ -1478,18 +1365,49 @@ public class DriveService extends BaseService {
 		return response;
 	}
 
-	BasicFile writeToTempFile(InputPart inputPart, BasicFile tempFile) throws IOException {
-		InputStream inputStream = new ThrottledInputStream(inputPart.getBody(InputStream.class, null));
+	BasicFile writeToTempFile(InputPart inputPart, BasicFile tempFile, int driveId) throws IOException {
+		try (InputStream inputStream = throttle(inputPart.getBody(InputStream.class, null), driveId);
+				OutputStream writer = new FileOutputStream(tempFile, true)) {
+			IOUtils.copy(inputStream, writer, UPLOAD_COPY_BUFFER_SIZE);
+		}
+		return tempFile;
+	}
 
-		try (OutputStream writer = new BufferedOutputStream(new FileOutputStream(tempFile, true))) {
-			int read = -1;
+	/**
+	 * Pass a chunk straight on to the provider's multipart upload
+	 */
+	void writeToUpload(InputPart inputPart, String fileUid, int driveId) throws IOException {
+		StreamingUpload upload = StreamingUpload.get(fileUid);
 
-			while ((read = inputStream.read()) != -1) {
-				writer.write(read);
-			}
-			writer.flush();
+		if (upload == null) {
+			throw new IOException("No upload is in progress for file " + fileUid);
 		}
-		return tempFile;
+		try (InputStream inputStream = throttle(inputPart.getBody(InputStream.class, null), driveId)) {
+			upload.write(inputStream);
+		}
+	}
+
+	/**
+	 * @return the stream, sharing bandwidth with the drive's and the user's other transfers
+	 */
+	static InputStream throttle(InputStream in, int driveId) {
+		return throttle(in, driveId, getCurrentUsername());
+	}
+
+	/**
+	 * @param username the user whose bandwidth the stream shares, for streams
+	 *  read off the request's thread, where the user can't be looked up
+	 */
+	static InputStream throttle(InputStream in, int driveId, String username) {
+		return BandwidthManager.getInstance().throttle(in, driveId, username);
+	}
+
+	/**
+	 * @return true unless streaming uploads have been turned off, in which
+	 *  case chunks are gathered in a temp file and uploaded at the end
+	 */
+	static boolean isStreamingUploadEnabled() {
+		return Boolean.parseBoolean(System.getProperty(STREAMING_UPLOAD_PROPERTY, "true"));
 	}
 
 	ChunkMetadata getChunkMetadata(Map<String, List<InputPart>> uploadForm)
@@ -1506,22 +1424,18 @@ public class DriveService extends BaseService {
 		return populateSuccessResponse();
 	}
 
-	private BasicFile downloadToTempBasicFile(final DownloadSpec spec, HttpServletRequest request,
-											  String path, boolean isPreview, ActionAudit action, Drive currentDrive)
+	private BasicFile downloadToTempBasicFile(HttpServletRequest request, String path, Drive currentDrive)
 			throws Exception {
 		BasicFile ret;
 
 		StorageProvider provider = StorageProviderFactory.getProvider(currentDrive.getDriveType(), request);
 
-		DriveItem driveItem = provider.getDriveItem(currentDrive, path);
+		DriveItem driveItem = metadataCache.getDriveItem(provider, currentDrive, path);
 
 		if (driveItem != null) {
 			long fileSize = driveItem.getFileSize();
 
-			if (isPreview) {
-				ret = preview(provider, currentDrive, fileSize, spec, action);
-			}
-			else if (FileUtil.spaceExists(fileSize)) { // normal download case
+			if (FileUtil.spaceExists(fileSize)) { // normal download case
 				ret = provider.download(currentDrive, path);
 			}
 			else { // shortage of (temp) disk space for download
@@ -1569,22 +1483,26 @@ public class DriveService extends BaseService {
 					StorageProvider provider =
 							StorageProviderFactory.getProvider(driveType, request);
 
-					if (isPreview) {  // TODO use streams
-						DriveItem driveItem = provider.getDriveItem(sourceDrive, path);
+					if (isPreview) {
+						DriveItem driveItem = metadataCache.getDriveItem(provider, sourceDrive, path);
 
 						if (driveItem != null) {
-							long fileSize = driveItem.getFileSize();
-							BasicFile ret = preview(provider, sourceDrive, fileSize, spec, action);
-							long byteCount = ret.length();
-							recordSuccess(action, byteCount);
-							response = populateSuccessResponse(ret);
+							byte[] preview = FilePreview.preview(provider, sourceDrive, path,
+									driveItem.getFileSize(), driveItem.getModifiedDate(),
+									spec.getTopLines(), spec.getBottomLines());
+							recordSuccess(action, preview.length);
+							response = populateSuccessResponse(preview);
 						}
 						else {
 							throw new ExplorerException("No drive item found matching: " + path);
 						}
 					}
+					else if (metadataCache.isDirectory(provider, sourceDrive, sourcePath)) {
+						response = downloadDirectoryUsingStreams(request, resp, provider, sourceDrive, sourcePath,
+								spec.getArchiveFormat(), action);
+					}
 					else {
-						response = downloadFileUsingStreams(resp, provider, sourceDrive, sourcePath, action);
+						response = downloadFileUsingStreams(request, resp, provider, sourceDrive, sourcePath, action);
 					}
 				} catch (Exception e) {
 					recordException(action, e);
@@ -1609,24 +1527,202 @@ public class DriveService extends BaseService {
 		return response;
 	}
 
-	Response downloadFileUsingStreams(HttpServletResponse resp, StorageProvider provider, Drive sourceDrive,
-									  String sourcePath, ActionAudit action) throws IOException {
-		Response response;
-		try (InputStream inputStream = new ThrottledInputStream(provider.getInputStream(sourceDrive, sourcePath));
-			 OutputStream outputStream = resp.getOutputStream()) {
+	/**
+	 * Stream a file to the client.  If the request has a Range header, only
+	 * the bytes requested are sent, so that interrupted downloads can be
+	 * resumed and large files fetched in parallel segments.  If-Range,
+	 * If-Match and If-Unmodified-Since are checked against the file's
+	 * ETag and Last-Modified, so a resumed download can't mix two versions.
+	 */
+	Response downloadFileUsingStreams(HttpServletRequest request, HttpServletResponse resp, StorageProvider provider,
+									  Drive sourceDrive, String sourcePath, ActionAudit action) throws IOException {
+		// not cached; the length and ETag must match what is actually sent
+		DriveItem driveItem = provider.getDriveItem(sourceDrive, sourcePath);
+		List<ByteRange> ranges = null;
+		long fileSize = -1;
+
+		if (driveItem != null && driveItem.isFile()) {
+			fileSize = driveItem.getFileSize();
+			String eTag = getETag(driveItem);
+			resp.setHeader("Accept-Ranges", "bytes");
+			resp.setHeader("ETag", eTag);
+
+			if (driveItem.getModifiedDate() != null) {
+				resp.setDateHeader("Last-Modified", driveItem.getModifiedDate().getTime());
+			}
+			if (!isPreconditionMet(request, driveItem, eTag)) {
+				recordException(action, new ExplorerException(sourcePath + " has changed"));
+				return Response.status(Response.Status.PRECONDITION_FAILED).build();
+			}
+			if (isRangeCurrent(request, driveItem, eTag)) {
+				ranges = ByteRange.parse(request.getHeader("Range"), fileSize);
+			}
+			if (ranges != null && ranges.isEmpty()) {
+				recordException(action, new ExplorerException("Unsatisfiable range " +
+						request.getHeader("Range") + " for " + sourcePath));
+				return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+						.header("Content-Range", "bytes */" + fileSize)
+						.build();
+			}
+		}
 
-			long byteCount = IOUtils.copyLarge(inputStream, outputStream);
-			logger.info("Copied " + byteCount + " from " + sourcePath);
+		long byteCount = 0;
+		try (OutputStream outputStream = resp.getOutputStream()) {
+			if (ranges == null) {
+				try (InputStream inputStream = throttle(provider.getInputStream(sourceDrive, sourcePath), sourceDrive.getDriveId())) {
+					byteCount = IOUtils.copyLarge(inputStream, outputStream);
+				}
+			}
+			else if (ranges.size() == 1) {
+				ByteRange range = ranges.get(0);
+				resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				resp.setHeader("Content-Range", range.toContentRange(fileSize));
+				resp.setContentLengthLong(range.getLength());
+				byteCount = copyRange(provider, sourceDrive, sourcePath, range, outputStream);
+			}
+			else {
+				String boundary = UUID.randomUUID().toString();
+				resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				resp.setContentType("multipart/byteranges; boundary=" + boundary);
+
+				for (ByteRange range : ranges) {
+					String partHeader = "\r\n--" + boundary + "\r\n" +
+							"Content-Type: " + MediaType.APPLICATION_OCTET_STREAM + "\r\n" +
+							"Content-Range: " + range.toContentRange(fileSize) + "\r\n\r\n";
+					outputStream.write(partHeader.getBytes(StandardCharsets.US_ASCII));
+					byteCount += copyRange(provider, sourceDrive, sourcePath, range, outputStream);
+				}
+				outputStream.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+			}
+			logger.info("Copied " + byteCount + " from " + sourcePath +
+					((ranges == null) ? "" : " in ranges " + ranges));
 			outputStream.flush();
-			recordSuccess(action, byteCount);
-			response = populateSuccessResponse();
 		}
-		return response;
+		recordSuccess(action, byteCount);
+		return populateSuccessResponse();
+	}
+
+	/**
+	 * Stream a folder to the client as a zip or tar.gz archive, made as it's
+	 * sent, so that the folder takes one request and one audit record rather
+	 * than one for each file.  Only the files the user may read are included.
+	 */
+	Response downloadDirectoryUsingStreams(HttpServletRequest request, HttpServletResponse resp, StorageProvider provider,
+										   Drive sourceDrive, String sourcePath, String archiveFormat,
+										   ActionAudit action) throws IOException {
+		ArchiveWriter.Format format = ArchiveWriter.Format.of(archiveFormat);
+		String folderName = PathProcessor.getFileName(sourcePath);
+
+		if (folderName == null || folderName.isEmpty()) {
+			folderName = sourceDrive.getDisplayName();
+		}
+		UserPolicy policy = getAccessPolicy(sourceDrive);
+		List<DriveItem> driveItems = provider.findAllInPath(sourceDrive, sourcePath);
+		List<ArchiveWriter.Entry> entries = new ArrayList<>();
+		int unreadable = 0;
+
+		// each directory before what's in it
+		driveItems.sort(Comparator.comparing(DriveItem::getPath));
+
+		for (DriveItem item : driveItems) {
+			String name = ArchiveWriter.getEntryName(sourcePath, folderName, item.getPath());
+
+			if (name == null) {
+				continue;
+			}
+			if (!policy.hasAccess(item.getPath(), AccessLevel.Read)) {
+				unreadable++;
+				continue;
+			}
+			// Nothing has been sent yet, so the whole download can still be refused
+			if (item.isRestoreRequired()) {
+				throw new ArchiveException("Cannot download the folder because one or more of the items are archived");
+			}
+			entries.add(new ArchiveWriter.Entry(name, item));
+		}
+
+		// The files are read by the writer's threads, which can't look up the user
+		String username = getCurrentUsername();
+		int driveId = sourceDrive.getDriveId();
+		ArchiveWriter writer = new ArchiveWriter(path -> throttle(
+				StorageProviderFactory.getProvider(sourceDrive.getDriveType(), request)
+						.getInputStream(sourceDrive, path), driveId, username), format);
+
+		resp.setContentType(format.getContentType());
+		resp.setHeader("Content-Disposition", "attachment; filename=\""
+				+ folderName.replace("\"", "") + "." + format.getExtension() + "\"");
+		writer.write(entries, resp.getOutputStream());
+
+		action.setMessage("Archived " + writer.getFiles() + " files as " + format.getExtension()
+				+ ((unreadable > 0) ? "; skipped " + unreadable + " without read access" : ""));
+		recordSuccess(action, writer.getBytes());
+		return populateSuccessResponse();
+	}
+
+	long copyRange(StorageProvider provider, Drive drive, String path, ByteRange range,
+				   OutputStream outputStream) throws IOException {
+		try (InputStream inputStream = throttle(
+				provider.getInputStream(drive, path, range.getStart(), range.getLength()), drive.getDriveId())) {
+			return IOUtils.copyLarge(inputStream, outputStream);
+		}
+	}
+
+	/**
+	 * @return a validator that changes whenever the file's size or modification time does
+	 */
+	static String getETag(DriveItem driveItem) {
+		Date modified = driveItem.getModifiedDate();
+		return "\"" + Long.toHexString(driveItem.getFileSize()) + "-" +
+				Long.toHexString((modified == null) ? 0 : modified.getTime()) + "\"";
+	}
+
+	/**
+	 * @return false if the request's If-Match or If-Unmodified-Since header
+	 *  shows that the client expected a different version of the file
+	 */
+	static boolean isPreconditionMet(HttpServletRequest request, DriveItem driveItem, String eTag) {
+		String ifMatch = request.getHeader("If-Match");
+
+		if (ifMatch != null && !"*".equals(ifMatch.trim()) && !Arrays.asList(ifMatch.split("\\s*,\\s*")).contains(eTag)) {
+			return false;
+		}
+		long ifUnmodifiedSince = getDateHeader(request, "If-Unmodified-Since");
+		Date modified = driveItem.getModifiedDate();
+
+		// HTTP dates have a resolution of one second
+		return ifUnmodifiedSince < 0 || modified == null || modified.getTime() / 1000 <= ifUnmodifiedSince / 1000;
+	}
+
+	/**
+	 * @return true unless an If-Range header shows that the client's partial
+	 *  copy is of a different version of the file, and so needs all of it
+	 */
+	static boolean isRangeCurrent(HttpServletRequest request, DriveItem driveItem, String eTag) {
+		String ifRange = request.getHeader("If-Range");
+
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.trim().startsWith("\"")) {
+			return ifRange.trim().equals(eTag);
+		}
+		long ifRangeDate = getDateHeader(request, "If-Range");
+		Date modified = driveItem.getModifiedDate();
+		return ifRangeDate >= 0 && modified != null && modified.getTime() / 1000 == ifRangeDate / 1000;
+	}
+
+	private static long getDateHeader(HttpServletRequest request, String name) {
+		try {
+			return request.getDateHeader(name);
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
 	}
 
 
 	/**
-	 * extracts files from a file archive
+	 * extracts files from a file archive, streaming each file in the
+	 * archive straight from the archive into the drive
 	 *
 	 * @param locationSpec the metadata for the drive ID and the file location
 	 * @return success/failure response object
@@ -1643,19 +1739,8 @@ public class DriveService extends BaseService {
 		String oldFileName = path.contains("/")
 				? path.substring(path.lastIndexOf("/") + 1)
 				: path;
-		String extension = getExtension(oldFileName);
-
-		// remove the file extension, e.g., .zip or .gz
-		String newFileName = oldFileName.substring(0, oldFileName.lastIndexOf("."));
-
-		// the path of the uncompressed file; its is NOT YET decompressed
-		String newFileTempPath =
-				addLastSlash(FileUtil.TMP_DIR_PROPERTY_VALUE) +
-				FileUtil.MDACA_PREFIX + newFileName;
 
 		ActionAudit action = auditAction("extract", path, driveId, PENDING);
-		File downloadedFile = null;
-		File decompressedFile = null;
 
 		try {
 			Drive drive = getDrive(driveId);
@@ -1669,54 +1754,20 @@ public class DriveService extends BaseService {
 				StorageProvider provider =
 						StorageProviderFactory.getProvider(drive.getDriveType(), request);
 
-				// For a .Z file we can decompress using an input stream
-				// from the provider
-				if ("Z".equals(extension)) {
-//					decompressedFile = compressedFile.uncompressZArchive(newFileTempPath);
-					decompressedFile = extractZUsingTemp(path, newFileTempPath, drive, provider);
-				}
-				// For a .gzip file we can decompress using an input stream
-				// from the provider
-				else if (extension != null && "gz".equals(extension.toLowerCase())) {
-//					decompressedFile = compressedFile.unGzipFile(newFileTempPath);
-					decompressedFile = extractGzUsingTemp(path, newFileTempPath, drive, provider);
-				}
-				// For all other types download into a temp file and work
-				// on that.
-				else {
-					downloadedFile = provider.download(drive, path);
-					downloadedFile.deleteOnExit();
-
-					String extractPath = downloadedFile.getCanonicalPath().replaceAll("\\\\", "/");
-					BasicFile compressedFile = new BasicFile(extractPath);
-
-					switch (extension) {
-						case "tar":
-							decompressedFile = compressedFile.untarFile(newFileTempPath);
-							break;
-						case "ear":
-						case "jar":
-						case "war":
-						case "zip":
-						case "ZIP":
-							decompressedFile = compressedFile.unZipFile(newFileTempPath);
-							break;
-						default:
-							throw new ExplorerException(
-									"extract is only supported for .ear, .jar, .gz, .tar, .war, .Z, and .zip extensions;"
-											+ " instead found \"" + extension + "\"", true);
-					}
-				}
-				decompressedFile.deleteOnExit();
-
+				// the archive's name without its extension, e.g., .zip or .tar.gz
 				String destPath = getParentFolder(path);
-				destPath = addLastSlash(destPath) + newFileName;
+				destPath = addLastSlash(destPath) + ArchiveExtractor.getTargetName(oldFileName);
 
-				if (decompressedFile.isDirectory()) {
-					provider.uploadDirectory(drive, destPath, decompressedFile);
-				} else {
-					// if parent folder IS empty, do NOT add a backslash to the path
-					provider.upload(drive, destPath, decompressedFile);
+				// Each upload gets a provider of its own
+				ArchiveExtractor extractor = new ArchiveExtractor(getArchiveSource(provider, drive, path),
+						() -> StorageProviderFactory.getProvider(drive.getDriveType(), request),
+						drive, destPath, DriveService::getChunkSize);
+
+				try {
+					long files = extractor.extract(oldFileName);
+					action.setMessage("Extracted " + files + " files");
+				} finally {
+					metadataCache.invalidate(drive, destPath);
 				}
 				recordSuccess(action);
 			} else {
@@ -1734,45 +1785,38 @@ public class DriveService extends BaseService {
 			recordException(action, e);
 			response = populateResponseOnException(action);
 		}
-		finally {
-			if (downloadedFile != null && downloadedFile.exists()) {
-				if (!FileUtils.deleteQuietly(downloadedFile)) {
-					logger.info("Unable to delete downloaded temp file " +
-								downloadedFile.getName());
-				}
-			}
-			if (decompressedFile != null && decompressedFile.exists()) {
-				if (!FileUtils.deleteQuietly(decompressedFile)) {
-					logger.info("Unable to delete decompressed temp file " +
-								decompressedFile.getName());
-				}
-			}
-		}
 		return response;
 	}
 
-	File extractGzUsingTemp(String path, String newFileTempPath, Drive drive, StorageProvider provider)
-			throws IOException {
-		File decompressedFile;
-		try (InputStream inputStream = new ThrottledInputStream(provider.getInputStream(drive, path));
-				InputStream in = new GZIPInputStream(inputStream);
-				OutputStream out = Files.newOutputStream(Paths.get(newFileTempPath))) {
-		    FileUtil.transferBytes(in, out, 1024);
-		    decompressedFile = new File(newFileTempPath);
-		}
-		return decompressedFile;
-	}
+	/**
+	 * @return the archive, read through the provider and sharing bandwidth
+	 *  with the drive's and the user's other transfers
+	 */
+	ArchiveExtractor.Source getArchiveSource(StorageProvider provider, Drive drive, String path) {
+		// zip files are read by the extractor's threads
+		String username = getCurrentUsername();
 
-	File extractZUsingTemp(String path, String newFileTempPath, Drive drive, StorageProvider provider)
-			throws IOException {
-		File decompressedFile;
-		try (InputStream inputStream = new ThrottledInputStream(provider.getInputStream(drive, path));
-				InputStream in = new ZCompressorInputStream(inputStream);
-				OutputStream out = Files.newOutputStream(Paths.get(newFileTempPath))) {
-			FileUtil.transferBytes(in, out, 1024);
-		    decompressedFile = new File(newFileTempPath);
-		}
-		return decompressedFile;
+		return new ArchiveExtractor.Source() {
+			@Override
+			public long size() throws IOException {
+				DriveItem driveItem = metadataCache.getDriveItem(provider, drive, path);
+
+				if (driveItem == null) {
+					throw new ExplorerException("Unable to find " + path);
+				}
+				return driveItem.getFileSize();
+			}
+
+			@Override
+			public InputStream open() throws IOException {
+				return throttle(provider.getInputStream(drive, path), drive.getDriveId(), username);
+			}
+
+			@Override
+			public InputStream open(long start, long length) throws IOException {
+				return throttle(provider.getInputStream(drive, path, start, length), drive.getDriveId(), username);
+			}
+		};
 	}
 
 	/**
@@ -1834,6 +1878,7 @@ public class DriveService extends BaseService {
 						CloudStorageProvider provider = (CloudStorageProvider) storageProvider;
 
 						provider.updateStorageClass(drive, path, newStorageClass);
+						metadataCache.invalidate(drive, path);
 					} else {
 						throw new ExplorerException(
 								"Expected a cloud storage provider, but instead received type: "
@@ -1885,6 +1930,7 @@ public class DriveService extends BaseService {
 				if (storageProvider instanceof RestorableCloudStorageProvider) {
 					((RestorableCloudStorageProvider) storageProvider).restore(drive, driveFilePath,
 							restoreSpec.getDaysExpiration());
+					metadataCache.invalidate(drive, driveFilePath);
 				} else {
 					throw new ExplorerException(
 							"Expected a restorable cloud storage provider, but instead received type: "
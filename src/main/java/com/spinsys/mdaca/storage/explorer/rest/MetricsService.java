@@ -31,6 +31,7 @@ import com.spinsys.mdaca.storage.explorer.model.http.DriveUsageHistorySpec;
 import com.spinsys.mdaca.storage.explorer.persistence.ActionAudit;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
 import com.spinsys.mdaca.storage.explorer.persistence.DriveMemoryUsageHistory;
+import com.spinsys.mdaca.storage.explorer.persistence.FolderUsage;
 import com.spinsys.mdaca.storage.explorer.persistence.MemoryUsage;
 import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
 import com.spinsys.mdaca.storage.explorer.provider.StorageProviderFactory;
@@ -137,8 +138,8 @@ public class MetricsService extends DriveService {
 						"User does not have read permissions to access " +
 								startPath + " on drive " + drive);
 			}
-			Long numBytes = MemoryUsage.getFolderUsage(driveId, startPath, entityManager);
-			response = populateSuccessResponse(numBytes);
+			FolderUsage usage = FolderUsage.getFolderUsage(driveId, startPath, entityManager);
+			response = populateSuccessResponse((usage == null) ? null : usage.getBytes());
 		} catch (AuthorizationException e) {
 			String msg = e.getMessage();
 			String stackTrace = ExceptionUtils.getStackTrace(e);
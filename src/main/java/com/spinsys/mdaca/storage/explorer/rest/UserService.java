@@ -5,6 +5,7 @@ import com.spinsys.mdaca.storage.explorer.model.http.AppInfoResponse;
 import com.spinsys.mdaca.storage.explorer.model.http.UserResponse;
 import com.spinsys.mdaca.storage.explorer.persistence.ActionAudit;
 import com.spinsys.mdaca.storage.explorer.persistence.AppConfig;
+import com.spinsys.mdaca.storage.explorer.tasks.TransferProgress;
 
 import javax.persistence.TypedQuery;
 import javax.servlet.http.HttpServletRequest;
@@ -73,6 +74,9 @@ public class UserService extends BaseService {
 				HeuristicRollbackException | SystemException e) {
 			logger.log(Level.WARNING, e.getMessage(), e);
 		}
+
+		// Let a transfer running in this server see the request without querying for it
+		TransferProgress.requestCancel(actionAuditId);
 		
 		return populateSuccessResponse();
 		
@@ -0,0 +1,339 @@
+package com.spinsys.mdaca.storage.explorer.tasks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
+
+/**
+ * Moves a single file between two drives in parts, keeping several parts
+ * in flight at once.  Downloads read ahead while uploads drain, on a pool
+ * shared by every transfer, and a semaphore keeps the number of parts
+ * held in memory within the configured budget.
+ * <p>
+ * Parts are read until one comes back short, as a sequential copy would.
+ * The listed size only decides how far ahead to read, since it may be out
+ * of date; a file that turns out to be shorter fails the transfer rather
+ * than being copied in part.
+ * <p>
+ * The caller is responsible for the multipart lifecycle
+ * (uploadPartStart/downloadPartStart before, and uploadPartComplete or
+ * uploadPartAbort after).  Progress is reported back on the calling thread,
+ * so the listener may safely use the container's EntityManager.
+ */
+public class ChunkedTransferPipeline {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.tasks.ChunkedTransferPipeline");
+
+	/** System property for the maximum number of parts in flight per file. */
+	public static final String PARTS_IN_FLIGHT_PROPERTY = "storexp.transfer.partsInFlight";
+
+	/** System property for the maximum number of bytes held in memory per file. */
+	public static final String IN_FLIGHT_BYTES_PROPERTY = "storexp.transfer.inFlightBytes";
+
+	static final int DEFAULT_PARTS_IN_FLIGHT = 4;
+
+	static final long DEFAULT_IN_FLIGHT_BYTES = 64L * 1_048_576; // 64 MB
+
+	/** How many times a part is attempted before the transfer fails. */
+	static final int RETRY_COUNT = 20;
+
+	static final long RETRY_DELAY_MS = 1000;
+
+	/** How long the calling thread waits between progress checks. */
+	private static final long POLL_INTERVAL_MS = 500;
+
+	/**
+	 * Runs the downloads and uploads of every transfer, so that threads are
+	 * reused from one file to the next.  Each transfer bounds its own tasks
+	 * by its parts in flight, so the pool needn't.
+	 */
+	private static final ExecutorService partPool = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "transfer-part");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Receives progress on the thread that called {@link #transfer}.
+	 */
+	public interface PartListener {
+
+		/**
+		 * Called after a part has been uploaded.
+		 * @param bytesTransferred the total bytes uploaded so far
+		 * @throws Exception to stop the transfer (e.g. when cancelled by the user)
+		 */
+		void partTransferred(long bytesTransferred) throws Exception;
+	}
+
+	private final StorageProvider sourceProvider;
+	private final Drive sourceDrive;
+	private final String sourcePath;
+	private final StorageProvider destProvider;
+	private final Drive destDrive;
+	private final String destPath;
+
+	public ChunkedTransferPipeline(StorageProvider sourceProvider, Drive sourceDrive, String sourcePath,
+			StorageProvider destProvider, Drive destDrive, String destPath) {
+		this.sourceProvider = sourceProvider;
+		this.sourceDrive = sourceDrive;
+		this.sourcePath = sourcePath;
+		this.destProvider = destProvider;
+		this.destDrive = destDrive;
+		this.destPath = destPath;
+	}
+
+	/**
+	 * Copy the file from the source to the destination.
+	 * @param fileSize the file's listed size, which decides how many
+	 *  parts are read ahead
+	 * @return the number of bytes transferred
+	 * @throws IOException if the file is shorter than its listed size
+	 */
+	public long transfer(long fileSize, int partSize, PartListener listener) throws Exception {
+		int numParts = getNumberOfParts(fileSize, partSize);
+		int partsInFlight = Math.min(numParts, getPartsInFlight(partSize));
+		boolean concurrentDownloads = sourceProvider.supportsConcurrentPartDownloads();
+		boolean concurrentUploads = destProvider.supportsConcurrentPartUploads();
+
+		logger.info("Transferring " + sourcePath + " to " + destPath + " in " + numParts +
+				" parts of " + partSize + " bytes, " + partsInFlight + " in flight");
+
+		Semaphore permits = new Semaphore(partsInFlight);
+		BlockingQueue<Integer> uploaded = new LinkedBlockingQueue<>();
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		// Where the file ends, once a part has come back short
+		AtomicLong endOfFile = new AtomicLong(Long.MAX_VALUE);
+		List<Future<?>> futures = new ArrayList<>();
+		Future<byte[]> download = null;
+		Future<?> upload = null;
+		long bytesTransferred = 0;
+
+		try {
+			for (int partNumber = 1; ; partNumber++) {
+				long startByte = ((long) partNumber - 1) * partSize;
+
+				// Past the listed size, only read on once the parts before are known to be full
+				if (partNumber > numParts) {
+					bytesTransferred += awaitParts(permits, partsInFlight, uploaded, failure, listener, bytesTransferred);
+				}
+				if (startByte >= endOfFile.get()) {
+					break;
+				}
+				// Wait for room in the memory budget, reporting progress meanwhile
+				while (!permits.tryAcquire(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+					bytesTransferred += drain(uploaded, failure, listener, bytesTransferred);
+				}
+				// Parts are handed to a provider that can't take them concurrently one after
+				// the other, in part number order, which providers with a sequential reader
+				// or writer (e.g. GCS) rely on
+				download = partPool.submit(downloadTask(startByte, partSize, endOfFile,
+						concurrentDownloads ? null : download));
+				futures.add(download);
+				upload = partPool.submit(uploadTask(download, startByte, partNumber, permits, uploaded,
+						failure, endOfFile, concurrentUploads ? null : upload));
+				futures.add(upload);
+				bytesTransferred += drain(uploaded, failure, listener, bytesTransferred);
+			}
+			bytesTransferred += awaitParts(permits, partsInFlight, uploaded, failure, listener, bytesTransferred);
+
+			if (bytesTransferred < fileSize) {
+				throw new IOException(sourcePath + " was " + fileSize + " bytes when listed, but only "
+						+ bytesTransferred + " could be read; it may have changed during the transfer");
+			}
+			return bytesTransferred;
+		} catch (Exception e) {
+			futures.forEach(f -> f.cancel(true));
+			throw e;
+		}
+	}
+
+	/**
+	 * Wait for the parts in flight, reporting them as they finish.
+	 * @return the number of additional bytes transferred
+	 */
+	private long awaitParts(Semaphore permits, int partsInFlight, BlockingQueue<Integer> uploaded,
+			AtomicReference<Exception> failure, PartListener listener, long bytesTransferred) throws Exception {
+		long newBytes = 0;
+
+		while (permits.availablePermits() < partsInFlight || !uploaded.isEmpty()) {
+			Integer length = uploaded.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+			if (length != null) {
+				newBytes += length;
+				listener.partTransferred(bytesTransferred + newBytes);
+			}
+			throwIfFailed(failure);
+		}
+		throwIfFailed(failure);
+		return newBytes;
+	}
+
+	/**
+	 * Report any parts that have finished uploading.
+	 * @return the number of additional bytes transferred
+	 */
+	private long drain(BlockingQueue<Integer> uploaded, AtomicReference<Exception> failure,
+			PartListener listener, long bytesTransferred) throws Exception {
+		long newBytes = 0;
+		Integer length;
+
+		while ((length = uploaded.poll()) != null) {
+			newBytes += length;
+			listener.partTransferred(bytesTransferred + newBytes);
+		}
+		throwIfFailed(failure);
+		return newBytes;
+	}
+
+	private static void throwIfFailed(AtomicReference<Exception> failure) throws Exception {
+		Exception e = failure.get();
+
+		if (e != null) {
+			throw e;
+		}
+	}
+
+	/**
+	 * @param previous the download to wait for first, or null to start right away
+	 */
+	private Callable<byte[]> downloadTask(long startByte, int partSize, AtomicLong endOfFile, Future<?> previous) {
+		return () -> {
+			awaitQuietly(previous);
+			Exception exception = null;
+
+			for (int retryCount = RETRY_COUNT - 1; retryCount >= 0; retryCount--) {
+				try {
+					byte[] data = sourceProvider.downloadBytes(sourceDrive, sourcePath, startByte, partSize);
+
+					if (data.length < partSize) {
+						endOfFile.accumulateAndGet(startByte + data.length, Math::min);
+					}
+					return data;
+				} catch (Exception e) {
+					exception = e;
+
+					// A part past the end of the file needn't be read again
+					if (startByte >= endOfFile.get()) {
+						break;
+					}
+					logRetry("download of byte " + startByte, e, retryCount);
+				}
+			}
+			throw exception;
+		};
+	}
+
+	/**
+	 * @param previous the upload to wait for first, or null to start right away
+	 */
+	private Runnable uploadTask(Future<byte[]> download, long startByte, int partNumber, Semaphore permits,
+			BlockingQueue<Integer> uploaded, AtomicReference<Exception> failure, AtomicLong endOfFile,
+			Future<?> previous) {
+		return () -> {
+			try {
+				awaitQuietly(previous);
+
+				if (failure.get() != null) {
+					return;
+				}
+				byte[] data = download.get();
+
+				// Nothing to upload at the end of the file
+				if (data.length == 0) {
+					return;
+				}
+				Exception exception = null;
+
+				for (int retryCount = RETRY_COUNT - 1; retryCount >= 0; retryCount--) {
+					try {
+						destProvider.uploadPart(destDrive, destPath, data, partNumber);
+						uploaded.add(data.length);
+						return;
+					} catch (Exception e) {
+						exception = e;
+						logRetry("upload of part " + partNumber, e, retryCount);
+					}
+				}
+				failure.compareAndSet(null, exception);
+			} catch (ExecutionException e) {
+				// Reading past the end of a file that's shorter than listed is
+				// expected to fail; the transfer fails on the size instead
+				if (startByte < endOfFile.get()) {
+					Throwable cause = e.getCause();
+					failure.compareAndSet(null, (cause instanceof Exception) ? (Exception) cause : e);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failure.compareAndSet(null, e);
+			} catch (Exception e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				permits.release();
+			}
+		};
+	}
+
+	/**
+	 * Wait for a task to finish, however it ends; its failure is reported by its own part
+	 */
+	private static void awaitQuietly(Future<?> previous) throws InterruptedException {
+		if (previous != null) {
+			try {
+				previous.get();
+			} catch (CancellationException | ExecutionException e) {
+				logger.fine("The previous part failed: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Log the failure and pause before the next attempt.
+	 * Worker threads don't touch the audit record; the final
+	 * exception is rethrown to the caller, which records it.
+	 */
+	private void logRetry(String what, Exception e, int retryCount) throws InterruptedException {
+		String message = "RetryCount " + retryCount + " for " + what + " of " + sourcePath + ": " + e.getMessage();
+
+		if (retryCount == 0) {
+			logger.log(Level.WARNING, message, e);
+		} else {
+			logger.log(Level.WARNING, message);
+			Thread.sleep(RETRY_DELAY_MS);
+		}
+	}
+
+	static int getNumberOfParts(long fileSize, int partSize) {
+		return (int) Math.max(1, ((fileSize - 1) / partSize) + 1);
+	}
+
+	/**
+	 * @return how many parts of the given size may be held
+	 *  in memory at once, always at least one
+	 */
+	static int getPartsInFlight(int partSize) {
+		int maxParts = Integer.getInteger(PARTS_IN_FLIGHT_PROPERTY, DEFAULT_PARTS_IN_FLIGHT);
+		long budget = Long.getLong(IN_FLIGHT_BYTES_PROPERTY, DEFAULT_IN_FLIGHT_BYTES);
+		long partsInBudget = budget / partSize;
+		return (int) Math.max(1, Math.min(maxParts, partsInBudget));
+	}
+
+}
@@ -0,0 +1,190 @@
+package com.spinsys.mdaca.storage.explorer.tasks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.spinsys.mdaca.storage.explorer.persistence.ActionAudit;
+import com.spinsys.mdaca.storage.explorer.rest.BaseService;
+
+/**
+ * Tracks the progress of one transfer batch in memory.  Worker threads
+ * update counters without touching the database; the batch's ActionAudit
+ * is only written when {@link #flushIfDue()} finds that enough time has
+ * passed or enough progress has been made since the last write.
+ * <p>
+ * A cancel request from the user is recorded here as well as in the
+ * database, so that cancellation checks don't need a query.
+ */
+public class TransferProgress {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.tasks.TransferProgress");
+
+	/** System property for the longest time between writes to the audit record. */
+	public static final String FLUSH_INTERVAL_PROPERTY = "storexp.transfer.progressFlushMillis";
+
+	static final long DEFAULT_FLUSH_INTERVAL_MS = 2000;
+
+	/** Write to the audit record early when the percent complete moves this much. */
+	static final int FLUSH_PERCENT_THRESHOLD = 5;
+
+	/** Abort requested by the user */
+	static final String ABORT_REQUESTED = "A";
+
+	static final String CANCELLED = "C";
+
+	/** The batches running in this server, by ActionAudit id */
+	private static final Map<Integer, TransferProgress> running = new ConcurrentHashMap<>();
+
+	private final int actionAuditId;
+
+	private final long flushIntervalMs = Long.getLong(FLUSH_INTERVAL_PROPERTY, DEFAULT_FLUSH_INTERVAL_MS);
+
+	private volatile long totalItems;
+
+	private final AtomicLong itemsDone;
+
+	private final AtomicLong bytesMoved = new AtomicLong();
+
+	/** The fraction completed of each file currently being transferred in parts */
+	private final Map<String, Double> partialItems = new ConcurrentHashMap<>();
+
+	private volatile boolean cancelRequested = false;
+
+	private boolean cancelRecorded = false;
+
+	private long lastFlushTime = System.currentTimeMillis();
+
+	private int lastFlushedPercent = 0;
+
+	TransferProgress(ActionAudit batch) {
+		actionAuditId = batch.getActionAuditId();
+		totalItems = (batch.getTotalBytes() == null) ? 0 : batch.getTotalBytes();
+		itemsDone = new AtomicLong(batch.getBytesTransferred());
+	}
+
+	/**
+	 * Start tracking a batch, so that cancel requests can find it.
+	 */
+	public static TransferProgress register(ActionAudit batch) {
+		TransferProgress progress = new TransferProgress(batch);
+		running.put(progress.actionAuditId, progress);
+		return progress;
+	}
+
+	public static void unregister(TransferProgress progress) {
+		running.remove(progress.actionAuditId);
+	}
+
+	/**
+	 * @return the tracker for a registered batch, or a new, unregistered
+	 *  one when the batch isn't running through a TransferTask
+	 */
+	public static TransferProgress get(ActionAudit batch) {
+		TransferProgress progress = running.get(batch.getActionAuditId());
+		return (progress != null) ? progress : new TransferProgress(batch);
+	}
+
+	/**
+	 * Flag a running batch as cancelled by the user.
+	 * @return true if the batch is running in this server
+	 */
+	public static boolean requestCancel(int actionAuditId) {
+		TransferProgress progress = running.get(actionAuditId);
+
+		if (progress != null) {
+			progress.cancelRequested = true;
+		}
+		return progress != null;
+	}
+
+	public boolean isCancelRequested() {
+		return cancelRequested;
+	}
+
+	public void setTotalItems(long totalItems) {
+		this.totalItems = totalItems;
+	}
+
+	public void addItemsDone(long count) {
+		itemsDone.addAndGet(count);
+	}
+
+	public void addBytesMoved(long count) {
+		bytesMoved.addAndGet(count);
+	}
+
+	public long getBytesMoved() {
+		return bytesMoved.get();
+	}
+
+	/**
+	 * Record how much of a file being transferred in parts is done.
+	 * @param fraction between 0 and 1
+	 */
+	public void setPartialItem(String path, double fraction) {
+		partialItems.put(path, fraction);
+	}
+
+	public void clearPartialItem(String path) {
+		partialItems.remove(path);
+	}
+
+	public int getPercentComplete() {
+		if (totalItems <= 0) {
+			return 0;
+		}
+		double done = itemsDone.get() + partialItems.values().stream().mapToDouble(Double::doubleValue).sum();
+		return (int) Math.min(100, Math.round((done / totalItems) * 100));
+	}
+
+	/**
+	 * Write the progress to the audit record if the flush interval
+	 * has passed or the percent complete has moved enough.
+	 */
+	public synchronized void flushIfDue() {
+		long now = System.currentTimeMillis();
+
+		if ((now - lastFlushTime >= flushIntervalMs)
+				|| (getPercentComplete() - lastFlushedPercent >= FLUSH_PERCENT_THRESHOLD)) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write the progress to the audit record.  A cancel request saved
+	 * by another server is picked up here.
+	 * @return the updated audit record
+	 */
+	public synchronized ActionAudit flush() {
+		ActionAudit batch = BaseService.entityManager.find(ActionAudit.class, actionAuditId);
+
+		if (ABORT_REQUESTED.equals(batch.getStatus())) {
+			cancelRequested = true;
+		}
+		int percent = getPercentComplete();
+		batch.setBytesTransferred(itemsDone.get());
+		batch.setPercentComplete(percent);
+		BaseService.updateAction(batch);
+
+		lastFlushTime = System.currentTimeMillis();
+		lastFlushedPercent = percent;
+		return batch;
+	}
+
+	/**
+	 * Mark the batch as cancelled in the audit record, once.
+	 */
+	public synchronized void recordCancelled() {
+		if (!cancelRecorded) {
+			ActionAudit batch = BaseService.entityManager.find(ActionAudit.class, actionAuditId);
+			batch.setStatus(CANCELLED);
+			BaseService.updateAction(batch);
+			cancelRecorded = true;
+			logger.info("Transfer " + actionAuditId + " cancelled by user");
+		}
+	}
+
+}
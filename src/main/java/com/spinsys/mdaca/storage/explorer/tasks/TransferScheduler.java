@@ -0,0 +1,252 @@
+package com.spinsys.mdaca.storage.explorer.tasks;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+
+/**
+ * Runs transfer jobs in the background on the container's managed executor.
+ * At most {@link #getMaxConcurrent()} jobs run at once, and each user may
+ * have at most {@link #getMaxConcurrentPerUser()} of them.  Waiting jobs are
+ * queued per user and started round-robin, so one user's large batch does not
+ * hold up everyone else.
+ */
+public class TransferScheduler {
+
+	private static final Logger logger =
+			Logger.getLogger("com.spinsys.mdaca.storage.explorer.tasks.TransferScheduler");
+
+	/** JNDI name of the container's default managed executor */
+	static final String MANAGED_EXECUTOR_JNDI_NAME = "java:comp/DefaultManagedExecutorService";
+
+	/** JNDI name of the container's default managed thread factory */
+	static final String MANAGED_THREAD_FACTORY_JNDI_NAME = "java:comp/DefaultManagedThreadFactory";
+
+	/** System property for the number of transfer jobs that may run at once. */
+	public static final String MAX_CONCURRENT_PROPERTY = "storexp.transfer.maxConcurrent";
+
+	/** System property for the number of transfer jobs one user may run at once. */
+	public static final String MAX_CONCURRENT_PER_USER_PROPERTY = "storexp.transfer.maxConcurrentPerUser";
+
+	static final int DEFAULT_MAX_CONCURRENT = 4;
+
+	static final int DEFAULT_MAX_CONCURRENT_PER_USER = 2;
+
+	/** System property for the number of threads that transfer the files of directories, for all jobs. */
+	public static final String FILE_THREADS_PROPERTY = "storexp.transfer.fileThreads";
+
+	static final int DEFAULT_FILE_THREADS = 16;
+
+	/**
+	 * A transfer job, which is told if it can't be started,
+	 * so that it can record why rather than stay pending
+	 */
+	public interface Job extends Callable<Boolean> {
+
+		default void rejected(Exception e) {
+		}
+	}
+
+	/** The singleton TransferScheduler */
+	private static TransferScheduler singletonScheduler = null;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Transfers the files that jobs hand off.  It's separate from the
+	 * executor the jobs run on, since a job waits for its files; were
+	 * they queued behind the jobs, they might never start.
+	 */
+	private final ExecutorService fileExecutor;
+
+	private final int maxConcurrent;
+
+	private final int maxConcurrentPerUser;
+
+	/** Jobs waiting to run, by user, in the order users will next be served */
+	private final Map<String, Deque<Job>> queues = new LinkedHashMap<>();
+
+	/** The number of jobs currently running, by user */
+	private final Map<String, Integer> running = new LinkedHashMap<>();
+
+	private int totalRunning = 0;
+
+	TransferScheduler(ExecutorService executor, ExecutorService fileExecutor,
+			int maxConcurrent, int maxConcurrentPerUser) {
+		this.executor = executor;
+		this.fileExecutor = fileExecutor;
+		this.maxConcurrent = Math.max(1, maxConcurrent);
+		this.maxConcurrentPerUser = Math.max(1, maxConcurrentPerUser);
+	}
+
+	public static synchronized TransferScheduler getInstance() {
+		if (singletonScheduler == null) {
+			int fileThreads = Math.max(1, Integer.getInteger(FILE_THREADS_PROPERTY, DEFAULT_FILE_THREADS));
+			singletonScheduler = new TransferScheduler(lookupExecutor(),
+					Executors.newFixedThreadPool(fileThreads, lookupThreadFactory()),
+					Integer.getInteger(MAX_CONCURRENT_PROPERTY, DEFAULT_MAX_CONCURRENT),
+					Integer.getInteger(MAX_CONCURRENT_PER_USER_PROPERTY, DEFAULT_MAX_CONCURRENT_PER_USER));
+		}
+		return singletonScheduler;
+	}
+
+	/**
+	 * Use the container's managed executor so that jobs run with the
+	 * application's naming and transaction context.  Fall back to a
+	 * plain pool when there is no container (e.g. in tests).
+	 */
+	static ExecutorService lookupExecutor() {
+		try {
+			return (ExecutorService) new InitialContext().lookup(MANAGED_EXECUTOR_JNDI_NAME);
+		} catch (NamingException e) {
+			logger.log(Level.WARNING, "Unable to find " + MANAGED_EXECUTOR_JNDI_NAME +
+					", using an unmanaged pool: " + e.getMessage());
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Make the file transfer threads with the container's managed thread
+	 * factory, so that they too have the application's naming and
+	 * transaction context.  Fall back to plain threads when there is no
+	 * container (e.g. in tests).
+	 */
+	static ThreadFactory lookupThreadFactory() {
+		try {
+			return (ThreadFactory) new InitialContext().lookup(MANAGED_THREAD_FACTORY_JNDI_NAME);
+		} catch (NamingException e) {
+			logger.log(Level.WARNING, "Unable to find " + MANAGED_THREAD_FACTORY_JNDI_NAME +
+					", using unmanaged threads: " + e.getMessage());
+			return Executors.defaultThreadFactory();
+		}
+	}
+
+	/**
+	 * Queue a job for the given user.  The job starts as soon as
+	 * both the global and the per-user limits allow.
+	 */
+	public synchronized void submit(String username, Job job) {
+		String user = (username == null) ? "" : username;
+		queues.computeIfAbsent(user, u -> new ArrayDeque<>()).add(job);
+		logger.info("Queued transfer for " + user + "; " + getQueuedCount() + " queued, " +
+				totalRunning + " running");
+		dispatch();
+	}
+
+	/**
+	 * Start queued jobs, one user at a time, while there is capacity.
+	 */
+	private synchronized void dispatch() {
+		while (totalRunning < maxConcurrent) {
+			String user = nextUser();
+
+			if (user == null) {
+				break;
+			}
+			Job job = queues.get(user).poll();
+
+			// Move this user to the back of the line
+			Deque<Job> queue = queues.remove(user);
+			if (!queue.isEmpty()) {
+				queues.put(user, queue);
+			}
+			running.merge(user, 1, Integer::sum);
+			totalRunning++;
+
+			try {
+				executor.submit(() -> run(user, job));
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Unable to start transfer for " + user, e);
+				totalRunning--;
+				decrementRunning(user);
+				rejected(job, e);
+			}
+		}
+	}
+
+	/**
+	 * @return the first user in line who has a job waiting
+	 *  and is under the per-user limit, or null if there isn't one
+	 */
+	private String nextUser() {
+		Iterator<Map.Entry<String, Deque<Job>>> iterator = queues.entrySet().iterator();
+
+		while (iterator.hasNext()) {
+			Map.Entry<String, Deque<Job>> entry = iterator.next();
+
+			if (entry.getValue().isEmpty()) {
+				iterator.remove();
+			} else if (running.getOrDefault(entry.getKey(), 0) < maxConcurrentPerUser) {
+				return entry.getKey();
+			}
+		}
+		return null;
+	}
+
+	private Boolean run(String user, Job job) {
+		try {
+			return job.call();
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Transfer for " + user + " failed", e);
+			return false;
+		} finally {
+			finished(user);
+		}
+	}
+
+	private synchronized void finished(String user) {
+		totalRunning--;
+		decrementRunning(user);
+		dispatch();
+	}
+
+	private void decrementRunning(String user) {
+		if (running.merge(user, -1, Integer::sum) <= 0) {
+			running.remove(user);
+		}
+	}
+
+	private static void rejected(Job job, Exception e) {
+		try {
+			job.rejected(e);
+		} catch (RuntimeException e1) {
+			logger.log(Level.WARNING, "Unable to record that a transfer couldn't start", e1);
+		}
+	}
+
+	public synchronized int getQueuedCount() {
+		return queues.values().stream().mapToInt(Deque::size).sum();
+	}
+
+	public synchronized int getRunningCount() {
+		return totalRunning;
+	}
+
+	/**
+	 * @return the executor for the files a job hands off to other threads;
+	 *  it never waits on jobs, so a job may wait on what it hands it
+	 */
+	public ExecutorService getFileExecutor() {
+		return fileExecutor;
+	}
+
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	public int getMaxConcurrentPerUser() {
+		return maxConcurrentPerUser;
+	}
+
+}
@@ -6,12 +6,20 @@ import static com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel.D
 import static com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel.Read;
 import static com.spinsys.mdaca.storage.explorer.persistence.ActionAudit.PENDING;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.persistence.EntityManager;
 import javax.servlet.http.HttpServletRequest;
@@ -36,6 +44,7 @@ import com.spinsys.mdaca.storage.explorer.model.exception.MissingInputException;
 import com.spinsys.mdaca.storage.explorer.model.http.TransferSpec;
 import com.spinsys.mdaca.storage.explorer.persistence.ActionAudit;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.provider.DriveMetadataCache;
 import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
 import com.spinsys.mdaca.storage.explorer.provider.StorageProviderFactory;
 import com.spinsys.mdaca.storage.explorer.rest.BaseService;
@@ -43,7 +52,7 @@ import com.spinsys.mdaca.storage.explorer.rest.DriveService;
 
 import net.sourceforge.spnego.SpnegoPrincipal;
 
-public class TransferTask  implements Callable<Boolean> {
+public class TransferTask  implements TransferScheduler.Job {
 	
 	public TransferTask(List<TransferSpec> specs, HttpServletRequest request, EntityManager entityManager, UserTransaction utx, SpnegoPrincipal principal, List<String> roles, String username, String ipAddress) {
 		
@@ -52,7 +61,8 @@ public class TransferTask  implements Callable<Boolean> {
 		}
 		
 		_specs = specs;
-		_request = request;
+		// The request is recycled once the response has gone back, so keep only what's needed from it
+		_requestUrl = BaseService.getRequestUrl(request);
 		_entityManager = entityManager;
 		_utx = utx;
 		_principal = principal;
@@ -62,35 +72,68 @@ public class TransferTask  implements Callable<Boolean> {
 		_action = BaseService.auditAction(specs.get(0).isRemoveSource() ? "batch_move" : "batch_copy", "task", specs.get(0).getSourceDriveId(), PENDING,
 				PathProcessor.getParentFolder(specs.get(0).getDestPath()), specs.get(0).getDestDriveId(), null, null, username, ipAddress);
 
-		BaseService.request = _request;
 		BaseService.utx = _utx;
 		BaseService.entityManager = _entityManager;
 		
 		_action = _entityManager.find(ActionAudit.class, _action.getActionAuditId());
 		_action.setTotalBytes(new Long(_specs.size()));
 		BaseService.updateAction(_action);
+		_progress = TransferProgress.register(_action);
 	}
 
 	String _resolution;
 	List<TransferSpec> _specs;
-	HttpServletRequest _request;
+	String _requestUrl;
 	HttpServletResponse _resp;
 	EntityManager _entityManager;
 	UserTransaction _utx;
 	SpnegoPrincipal _principal;
 	List<String> _roles;
 	ActionAudit _action;
+	TransferProgress _progress;
 	String _username;
 	String _ipAddress;
 
     static Logger logger = Logger.getLogger("com.spinsys.mdaca.storage.explorer.tasks.TransferTask");
 
+    static final DriveMetadataCache metadataCache = DriveMetadataCache.getInstance();
+
+    /** System property for how many files of a directory are transferred at once. */
+    public static final String FILES_IN_FLIGHT_PROPERTY = "storexp.transfer.filesInFlight";
+
+    static final int DEFAULT_FILES_IN_FLIGHT = 8;
+
+    /** How often progress and cancellation are checked during a directory transfer. */
+    private static final long POLL_INTERVAL_MS = 500;
+
+    /**
+     * @return the audit record for the whole batch, created when this task is
+     *  constructed so that it can be returned before the task runs
+     */
+    public ActionAudit getAction() {
+    	return _action;
+    }
+
+    /**
+     * Record that the transfer couldn't be started, so that it doesn't stay pending
+     */
+    @Override
+    public void rejected(Exception e) {
+    	try {
+    		logger.fatal("Transfer Task could not be started", e);
+    		BaseService.utx = _utx;
+    		BaseService.entityManager = _entityManager;
+    		BaseService.recordException(_action, e, 0);
+    	} finally {
+    		TransferProgress.unregister(_progress);
+    	}
+    }
+
     public Boolean call() {
 
     	try {
 	        Response response = null;
 	        
-			BaseService.request = _request;
 			BaseService.utx = _utx;
 			BaseService.entityManager = _entityManager;
 			
@@ -100,25 +143,23 @@ public class TransferTask  implements Callable<Boolean> {
 			int count = 0;
 			
 			for(TransferSpec spec : _specs) {
-				count += getItemCount(spec, _request, _principal, _roles, _username, _ipAddress, _action);
+				count += getItemCount(spec, _principal, _roles, _username, _ipAddress, _action);
 			}
 
 			if(count != _action.getTotalBytes().intValue()) {
 				_action.setTotalBytes(new Long(count));
 				BaseService.updateAction(_action);
 			}
+			_progress.setTotalItems(count);
 
 			for(TransferSpec spec : _specs) {
 				
-				_action = _entityManager.find(ActionAudit.class, _action.getActionAuditId());
-				
-				if(_action.getStatus().compareTo("A") == 0) {
-					_action.setStatus("C");
-					BaseService.updateAction(_action);
+				if(_progress.isCancelRequested()) {
+					_progress.recordCancelled();
 					return false;
 				}
 	
-				response = transferLogic(spec, _request, _principal, _roles, _username, _ipAddress, _action, _resolution);
+				response = transferLogic(spec, _requestUrl, _principal, _roles, _username, _ipAddress, _action, _resolution);
 					
 				if(response.getStatus() != 200) {
 					_action = _entityManager.find(ActionAudit.class, _action.getActionAuditId());
@@ -128,24 +169,23 @@ public class TransferTask  implements Callable<Boolean> {
 					}
 					return false;
 				}
-				
-				_action = _entityManager.find(ActionAudit.class, _action.getActionAuditId());
-				_action.setBytesTransferred(_action.getBytesTransferred()+1);
-				int percent = (int) Math.round(((double)_action.getBytesTransferred() / (_action.getTotalBytes() == null ? 0 : _action.getTotalBytes())) * 100);
-				_action.setPercentComplete(percent);
-				BaseService.updateAction(_action);
+				_progress.flushIfDue();
 			}
 
+			_action = _progress.flush();
+			logger.info("Transfer " + _action.getActionAuditId() + " moved " + _progress.getBytesMoved() + " bytes");
 			BaseService.recordSuccess(_action, _specs.size());
 			return true;
     	} catch(Exception ex) {
     		logger.fatal("Tranfser Task Failed", ex);
 			BaseService.recordException(_action, ex, _action.getBytesTransferred());
+    	} finally {
+    		TransferProgress.unregister(_progress);
     	}
 		return false;
     }
     
-    public static int getItemCount(TransferSpec spec, HttpServletRequest request, SpnegoPrincipal principal, List<String> roles, String username, String ipAddress, ActionAudit _action) throws IOException {
+    public static int getItemCount(TransferSpec spec, SpnegoPrincipal principal, List<String> roles, String username, String ipAddress, ActionAudit _action) throws IOException {
     	boolean isMove = spec.isRemoveSource();
 
 		int sourceDriveId = spec.getSourceDriveId();
@@ -204,7 +244,7 @@ public class TransferTask  implements Callable<Boolean> {
 		}
     }
     
-    public static Response transferLogic(TransferSpec spec, HttpServletRequest request, SpnegoPrincipal principal, List<String> roles, String username, String ipAddress, ActionAudit _action, String _resolution) {
+    public static Response transferLogic(TransferSpec spec, String requestUrl, SpnegoPrincipal principal, List<String> roles, String username, String ipAddress, ActionAudit _action, String _resolution) {
         Response response = null;
 		boolean isMove = spec.isRemoveSource();
 
@@ -217,7 +257,7 @@ public class TransferTask  implements Callable<Boolean> {
 		long bytesTransferred = 0;
 
 		try {
-			BaseService.logRequest(request, spec);
+			BaseService.logRequest(requestUrl, spec);
 			Drive sourceDrive = DriveService.getDrive(sourceDriveId);
 			if (sourceDrive == null) {
 				throw new MissingInputException("No source drive provided.");
@@ -276,6 +316,7 @@ public class TransferTask  implements Callable<Boolean> {
 				}
 
 				destProvider.mkdir(destDrive, destPath);
+				metadataCache.invalidate(destDrive, destPath);
 
 				// Transfer the directory and everything under the directory
 				List<DriveItem> driveItems = sourceProvider.findAllInPath(sourceDrive, sourcePath);
@@ -287,52 +328,56 @@ public class TransferTask  implements Callable<Boolean> {
 					throw new ArchiveException("Cannot transfer file(s) because one or more of the items are archived");
 				}
 
-				TransferSpec fileTransferSpec = new TransferSpec();
-				fileTransferSpec.setDestDriveId(destDrive.getDriveId());
-				fileTransferSpec.setSourceDriveId(sourceDriveId);
-
 				driveItems.sort(Comparator.comparing(DriveItem::getPath));
 
-				// Transfer each file
-				for (DriveItem item : driveItems) {
-
-					_action = BaseService.entityManager.find(ActionAudit.class, _action.getActionAuditId());
-					if(_action.getStatus().compareTo("A") == 0) {
-						_action.setStatus("C");
-						BaseService.updateAction(_action);
-						return BaseService.populateResponseOnException(_action);
-					}
-			        
-					String itemSourcePath = item.getPath();
-					String itemDestPath = StringUtils.replaceOnce(itemSourcePath, sourcePath, destPath);
-
-					fileTransferSpec.setDestPath(itemDestPath);
-					fileTransferSpec.setSourcePath(itemSourcePath);
+				// Create the directory skeleton first, so that the files
+				// can then be transferred in any order
+				List<DriveItem> files = new ArrayList<>();
 
+				for (DriveItem item : driveItems) {
 					if (item.isDirectory()) {
-						if(destProvider.exists(destDrive, itemDestPath) == false) {
+						String itemDestPath = StringUtils.replaceOnce(item.getPath(), sourcePath, destPath);
+
+						if (destProvider.exists(destDrive, itemDestPath) == false) {
 							destProvider.mkdir(destDrive, itemDestPath);
+							metadataCache.invalidate(destDrive, itemDestPath);
 						}
 					} else {
-						DriveService.transferOneFile(item, fileTransferSpec, sourceDrive, destDrive, action, principal, roles, _action, username, _resolution);
+						files.add(item);
 					}
+				}
 
-					bytesTransferred += item.getFileSize();
-
-					_action = BaseService.entityManager.find(ActionAudit.class, _action.getActionAuditId());
-					_action.setBytesTransferred(_action.getBytesTransferred() + 1);
-					int percent = (int) Math.round(((double)_action.getBytesTransferred() / _action.getTotalBytes()) * 100);
-					_action.setPercentComplete(percent);
-					BaseService.updateAction(_action);
-				} // for
+				TransferProgress progress = TransferProgress.get(_action);
+				progress.addItemsDone(driveItems.size() - files.size());
+				progress.flushIfDue();
+
+				try {
+					bytesTransferred = transferFiles(files, TransferScheduler.getInstance().getFileExecutor(),
+							Integer.getInteger(FILES_IN_FLIGHT_PROPERTY, DEFAULT_FILES_IN_FLIGHT), progress, sourcePath,
+							item -> transferFile(item, spec, sourceDrive, destDrive, principal, roles,
+									username, ipAddress, _action, _resolution));
+				} catch (CancellationException e) {
+					BaseService.recordException(action, e, bytesTransferred);
+					return BaseService.populateResponseOnException(_action);
+				}
 
 				if (isMove) {
 					sourceProvider.delete(sourceDrive, sourcePath);
+					metadataCache.invalidate(sourceDrive, sourcePath);
 				}
 
 			} else { // transfer one file
 				DriveItem driveItem = sourceProvider.getDriveItem(sourceDrive, sourcePath);
+
+				if (driveItem == null) {
+					throw new FileNotFoundException("No file found at path - " + sourcePath);
+				}
 				DriveService.transferOneFile(driveItem, spec, sourceDrive, destDrive, action, principal, roles, _action, username, _resolution);
+				bytesTransferred = driveItem.getFileSize();
+
+				TransferProgress progress = TransferProgress.get(_action);
+				progress.addItemsDone(1);
+				progress.addBytesMoved(bytesTransferred);
 			}
 
 			BaseService.recordSuccess(action, bytesTransferred);
@@ -348,4 +393,125 @@ public class TransferTask  implements Callable<Boolean> {
 		}
 		return response;
     }
+
+    /**
+     * Transfers one file of a directory
+     */
+    interface FileTransfer {
+    	void transfer(DriveItem item) throws Exception;
+    }
+
+    /**
+     * Transfer the files of a directory, several at a time.  The files are
+     * handed to the given executor, at most filesInFlight of them at once.
+     * It must not be the executor this job runs on, since the calling
+     * thread waits for them.  The calling thread flushes the batch's
+     * progress and watches for the user cancelling it; files already
+     * underway are allowed to finish (chunked transfers stop at their next part).
+     * @param files the files to transfer; their directories must already exist
+     * @param directory the directory being transferred, for logging
+     * @return the number of bytes transferred
+     * @throws CancellationException when the user cancelled the batch
+     * @throws Exception the first problem transferring a file, after
+     *  which no further files are started
+     */
+    static long transferFiles(List<DriveItem> files, ExecutorService executor, int filesInFlight,
+    		TransferProgress progress, String directory, FileTransfer fileTransfer) throws Exception {
+    	int threads = Math.max(1, Math.min(files.size(), filesInFlight));
+    	Semaphore available = new Semaphore(threads);
+    	AtomicBoolean stopped = new AtomicBoolean();
+    	AtomicReference<Exception> failure = new AtomicReference<>();
+    	AtomicLong bytesTransferred = new AtomicLong();
+
+    	try {
+    		for (DriveItem item : files) {
+    			while (!available.tryAcquire(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+    				checkProgress(progress, stopped, directory);
+    			}
+    			if (stopped.get()) {
+    				available.release();
+    				break;
+    			}
+    			try {
+    				executor.submit(() -> {
+    					try {
+    						fileTransfer.transfer(item);
+    						bytesTransferred.addAndGet(item.getFileSize());
+    						progress.addBytesMoved(item.getFileSize());
+    						progress.addItemsDone(1);
+    					} catch (Exception e) {
+    						failure.compareAndSet(null, e);
+    						stopped.set(true);
+    					} finally {
+    						available.release();
+    					}
+    				});
+    			} catch (RuntimeException e) {
+    				available.release();
+    				throw e;
+    			}
+    		}
+    	} finally {
+    		// Wait for the files already handed over, even when giving up
+    		// early, so that none are still running once this returns
+    		stopped.set(true);
+
+    		while (!available.tryAcquire(threads, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+    			checkProgress(progress, stopped, directory);
+    		}
+    		available.release(threads);
+    		progress.flushIfDue();
+    	}
+
+    	if (progress.isCancelRequested()) {
+    		progress.recordCancelled();
+    		throw new CancellationException("Cancelled by user");
+    	}
+    	if (failure.get() != null) {
+    		throw failure.get();
+    	}
+    	return bytesTransferred.get();
+    }
+
+    /**
+     * Flush the batch's progress, and stop starting files if the user cancelled it
+     */
+    private static void checkProgress(TransferProgress progress, AtomicBoolean stopped, String directory) {
+    	progress.flushIfDue();
+
+    	if (progress.isCancelRequested() && !stopped.getAndSet(true)) {
+    		logger.info("Cancelling transfer of " + directory);
+    	}
+    }
+
+    /**
+     * Transfer one file of a directory, recording the outcome in its own audit record.
+     */
+    static void transferFile(DriveItem item, TransferSpec spec, Drive sourceDrive, Drive destDrive,
+    		SpnegoPrincipal principal, List<String> roles, String username, String ipAddress,
+    		ActionAudit batchAction, String resolution) throws Exception {
+    	String itemSourcePath = item.getPath();
+    	String itemDestPath = StringUtils.replaceOnce(itemSourcePath, spec.getSourcePath(), spec.getDestPath());
+
+    	// The source directory is removed as a whole after a move,
+    	// so each file is copied
+    	TransferSpec fileTransferSpec = new TransferSpec();
+    	fileTransferSpec.setSourceDriveId(sourceDrive.getDriveId());
+    	fileTransferSpec.setSourcePath(itemSourcePath);
+    	fileTransferSpec.setDestDriveId(destDrive.getDriveId());
+    	fileTransferSpec.setDestPath(itemDestPath);
+    	fileTransferSpec.setResolution(resolution);
+
+    	ActionAudit fileAction = BaseService.auditAction(spec.isRemoveSource() ? "move" : "copy", itemSourcePath,
+    			sourceDrive.getDriveId(), PENDING, itemDestPath, destDrive.getDriveId(), null, null, username, ipAddress);
+
+    	try {
+    		DriveService.transferOneFile(item, fileTransferSpec, sourceDrive, destDrive, fileAction, principal, roles, batchAction, username, resolution);
+    		BaseService.recordSuccess(fileAction, item.getFileSize());
+    	} catch (Exception e) {
+    		logger.log(Level.WARN, "Unable to transfer " + itemSourcePath + ": " + e.getMessage(), e);
+    		BaseService.recordException(fileAction, e, 0);
+    		throw e;
+    	}
+    }
 }
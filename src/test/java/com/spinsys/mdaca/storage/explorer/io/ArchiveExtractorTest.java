@@ -0,0 +1,254 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ArchiveExtractorTest {
+
+	private final Drive drive = new Drive(1);
+
+	/** What's been uploaded, by path */
+	private final Map<String, ByteArrayOutputStream> uploaded = new ConcurrentHashMap<>();
+
+	private final StorageProvider provider = mock(StorageProvider.class);
+
+	ArchiveExtractorTest() throws IOException {
+		when(provider.uploadPartStart(any(), anyString())).thenAnswer(invocation -> {
+			uploaded.put(invocation.getArgument(1), new ByteArrayOutputStream());
+			return "id";
+		});
+		doAnswer(invocation -> {
+			uploaded.get(invocation.<String>getArgument(1)).write(invocation.<byte[]>getArgument(2));
+			return null;
+		}).when(provider).uploadPart(any(), anyString(), any(), anyInt());
+	}
+
+	@Test
+	public void testTarGzIsExtracted() throws Exception {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+		try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(archive))) {
+			tar.putArchiveEntry(new TarArchiveEntry("dir/"));
+			tar.closeArchiveEntry();
+			addTarEntry(tar, "dir/a.txt", "0123456789");
+			addTarEntry(tar, "b.txt", "");
+		}
+		ArchiveExtractor extractor = buildExtractor(archive.toByteArray(), "out");
+
+		assertEquals(2, extractor.extract("files.tar.gz"));
+		assertEquals("0123456789", getUploaded("out/dir/a.txt"));
+		assertEquals("", getUploaded("out/b.txt"));
+		verify(provider).mkdir(drive, "out");
+		verify(provider).mkdir(drive, "out/dir");
+		// 10 bytes in parts of 4, and none for the empty file
+		verify(provider).uploadPart(drive, "out/dir/a.txt", "89".getBytes(StandardCharsets.UTF_8), 3);
+		verify(provider, never()).uploadPart(eq(drive), eq("out/b.txt"), any(), anyInt());
+		verify(provider).uploadPartComplete(drive, "out/b.txt", "id");
+	}
+
+	@Test
+	public void testZipIsExtractedWithRangedReads() throws Exception {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+		try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+			zip.setComment("a comment at the end of the zip");
+			zip.putNextEntry(new ZipEntry("dir/"));
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry("dir/deflated.txt"));
+			zip.write("deflated contents".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+
+			byte[] stored = "stored contents".getBytes(StandardCharsets.UTF_8);
+			ZipEntry entry = new ZipEntry("stored.txt");
+			CRC32 crc = new CRC32();
+			crc.update(stored);
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(stored.length);
+			entry.setCrc(crc.getValue());
+			zip.putNextEntry(entry);
+			zip.write(stored);
+			zip.closeEntry();
+		}
+		byte[] bytes = archive.toByteArray();
+
+		List<ArchiveExtractor.ZipLocation> locations =
+				ArchiveExtractor.readZipDirectory(buildSource(bytes));
+		assertEquals(3, locations.size());
+		assertEquals("dir/", locations.get(0).name);
+		assertEquals(0, locations.get(0).offset);
+		assertEquals(locations.get(1).offset, locations.get(0).end);
+		assertEquals("stored contents".length(), locations.get(2).size);
+
+		ArchiveExtractor extractor = buildExtractor(bytes, "out/");
+
+		assertEquals(2, extractor.extract("files.zip"));
+		assertEquals("deflated contents", getUploaded("out/dir/deflated.txt"));
+		assertEquals("stored contents", getUploaded("out/stored.txt"));
+		verify(provider).mkdir(drive, "out/dir");
+	}
+
+	@Test
+	public void testTheTargetItselfIsSkipped() throws Exception {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+		// as made by "tar -C dir ." with sub/ left out
+		try (TarArchiveOutputStream tar = new TarArchiveOutputStream(archive)) {
+			tar.putArchiveEntry(new TarArchiveEntry("./"));
+			tar.closeArchiveEntry();
+			addTarEntry(tar, "./a.txt", "a");
+			tar.putArchiveEntry(new TarArchiveEntry("./sub/dir/"));
+			tar.closeArchiveEntry();
+		}
+		ArchiveExtractor extractor = buildExtractor(archive.toByteArray(), "out");
+
+		assertEquals(1, extractor.extract("files.tar"));
+		assertEquals("a", getUploaded("out/a.txt"));
+		verify(provider, times(1)).mkdir(drive, "out");
+		verify(provider).mkdir(drive, "out/sub");
+		verify(provider).mkdir(drive, "out/sub/dir");
+		verify(provider, never()).mkdir(drive, "out/");
+	}
+
+	@Test
+	public void testExtractingAgainKeepsExistingFolders() throws Exception {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+		try (ZipOutputStream zip = new ZipOutputStream(archive)) {
+			zip.putNextEntry(new ZipEntry("dir/"));
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry("dir/a.txt"));
+			zip.write("new contents".getBytes(StandardCharsets.UTF_8));
+			zip.closeEntry();
+		}
+		doThrow(new FileAlreadyExistsException("out")).when(provider).mkdir(drive, "out");
+		doThrow(new FileAlreadyExistsException("out/dir")).when(provider).mkdir(drive, "out/dir");
+		ArchiveExtractor extractor = buildExtractor(archive.toByteArray(), "out");
+
+		assertEquals(1, extractor.extract("files.zip"));
+		assertEquals("new contents", getUploaded("out/dir/a.txt"));
+	}
+
+	@Test
+	public void testGzIsDecompressedToOneFile() throws Exception {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+		try (GzipCompressorOutputStream gz = new GzipCompressorOutputStream(archive)) {
+			gz.write("a log file".getBytes(StandardCharsets.UTF_8));
+		}
+		ArchiveExtractor extractor = buildExtractor(archive.toByteArray(), "logs/app.log");
+
+		assertEquals(1, extractor.extract("app.log.gz"));
+		assertEquals("a log file", getUploaded("logs/app.log"));
+	}
+
+	@Test
+	public void testFailedUploadIsAborted() throws Exception {
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+
+		try (TarArchiveOutputStream tar = new TarArchiveOutputStream(archive)) {
+			addTarEntry(tar, "a.txt", "0123456789");
+		}
+		doThrow(new IOException("failed")).when(provider).uploadPart(any(), anyString(), any(), anyInt());
+		ArchiveExtractor extractor = buildExtractor(archive.toByteArray(), "out");
+
+		IOException e = assertThrows(IOException.class, () -> extractor.extract("files.tar"));
+		assertTrue(e.getMessage().contains("out/a.txt"));
+		verify(provider).uploadPartAbort(drive, "out/a.txt", "id");
+		verify(provider, never()).uploadPartComplete(any(), anyString(), anyString());
+	}
+
+	@Test
+	public void testEntriesStayInTheTarget() throws Exception {
+		ArchiveExtractor extractor = buildExtractor(new byte[0], "out");
+
+		assertEquals("out/a/b.txt", extractor.getEntryPath("./a//b.txt"));
+		assertEquals("out/a/b.txt", extractor.getEntryPath("/a\\b.txt"));
+		assertEquals("out", extractor.getEntryPath("./"));
+		assertThrows(ExplorerException.class, () -> extractor.getEntryPath("a/../../b.txt"));
+	}
+
+	@Test
+	public void testTargetName() {
+		assertEquals("logs", ArchiveExtractor.getTargetName("logs.tar.gz"));
+		assertEquals("logs", ArchiveExtractor.getTargetName("logs.TGZ"));
+		assertEquals("app.log", ArchiveExtractor.getTargetName("app.log.gz"));
+		assertEquals("a.b", ArchiveExtractor.getTargetName("a.b.zip"));
+		assertEquals(ArchiveExtractor.Format.ZIP, ArchiveExtractor.getFormat("app.WAR"));
+		assertEquals(ArchiveExtractor.Format.Z, ArchiveExtractor.getFormat("data.Z"));
+		assertNull(ArchiveExtractor.getFormat("data.z"));
+		assertNull(ArchiveExtractor.getFormat("notes.txt"));
+	}
+
+	private ArchiveExtractor buildExtractor(byte[] archive, String target) {
+		return new ArchiveExtractor(buildSource(archive), () -> provider, drive, target, size -> 4, 2);
+	}
+
+	private static ArchiveExtractor.Source buildSource(byte[] archive) {
+		return new ArchiveExtractor.Source() {
+			@Override
+			public long size() {
+				return archive.length;
+			}
+
+			@Override
+			public InputStream open() {
+				return new ByteArrayInputStream(archive);
+			}
+
+			@Override
+			public InputStream open(long start, long length) {
+				return new ByteArrayInputStream(Arrays.copyOfRange(archive, (int) start, (int) (start + length)));
+			}
+		};
+	}
+
+	private static void addTarEntry(TarArchiveOutputStream tar, String name, String contents) throws IOException {
+		byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+		TarArchiveEntry entry = new TarArchiveEntry(name);
+		entry.setSize(bytes.length);
+		tar.putArchiveEntry(entry);
+		tar.write(bytes);
+		tar.closeArchiveEntry();
+	}
+
+	private String getUploaded(String path) {
+		return new String(uploaded.get(path).toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
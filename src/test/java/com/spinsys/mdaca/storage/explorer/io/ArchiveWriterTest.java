@@ -0,0 +1,151 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchiveWriterTest {
+
+	private final Map<String, byte[]> files = new LinkedHashMap<>();
+
+	private final ArchiveWriter.Source source = path -> {
+		byte[] bytes = files.get(path);
+
+		if (bytes == null) {
+			throw new IOException("Unable to read " + path);
+		}
+		return new ByteArrayInputStream(bytes);
+	};
+
+	@Test
+	public void testFolderIsZipped() throws Exception {
+		List<ArchiveWriter.Entry> entries = buildEntries();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		ArchiveWriter writer = new ArchiveWriter(source, ArchiveWriter.Format.ZIP, 2);
+		writer.write(entries, out);
+
+		Map<String, String> unzipped = new LinkedHashMap<>();
+
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			ZipEntry entry;
+
+			while ((entry = zip.getNextEntry()) != null) {
+				unzipped.put(entry.getName(), new String(IOUtils.toByteArray(zip), StandardCharsets.UTF_8));
+			}
+		}
+		assertEquals(Arrays.asList("docs/a.txt", "docs/sub/", "docs/sub/big.bin", "docs/sub/empty.txt"),
+				new ArrayList<>(unzipped.keySet()));
+		assertEquals("a", unzipped.get("docs/a.txt"));
+		assertEquals(ArchiveWriter.PREFETCH_BYTES + 10, unzipped.get("docs/sub/big.bin").length());
+		assertEquals("", unzipped.get("docs/sub/empty.txt"));
+		assertEquals(3, writer.getFiles());
+		assertEquals(ArchiveWriter.PREFETCH_BYTES + 11, writer.getBytes());
+	}
+
+	@Test
+	public void testFolderIsTarred() throws Exception {
+		List<ArchiveWriter.Entry> entries = buildEntries();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		new ArchiveWriter(source, ArchiveWriter.Format.TAR_GZ, 2).write(entries, out);
+
+		List<String> names = new ArrayList<>();
+
+		try (TarArchiveInputStream tar = new TarArchiveInputStream(
+				new GzipCompressorInputStream(new ByteArrayInputStream(out.toByteArray())))) {
+			TarArchiveEntry entry;
+
+			while ((entry = tar.getNextTarEntry()) != null) {
+				names.add(entry.getName());
+
+				if ("docs/a.txt".equals(entry.getName())) {
+					assertEquals("a", new String(IOUtils.toByteArray(tar), StandardCharsets.UTF_8));
+					assertEquals(1000L, entry.getModTime().getTime());
+				}
+			}
+		}
+		assertEquals(Arrays.asList("docs/a.txt", "docs/sub/", "docs/sub/big.bin", "docs/sub/empty.txt"), names);
+	}
+
+	@Test
+	public void testUnreadableFileFailsTheArchive() throws Exception {
+		List<ArchiveWriter.Entry> entries = buildEntries();
+		files.remove("docs/sub/empty.txt");
+
+		ArchiveWriter writer = new ArchiveWriter(source, ArchiveWriter.Format.ZIP, 2);
+		IOException e = assertThrows(IOException.class, () -> writer.write(entries, new ByteArrayOutputStream()));
+		assertTrue(e.getMessage().contains("docs/sub/empty.txt"));
+	}
+
+	@Test
+	public void testEntryNames() {
+		assertEquals("docs/a.txt", ArchiveWriter.getEntryName("/docs", "docs", "docs/a.txt"));
+		assertEquals("docs/sub/", ArchiveWriter.getEntryName("docs/", "docs", "/docs/sub/"));
+		assertEquals("drive/docs/a.txt", ArchiveWriter.getEntryName("/", "drive", "docs/a.txt"));
+		assertEquals("docs/a.txt", ArchiveWriter.getEntryName("docs", "docs", "docs\\a.txt"));
+		// the folder itself, and a sibling that starts with its name
+		assertNull(ArchiveWriter.getEntryName("docs", "docs", "docs/"));
+		assertNull(ArchiveWriter.getEntryName("docs", "docs", "docs.zip"));
+	}
+
+	@Test
+	public void testFormat() {
+		assertEquals(ArchiveWriter.Format.ZIP, ArchiveWriter.Format.of(null));
+		assertEquals(ArchiveWriter.Format.ZIP, ArchiveWriter.Format.of("zip"));
+		assertEquals(ArchiveWriter.Format.TAR_GZ, ArchiveWriter.Format.of(".tar.gz"));
+		assertEquals(ArchiveWriter.Format.TAR_GZ, ArchiveWriter.Format.of("TGZ"));
+	}
+
+	private List<ArchiveWriter.Entry> buildEntries() {
+		byte[] big = new byte[ArchiveWriter.PREFETCH_BYTES + 10];
+		Arrays.fill(big, (byte) 'x');
+
+		List<ArchiveWriter.Entry> entries = new ArrayList<>();
+		entries.add(new ArchiveWriter.Entry("docs/a.txt", buildFile("docs/a.txt", "a".getBytes(StandardCharsets.UTF_8))));
+		entries.add(new ArchiveWriter.Entry("docs/sub", buildDirectory("docs/sub/")));
+		entries.add(new ArchiveWriter.Entry("docs/sub/big.bin", buildFile("docs/sub/big.bin", big)));
+		entries.add(new ArchiveWriter.Entry("docs/sub/empty.txt", buildFile("docs/sub/empty.txt", new byte[0])));
+		return entries;
+	}
+
+	private DriveItem buildFile(String path, byte[] contents) {
+		files.put(path, contents);
+		DriveItem item = new DriveItem();
+		item.setPath(path);
+		item.setFileSize(contents.length);
+		item.setModifiedDate(new Date(1000));
+		return item;
+	}
+
+	private static DriveItem buildDirectory(String path) {
+		DriveItem item = new DriveItem();
+		item.setPath(path);
+		item.setDirectory(true);
+		return item;
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedExecutorTest {
+
+	@Test
+	public void testSubmitWaitsWhileTheWorkersAreBusy() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch thirdSubmitted = new CountDownLatch(1);
+
+		try (BoundedExecutor executor = new BoundedExecutor(2, "testing")) {
+			executor.submit(() -> await(release));
+			executor.submit(() -> await(release));
+
+			Thread submitter = new Thread(() -> {
+				try {
+					executor.submit(() -> { });
+					thirdSubmitted.countDown();
+				} catch (Exception e) {
+					// the test fails below
+				}
+			});
+			submitter.start();
+
+			assertFalse(thirdSubmitted.await(200, TimeUnit.MILLISECONDS));
+			release.countDown();
+			assertTrue(thirdSubmitted.await(5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testAwaitWaitsForEveryTask() throws Exception {
+		AtomicInteger done = new AtomicInteger();
+
+		try (BoundedExecutor executor = new BoundedExecutor(3, "testing")) {
+			for (int i = 0; i < 10; i++) {
+				executor.submit(() -> {
+					sleep(10);
+					done.incrementAndGet();
+				});
+			}
+			executor.await();
+
+			assertEquals(10, done.get());
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
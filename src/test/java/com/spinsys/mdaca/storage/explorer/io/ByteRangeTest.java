@@ -0,0 +1,55 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteRangeTest {
+
+	@Test
+	public void testSingleRanges() {
+		assertRange(0, 499, ByteRange.parse("bytes=0-499", 1000));
+		assertRange(500, 999, ByteRange.parse("bytes=500-", 1000));
+		assertRange(900, 999, ByteRange.parse("bytes=-100", 1000));
+		assertRange(0, 999, ByteRange.parse("bytes=-5000", 1000));
+		assertRange(990, 999, ByteRange.parse("bytes=990-5000", 1000));
+	}
+
+	@Test
+	public void testMultipleRanges() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=0-9, 20-29,-5", 100);
+
+		assertEquals(3, ranges.size());
+		assertEquals(20, ranges.get(1).getStart());
+		assertEquals(95, ranges.get(2).getStart());
+		assertEquals("bytes 20-29/100", ranges.get(1).toContentRange(100));
+	}
+
+	@Test
+	public void testUnsatisfiableRanges() {
+		assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+		assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+		assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+	}
+
+	@Test
+	public void testInvalidRangesAreIgnored() {
+		assertNull(ByteRange.parse(null, 1000));
+		assertNull(ByteRange.parse("items=0-10", 1000));
+		assertNull(ByteRange.parse("bytes=abc-", 1000));
+		assertNull(ByteRange.parse("bytes=10-5", 1000));
+		assertNull(ByteRange.parse("bytes=5", 1000));
+	}
+
+	private static void assertRange(long start, long end, List<ByteRange> ranges) {
+		assertEquals(1, ranges.size());
+		assertEquals(start, ranges.get(0).getStart());
+		assertEquals(end, ranges.get(0).getEnd());
+		assertEquals(end - start + 1, ranges.get(0).getLength());
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FilePreviewTest {
+
+	private final Drive drive = new Drive(1);
+
+	private StorageProvider provider;
+
+	private String text;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 1; i <= 1000; i++) {
+			builder.append("line").append(i).append((i % 3 == 0) ? "\r\n" : "\n");
+		}
+		text = builder.toString();
+		byte[] data = text.getBytes(StandardCharsets.UTF_8);
+
+		provider = mock(StorageProvider.class);
+		when(provider.getInputStream(eq(drive), eq("log.txt"), anyLong(), anyLong())).thenAnswer(invocation -> {
+			long start = invocation.getArgument(2);
+			long length = invocation.getArgument(3);
+			return new ByteArrayInputStream(data, (int) start, (int) length);
+		});
+	}
+
+	@Test
+	public void testHeadAndTail() throws Exception {
+		assertEquals("line1\nline2\nline3\r\nline999\r\nline1000\n", preview(3, 2));
+		assertEquals("line998\nline999\r\nline1000\n", preview(0, 3));
+		assertEquals("line1\nline2\n", preview(2, 0));
+	}
+
+	@Test
+	public void testOverlappingLinesGiveWholeFile() throws Exception {
+		assertEquals(text, preview(600, 600));
+	}
+
+	@Test
+	public void testSmallFileIsReadOnce() throws Exception {
+		FilePreview preview = new FilePreview(provider, drive, "log.txt", text.length(), 64 * 1024, 100_000);
+
+		assertEquals("line1\nline1000\n", new String(preview.read(1, 1), StandardCharsets.UTF_8));
+		verify(provider, times(1)).getInputStream(any(), any(), anyLong(), anyLong());
+	}
+
+	@Test
+	public void testRepeatedPreviewIsCached() throws Exception {
+		Date modified = new Date();
+		long size = text.length();
+
+		FilePreview.preview(provider, drive, "log.txt", size, modified, 4, 4);
+		FilePreview.preview(provider, drive, "log.txt", size, modified, 4, 4);
+		verify(provider, times(1)).getInputStream(any(), any(), anyLong(), anyLong());
+
+		// a new version of the file isn't served from the cache
+		FilePreview.preview(provider, drive, "log.txt", size, new Date(modified.getTime() + 1000), 4, 4);
+		verify(provider, times(2)).getInputStream(any(), any(), anyLong(), anyLong());
+	}
+
+	private String preview(int numTop, int numBottom) throws Exception {
+		FilePreview preview = new FilePreview(provider, drive, "log.txt", text.length(), 100, 100_000);
+		return new String(preview.read(numTop, numBottom), StandardCharsets.UTF_8);
+	}
+
+}
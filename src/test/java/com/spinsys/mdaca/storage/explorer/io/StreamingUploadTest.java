@@ -0,0 +1,63 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StreamingUploadTest {
+
+	private final Drive drive = new Drive(1);
+
+	@Test
+	public void testChunksAreGatheredIntoParts() throws Exception {
+		StorageProvider provider = mock(StorageProvider.class);
+		when(provider.uploadPartStart(drive, "a.txt")).thenReturn("id");
+
+		StreamingUpload upload = StreamingUpload.start("uid-1", provider, drive, "a.txt", 4);
+		assertSame(upload, StreamingUpload.get("uid-1"));
+
+		upload.write(new ByteArrayInputStream(new byte[3]));
+		upload.write(new ByteArrayInputStream(new byte[3]));
+		assertEquals(6, upload.complete());
+
+		ArgumentCaptor<byte[]> parts = ArgumentCaptor.forClass(byte[].class);
+		verify(provider, times(2)).uploadPart(eq(drive), eq("a.txt"), parts.capture(), anyInt());
+		assertEquals(4, parts.getAllValues().get(0).length);
+		assertEquals(2, parts.getAllValues().get(1).length);
+		verify(provider).uploadPartComplete(drive, "a.txt", "id");
+		assertNull(StreamingUpload.get("uid-1"));
+	}
+
+	@Test
+	public void testFailedPartAbortsUpload() throws Exception {
+		StorageProvider provider = mock(StorageProvider.class);
+		when(provider.uploadPartStart(drive, "b.txt")).thenReturn("id");
+		doThrow(new IOException("failed")).when(provider).uploadPart(any(), any(), any(), anyInt());
+
+		StreamingUpload upload = StreamingUpload.start("uid-2", provider, drive, "b.txt", 4);
+		upload.write(new ByteArrayInputStream(new byte[2]));
+
+		assertThrows(IOException.class, upload::complete);
+		verify(provider).uploadPartAbort(drive, "b.txt", "id");
+		assertNull(StreamingUpload.get("uid-2"));
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.spinsys.mdaca.storage.explorer.io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+
+	@Test
+	public void testUnlimitedBucketNeverWaits() {
+		TokenBucket bucket = new TokenBucket("test", 0);
+
+		assertEquals(0, bucket.take(10_000_000));
+		assertEquals(10_000_000, bucket.getTotalBytes());
+	}
+
+	@Test
+	public void testOverdrawnBucketWaits() {
+		TokenBucket bucket = new TokenBucket("test", 1000);
+
+		assertEquals(0, bucket.take(1000));
+		long waitNanos = bucket.take(500);
+		assertTrue(waitNanos > 400_000_000L && waitNanos <= 500_000_000L, "waited " + waitNanos);
+	}
+
+	@Test
+	public void testStreamIsLimitedBySlowestBucket() throws Exception {
+		BandwidthManager manager = new BandwidthManager(0, 0, 0);
+		manager.setUserLimit("slow", 20_000L);
+
+		long start = System.nanoTime();
+		try (ThrottledInputStream in = manager.throttle(new ByteArrayInputStream(new byte[30_000]), 1, "slow")) {
+			byte[] buffer = new byte[8192];
+			while (in.read(buffer) != -1) {
+				// drain
+			}
+			assertEquals(30_000, in.getTotalBytesRead());
+		}
+		// a second's burst, then 10,000 bytes at 20,000 bytes/sec
+		assertTrue(System.nanoTime() - start >= 400_000_000L);
+	}
+
+	@Test
+	public void testDefaultLimitSkipsOverriddenDrives() {
+		BandwidthManager manager = new BandwidthManager(0, 100, 0);
+		manager.setDriveLimit(2, 500L);
+		List<TokenBucket> plain = manager.getBuckets(1, "user");
+		List<TokenBucket> overridden = manager.getBuckets(2, "user");
+
+		manager.setDefaultDriveLimit(200);
+		assertEquals(200, plain.get(1).getLimit());
+		assertEquals(500, overridden.get(1).getLimit());
+		assertSame(plain.get(0), overridden.get(0));
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.spinsys.mdaca.storage.explorer.model;
+
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DriveItemPageTest {
+
+    @Test
+    public void testPagingThroughGatheredItems() throws Exception {
+        List<DriveItem> items = buildItems(5);
+        DriveQuery query = new DriveQuery("/");
+        query.setPageSize(2);
+
+        DriveItemPage page = DriveItemPage.of(items, query);
+        assertEquals(2, page.getItems().size());
+        assertEquals("2", page.getContinuationToken());
+
+        query.setContinuationToken(page.getContinuationToken());
+        page = DriveItemPage.of(items, query);
+        assertEquals("/file2", page.getItems().get(0).getPath());
+
+        query.setContinuationToken(page.getContinuationToken());
+        page = DriveItemPage.of(items, query);
+        assertEquals(1, page.getItems().size());
+        assertTrue(page.isLastPage());
+    }
+
+    @Test
+    public void testNoPageSizeGivesEverything() throws Exception {
+        DriveItemPage page = DriveItemPage.of(buildItems(3), new DriveQuery("/"));
+
+        assertEquals(3, page.getItems().size());
+        assertNull(page.getContinuationToken());
+    }
+
+    @Test
+    public void testInvalidToken() {
+        DriveQuery query = new DriveQuery("/");
+        query.setContinuationToken("not-an-offset");
+
+        assertThrows(ExplorerException.class, () -> DriveItemPage.of(buildItems(3), query));
+    }
+
+    private static List<DriveItem> buildItems(int count) {
+        List<DriveItem> items = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            DriveItem item = new DriveItem();
+            item.setPath("/file" + i);
+            items.add(item);
+        }
+        return items;
+    }
+
+}
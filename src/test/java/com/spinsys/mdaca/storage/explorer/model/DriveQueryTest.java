@@ -2,6 +2,8 @@ package com.spinsys.mdaca.storage.explorer.model;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.Date;
+
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -71,4 +73,50 @@ public class DriveQueryTest {
         assertTrue(driveQuery.isIncluded(driveItem));
     }
 
+    @Test
+    public void testIsIncludedWithNamePattern() {
+        DriveItem driveItem = new DriveItem();
+        driveItem.setPath("/data/2021/part-0001.parquet");
+        DriveQuery driveQuery = new DriveQuery("data/");
+        driveQuery.setRecursive(true);
+
+        driveQuery.setNamePattern("*.parquet");
+        assertTrue(driveQuery.isIncluded(driveItem));
+
+        driveQuery.setNamePattern("part-????.parquet");
+        assertTrue(driveQuery.isIncluded(driveItem));
+
+        //the dot is literal, not "any character"
+        driveQuery.setNamePattern("*.par.uet");
+        assertFalse(driveQuery.isIncluded(driveItem));
+    }
+
+    @Test
+    public void testIsIncludedWithSizeAndDate() {
+        DriveItem driveItem = new DriveItem();
+        driveItem.setPath("/data/report.csv");
+        driveItem.setFileSize(500);
+        driveItem.setModifiedDate(new Date(2000));
+        DriveQuery driveQuery = new DriveQuery();
+        driveQuery.setRecursive(true);
+
+        driveQuery.setMinSize(100L);
+        driveQuery.setMaxSize(500L);
+        driveQuery.setModifiedAfter(new Date(1000));
+        driveQuery.setModifiedBefore(new Date(3000));
+        assertTrue(driveQuery.isIncluded(driveItem));
+
+        driveQuery.setMaxSize(499L);
+        assertFalse(driveQuery.isIncluded(driveItem));
+
+        driveQuery.setMaxSize(null);
+        driveQuery.setModifiedBefore(new Date(2000));
+        assertFalse(driveQuery.isIncluded(driveItem));
+
+        //an item whose modified date isn't known doesn't match a date filter
+        driveQuery.setModifiedBefore(null);
+        driveItem.setModifiedDate(null);
+        assertFalse(driveQuery.isIncluded(driveItem));
+    }
+
 }
@@ -0,0 +1,66 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import static com.spinsys.mdaca.storage.explorer.persistence.CrawlThrottle.MAX_DELAY_MS;
+import static com.spinsys.mdaca.storage.explorer.persistence.CrawlThrottle.MIN_DELAY_MS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.Test;
+
+class CrawlThrottleTest {
+
+	@Test
+	public void testBacksOffWhileBusy() {
+		CrawlThrottle throttle = throttle(90, 90, 90, 10, 10, Double.NaN, 10, 10, 10);
+
+		assertEquals(MIN_DELAY_MS, throttle.nextDelay());
+		assertEquals(MIN_DELAY_MS * 2, throttle.nextDelay());
+		assertEquals(MIN_DELAY_MS * 4, throttle.nextDelay());
+		assertEquals(MIN_DELAY_MS * 2, throttle.nextDelay());
+		assertEquals(MIN_DELAY_MS, throttle.nextDelay());
+		// an unknown load changes nothing
+		assertEquals(MIN_DELAY_MS, throttle.nextDelay());
+		assertEquals(0L, throttle.nextDelay());
+		assertEquals(0L, throttle.nextDelay());
+	}
+
+	@Test
+	public void testDelayIsLimited() {
+		Double[] loads = new Double[20];
+		Arrays.fill(loads, 100.0);
+		CrawlThrottle throttle = throttle(loads);
+
+		for (int i = 0; i < loads.length; i++) {
+			throttle.nextDelay();
+		}
+		assertEquals(MAX_DELAY_MS, throttle.getDelayMillis());
+	}
+
+	@Test
+	public void testIdleServerIsNotThrottled() throws Exception {
+		CrawlThrottle throttle = throttle(1.0);
+		long start = System.currentTimeMillis();
+
+		throttle.pause();
+
+		assertEquals(0L, throttle.getDelayMillis());
+		assertEquals(true, System.currentTimeMillis() - start < MIN_DELAY_MS);
+	}
+
+	private static CrawlThrottle throttle(double... loads) {
+		Double[] boxed = new Double[loads.length];
+
+		for (int i = 0; i < loads.length; i++) {
+			boxed[i] = loads[i];
+		}
+		return throttle(boxed);
+	}
+
+	private static CrawlThrottle throttle(Double... loads) {
+		Iterator<Double> iterator = Arrays.asList(loads).iterator();
+		return new CrawlThrottle(iterator::next, 50.0);
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import static com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel.Archive;
+import static com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel.Create;
+import static com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel.Delete;
+import static com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel.Modify;
+import static com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel.Read;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.spinsys.mdaca.storage.explorer.model.enumeration.AccessLevel;
+import com.spinsys.mdaca.storage.explorer.persistence.DriveAccessPolicy.UserPolicy;
+
+class DriveAccessPolicyTest {
+
+	private static final List<String> ROLES = Arrays.asList("analysts", "users");
+
+	private static final String USERNAME = "alice";
+
+	@Test
+	public void testLevels() {
+		Drive drive = buildDrive(1,
+				buildRule("public/.*", false, "R", null, null),
+				buildRule("shared/.*", false, "M", null, "analysts"),
+				buildRule("shared/secret/.*", true, "D", null, null),
+				buildRule("home/alice/.*", false, "D", "bob;alice", null),
+				buildRule("archive/.*", false, "A", null, null));
+		UserPolicy policy = forAlice(drive);
+
+		assertEquals(Collections.singletonList(Read), policy.getAccessLevels("public/a.txt"));
+		assertEquals(Arrays.asList(Read, Create, Modify), policy.getAccessLevels("shared/a.txt"));
+		assertEquals(Collections.emptyList(), policy.getAccessLevels("shared/secret/a.txt"));
+		assertEquals(Arrays.asList(Read, Create, Modify, Delete), policy.getAccessLevels("home/alice/a.txt"));
+		assertEquals(Collections.singletonList(Archive), policy.getAccessLevels("archive/a.txt"));
+
+		// folders above a rule can be read, to get to it
+		assertTrue(policy.hasAccess("home/", Read));
+		assertFalse(policy.hasAccess("home/", Create));
+	}
+
+	@Test
+	public void testRulesForOtherUsersAreIgnored() {
+		Drive drive = buildDrive(1,
+				buildRule(".*", false, "D", "bob", null),
+				buildRule(".*", false, "D", null, "admins"));
+
+		assertTrue(forAlice(drive).getAccessLevels("a.txt").isEmpty());
+	}
+
+	@Test
+	public void testMatchesRuleByRuleEvaluation() {
+		Drive drive = buildDrive(1,
+				buildRule("data/.*", false, "C", null, null),
+				buildRule("data/private/.*", true, "D", null, null),
+				buildRule("data/shared/.*", false, "D", "alice", "users"),
+				buildRule(".*\\.tmp", true, "R", null, null),
+				buildRule("logs/.*", false, "U", null, null),
+				buildRule("logs/old/.*", false, "A", null, "analysts"));
+		UserPolicy policy = forAlice(drive);
+
+		for (String path : buildPaths(200)) {
+			for (AccessLevel level : DriveAccessPolicy.LEVELS) {
+				assertEquals(hasAccessRuleByRule(path, drive, level, ROLES, USERNAME), policy.hasAccess(path, level),
+						path + " " + level);
+			}
+		}
+	}
+
+	@Test
+	public void testPolicyIsRebuiltWhenRulesChange() {
+		Drive drive = buildDrive(2, buildRule("a/.*", false, "R", null, null));
+		DriveAccessPolicy first = DriveAccessPolicy.forDrive(drive);
+
+		assertSame(first, DriveAccessPolicy.forDrive(drive));
+
+		drive.getSecurityRules().get(0).setRuleText("b/.*");
+		DriveAccessPolicy second = DriveAccessPolicy.forDrive(drive);
+
+		assertNotSame(first, second);
+		assertTrue(forAlice(drive).hasAccess("b/c.txt", Read));
+		assertFalse(forAlice(drive).hasAccess("a/c.txt", Read));
+	}
+
+	private static UserPolicy forAlice(Drive drive) {
+		return DriveAccessPolicy.forDrive(drive).forUser(() -> USERNAME, ROLES::contains);
+	}
+
+	/**
+	 * How access was checked before rules were compiled: one level at a
+	 * time, asking each rule.
+	 */
+	private static boolean hasAccessRuleByRule(String path, Drive drive, AccessLevel level,
+			List<String> roles, String username) {
+		boolean hasAccess = false;
+
+		for (DriveSecurityRule rule : drive.getSecurityRules()) {
+			if (rule.isApplicableToEvaluate(level, roles, username)) {
+				if (rule.passesRule(path)) {
+					if (!rule.isExclude()) {
+						hasAccess = true;
+					}
+				}
+				else if (rule.isExclude()) {
+					return false;
+				}
+				else if (rule.matchesAncestorDirectory(path) && Read.equals(level)) {
+					hasAccess = true;
+				}
+			}
+		}
+		return hasAccess;
+	}
+
+	private static List<String> buildPaths(int count) {
+		String[] folders = { "", "data/", "data/private/", "data/shared/", "logs/", "logs/old/", "other/" };
+		List<String> paths = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			String folder = folders[i % folders.length];
+			paths.add(folder);
+			paths.add(folder + "file" + i + ((i % 5 == 0) ? ".tmp" : ".csv"));
+		}
+		return paths;
+	}
+
+	private static Drive buildDrive(int driveId, DriveSecurityRule... rules) {
+		Drive drive = new Drive(driveId);
+		drive.setSecurityRules(new ArrayList<>(Arrays.asList(rules)));
+		return drive;
+	}
+
+	private static DriveSecurityRule buildRule(String ruleText, boolean exclude, String accessLevel,
+			String users, String roleName) {
+		DriveSecurityRule rule = new DriveSecurityRule();
+		rule.setRuleText(ruleText);
+		rule.setExclude(exclude);
+		rule.setAccessLevel(accessLevel);
+		rule.setUsers(users);
+		rule.setRoleName(roleName);
+		return rule;
+	}
+
+}
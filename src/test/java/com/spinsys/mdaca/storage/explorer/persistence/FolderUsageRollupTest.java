@@ -0,0 +1,93 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.persistence.FolderUsageRollup.Totals;
+
+class FolderUsageRollupTest {
+
+	@Test
+	public void testFoldersIncludeEverythingInThem() {
+		FolderUsageRollup rollup = new FolderUsageRollup();
+		rollup.add(folder("a/"));
+		rollup.add(file("a/x.csv", 10, 100));
+		rollup.add(file("a/b/y.csv", 20, 300));
+		rollup.add(file("a/b/z.csv", 30, 200));
+		rollup.add(file("c/w.csv", 5, 50));
+		rollup.add(file("top.csv", 1, 10));
+		Map<String, Totals> folders = rollup.getFolders();
+
+		assertEquals(new TreeSet<>(Arrays.asList("", "a/", "a/b/", "c/")), new TreeSet<>(folders.keySet()));
+		assertTotals(folders.get(""), 66, 5, 300);
+		assertTotals(folders.get("a/"), 60, 3, 300);
+		assertTotals(folders.get("a/b/"), 50, 2, 300);
+		assertTotals(folders.get("c/"), 5, 1, 50);
+	}
+
+	@Test
+	public void testEmptyFolder() {
+		FolderUsageRollup rollup = new FolderUsageRollup();
+		rollup.add(folder("empty/"));
+
+		FolderUsage usage = FolderUsageRollup.toFolderUsage(3, "empty/", rollup.getFolders().get("empty/"), new Date(5));
+
+		assertEquals(3, usage.getDriveId());
+		assertEquals(0, usage.getFileCount());
+		assertNull(usage.getLastModified());
+		assertEquals(new Date(5), usage.getCreated());
+	}
+
+	@Test
+	public void testSavedUsageIsCompared() {
+		FolderUsageRollup rollup = new FolderUsageRollup();
+		rollup.add(file("a/x.csv", 10, 100));
+		rollup.add(folder("b/"));
+		Totals a = rollup.getFolders().get("a/");
+		Totals b = rollup.getFolders().get("b/");
+
+		assertTrue(FolderUsageRollup.isSame(a, 10, 1, new Date(100)));
+		assertFalse(FolderUsageRollup.isSame(a, 10, 1, new Date(101)));
+		assertFalse(FolderUsageRollup.isSame(a, 11, 1, new Date(100)));
+		assertFalse(FolderUsageRollup.isSame(a, 10, 2, new Date(100)));
+		assertTrue(FolderUsageRollup.isSame(b, 0, 0, null));
+	}
+
+	@Test
+	public void testKeys() {
+		assertEquals("", FolderUsage.toKey(null));
+		assertEquals("", FolderUsage.toKey("/"));
+		assertEquals("a/b/", FolderUsage.toKey("a/b"));
+		assertEquals("a/b/", FolderUsage.toKey("a/b/"));
+	}
+
+	private static void assertTotals(Totals totals, long bytes, long fileCount, long lastModified) {
+		assertEquals(bytes, totals.bytes);
+		assertEquals(fileCount, totals.fileCount);
+		assertEquals(lastModified, totals.lastModified);
+	}
+
+	private static DriveItem file(String path, long size, long modified) {
+		DriveItem item = new DriveItem(1, path);
+		item.setFileSize(size);
+		item.setModifiedDate(new Date(modified));
+		return item;
+	}
+
+	private static DriveItem folder(String path) {
+		DriveItem item = new DriveItem(1, path);
+		item.setDirectory(true);
+		return item;
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.jupiter.api.Test;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+
+class MemoryUsageWriterTest {
+
+	@Test
+	public void testToCsv() {
+		DriveItem plain = item("a/b.txt", 10);
+		DriveItem quoted = item("a/\"c\", d.txt", 20);
+		DriveItem missing = item(null, 0);
+		Timestamp modified = Timestamp.valueOf("2021-03-04 05:06:07.089");
+		plain.setModifiedDate(new Date(modified.getTime()));
+
+		assertEquals("7,\"a/b.txt\",10,2021-03-04 05:06:07.089\n7,\"a/\"\"c\"\", d.txt\",20,\n7,,0,\n",
+				MemoryUsageWriter.toCsv(7, Arrays.asList(plain, quoted, missing)));
+	}
+
+	@Test
+	public void testFullCrawlIsPeriodic() {
+		long week = 7 * 24 * 3_600_000L;
+		Date start = new Date(10 * week);
+
+		assertTrue(MemoryUsageWriter.isFullCrawlDue(null, start, week));
+		assertTrue(MemoryUsageWriter.isFullCrawlDue(new Date(9 * week), start, week));
+		assertFalse(MemoryUsageWriter.isFullCrawlDue(new Date(9 * week + 1), start, week));
+		assertTrue(MemoryUsageWriter.isFullCrawlDue(start, start, 0L));
+	}
+
+	@Test
+	public void testLongPathsAreTruncated() {
+		StringBuilder path = new StringBuilder();
+
+		while (path.length() < 300) {
+			path.append("folder/");
+		}
+		DriveItem item = item(path.toString(), 1);
+
+		assertEquals(MemoryUsage.MAX_PATH_LENGTH, MemoryUsageWriter.getPath(item).length());
+	}
+
+	private static DriveItem item(String path, long size) {
+		DriveItem item = new DriveItem();
+		item.setPath(path);
+		item.setFileSize(size);
+		return item;
+	}
+
+}
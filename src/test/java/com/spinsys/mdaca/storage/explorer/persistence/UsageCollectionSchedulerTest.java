@@ -0,0 +1,118 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.spinsys.mdaca.storage.explorer.model.dto.UsageCollectionDTO;
+
+class UsageCollectionSchedulerTest {
+
+	static final long HOUR = 3_600_000L;
+
+	/** The work handed to the workers, not yet run */
+	private final List<Runnable> queued = new ArrayList<>();
+
+	private UsageCollectionScheduler scheduler;
+
+	@BeforeEach
+	public void setUp() {
+		ExecutorService workers = mock(ExecutorService.class);
+		doAnswer(invocation -> queued.add(invocation.getArgument(0))).when(workers).execute(any());
+		scheduler = new UsageCollectionScheduler(workers, HOUR);
+	}
+
+	@Test
+	public void testDrivesAreNotStartedWhileQueuedOrRunning() {
+		Map<Integer, Long> intervals = intervals(1, 2);
+		UsageCollectionScheduler.Collector collector = (driveId, start) -> 100L * driveId;
+
+		assertEquals(Arrays.asList(1, 2), scheduler.submitDue(intervals, 0L, collector));
+		assertEquals(Collections.emptyList(), scheduler.submitDue(intervals, HOUR * 5, collector));
+
+		runQueued();
+		List<UsageCollectionDTO> collections = scheduler.getCollections();
+		assertEquals(2, collections.size());
+		assertEquals("IDLE", collections.get(0).getState());
+		assertEquals(100L, collections.get(0).getLastBytes());
+		assertEquals(200L, collections.get(1).getLastBytes());
+		assertEquals(1L, collections.get(1).getRuns());
+
+		// each drive is next due an interval after it finished
+		long finished = collections.get(0).getNextRun().getTime() - HOUR;
+		assertEquals(Collections.emptyList(), scheduler.submitDue(intervals, finished + HOUR - 1, collector));
+		assertEquals(Arrays.asList(1, 2), scheduler.submitDue(intervals, finished + HOUR * 2, collector));
+	}
+
+	@Test
+	public void testDrivesHaveTheirOwnIntervals() {
+		Map<Integer, Long> intervals = new LinkedHashMap<>();
+		intervals.put(1, HOUR);
+		intervals.put(2, HOUR * 24);
+		UsageCollectionScheduler.Collector collector = (driveId, start) -> 0L;
+
+		scheduler.submitDue(intervals, 0L, collector);
+		runQueued();
+		long later = System.currentTimeMillis() + HOUR * 2;
+
+		assertEquals(Collections.singletonList(1), scheduler.submitDue(intervals, later, collector));
+	}
+
+	@Test
+	public void testFailuresAreRecorded() {
+		UsageCollectionScheduler.Collector collector = (driveId, start) -> {
+			throw new IllegalStateException("share unavailable");
+		};
+
+		scheduler.submitDue(intervals(3), 0L, collector);
+		runQueued();
+		UsageCollectionDTO collection = scheduler.getCollections().get(0);
+
+		assertEquals("share unavailable", collection.getLastError());
+		assertEquals(0L, collection.getLastBytes());
+		assertTrue(collection.getNextRun().getTime() > System.currentTimeMillis());
+	}
+
+	@Test
+	public void testRemovedDrivesAreForgotten() {
+		UsageCollectionScheduler.Collector collector = (driveId, start) -> 0L;
+		scheduler.submitDue(intervals(1, 2), 0L, collector);
+		runQueued();
+
+		scheduler.submitDue(intervals(2), 0L, collector);
+
+		assertEquals(1, scheduler.getCollections().size());
+		assertEquals(2, scheduler.getCollections().get(0).getDriveId());
+		assertNull(scheduler.getCollections().get(0).getLastError());
+	}
+
+	private void runQueued() {
+		List<Runnable> work = new ArrayList<>(queued);
+		queued.clear();
+		work.forEach(Runnable::run);
+	}
+
+	private static Map<Integer, Long> intervals(Integer... driveIds) {
+		Map<Integer, Long> intervals = new LinkedHashMap<>();
+
+		for (Integer driveId : driveIds) {
+			intervals.put(driveId, HOUR);
+		}
+		return intervals;
+	}
+
+}
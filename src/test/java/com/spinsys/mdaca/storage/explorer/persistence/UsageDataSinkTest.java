@@ -0,0 +1,75 @@
+package com.spinsys.mdaca.storage.explorer.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.provider.DrivePathIndex;
+
+class UsageDataSinkTest {
+
+	private final Drive drive = new Drive(1);
+
+	private final Date start = new Date(1000);
+
+	private final MemoryUsageWriter writer = mock(MemoryUsageWriter.class);
+
+	private final DrivePathIndex pathIndex = mock(DrivePathIndex.class);
+
+	private final CrawlThrottle throttle = mock(CrawlThrottle.class);
+
+	@Test
+	public void testSavesInBatches() throws Exception {
+		when(writer.write(anyList())).thenAnswer(invocation -> sum(invocation.getArgument(0)));
+		UsageDataSink sink = new UsageDataSink(writer, pathIndex, throttle, drive, start);
+
+		for (int i = 0; i < UsageDataSink.BATCH_SIZE + 10; i++) {
+			sink.accept(item("file" + i, 2));
+		}
+		verify(writer, times(1)).write(anyList());
+		verify(throttle, times(1)).pause();
+		verify(writer, never()).publish(any());
+
+		assertEquals(2L * (UsageDataSink.BATCH_SIZE + 10), sink.finish());
+		assertEquals(UsageDataSink.BATCH_SIZE + 10, sink.getCount());
+
+		InOrder inOrder = inOrder(writer, pathIndex);
+		inOrder.verify(pathIndex).saveCrawled(eq(drive), anyList(), eq(start), eq(false));
+		inOrder.verify(pathIndex).saveCrawled(eq(drive), anyList(), eq(start), eq(true));
+		inOrder.verify(writer).publish(any());
+	}
+
+	@Test
+	public void testEmptyDriveIsPublished() throws Exception {
+		UsageDataSink sink = new UsageDataSink(writer, pathIndex, throttle, drive, start);
+
+		assertEquals(0L, sink.finish());
+		verify(writer).write(anyList());
+		verify(writer).publish(any());
+	}
+
+	private static long sum(List<DriveItem> items) {
+		return items.stream().mapToLong(DriveItem::getFileSize).sum();
+	}
+
+	private static DriveItem item(String path, long size) {
+		DriveItem item = new DriveItem(1, path);
+		item.setFileSize(size);
+		return item;
+	}
+
+}
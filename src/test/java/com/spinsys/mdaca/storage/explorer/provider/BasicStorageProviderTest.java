@@ -6,10 +6,17 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
+import com.spinsys.mdaca.storage.explorer.io.PathProcessor;
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
 import com.spinsys.mdaca.storage.explorer.model.enumeration.DriveType;
 import com.spinsys.mdaca.storage.explorer.persistence.Drive;
 import com.spinsys.mdaca.storage.explorer.persistence.DriveProperty;
@@ -17,6 +24,7 @@ import com.spinsys.mdaca.storage.explorer.persistence.DriveProperty;
 import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * Contains unit tests for BasicStorageProvider
@@ -26,6 +34,9 @@ import org.junit.jupiter.api.TestMethodOrder;
 public class BasicStorageProviderTest {
 	
 	private BasicStorageProvider provider = new BasicStorageProvider();
+
+	@TempDir
+	File directory;
 	
 	@Test
     public void testNormalizePathNull() {
@@ -133,4 +144,44 @@ public class BasicStorageProviderTest {
     	assertEquals("X:\\a\\b\\c", pathOut);
     }
 
+	@Test
+	public void testCrawlRecursive() throws IOException {
+		buildFiles();
+		DriveQuery query = new DriveQuery();
+		query.setRecursive(true);
+		query.setSearchPattern(".*");
+		query.setStartPath(directory.getPath());
+
+		assertEquals(Arrays.asList("a.txt", "sub/", "sub/b.csv"), crawl(query));
+	}
+
+	@Test
+	public void testCrawlOneFolder() throws IOException {
+		buildFiles();
+		DriveQuery query = new DriveQuery();
+		query.setRecursive(false);
+		query.setSearchPattern(".*\\.txt");
+		query.setStartPath(directory.getPath());
+
+		assertEquals(Arrays.asList("a.txt"), crawl(query));
+	}
+
+	private void buildFiles() throws IOException {
+		Files.write(new File(directory, "a.txt").toPath(), new byte[3]);
+		File sub = new File(directory, "sub");
+		sub.mkdir();
+		Files.write(new File(sub, "b.csv").toPath(), new byte[5]);
+	}
+
+	private List<String> crawl(DriveQuery query) throws IOException {
+		String prefix = PathProcessor.convertToUnixStylePath(directory.getPath()) + "/";
+		List<DriveItem> items = new ArrayList<>();
+		provider.crawl(new Drive(), query, items::add);
+
+		return items.stream()
+				.map(item -> item.getPath().substring(prefix.length()))
+				.sorted()
+				.collect(Collectors.toList());
+	}
+
 }
@@ -0,0 +1,117 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+
+class BulkDeleteTest {
+
+	/** The batches deleted, in the order they were deleted */
+	private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+	@Test
+	public void testDeletesFilesInBatchesThenDirectories() throws IOException {
+		long[] reported = new long[2];
+
+		try (BulkDelete bulkDelete = new BulkDelete(this::record, "dir", 2, true,
+				(deleted, failed) -> { reported[0] = deleted; reported[1] = failed; }, 2)) {
+			for (DriveItem item : Arrays.asList(folder("dir/"), file("dir/a"), file("dir/b"),
+					folder("dir/sub/"), file("dir/sub/c"), file("dir.zip"), file("dir/d"))) {
+				bulkDelete.accept(item);
+			}
+			bulkDelete.finish();
+		}
+
+		List<String> files = new ArrayList<>();
+		batches.subList(0, 2).forEach(files::addAll);
+
+		assertEquals(new TreeSet<>(Arrays.asList("dir/a", "dir/b", "dir/sub/c", "dir/d")), new TreeSet<>(files));
+		assertTrue(batches.subList(0, 2).stream().allMatch(batch -> batch.size() <= 2));
+		assertEquals(Collections.singletonList("dir/sub/"), batches.get(2));
+		assertEquals(5, reported[0]);
+		assertEquals(0, reported[1]);
+	}
+
+	@Test
+	public void testDirectoriesAreDeletedDeepestFirst() throws IOException {
+		try (BulkDelete bulkDelete = new BulkDelete(this::record, "", 1, true, null, 1)) {
+			bulkDelete.accept(folder("a/"));
+			bulkDelete.accept(folder("a/b/"));
+			bulkDelete.accept(folder("a/b/c/"));
+			bulkDelete.finish();
+		}
+
+		assertEquals(Arrays.asList(Arrays.asList("a/b/c/"), Arrays.asList("a/b/"), Arrays.asList("a/")), batches);
+	}
+
+	@Test
+	public void testDirectoriesAreSkippedWithoutObjects() throws IOException {
+		try (BulkDelete bulkDelete = new BulkDelete(this::record, "dir/", 10, false, null, 1)) {
+			bulkDelete.accept(folder("dir/sub/"));
+			bulkDelete.accept(file("dir/sub/a"));
+			bulkDelete.finish();
+		}
+
+		assertEquals(Collections.singletonList(Arrays.asList("dir/sub/a")), batches);
+	}
+
+	@Test
+	public void testFailuresAreReportedTogether() throws IOException {
+		BulkDelete.Deleter deleter = paths -> {
+			if (paths.contains("dir/bad")) {
+				throw new IOException("throttled");
+			}
+			Map<String, String> failures = new HashMap<>();
+
+			if (paths.contains("dir/locked")) {
+				failures.put("dir/locked", "AccessDenied");
+			}
+			return failures;
+		};
+
+		try (BulkDelete bulkDelete = new BulkDelete(deleter, "dir", 1, true, null, 2)) {
+			for (String path : Arrays.asList("dir/a", "dir/locked", "dir/bad", "dir/b")) {
+				bulkDelete.accept(file(path));
+			}
+			ExplorerException e = assertThrows(ExplorerException.class, bulkDelete::finish);
+
+			assertEquals(2, bulkDelete.getDeleted());
+			assertEquals(2, bulkDelete.getFailed());
+			assertTrue(e.getMessage().startsWith("Unable to delete 2 of 4 items in dir/"), e.getMessage());
+			assertTrue(e.getMessage().contains("dir/locked (AccessDenied)"), e.getMessage());
+			assertTrue(e.getMessage().contains("dir/bad (throttled)"), e.getMessage());
+		}
+	}
+
+	private Map<String, String> record(List<String> paths) {
+		batches.add(new ArrayList<>(paths));
+		return Collections.emptyMap();
+	}
+
+	private static DriveItem file(String path) {
+		DriveItem item = new DriveItem();
+		item.setPath(path);
+		return item;
+	}
+
+	private static DriveItem folder(String path) {
+		DriveItem item = file(path);
+		item.setDirectory(true);
+		return item;
+	}
+
+}
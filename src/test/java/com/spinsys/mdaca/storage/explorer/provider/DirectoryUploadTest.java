@@ -0,0 +1,206 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+
+class DirectoryUploadTest {
+
+	private final Drive drive = new Drive(1);
+
+	/** What's been uploaded, by path */
+	private final Map<String, String> uploaded = new ConcurrentHashMap<>();
+
+	/** What's been uploaded in parts, by path */
+	private final Map<String, ByteArrayOutputStream> parts = new ConcurrentHashMap<>();
+
+	private final AbstractStorageProvider<?> provider = mock(AbstractStorageProvider.class);
+
+	/** The number of providers made, one for the walk and one for each task */
+	private final AtomicInteger providers = new AtomicInteger();
+
+	@TempDir
+	File directory;
+
+	DirectoryUploadTest() throws IOException {
+		doAnswer(invocation -> {
+			File file = invocation.getArgument(2);
+			uploaded.put(invocation.getArgument(1), FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+			return null;
+		}).when(provider).uploadDirectoryFile(any(), anyString(), any());
+		when(provider.uploadPartStart(any(), anyString())).thenAnswer(invocation -> {
+			parts.put(invocation.getArgument(1), new ByteArrayOutputStream());
+			return "id";
+		});
+		doAnswer(invocation -> {
+			parts.get(invocation.<String>getArgument(1)).write(invocation.<byte[]>getArgument(2));
+			return null;
+		}).when(provider).uploadPart(any(), anyString(), any(), anyInt());
+	}
+
+	@Test
+	public void testSmallFilesAreBatchedAndLargeFilesUploadedInParts() throws IOException {
+		write("a.txt", "a");
+		write("b.txt", "b");
+		write("sub/c.txt", "c");
+		write("sub/large.txt", "0123456789");
+		long[] reported = new long[3];
+
+		try (DirectoryUpload upload = buildUpload(true,
+				(files, failed, bytes) -> { reported[0] = files; reported[1] = failed; reported[2] = bytes; })) {
+			upload.upload(directory, "/out");
+		}
+
+		assertEquals("a", uploaded.get("/out/a.txt"));
+		assertEquals("b", uploaded.get("/out/b.txt"));
+		assertEquals("c", uploaded.get("/out/sub/c.txt"));
+		assertEquals("0123456789", new String(parts.get("/out/sub/large.txt").toByteArray(), StandardCharsets.UTF_8));
+		// 10 bytes in parts of 4
+		verify(provider).uploadPart(drive, "/out/sub/large.txt", "89".getBytes(StandardCharsets.UTF_8), 3);
+		verify(provider).uploadPartComplete(drive, "/out/sub/large.txt", "id");
+		verify(provider, never()).uploadDirectoryFile(eq(drive), eq("/out/sub/large.txt"), any());
+		verify(provider).mkdir(drive, "/out");
+		verify(provider).mkdir(drive, "/out/sub");
+		// the walk, two batches of small files and the large file
+		assertEquals(4, providers.get());
+		assertEquals(4, reported[0]);
+		assertEquals(0, reported[1]);
+		assertEquals(13, reported[2]);
+	}
+
+	@Test
+	public void testOnlyEmptyDirectoriesAreMadeWhenImplied() throws IOException {
+		write("full/a.txt", "a");
+		new File(directory, "empty").mkdirs();
+
+		try (DirectoryUpload upload = buildUpload(false, null)) {
+			upload.upload(directory, "out");
+		}
+
+		verify(provider).mkdir(drive, "out/empty");
+		verify(provider, never()).mkdir(drive, "out");
+		verify(provider, never()).mkdir(drive, "out/full");
+		assertEquals("a", uploaded.get("out/full/a.txt"));
+	}
+
+	@Test
+	public void testExistingDirectoriesAreKept() throws IOException {
+		write("a.txt", "a");
+		doThrow(new FileAlreadyExistsException("out")).when(provider).mkdir(drive, "out");
+
+		try (DirectoryUpload upload = buildUpload(true, null)) {
+			upload.upload(directory, "out");
+		}
+
+		assertEquals("a", uploaded.get("out/a.txt"));
+	}
+
+	@Test
+	public void testFailuresDontStopTheRest() throws IOException {
+		write("a.txt", "a");
+		write("b.txt", "b");
+		write("large.txt", "0123456789");
+		doThrow(new IOException("refused")).when(provider).uploadDirectoryFile(eq(drive), eq("out/a.txt"), any());
+		doThrow(new IOException("failed")).when(provider).uploadPart(any(), anyString(), any(), eq(2));
+
+		try (DirectoryUpload upload = buildUpload(true, null)) {
+			ExplorerException e = assertThrows(ExplorerException.class, () -> upload.upload(directory, "out"));
+
+			assertTrue(e.getMessage().startsWith("Unable to upload 2 of 3 files"));
+			assertTrue(e.getMessage().contains("out/a.txt (refused)"));
+			assertTrue(e.getMessage().contains("out/large.txt (failed)"));
+			assertEquals(1, upload.getUploaded());
+		}
+
+		assertEquals("b", uploaded.get("out/b.txt"));
+		verify(provider).uploadPartAbort(drive, "out/large.txt", "id");
+		verify(provider, never()).uploadPartComplete(any(), anyString(), anyString());
+	}
+
+	@Test
+	public void testExistingLargeFileIsntReplaced() throws IOException {
+		write("large.txt", "0123456789");
+		when(provider.exists(drive, "out/large.txt")).thenReturn(true);
+
+		try (DirectoryUpload upload = buildUpload(true, null)) {
+			assertThrows(ExplorerException.class, () -> upload.upload(directory, "out"));
+		}
+
+		verify(provider, never()).uploadPartStart(any(), anyString());
+	}
+
+	@Test
+	public void testExistingLargeFileIsReplacedWhenTheProviderReplaces() throws IOException {
+		write("large.txt", "0123456789");
+		when(provider.exists(drive, "out/large.txt")).thenReturn(true);
+		when(provider.replacesDirectoryFiles()).thenReturn(true);
+
+		try (DirectoryUpload upload = buildUpload(true, null)) {
+			upload.upload(directory, "out");
+		}
+
+		assertEquals("0123456789", new String(parts.get("out/large.txt").toByteArray(), StandardCharsets.UTF_8));
+		verify(provider).uploadPartComplete(drive, "out/large.txt", "id");
+	}
+
+	@Test
+	public void testMissingDirectory() {
+		try (DirectoryUpload upload = buildUpload(true, null)) {
+			assertThrows(ExplorerException.class, () -> upload.upload(new File(directory, "missing"), "out"));
+		}
+	}
+
+	@Test
+	public void testPartSize() {
+		try (DirectoryUpload upload = buildUpload(true, null)) {
+			assertEquals(4, upload.getPartSize(4));
+			assertEquals(4, upload.getPartSize(4L * DirectoryUpload.MAX_PARTS));
+			assertEquals(8, upload.getPartSize(4L * DirectoryUpload.MAX_PARTS + 1));
+		}
+	}
+
+	/**
+	 * @return an upload with two workers, batches of two files,
+	 *  and parts of 4 bytes
+	 */
+	private DirectoryUpload buildUpload(boolean makesDirectories, DirectoryUpload.Progress progress) {
+		return new DirectoryUpload(() -> {
+			providers.incrementAndGet();
+			return provider;
+		}, drive, makesDirectories, progress, 2, 2, 4);
+	}
+
+	private void write(String path, String contents) throws IOException {
+		File file = new File(directory, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
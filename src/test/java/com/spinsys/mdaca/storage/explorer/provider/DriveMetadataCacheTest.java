@@ -0,0 +1,126 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DriveMetadataCacheTest {
+
+	private final Drive drive = new Drive(1);
+
+	private StorageProvider provider;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		provider = mock(StorageProvider.class);
+		when(provider.supportsMetadataCaching()).thenReturn(true);
+		when(provider.exists(eq(drive), any())).thenReturn(true);
+		when(provider.find(eq(drive), any())).thenReturn(Collections.singletonList(new DriveItem(1, "a/b/c.txt")));
+	}
+
+	@Test
+	public void testRepeatedLookupsAreCached() throws Exception {
+		DriveMetadataCache cache = new DriveMetadataCache(60_000, 100);
+
+		assertTrue(cache.exists(provider, drive, "a/b/c.txt"));
+		assertTrue(cache.exists(provider, drive, "a/b/c.txt"));
+		cache.find(provider, drive, new DriveQuery("a/b/"));
+		cache.find(provider, drive, new DriveQuery("a/b/"));
+
+		verify(provider, times(1)).exists(drive, "a/b/c.txt");
+		verify(provider, times(1)).find(eq(drive), any());
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testItemsAreCopied() throws Exception {
+		DriveMetadataCache cache = new DriveMetadataCache(60_000, 100);
+
+		List<DriveItem> first = cache.find(provider, drive, new DriveQuery("a/b/"));
+		first.get(0).setAccessLevels(Collections.emptyList());
+		List<DriveItem> second = cache.find(provider, drive, new DriveQuery("a/b/"));
+
+		assertNotSame(first.get(0), second.get(0));
+		assertNull(second.get(0).getAccessLevels());
+	}
+
+	@Test
+	public void testChangesInvalidateRelatedPaths() throws Exception {
+		DriveMetadataCache cache = new DriveMetadataCache(60_000, 100);
+
+		cache.find(provider, drive, new DriveQuery("a/b/"));
+		cache.exists(provider, drive, "a/b/c.txt");
+		cache.exists(provider, drive, "x/y.txt");
+		cache.invalidate(drive, "/a/b/c.txt");
+
+		cache.find(provider, drive, new DriveQuery("a/b/"));
+		cache.exists(provider, drive, "a/b/c.txt");
+		cache.exists(provider, drive, "x/y.txt");
+
+		verify(provider, times(2)).find(eq(drive), any());
+		verify(provider, times(2)).exists(drive, "a/b/c.txt");
+		verify(provider, times(1)).exists(drive, "x/y.txt");
+	}
+
+	@Test
+	public void testExpiredEntriesAreReloaded() throws Exception {
+		DriveMetadataCache cache = new DriveMetadataCache(1, 100);
+
+		cache.exists(provider, drive, "a/b/c.txt");
+		Thread.sleep(10);
+		cache.exists(provider, drive, "a/b/c.txt");
+
+		verify(provider, times(2)).exists(drive, "a/b/c.txt");
+	}
+
+	@Test
+	public void testSizeIsBounded() throws Exception {
+		DriveMetadataCache cache = new DriveMetadataCache(60_000, 2);
+
+		cache.exists(provider, drive, "1.txt");
+		cache.exists(provider, drive, "2.txt");
+		cache.exists(provider, drive, "3.txt");
+
+		assertEquals(2, cache.getSize());
+	}
+
+	@Test
+	public void testPerUserProvidersAreNotCached() throws Exception {
+		DriveMetadataCache cache = new DriveMetadataCache(60_000, 100);
+		when(provider.supportsMetadataCaching()).thenReturn(false);
+
+		cache.exists(provider, drive, "a/b/c.txt");
+		cache.exists(provider, drive, "a/b/c.txt");
+
+		verify(provider, times(2)).exists(drive, "a/b/c.txt");
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testIsRelated() {
+		assertTrue(DriveMetadataCache.isRelated("a/b", "a/b/c.txt"));
+		assertTrue(DriveMetadataCache.isRelated("a/b/c", "a/b"));
+		assertTrue(DriveMetadataCache.isRelated("", "a"));
+		assertFalse(DriveMetadataCache.isRelated("a/bc", "a/b"));
+	}
+
+}
@@ -0,0 +1,222 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.model.DriveQuery;
+import com.spinsys.mdaca.storage.explorer.model.DriveSearchResult;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DrivePathIndexTest {
+
+	@TempDir
+	File directory;
+
+	private final Drive drive = new Drive(1);
+
+	private StorageProvider provider;
+
+	@BeforeEach
+	public void setUp() {
+		provider = mock(StorageProvider.class);
+		when(provider.supportsMetadataCaching()).thenReturn(true);
+	}
+
+	@Test
+	public void testNotIndexedUntilCrawled() throws Exception {
+		DrivePathIndex index = new DrivePathIndex(directory, 100);
+
+		assertNull(index.search(provider, drive, search("*.csv")));
+	}
+
+	@Test
+	public void testSearchesCrawledItems() throws Exception {
+		DrivePathIndex index = new DrivePathIndex(directory, 100);
+		crawl(index, new Date(1000));
+
+		DriveSearchResult result = index.search(provider, drive, search("*.parquet"));
+
+		assertEquals(set("a/x.parquet", "a/b/y.parquet"), paths(result));
+		assertEquals(new Date(1000), result.getCrawledAt());
+		assertTrue(result.isIndexed());
+		verify(provider, never()).find(any(), any());
+
+		DriveQuery query = search(null);
+		query.setMinSize(100L);
+		query.setModifiedAfter(new Date(50));
+		assertEquals(set("a/b/y.parquet"), paths(index.search(provider, drive, query)));
+
+		query = search("*");
+		query.setStartPath("a/b/");
+		assertEquals(set("a/b/y.parquet"), paths(index.search(provider, drive, query)));
+	}
+
+	@Test
+	public void testChangesAreLookedUpBeforeSearching() throws Exception {
+		DrivePathIndex index = new DrivePathIndex(directory, 100);
+		crawl(index, new Date(1000));
+		when(provider.stat(drive, "a/x.parquet")).thenReturn(null);
+		when(provider.stat(drive, "c/z.parquet")).thenReturn(item("c/z.parquet", 5, 5));
+
+		index.markChanged(drive, "/a/x.parquet", "c/z.parquet");
+
+		assertEquals(set("a/b/y.parquet", "c/z.parquet"), paths(index.search(provider, drive, search("*.parquet"))));
+	}
+
+	@Test
+	public void testChangedFoldersAreListedAgain() throws Exception {
+		DrivePathIndex index = new DrivePathIndex(directory, 100);
+		crawl(index, new Date(1000));
+		DriveItem folder = item("a/b/", 0, 0);
+		folder.setDirectory(true);
+		when(provider.stat(drive, "a/b")).thenReturn(folder);
+		when(provider.find(eq(drive), any())).thenReturn(Collections.singletonList(item("a/b/w.parquet", 1, 1)));
+
+		index.markChanged(drive, "a/b");
+
+		assertEquals(set("a/x.parquet", "a/b/w.parquet"), paths(index.search(provider, drive, search("*.parquet"))));
+	}
+
+	@Test
+	public void testPathsChangedDuringTheLookupAreLookedUpAgain() throws Exception {
+		DrivePathIndex index = new DrivePathIndex(directory, 100);
+		crawl(index, new Date(1000));
+		AtomicBoolean markedDuringLookup = new AtomicBoolean();
+		when(provider.stat(drive, "c/z.parquet")).thenAnswer(invocation -> {
+			// the drive isn't looked up with the index locked, so another request can change it meanwhile
+			ExecutorService other = Executors.newSingleThreadExecutor();
+			try {
+				other.submit(() -> index.markChanged(drive, "c/z.parquet")).get(5, TimeUnit.SECONDS);
+				markedDuringLookup.set(true);
+			} finally {
+				other.shutdownNow();
+			}
+			return null;
+		}).thenReturn(item("c/z.parquet", 5, 5));
+
+		index.markChanged(drive, "c/z.parquet");
+
+		assertEquals(set("a/x.parquet", "a/b/y.parquet"), paths(index.search(provider, drive, search("*.parquet"))));
+		assertTrue(markedDuringLookup.get());
+		assertEquals(set("a/x.parquet", "a/b/y.parquet", "c/z.parquet"),
+				paths(index.search(provider, drive, search("*.parquet"))));
+	}
+
+	@Test
+	public void testIndexIsReloadedFromDisk() throws Exception {
+		DrivePathIndex index = new DrivePathIndex(directory, 100);
+		crawl(index, new Date(1000));
+		when(provider.stat(drive, "a/x.parquet")).thenReturn(null);
+		index.markChanged(drive, "a/x.parquet");
+		index.search(provider, drive, search("*.parquet"));
+
+		DrivePathIndex reloaded = new DrivePathIndex(directory, 100);
+
+		assertEquals(set("a/b/y.parquet"), paths(reloaded.search(provider, drive, search("*.parquet"))));
+		assertEquals(new Date(1000), reloaded.getCrawledAt(1));
+	}
+
+	@Test
+	public void testChangesDuringCrawlAreKept() throws Exception {
+		DrivePathIndex index = new DrivePathIndex(directory, 100);
+		crawl(index, new Date(1000));
+
+		Date start = new Date(System.currentTimeMillis());
+		index.saveCrawled(drive, Arrays.asList(item("a/x.parquet", 10, 10)), start, false);
+		when(provider.stat(drive, "d/new.parquet")).thenReturn(item("d/new.parquet", 1, 1));
+		index.markChanged(drive, "d/new.parquet");
+		index.saveCrawled(drive, Collections.emptyList(), start, true);
+
+		assertEquals(set("a/x.parquet", "d/new.parquet"), paths(index.search(provider, drive, search("*.parquet"))));
+		assertEquals(1, directory.listFiles((dir, name) -> name.endsWith(".idx")).length);
+	}
+
+	@Test
+	public void testResultsAreLimited() throws Exception {
+		DrivePathIndex index = new DrivePathIndex(directory, 1);
+		crawl(index, new Date(1000));
+
+		DriveSearchResult result = index.search(provider, drive, search("*.parquet"));
+
+		assertEquals(1, result.getItems().size());
+		assertTrue(result.isTruncated());
+	}
+
+	@Test
+	public void testPerUserProvidersAreNotIndexed() throws Exception {
+		DrivePathIndex index = new DrivePathIndex(directory, 100);
+		crawl(index, new Date(1000));
+		when(provider.supportsMetadataCaching()).thenReturn(false);
+
+		assertNull(index.search(provider, drive, search("*.parquet")));
+	}
+
+	@Test
+	public void testLocationChangesOnlyWithWhereTheDataIs() {
+		String location = DrivePathIndex.getLocation(s3Drive("bucket", "key1"));
+
+		assertEquals(location, DrivePathIndex.getLocation(s3Drive("bucket", "key2")));
+		assertNotEquals(location, DrivePathIndex.getLocation(s3Drive("other", "key1")));
+	}
+
+	private static Drive s3Drive(String bucket, String accessKey) {
+		Drive drive = new Drive(1);
+		drive.addPropertyValue(AWSS3StorageProvider.BUCKET_NAME_PROPERTY_KEY, bucket);
+		drive.addPropertyValue(AWSS3StorageProvider.ACCESS_KEY_PROPERTY_KEY, accessKey);
+		return drive;
+	}
+
+	private void crawl(DrivePathIndex index, Date start) {
+		index.saveCrawled(drive, Arrays.asList(item("a/x.parquet", 10, 10), item("a/y.csv", 20, 20)),
+				start, false);
+		index.saveCrawled(drive, Arrays.asList(item("a/b/y.parquet", 300, 300)), start, true);
+	}
+
+	private static DriveQuery search(String namePattern) {
+		DriveQuery query = new DriveQuery();
+		query.setRecursive(true);
+		query.setNamePattern(namePattern);
+		return query;
+	}
+
+	private static DriveItem item(String path, long size, long modified) {
+		DriveItem item = new DriveItem(1, path);
+		item.setFileSize(size);
+		item.setModifiedDate(new Date(modified));
+		return item;
+	}
+
+	private static Set<String> paths(DriveSearchResult result) {
+		return result.getItems().stream().map(DriveItem::getPath).collect(Collectors.toCollection(TreeSet::new));
+	}
+
+	private static Set<String> set(String... paths) {
+		return new TreeSet<>(Arrays.asList(paths));
+	}
+
+}
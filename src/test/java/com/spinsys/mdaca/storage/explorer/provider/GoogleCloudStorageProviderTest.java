@@ -0,0 +1,68 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import static com.spinsys.mdaca.storage.explorer.provider.GoogleCloudStorageProvider.GOOGLE_BUCKET_NAME_PROPERTY_KEY;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.spinsys.mdaca.storage.explorer.model.exception.ExplorerException;
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+
+class GoogleCloudStorageProviderTest {
+
+	private final Drive drive = new Drive(1);
+
+	private final Storage storage = mock(Storage.class);
+
+	private final WriteChannel writer = mock(WriteChannel.class);
+
+	private final GoogleCloudStorageProvider provider = new GoogleCloudStorageProvider() {
+		@Override
+		Storage getStorage(Drive drive) throws ExplorerException {
+			return storage;
+		}
+	};
+
+	GoogleCloudStorageProviderTest() {
+		drive.addPropertyValue(GOOGLE_BUCKET_NAME_PROPERTY_KEY, "bucket");
+		when(storage.writer(any(BlobInfo.class))).thenReturn(writer);
+	}
+
+	@Test
+	public void testAbortedUploadLeavesNoObject() throws IOException {
+		String uploadId = provider.uploadPartStart(drive, "dir/a.txt");
+		provider.uploadPart(drive, "dir/a.txt", "part".getBytes(StandardCharsets.UTF_8), 1);
+		provider.uploadPartAbort(drive, "dir/a.txt", uploadId);
+
+		// closing the writer is what creates the object
+		verify(writer, never()).close();
+		verify(storage, never()).delete(any(BlobId.class));
+	}
+
+	@Test
+	public void testAbortAfterFailedCompleteDeletesTheObject() throws IOException {
+		doThrow(new IOException("failed")).when(writer).close();
+		String uploadId = provider.uploadPartStart(drive, "dir/a.txt");
+
+		try {
+			provider.uploadPartComplete(drive, "dir/a.txt", uploadId);
+		} catch (IOException e) {
+			provider.uploadPartAbort(drive, "dir/a.txt", uploadId);
+		}
+
+		verify(storage).delete(BlobId.of("bucket", "dir/a.txt"));
+	}
+
+}
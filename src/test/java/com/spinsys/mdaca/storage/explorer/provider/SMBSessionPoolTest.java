@@ -0,0 +1,132 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import com.hierynomus.mssmb2.SMBApiException;
+import com.hierynomus.protocol.transport.TransportException;
+import com.hierynomus.smbj.auth.AuthenticationContext;
+import com.hierynomus.smbj.common.SMBRuntimeException;
+import com.hierynomus.smbj.session.Session;
+import com.hierynomus.smbj.share.DiskShare;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SMBSessionPoolTest {
+
+	private final List<Session> sessions = new ArrayList<>();
+
+	@Test
+	public void testShareIsReusedForSamePrincipal() throws Exception {
+		SMBSessionPool pool = new SMBSessionPool(this::authenticate, 5, 60_000, 60_000);
+
+		DiskShare first;
+		try (SMBSessionPool.Lease lease = pool.borrow("host", "share", "alice", AuthenticationContext::anonymous)) {
+			first = lease.getShare();
+		}
+		try (SMBSessionPool.Lease lease = pool.borrow("host", "share", "alice", AuthenticationContext::anonymous)) {
+			assertSame(first, lease.getShare());
+		}
+		assertEquals(1, sessions.size());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testPrincipalsDoNotShareSessions() throws Exception {
+		SMBSessionPool pool = new SMBSessionPool(this::authenticate, 5, 60_000, 60_000);
+
+		DiskShare alice;
+		try (SMBSessionPool.Lease lease = pool.borrow("host", "share", "alice", AuthenticationContext::anonymous)) {
+			alice = lease.getShare();
+		}
+		try (SMBSessionPool.Lease lease = pool.borrow("host", "share", "bob", AuthenticationContext::anonymous)) {
+			assertNotSame(alice, lease.getShare());
+		}
+		assertEquals(2, sessions.size());
+	}
+
+	@Test
+	public void testDisconnectedShareIsReplaced() throws Exception {
+		SMBSessionPool pool = new SMBSessionPool(this::authenticate, 5, 60_000, 60_000);
+
+		DiskShare first;
+		try (SMBSessionPool.Lease lease = pool.borrow("host", "share", "alice", AuthenticationContext::anonymous)) {
+			first = lease.getShare();
+		}
+		when(first.isConnected()).thenReturn(false);
+
+		try (SMBSessionPool.Lease lease = pool.borrow("host", "share", "alice", AuthenticationContext::anonymous)) {
+			assertNotSame(first, lease.getShare());
+		}
+		verify(sessions.get(0)).close();
+		assertEquals(1, pool.getOpenCount());
+	}
+
+	@Test
+	public void testOverflowIsNotPooled() throws Exception {
+		SMBSessionPool pool = new SMBSessionPool(this::authenticate, 1, 60_000, 60_000);
+
+		try (SMBSessionPool.Lease held = pool.borrow("host", "share", "alice", AuthenticationContext::anonymous);
+				SMBSessionPool.Lease extra = pool.borrow("host", "share", "alice", AuthenticationContext::anonymous)) {
+			assertNotSame(held.getShare(), extra.getShare());
+		}
+		verify(sessions.get(1)).close();
+		assertEquals(1, pool.getOpenCount());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testInvalidatedShareIsClosed() throws Exception {
+		SMBSessionPool pool = new SMBSessionPool(this::authenticate, 5, 60_000, 60_000);
+
+		try (SMBSessionPool.Lease lease = pool.borrow("host", "share", "alice", AuthenticationContext::anonymous)) {
+			lease.invalidate();
+		}
+		verify(sessions.get(0)).close();
+		assertEquals(0, pool.getOpenCount());
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	@Test
+	public void testConnectionFailures() {
+		assertTrue(SMBSessionPool.isConnectionFailure(new TransportException("reset")));
+		assertTrue(SMBSessionPool.isConnectionFailure(new SMBRuntimeException(new TransportException("reset"))));
+		assertFalse(SMBSessionPool.isConnectionFailure(mock(SMBApiException.class)));
+		assertFalse(SMBSessionPool.isConnectionFailure(new FileNotFoundException("a.txt")));
+	}
+
+	@Test
+	public void testIdleSharesExpire() throws Exception {
+		SMBSessionPool pool = new SMBSessionPool(this::authenticate, 5, 0, 60_000);
+
+		try (SMBSessionPool.Lease lease = pool.borrow("host", "share", "alice", AuthenticationContext::anonymous)) {
+			lease.getShare();
+		}
+		pool.maintain();
+
+		verify(sessions.get(0)).close();
+		assertEquals(0, pool.getOpenCount());
+		assertEquals(0, pool.getIdleCount());
+	}
+
+	private Session authenticate(String host, AuthenticationContext auth) {
+		Session session = mock(Session.class);
+		DiskShare share = mock(DiskShare.class);
+		when(share.isConnected()).thenReturn(true);
+		when(session.connectShare(anyString())).thenReturn(share);
+		sessions.add(session);
+		return session;
+	}
+
+}
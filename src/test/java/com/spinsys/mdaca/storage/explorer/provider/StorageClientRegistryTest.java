@@ -0,0 +1,116 @@
+package com.spinsys.mdaca.storage.explorer.provider;
+
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.persistence.DriveProperty;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageClientRegistryTest {
+
+	@Test
+	public void testClientIsReused() throws Exception {
+		StorageClientRegistry registry = new StorageClientRegistry(10);
+		AtomicInteger builds = new AtomicInteger();
+		Drive drive = buildDrive(1, "secret");
+
+		TestClient first = registry.getClient(drive, TestClient.class, d -> new TestClient(builds));
+		TestClient second = registry.getClient(drive, TestClient.class, d -> new TestClient(builds));
+
+		assertSame(first, second);
+		assertEquals(1, builds.get());
+	}
+
+	@Test
+	public void testChangedPropertiesRebuildClient() throws Exception {
+		StorageClientRegistry registry = new StorageClientRegistry(10, 0);
+		AtomicInteger builds = new AtomicInteger();
+
+		TestClient first = registry.getClient(buildDrive(1, "old"), TestClient.class, d -> new TestClient(builds));
+		TestClient second = registry.getClient(buildDrive(1, "new"), TestClient.class, d -> new TestClient(builds));
+
+		assertNotSame(first, second);
+		assertTrue(first.closed);
+		assertFalse(second.closed);
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		StorageClientRegistry registry = new StorageClientRegistry(10, 0);
+		AtomicInteger builds = new AtomicInteger();
+
+		TestClient client1 = registry.getClient(buildDrive(1, "a"), TestClient.class, d -> new TestClient(builds));
+		TestClient client2 = registry.getClient(buildDrive(2, "a"), TestClient.class, d -> new TestClient(builds));
+		registry.invalidate(1);
+
+		assertTrue(client1.closed);
+		assertFalse(client2.closed);
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() throws Exception {
+		StorageClientRegistry registry = new StorageClientRegistry(2, 0);
+		AtomicInteger builds = new AtomicInteger();
+		Drive drive1 = buildDrive(1, "a");
+
+		TestClient client1 = registry.getClient(drive1, TestClient.class, d -> new TestClient(builds));
+		TestClient client2 = registry.getClient(buildDrive(2, "a"), TestClient.class, d -> new TestClient(builds));
+
+		// Touch drive 1 so drive 2 is the one to go
+		registry.getClient(drive1, TestClient.class, d -> new TestClient(builds));
+		registry.getClient(buildDrive(3, "a"), TestClient.class, d -> new TestClient(builds));
+
+		assertFalse(client1.closed);
+		assertTrue(client2.closed);
+		assertEquals(2, registry.size());
+	}
+
+	@Test
+	public void testDroppedClientIsClosedOnlyOnceIdle() throws Exception {
+		StorageClientRegistry registry = new StorageClientRegistry(10, 60_000);
+		AtomicInteger builds = new AtomicInteger();
+
+		TestClient client = registry.getClient(buildDrive(1, "a"), TestClient.class, d -> new TestClient(builds));
+		registry.invalidate(1);
+
+		// a request that got it earlier may still be using it
+		assertFalse(client.closed);
+		assertEquals(0, registry.size());
+		assertEquals(1, registry.retiredSize());
+
+		registry.shutdown();
+		assertTrue(client.closed);
+		assertEquals(0, registry.retiredSize());
+	}
+
+	private static Drive buildDrive(int driveId, String secret) {
+		Drive drive = new Drive(driveId);
+		drive.setProviderProperties(new ArrayList<>());
+		drive.getProviderProperties().add(new DriveProperty("secret", secret));
+		return drive;
+	}
+
+	private static class TestClient implements AutoCloseable {
+		boolean closed = false;
+
+		TestClient(AtomicInteger builds) {
+			builds.incrementAndGet();
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+}
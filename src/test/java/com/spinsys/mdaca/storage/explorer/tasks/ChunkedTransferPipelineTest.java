@@ -0,0 +1,151 @@
+package com.spinsys.mdaca.storage.explorer.tasks;
+
+import com.spinsys.mdaca.storage.explorer.persistence.Drive;
+import com.spinsys.mdaca.storage.explorer.provider.StorageProvider;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+class ChunkedTransferPipelineTest {
+
+	private static final int PART_SIZE = 10;
+
+	private final Drive sourceDrive = new Drive(1);
+	private final Drive destDrive = new Drive(2);
+
+	@Test
+	public void testGetNumberOfParts() {
+		assertEquals(1, ChunkedTransferPipeline.getNumberOfParts(0, PART_SIZE));
+		assertEquals(1, ChunkedTransferPipeline.getNumberOfParts(10, PART_SIZE));
+		assertEquals(2, ChunkedTransferPipeline.getNumberOfParts(11, PART_SIZE));
+	}
+
+	@Test
+	public void testGetPartsInFlightStaysWithinBudget() {
+		int partSize = (int) ChunkedTransferPipeline.DEFAULT_IN_FLIGHT_BYTES;
+		assertEquals(1, ChunkedTransferPipeline.getPartsInFlight(partSize));
+		assertEquals(1, ChunkedTransferPipeline.getPartsInFlight(Integer.MAX_VALUE));
+		assertEquals(ChunkedTransferPipeline.DEFAULT_PARTS_IN_FLIGHT,
+				ChunkedTransferPipeline.getPartsInFlight(PART_SIZE));
+	}
+
+	@Test
+	public void testTransferUploadsEveryPart() throws Exception {
+		assertTransfersEveryPart(false);
+	}
+
+	@Test
+	public void testTransferUploadsEveryPartConcurrently() throws Exception {
+		assertTransfersEveryPart(true);
+	}
+
+	@Test
+	public void testTransferStopsWhenListenerThrows() throws Exception {
+		StorageProvider source = mockSource(95, false);
+		StorageProvider dest = Mockito.mock(StorageProvider.class);
+		ChunkedTransferPipeline pipeline =
+				new ChunkedTransferPipeline(source, sourceDrive, "a.txt", dest, destDrive, "b.txt");
+
+		Exception e = assertThrows(Exception.class, () -> pipeline.transfer(95, PART_SIZE, bytes -> {
+			throw new Exception("Cancelled by user");
+		}));
+		assertEquals("Cancelled by user", e.getMessage());
+	}
+
+	@Test
+	public void testTransferReadsPastTheListedSizeOfAGrownFile() throws Exception {
+		StorageProvider source = mockSource(137, true);
+		StorageProvider dest = Mockito.mock(StorageProvider.class);
+		Map<Integer, Integer> uploaded = recordUploads(dest);
+
+		ChunkedTransferPipeline pipeline =
+				new ChunkedTransferPipeline(source, sourceDrive, "a.txt", dest, destDrive, "b.txt");
+
+		assertEquals(137, pipeline.transfer(95, PART_SIZE, bytes -> { }));
+		assertEquals(14, uploaded.size());
+		assertEquals(7, uploaded.get(14).intValue());
+	}
+
+	@Test
+	public void testTransferOfAShrunkFileFails() throws Exception {
+		StorageProvider source = mockSource(42, true);
+		StorageProvider dest = Mockito.mock(StorageProvider.class);
+		ChunkedTransferPipeline pipeline =
+				new ChunkedTransferPipeline(source, sourceDrive, "a.txt", dest, destDrive, "b.txt");
+
+		assertThrows(IOException.class, () -> pipeline.transfer(95, PART_SIZE, bytes -> { }));
+	}
+
+	@Test
+	public void testTransferOfAnEmptyFileUploadsNothing() throws Exception {
+		StorageProvider source = mockSource(0, false);
+		StorageProvider dest = Mockito.mock(StorageProvider.class);
+		Map<Integer, Integer> uploaded = recordUploads(dest);
+
+		ChunkedTransferPipeline pipeline =
+				new ChunkedTransferPipeline(source, sourceDrive, "a.txt", dest, destDrive, "b.txt");
+
+		assertEquals(0, pipeline.transfer(0, PART_SIZE, bytes -> { }));
+		assertTrue(uploaded.isEmpty());
+	}
+
+	private void assertTransfersEveryPart(boolean concurrent) throws Exception {
+		StorageProvider source = mockSource(95, concurrent);
+		StorageProvider dest = Mockito.mock(StorageProvider.class);
+		when(dest.supportsConcurrentPartUploads()).thenReturn(concurrent);
+		Map<Integer, Integer> uploaded = recordUploads(dest);
+
+		AtomicLong lastReported = new AtomicLong();
+		ChunkedTransferPipeline pipeline =
+				new ChunkedTransferPipeline(source, sourceDrive, "a.txt", dest, destDrive, "b.txt");
+		long transferred = pipeline.transfer(95, PART_SIZE, lastReported::set);
+
+		assertEquals(95, transferred);
+		assertEquals(95, lastReported.get());
+		assertEquals(10, uploaded.size());
+		assertEquals(5, uploaded.get(10).intValue());
+		assertTrue(uploaded.keySet().stream().allMatch(n -> n >= 1 && n <= 10));
+	}
+
+	/** @return the length of each part uploaded to dest, by part number */
+	private Map<Integer, Integer> recordUploads(StorageProvider dest) throws IOException {
+		Map<Integer, Integer> uploaded = new ConcurrentHashMap<>();
+		doAnswer(invocation -> {
+			uploaded.put(invocation.getArgument(3), ((byte[]) invocation.getArgument(2)).length);
+			return null;
+		}).when(dest).uploadPart(any(Drive.class), anyString(), any(byte[].class), anyInt());
+		return uploaded;
+	}
+
+	/** A source whose file is size bytes long, and refuses reads that start past its end */
+	private StorageProvider mockSource(long size, boolean concurrent) throws IOException {
+		StorageProvider source = Mockito.mock(StorageProvider.class);
+		when(source.supportsConcurrentPartDownloads()).thenReturn(concurrent);
+		when(source.downloadBytes(any(Drive.class), anyString(), anyLong(), anyInt())).thenAnswer(invocation -> {
+			long start = invocation.getArgument(2);
+			int length = invocation.getArgument(3);
+
+			if (start > size) {
+				throw new IOException("The range starting at " + start + " is not satisfiable");
+			}
+			return new byte[(int) Math.min(length, size - start)];
+		});
+		return source;
+	}
+
+}
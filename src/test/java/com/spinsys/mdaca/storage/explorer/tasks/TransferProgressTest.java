@@ -0,0 +1,60 @@
+package com.spinsys.mdaca.storage.explorer.tasks;
+
+import com.spinsys.mdaca.storage.explorer.persistence.ActionAudit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferProgressTest {
+
+	@Test
+	public void testPercentCompleteIncludesPartialFiles() {
+		TransferProgress progress = new TransferProgress(buildBatch(42, 4));
+
+		progress.addItemsDone(1);
+		assertEquals(25, progress.getPercentComplete());
+
+		progress.setPartialItem("a", 0.5);
+		assertEquals(38, progress.getPercentComplete());
+
+		progress.clearPartialItem("a");
+		progress.addItemsDone(3);
+		assertEquals(100, progress.getPercentComplete());
+	}
+
+	@Test
+	public void testPercentCompleteWithoutItems() {
+		TransferProgress progress = new TransferProgress(buildBatch(43, 0));
+		assertEquals(0, progress.getPercentComplete());
+	}
+
+	@Test
+	public void testRequestCancel() {
+		ActionAudit batch = buildBatch(44, 2);
+		assertFalse(TransferProgress.requestCancel(44));
+
+		TransferProgress progress = TransferProgress.register(batch);
+		try {
+			assertSame(progress, TransferProgress.get(batch));
+			assertFalse(progress.isCancelRequested());
+			assertTrue(TransferProgress.requestCancel(44));
+			assertTrue(progress.isCancelRequested());
+		} finally {
+			TransferProgress.unregister(progress);
+		}
+		assertNotSame(progress, TransferProgress.get(batch));
+	}
+
+	private static ActionAudit buildBatch(int id, long totalItems) {
+		ActionAudit batch = new ActionAudit();
+		batch.setActionAuditId(id);
+		batch.setTotalBytes(totalItems);
+		return batch;
+	}
+
+}
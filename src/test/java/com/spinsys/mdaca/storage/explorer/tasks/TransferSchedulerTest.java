@@ -0,0 +1,118 @@
+package com.spinsys.mdaca.storage.explorer.tasks;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferSchedulerTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@AfterEach
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testGlobalLimit() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(executor, executor, 2, 5);
+		CountDownLatch release = new CountDownLatch(1);
+
+		for (int i = 0; i < 4; i++) {
+			scheduler.submit("user" + i, blockingJob(release, null, null));
+		}
+		waitUntil(() -> scheduler.getRunningCount() == 2);
+		assertEquals(2, scheduler.getQueuedCount());
+
+		release.countDown();
+		waitUntil(() -> scheduler.getRunningCount() == 0 && scheduler.getQueuedCount() == 0);
+	}
+
+	@Test
+	public void testPerUserLimit() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(executor, executor, 4, 1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		scheduler.submit("alice", blockingJob(release, null, null));
+		scheduler.submit("alice", blockingJob(release, null, null));
+		scheduler.submit("bob", blockingJob(release, null, null));
+		waitUntil(() -> scheduler.getRunningCount() == 2);
+		assertEquals(1, scheduler.getQueuedCount());
+
+		release.countDown();
+		waitUntil(() -> scheduler.getRunningCount() == 0 && scheduler.getQueuedCount() == 0);
+	}
+
+	@Test
+	public void testUsersAreServedInTurn() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(executor, executor, 1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> started = new CopyOnWriteArrayList<>();
+
+		// The first job holds the only slot while the others queue up
+		scheduler.submit("alice", blockingJob(release, started, "alice-0"));
+		scheduler.submit("alice", blockingJob(release, started, "alice-1"));
+		scheduler.submit("alice", blockingJob(release, started, "alice-2"));
+		scheduler.submit("bob", blockingJob(release, started, "bob-0"));
+
+		release.countDown();
+		waitUntil(() -> started.size() == 4);
+		assertEquals("alice-0", started.get(0));
+		assertEquals("alice-1", started.get(1));
+		assertEquals("bob-0", started.get(2));
+		assertEquals("alice-2", started.get(3));
+	}
+
+	@Test
+	public void testRejectedJobIsToldAndDoesNotHoldASlot() throws Exception {
+		ExecutorService stopped = Executors.newSingleThreadExecutor();
+		stopped.shutdown();
+		TransferScheduler scheduler = new TransferScheduler(stopped, stopped, 1, 1);
+		List<Exception> rejections = new CopyOnWriteArrayList<>();
+
+		scheduler.submit("alice", new TransferScheduler.Job() {
+			@Override
+			public Boolean call() {
+				return true;
+			}
+
+			@Override
+			public void rejected(Exception e) {
+				rejections.add(e);
+			}
+		});
+
+		assertEquals(1, rejections.size());
+		assertEquals(0, scheduler.getRunningCount());
+		assertEquals(0, scheduler.getQueuedCount());
+	}
+
+	private static TransferScheduler.Job blockingJob(CountDownLatch release, List<String> started, String name) {
+		return () -> {
+			if (started != null) {
+				started.add(name);
+			}
+			return release.await(10, TimeUnit.SECONDS);
+		};
+	}
+
+	private static void waitUntil(Callable<Boolean> condition) throws Exception {
+		long deadline = System.currentTimeMillis() + 10_000;
+
+		while (!condition.call()) {
+			assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the scheduler");
+			Thread.sleep(10);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.spinsys.mdaca.storage.explorer.tasks;
+
+import com.spinsys.mdaca.storage.explorer.model.DriveItem;
+import com.spinsys.mdaca.storage.explorer.persistence.ActionAudit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransferTaskTest {
+
+	private final ExecutorService jobExecutor = Executors.newFixedThreadPool(1);
+
+	private final ExecutorService fileExecutor = Executors.newFixedThreadPool(1);
+
+	@AfterEach
+	public void shutdown() {
+		jobExecutor.shutdownNow();
+		fileExecutor.shutdownNow();
+	}
+
+	@Test
+	public void testDirectoryTransferOnOneThreadExecutors() throws Exception {
+		TransferScheduler scheduler = new TransferScheduler(jobExecutor, fileExecutor, 1, 1);
+		List<DriveItem> files = buildFiles(5);
+		List<String> transferred = new CopyOnWriteArrayList<>();
+		LinkedBlockingQueue<Long> result = new LinkedBlockingQueue<>();
+
+		scheduler.submit("alice", () -> {
+			result.add(TransferTask.transferFiles(files, scheduler.getFileExecutor(), 8,
+					new TransferProgress(buildBatch(51)), "dir/", item -> transferred.add(item.getPath())));
+			return true;
+		});
+
+		Long bytes = result.poll(10, TimeUnit.SECONDS);
+		assertEquals(50L, bytes.longValue());
+		assertEquals(5, transferred.size());
+	}
+
+	@Test
+	public void testFirstFailureIsThrownAfterTheOthersFinish() throws Exception {
+		List<DriveItem> files = buildFiles(3);
+		List<String> transferred = new CopyOnWriteArrayList<>();
+
+		Exception e = assertThrows(Exception.class, () -> TransferTask.transferFiles(files, fileExecutor, 1,
+				new TransferProgress(buildBatch(52)), "dir/", item -> {
+					if (item.getPath().endsWith("0")) {
+						throw new Exception("failed");
+					}
+					transferred.add(item.getPath());
+				}));
+		assertEquals("failed", e.getMessage());
+		assertTrue(transferred.isEmpty());
+	}
+
+	private static List<DriveItem> buildFiles(int count) {
+		List<DriveItem> files = new ArrayList<>();
+
+		for (int i = 0; i < count; i++) {
+			DriveItem file = new DriveItem("dir/file" + i);
+			file.setFileSize(10);
+			files.add(file);
+		}
+		return files;
+	}
+
+	/** A batch without a total, so that its progress is never due to be written */
+	private static ActionAudit buildBatch(int id) {
+		ActionAudit batch = new ActionAudit();
+		batch.setActionAuditId(id);
+		batch.setTotalBytes(0L);
+		return batch;
+	}
+
+}